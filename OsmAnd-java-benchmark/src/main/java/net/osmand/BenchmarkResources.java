@@ -0,0 +1,62 @@
+package net.osmand;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import net.osmand.binary.BinaryMapIndexReader;
+
+/**
+ * Test resources used by benchmarks (OsmAnd-java/src/test/resources collected by collectTestResources task).
+ * Folder could be changed with -Dosmand.benchmark.resources=...
+ */
+public class BenchmarkResources {
+
+	public static final String RESOURCES_PROPERTY = "osmand.benchmark.resources";
+	private static final String DEFAULT_RESOURCES = "../OsmAnd-java/src/test/resources";
+
+	public static File getResourcesFolder() {
+		return new File(System.getProperty(RESOURCES_PROPERTY, DEFAULT_RESOURCES));
+	}
+
+	public static File getResource(String name) throws FileNotFoundException {
+		File f = new File(getResourcesFolder(), name);
+		if (!f.exists()) {
+			throw new FileNotFoundException("Benchmark resource " + f.getAbsolutePath() + " is missing, run collectTestResources");
+		}
+		return f;
+	}
+
+	public static BinaryMapIndexReader openReader(String name) throws IOException {
+		File f = getResource(name);
+		return new BinaryMapIndexReader(new RandomAccessFile(f, "r"), f);
+	}
+
+	public static List<BinaryMapIndexReader> openAllReaders() throws IOException {
+		File[] files = getResourcesFolder().listFiles(new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String name) {
+				return name.endsWith(".obf");
+			}
+		});
+		List<BinaryMapIndexReader> readers = new ArrayList<BinaryMapIndexReader>();
+		if (files != null) {
+			Arrays.sort(files);
+			for (File f : files) {
+				readers.add(new BinaryMapIndexReader(new RandomAccessFile(f, "r"), f));
+			}
+		}
+		return readers;
+	}
+
+	public static void closeReaders(List<BinaryMapIndexReader> readers) throws IOException {
+		for (BinaryMapIndexReader r : readers) {
+			r.close();
+		}
+	}
+}
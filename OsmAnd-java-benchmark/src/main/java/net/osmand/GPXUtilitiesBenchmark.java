@@ -0,0 +1,73 @@
+package net.osmand;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.osmand.GPXUtilities.GPXFile;
+import net.osmand.GPXUtilities.Track;
+import net.osmand.GPXUtilities.TrkSegment;
+import net.osmand.GPXUtilities.WptPt;
+
+/**
+ * Parsing of generated gpx track (points is number of track points, every 100th point is also a waypoint)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class GPXUtilitiesBenchmark {
+
+	@Param({ "1000", "100000" })
+	public int points;
+
+	private byte[] gpx;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		GPXFile file = new GPXFile("benchmark");
+		Track track = new Track();
+		TrkSegment segment = new TrkSegment();
+		track.segments.add(segment);
+		file.tracks.add(track);
+		long time = 1500000000000L;
+		double lat = 52.3;
+		double lon = 4.9;
+		for (int i = 0; i < points; i++) {
+			lat += 0.0001 * Math.sin(i / 50d);
+			lon += 0.0001 * Math.cos(i / 70d);
+			WptPt pt = new WptPt(lat, lon, time + i * 1000L, 10 + i % 30, 12.5, 5);
+			segment.points.add(pt);
+			if (i % 100 == 0) {
+				file.addWptPt(lat, lon, pt.time, "desc " + i, "point " + i, "benchmark", 0);
+			}
+		}
+		StringWriter writer = new StringWriter();
+		Exception e = GPXUtilities.writeGpx(writer, file);
+		if (e != null) {
+			throw new IOException(e);
+		}
+		gpx = writer.toString().getBytes("UTF-8");
+	}
+
+	@Benchmark
+	public GPXFile loadGPXFile() {
+		return GPXUtilities.loadGPXFile(new ByteArrayInputStream(gpx));
+	}
+}
@@ -0,0 +1,110 @@
+package net.osmand.binary;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.osmand.BenchmarkResources;
+import net.osmand.binary.BinaryMapIndexReader.MapIndex;
+import net.osmand.binary.BinaryMapIndexReader.MapRoot;
+import net.osmand.binary.BinaryMapIndexReader.SearchPoiTypeFilter;
+import net.osmand.binary.BinaryMapIndexReader.SearchRequest;
+import net.osmand.binary.BinaryMapPoiReaderAdapter.PoiRegion;
+import net.osmand.data.Amenity;
+import net.osmand.osm.PoiCategory;
+
+/**
+ * Decoding of map and poi data of the whole file area (obf is file name in test resources).
+ * Benchmarks of missing sections return empty results.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class BinaryMapIndexReaderBenchmark {
+
+	@Param({ "Routing_test.obf" })
+	public String obf;
+
+	@Param({ "15" })
+	public int zoom;
+
+	@Param({ "false", "true" })
+	public boolean memoryMapped;
+
+	private BinaryMapIndexReader reader;
+	private int mapLeft, mapRight, mapTop, mapBottom;
+	private int poiLeft, poiRight, poiTop, poiBottom;
+
+	private static final SearchPoiTypeFilter ACCEPT_ALL = new SearchPoiTypeFilter() {
+		@Override
+		public boolean accept(PoiCategory type, String subcategory) {
+			return true;
+		}
+
+		@Override
+		public boolean isEmpty() {
+			return false;
+		}
+	};
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		BinaryMapIndexReader.USE_MEMORY_MAPPED_FILES = memoryMapped;
+		reader = BenchmarkResources.openReader(obf);
+		mapLeft = mapTop = Integer.MAX_VALUE;
+		mapRight = mapBottom = 0;
+		for (MapIndex mi : reader.getMapIndexes()) {
+			for (MapRoot root : mi.getRoots()) {
+				mapLeft = Math.min(mapLeft, root.getLeft());
+				mapRight = Math.max(mapRight, root.getRight());
+				mapTop = Math.min(mapTop, root.getTop());
+				mapBottom = Math.max(mapBottom, root.getBottom());
+			}
+		}
+		poiLeft = poiTop = Integer.MAX_VALUE;
+		poiRight = poiBottom = 0;
+		for (PoiRegion pr : reader.poiIndexes) {
+			poiLeft = Math.min(poiLeft, pr.getLeft31());
+			poiRight = Math.max(poiRight, pr.getRight31());
+			poiTop = Math.min(poiTop, pr.getTop31());
+			poiBottom = Math.max(poiBottom, pr.getBottom31());
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		reader.close();
+		BinaryMapIndexReader.USE_MEMORY_MAPPED_FILES = false;
+	}
+
+	@Benchmark
+	public List<BinaryMapDataObject> searchMapIndex() throws IOException {
+		SearchRequest<BinaryMapDataObject> req = BinaryMapIndexReader.buildSearchRequest(mapLeft, mapRight, mapTop,
+				mapBottom, zoom, null);
+		return reader.searchMapIndex(req);
+	}
+
+	@Benchmark
+	public List<Amenity> searchPoi() throws IOException {
+		SearchRequest<Amenity> req = BinaryMapIndexReader.buildSearchPoiRequest(poiLeft, poiRight, poiTop, poiBottom,
+				zoom, ACCEPT_ALL, null);
+		return reader.searchPoi(req);
+	}
+}
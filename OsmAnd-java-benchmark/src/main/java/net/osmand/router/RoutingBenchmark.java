@@ -0,0 +1,142 @@
+package net.osmand.router;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.osmand.BenchmarkResources;
+import net.osmand.binary.BinaryMapIndexReader;
+import net.osmand.data.LatLon;
+import net.osmand.router.BinaryRoutePlanner.FinalRouteSegment;
+import net.osmand.router.BinaryRoutePlanner.RouteSegmentPoint;
+import net.osmand.util.Algorithms;
+
+/**
+ * Route calculation on Routing_test.obf for routes of test_routing.json (route is index of not ignored test).
+ * Every invocation gets new routing context with already loaded tiles, so tile loading is not part of the measurement.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class RoutingBenchmark {
+
+	public static final String ROUTING_OBF = "Routing_test.obf";
+	public static final String ROUTING_TESTS = "test_routing.json";
+
+	@Param({ "0", "1", "2" })
+	public int route;
+
+	private BinaryMapIndexReader reader;
+	private RoutingConfiguration config;
+	private RoutePlannerFrontEnd frontEnd;
+	private LatLon start;
+	private LatLon end;
+
+	private RoutingContext ctx;
+	private RouteSegmentPoint startSegment;
+	private RouteSegmentPoint endSegment;
+	private FinalRouteSegment finalSegment;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException, InterruptedException {
+		reader = BenchmarkResources.openReader(ROUTING_OBF);
+		List<JSONObject> tests = readRoutingTests();
+		JSONObject test = tests.get(route % tests.size());
+		start = parseLatLon(test.getJSONObject("startPoint"));
+		end = parseLatLon(test.getJSONObject("endPoint"));
+		Map<String, String> params = new LinkedHashMap<String, String>();
+		if (test.has("params")) {
+			JSONObject p = test.getJSONObject("params");
+			for (String k : p.keySet()) {
+				params.put(k, p.getString(k));
+			}
+		}
+		String vehicle = params.containsKey("vehicle") ? params.get("vehicle") : "car";
+		config = RoutingConfiguration.getDefault().build(vehicle, RoutingConfiguration.DEFAULT_MEMORY_LIMIT * 3, params);
+		frontEnd = new RoutePlannerFrontEnd();
+		frontEnd.setUseFastRecalculation(false);
+	}
+
+	/**
+	 * New context for every invocation, tiles of the route are loaded by the search in setup, so measured methods
+	 * work on the loaded context. Route prepared by {@link #prepareResult()} is found in the same context.
+	 */
+	@Setup(Level.Invocation)
+	public void prepareContext() throws IOException, InterruptedException {
+		ctx = frontEnd.buildRoutingContext(config, null, new BinaryMapIndexReader[] { reader },
+				RoutePlannerFrontEnd.RouteCalculationMode.NORMAL);
+		ctx.leftSideNavigation = false;
+		ctx.calculationProgress = new RouteCalculationProgress();
+		startSegment = frontEnd.findRouteSegment(start.getLatitude(), start.getLongitude(), ctx, null);
+		endSegment = frontEnd.findRouteSegment(end.getLatitude(), end.getLongitude(), ctx, null);
+		ctx.initStartAndTargetPoints(startSegment, endSegment);
+		finalSegment = new BinaryRoutePlanner().searchRouteInternal(ctx, startSegment, endSegment, null);
+		if (finalSegment == null) {
+			throw new IllegalStateException("Route " + route + " is not found");
+		}
+		ctx.calculationProgress = new RouteCalculationProgress();
+		ctx.initStartAndTargetPoints(startSegment, endSegment);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		reader.close();
+	}
+
+	@Benchmark
+	public FinalRouteSegment searchRouteInternal() throws IOException, InterruptedException {
+		return new BinaryRoutePlanner().searchRouteInternal(ctx, startSegment, endSegment, null);
+	}
+
+	@Benchmark
+	public List<RouteSegmentResult> prepareResult() throws IOException {
+		return new RouteResultPreparation().prepareResult(ctx, finalSegment);
+	}
+
+	@Benchmark
+	public List<RouteSegmentResult> searchRoute() throws IOException, InterruptedException {
+		return frontEnd.searchRoute(ctx, start, end, null);
+	}
+
+	private static List<JSONObject> readRoutingTests() throws IOException {
+		JSONArray arr = new JSONArray(Algorithms.getFileAsString(BenchmarkResources.getResource(ROUTING_TESTS)));
+		List<JSONObject> res = new ArrayList<JSONObject>();
+		for (int i = 0; i < arr.length(); i++) {
+			JSONObject o = arr.getJSONObject(i);
+			boolean hasTransit = o.has("transitPoint1") || o.has("transitPoint2") || o.has("transitPoint3");
+			if (!o.optBoolean("ignore") && !hasTransit) {
+				res.add(o);
+			}
+		}
+		if (res.isEmpty()) {
+			throw new IllegalStateException("No routes in " + ROUTING_TESTS);
+		}
+		return res;
+	}
+
+	private static LatLon parseLatLon(JSONObject o) {
+		return new LatLon(o.getDouble("latitude"), o.getDouble("longitude"));
+	}
+}
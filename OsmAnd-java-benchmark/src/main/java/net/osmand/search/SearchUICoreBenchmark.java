@@ -0,0 +1,93 @@
+package net.osmand.search;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.osmand.BenchmarkResources;
+import net.osmand.OsmAndCollator;
+import net.osmand.ResultMatcher;
+import net.osmand.binary.BinaryMapIndexReader;
+import net.osmand.data.LatLon;
+import net.osmand.osm.MapPoiTypes;
+import net.osmand.search.SearchUICore.SearchResultMatcher;
+import net.osmand.search.core.SearchPhrase;
+import net.osmand.search.core.SearchResult;
+import net.osmand.search.core.SearchSettings;
+
+/**
+ * Full search (all search core apis) of the phrase over all obf files of test resources.
+ * Search runs in the benchmark thread, so delayed execution of SearchUICore.search is not measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class SearchUICoreBenchmark {
+
+	@Param({ "cafe", "Main street", "1" })
+	public String phrase;
+
+	private List<BinaryMapIndexReader> readers;
+	private SearchUICore core;
+	private SearchSettings settings;
+
+	private static final ResultMatcher<SearchResult> ACCEPT_ALL = new ResultMatcher<SearchResult>() {
+		@Override
+		public boolean publish(SearchResult object) {
+			return true;
+		}
+
+		@Override
+		public boolean isCancelled() {
+			return false;
+		}
+	};
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		MapPoiTypes.setDefault(new MapPoiTypes(BenchmarkResources.getResource("poi_types.xml").getAbsolutePath()));
+		readers = BenchmarkResources.openAllReaders();
+		LatLon location = new LatLon(0, 0);
+		for (BinaryMapIndexReader r : readers) {
+			if (r.getRegionCenter() != null) {
+				location = r.getRegionCenter();
+				break;
+			}
+		}
+		settings = new SearchSettings((SearchSettings) null).setOriginalLocation(location);
+		settings.setOfflineIndexes(readers);
+		core = new SearchUICore(MapPoiTypes.getDefault(), "en", false);
+		core.init();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		BenchmarkResources.closeReaders(readers);
+	}
+
+	@Benchmark
+	public List<SearchResult> search() {
+		SearchPhrase sp = new SearchPhrase(settings, OsmAndCollator.primaryCollator()).generateNewPhrase(phrase, settings);
+		SearchResultMatcher matcher = new SearchResultMatcher(ACCEPT_ALL, sp, 1, new AtomicInteger(1), -1);
+		core.searchInternal(sp, matcher);
+		return matcher.getRequestResults();
+	}
+}
@@ -33,6 +33,8 @@ package com.google.protobuf;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -68,6 +70,63 @@ public final class CodedInputStream {
     return new CodedInputStream(raf);
   }
 
+  /**
+   * Create a new CodedInputStream over memory mapped file (see {@link #mapFile(FileChannel)}).
+   * Chunks are shared (only duplicated) so many streams could read the same mapping.
+   */
+  public static CodedInputStream newInstance(ByteBuffer[] mappedChunks) {
+    return new CodedInputStream(mappedChunks);
+  }
+
+  /**
+   * Maps whole file as read only chunks of 1GB. Stream positions are int (same as with RandomAccessFile),
+   * so files bigger than 2GB are not mapped.
+   */
+  public static ByteBuffer[] mapFile(FileChannel channel) throws IOException {
+    long length = channel.size();
+    if (length > Integer.MAX_VALUE) {
+      throw new IOException("File is too big to be mapped " + length);
+    }
+    int chunks = (int) ((length + MAPPED_CHUNK_SIZE - 1) >>> MAPPED_CHUNK_BITS);
+    ByteBuffer[] res = new ByteBuffer[Math.max(chunks, 1)];
+    for (int i = 0; i < res.length; i++) {
+      long start = ((long) i) << MAPPED_CHUNK_BITS;
+      res[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(MAPPED_CHUNK_SIZE, length - start));
+    }
+    return res;
+  }
+
+  /**
+   * Releases mapping created by {@link #mapFile(FileChannel)} without waiting for gc (file handle
+   * of mapping is kept till then). Streams over the mapping must not be used after that.
+   */
+  public static void unmapFile(ByteBuffer[] chunks) {
+    for (ByteBuffer chunk : chunks) {
+      if (chunk == null || !chunk.isDirect()) {
+        continue;
+      }
+      try {
+        // java 9+
+        Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+        java.lang.reflect.Field f = unsafeClass.getDeclaredField("theUnsafe");
+        f.setAccessible(true);
+        unsafeClass.getMethod("invokeCleaner", ByteBuffer.class).invoke(f.get(null), chunk);
+      } catch (Exception e) {
+        try {
+          // java 8 (on platforms without cleaner mapping is released by gc)
+          java.lang.reflect.Method cleanerMethod = chunk.getClass().getMethod("cleaner");
+          cleanerMethod.setAccessible(true);
+          Object cleaner = cleanerMethod.invoke(chunk);
+          if (cleaner != null) {
+            cleaner.getClass().getMethod("clean").invoke(cleaner);
+          }
+        } catch (Exception e2) {
+          // released by gc
+        }
+      }
+    }
+  }
+
   /**
    * Create a new CodedInputStream wrapping the given byte array slice.
    */
@@ -539,6 +598,9 @@ public final class CodedInputStream {
 
   private final byte[] buffer;
   private RandomAccessFile raf;
+  // osmand change : memory mapped chunks (position of each chunk is private for the stream)
+  private ByteBuffer[] mappedChunks;
+  private long mappedLength;
   private int bufferSize;
   private int bufferSizeAfterLimit;
   private int bufferPos;
@@ -567,6 +629,8 @@ public final class CodedInputStream {
   private static final int DEFAULT_RECURSION_LIMIT = 64;
   private static final int DEFAULT_SIZE_LIMIT = 64 << 20;  // 64MB
   private static final int BUFFER_SIZE = 5 * 1024;
+  private static final int MAPPED_CHUNK_BITS = 30;
+  private static final long MAPPED_CHUNK_SIZE = 1L << MAPPED_CHUNK_BITS;
 
   private CodedInputStream(final byte[] buffer, final int off, final int len) {
     this.buffer = buffer;
@@ -586,6 +650,36 @@ public final class CodedInputStream {
 		input = null;
 	}
 
+	private CodedInputStream(final ByteBuffer[] mappedChunks) {
+		buffer = new byte[BUFFER_SIZE];
+		this.bufferSize = 0;
+		bufferPos = 0;
+		totalBytesRetired = 0;
+		this.mappedChunks = new ByteBuffer[mappedChunks.length];
+		for (int i = 0; i < mappedChunks.length; i++) {
+			this.mappedChunks[i] = mappedChunks[i].duplicate();
+			mappedLength += mappedChunks[i].capacity();
+		}
+		input = null;
+	}
+
+	// copies bytes from mapped memory without any system call
+	private void readMapped(long pointer, byte[] dst, int off, int len) throws IOException {
+		if (pointer < 0 || pointer + len > mappedLength) {
+			throw InvalidProtocolBufferException.truncatedMessage();
+		}
+		while (len > 0) {
+			ByteBuffer chunk = mappedChunks[(int) (pointer >>> MAPPED_CHUNK_BITS)];
+			int chunkPos = (int) (pointer & (MAPPED_CHUNK_SIZE - 1));
+			int n = Math.min(len, chunk.capacity() - chunkPos);
+			chunk.position(chunkPos);
+			chunk.get(dst, off, n);
+			pointer += n;
+			off += n;
+			len -= n;
+		}
+	}
+
   private CodedInputStream(final InputStream input) {
     buffer = new byte[BUFFER_SIZE];
     bufferSize = 0;
@@ -751,7 +845,16 @@ public final class CodedInputStream {
     totalBytesRetired += bufferSize;
 
     bufferPos = 0;
-    if (raf != null) {
+    if (mappedChunks != null) {
+    	// osmand change
+    	long remain = mappedLength - totalBytesRetired;
+    	bufferSize = (int) Math.min(remain, buffer.length);
+    	if (bufferSize > 0) {
+    		readMapped(totalBytesRetired, buffer, 0, bufferSize);
+    	} else {
+    		bufferSize = -1;
+    	}
+    } else if (raf != null) {
     	// osmand change
      totalBytesRetired = (int) raf.getFilePointer();
     	long remain = raf.length() - raf.getFilePointer();
@@ -879,7 +982,10 @@ public final class CodedInputStream {
         while (pos < chunk.length) {
         	final int n;
         	// osmand change
-        	if(raf != null) {
+        	if (mappedChunks != null) {
+        		readMapped(totalBytesRetired, chunk, pos, chunk.length - pos);
+        		n = chunk.length - pos;
+        	} else if(raf != null) {
         		raf.readFully(chunk, pos, chunk.length - pos);
         		n = chunk.length - pos;
         	} else {
@@ -941,7 +1047,15 @@ public final class CodedInputStream {
       bufferPos = bufferSize;
 
       // osmand change
-      if(raf != null) {
+      if (mappedChunks != null) {
+         long pointer = (long) totalBytesRetired + bufferSize + (size - pos);
+         if (pointer > mappedLength) {
+           throw InvalidProtocolBufferException.truncatedMessage();
+         }
+         totalBytesRetired = (int) pointer;
+         bufferPos = 0;
+         bufferSize = 0;
+      } else if(raf != null) {
          bufferPos = 0;
          bufferSize = 0;
       	 int n = raf.skipBytes(size - pos);
@@ -975,7 +1089,14 @@ public final class CodedInputStream {
 	  } else {
 		  totalBytesRetired = (int) pointer;
 		  bufferSizeAfterLimit = 0;
-		  raf.seek(pointer);
+		  // osmand change : seek in mapped file is only pointer move (mapped files are less than 2GB)
+		  if (mappedChunks != null) {
+			  if (pointer > mappedLength) {
+				  throw InvalidProtocolBufferException.truncatedMessage();
+			  }
+		  } else {
+			  raf.seek(pointer);
+		  }
 		  bufferPos = 0;
 		  bufferSize = 0;
 	  }
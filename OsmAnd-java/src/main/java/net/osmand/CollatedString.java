@@ -0,0 +1,274 @@
+package net.osmand;
+
+import java.text.RuleBasedCollator;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+
+/**
+ * String with primary collation weights of every char (weights of the default primary collator,
+ * see {@link OsmAndCollator#primaryCollator()}), so equality of any substrings for collator is checked
+ * by comparing weights without collator calls.
+ *
+ * Weights of the string are concatenated weights of its chars (ignorable chars have no weights,
+ * expanding chars like 'ß' have many), weights of chars are calculated once and kept in the table
+ * of the current locale.
+ * Weights are read from collation keys in the format of the JDK collator, so the table is checked against
+ * the collator on sample strings and strings are not collated if the check fails (like for other collator
+ * implementations on Android).
+ */
+public final class CollatedString {
+
+	private static final Log log = PlatformUtil.getLog(CollatedString.class);
+	// sample chars of self test (letters with diacritics, ligatures, cyrillic, greek, digits and separators)
+	private static final String SAMPLE_CHARS = "aAáàâäãåæbBcCçčdDďeEéèêëěfFgGhHiIíìîïıjJkKlLłmMnNñňoOóòôöõøœpPqQrRřsSßśš"
+			+ "tTťuUúùûüůvVwWxXyYýÿzZžźż0123456789 -.,'/&абвгдеёжзийклмнопрстуфхцчшщъыьэюяАЁЯЇїΑαΒβΓγΣσς";
+	private static final String[] SAMPLE_STRINGS = { "ss", "ae", "oe", "ue", "aa", "ij", "ch", "cs", "dz", "ll",
+			"ny", "th", "ei", "st", "сш", "ая", "ке" };
+	private static volatile WeightsTable table;
+
+	private final String value;
+	private final WeightsTable weightsTable;
+	private final char[] weights;
+	// weights of char i are weights[offsets[i], offsets[i + 1])
+	private final int[] offsets;
+
+	private CollatedString(String value, WeightsTable weightsTable, char[] weights, int[] offsets) {
+		this.value = value;
+		this.weightsTable = weightsTable;
+		this.weights = weights;
+		this.offsets = offsets;
+	}
+
+	/**
+	 * @return collated string or null if it can't be compared by weights
+	 * (collator of locale is not supported or string contains surrogate chars)
+	 */
+	public static CollatedString create(String value) {
+		WeightsTable t = getTable();
+		if (!t.supported) {
+			return null;
+		}
+		int[] offsets = new int[value.length() + 1];
+		int size = 0;
+		for (int i = 0; i < value.length(); i++) {
+			String w = t.getWeights(value.charAt(i));
+			if (w == null) {
+				return null;
+			}
+			size += w.length();
+			offsets[i + 1] = size;
+		}
+		char[] weights = new char[size];
+		for (int i = 0; i < value.length(); i++) {
+			String w = t.getWeights(value.charAt(i));
+			w.getChars(0, w.length(), weights, offsets[i]);
+		}
+		return new CollatedString(value, t, weights, offsets);
+	}
+
+	static boolean isSupported() {
+		return getTable().supported;
+	}
+
+	private static WeightsTable getTable() {
+		WeightsTable t = table;
+		if (t == null || !t.locale.equals(Locale.getDefault())) {
+			t = new WeightsTable(Locale.getDefault());
+			table = t;
+		}
+		return t;
+	}
+
+	public String getValue() {
+		return value;
+	}
+
+	public int length() {
+		return value.length();
+	}
+
+	public char charAt(int i) {
+		return value.charAt(i);
+	}
+
+	/**
+	 * @return true if weights are calculated by the same collator
+	 */
+	public boolean isComparable(CollatedString s) {
+		return weightsTable == s.weightsTable;
+	}
+
+	/**
+	 * @return true if substring [from, to) is equal to prefix of s with length prefixLength for collator
+	 */
+	public boolean regionEquals(int from, int to, CollatedString s, int prefixLength) {
+		int start = offsets[from];
+		int len = offsets[to] - start;
+		if (len != s.offsets[prefixLength]) {
+			return false;
+		}
+		for (int i = 0; i < len; i++) {
+			if (weights[start + i] != s.weights[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return length of weights of substring [from, to)
+	 */
+	public int weightsLength(int from, int to) {
+		return offsets[to] - offsets[from];
+	}
+
+	@Override
+	public String toString() {
+		return value;
+	}
+
+	private static class WeightsTable {
+		private final Locale locale;
+		private final java.text.Collator collator;
+		private final boolean supported;
+		private final String[] charWeights = new String[Character.MAX_VALUE + 1];
+		// weights of chars which start contraction (like 'cs' in hungarian) depend on the next char
+		private final Set<Character> contractionChars = new HashSet<Character>();
+
+		WeightsTable(Locale locale) {
+			this.locale = locale;
+			this.collator = OsmAndCollator.createPrimaryCollator();
+			this.supported = collator instanceof RuleBasedCollator && readTailoring((RuleBasedCollator) collator)
+					&& checkSamples();
+		}
+
+		// equality of weights of sample strings is the same as equality for collator
+		private boolean checkSamples() {
+			Set<String> samples = new HashSet<String>();
+			for (int i = 0; i < SAMPLE_CHARS.length(); i++) {
+				samples.add(String.valueOf(SAMPLE_CHARS.charAt(i)));
+			}
+			for (String s : SAMPLE_STRINGS) {
+				samples.add(s);
+			}
+			String[] strings = samples.toArray(new String[samples.size()]);
+			String[] weights = new String[strings.length];
+			for (int i = 0; i < strings.length; i++) {
+				weights[i] = getWeights(strings[i]);
+			}
+			for (int i = 0; i < strings.length; i++) {
+				if (weights[i] == null) {
+					continue;
+				}
+				for (int j = i + 1; j < strings.length; j++) {
+					if (weights[j] != null && weights[i].equals(weights[j]) != collator.equals(strings[i], strings[j])) {
+						log.warn("Collation weights are not supported for " + locale + " ('" + strings[i] + "', '"
+								+ strings[j] + "')");
+						return false;
+					}
+				}
+			}
+			return true;
+		}
+
+		private String getWeights(String s) {
+			StringBuilder b = new StringBuilder();
+			for (int i = 0; i < s.length(); i++) {
+				String w = getWeights(s.charAt(i));
+				if (w == null) {
+					return null;
+				}
+				b.append(w);
+			}
+			return b.toString();
+		}
+
+		// finds contractions in locale rules (which are default rules with tailoring at the end)
+		private boolean readTailoring(RuleBasedCollator collator) {
+			String defaultRules = ((RuleBasedCollator) java.text.Collator.getInstance(Locale.ROOT)).getRules();
+			String rules = collator.getRules();
+			if (!rules.startsWith(defaultRules)) {
+				return false;
+			}
+			char relation = 0;
+			int i = defaultRules.length();
+			while (i < rules.length()) {
+				char c = rules.charAt(i);
+				if (c == '!') {
+					// thai and lao reordering of chars
+					return false;
+				} else if (isRelation(c)) {
+					relation = c;
+					i++;
+				} else if (c == '@' || Character.isWhitespace(c)) {
+					i++;
+				} else {
+					StringBuilder operand = new StringBuilder();
+					for (; i < rules.length() && !isRelation(rules.charAt(i))
+							&& !Character.isWhitespace(rules.charAt(i)); i++) {
+						if (rules.charAt(i) == '\'') {
+							for (i++; i < rules.length() && rules.charAt(i) != '\''; i++) {
+								operand.append(rules.charAt(i));
+							}
+						} else {
+							operand.append(rules.charAt(i));
+						}
+					}
+					// reset (&) and extension (/) operands are not contractions,
+					// char with combining marks is not compared by weights (marks have no weights)
+					if (relation != '&' && relation != '/' && operand.length() > 1 && !isCombiningMarks(operand, 1)) {
+						contractionChars.add(operand.charAt(0));
+						contractionChars.add(Character.toLowerCase(operand.charAt(0)));
+					}
+				}
+			}
+			return true;
+		}
+
+		private static boolean isRelation(char c) {
+			return c == '<' || c == ';' || c == ',' || c == '=' || c == '&' || c == '/';
+		}
+
+		private static boolean isCombiningMarks(CharSequence s, int from) {
+			for (int i = from; i < s.length(); i++) {
+				if (!isCombiningMark(s.charAt(i))) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private static boolean isCombiningMark(char c) {
+			int type = Character.getType(c);
+			return type == Character.NON_SPACING_MARK || type == Character.ENCLOSING_MARK
+					|| type == Character.COMBINING_SPACING_MARK;
+		}
+
+		/**
+		 * @return weights of char or null if it can't be compared by weights
+		 * (combining marks could be part of contraction with previous char)
+		 */
+		String getWeights(char c) {
+			String w = charWeights[c];
+			if (w == null && !Character.isSurrogate(c) && !isCombiningMark(c) && !contractionChars.contains(c)) {
+				byte[] key = collator.getCollationKey(String.valueOf(c)).toByteArray();
+				StringBuilder b = new StringBuilder(1);
+				// key is primary weights (2 bytes) ended by 0
+				for (int i = 0; i + 1 < key.length; i += 2) {
+					char k = (char) (((key[i] & 0xff) << 8) | (key[i + 1] & 0xff));
+					if (k == 0) {
+						break;
+					}
+					b.append(k);
+				}
+				w = b.toString();
+				// calculation is deterministic, so concurrent writes are harmless
+				charWeights[c] = w;
+			}
+			return w;
+		}
+	}
+}
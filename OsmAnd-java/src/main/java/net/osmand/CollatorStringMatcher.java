@@ -15,6 +15,8 @@ public class CollatorStringMatcher implements StringMatcher {
 	private final Collator collator;
 	private final StringMatcherMode mode;
 	private final String part;
+	// null if names are matched by collator
+	private final CollatedString collatedPart;
 	
 	public static enum StringMatcherMode {
 		CHECK_ONLY_STARTS_WITH,
@@ -30,6 +32,7 @@ public class CollatorStringMatcher implements StringMatcher {
 		this.collator = OsmAndCollator.primaryCollator();
 		this.part = part.toLowerCase(Locale.getDefault());
 		this.mode = mode;
+		this.collatedPart = CollatedString.create(this.part);
 	}
 
 	public Collator getCollator() {
@@ -38,8 +41,96 @@ public class CollatorStringMatcher implements StringMatcher {
 	
 	@Override
 	public boolean matches(String name) {
+		if (collatedPart != null) {
+			// the same checks as cmatches by collation weights of chars
+			String base = mode == StringMatcherMode.CHECK_CONTAINS ? name : name.toLowerCase(Locale.getDefault());
+			if (mode == StringMatcherMode.CHECK_ONLY_STARTS_WITH_TRIM && base.length() > 0) {
+				base += " ";
+			}
+			CollatedString searchIn = CollatedString.create(base);
+			if (searchIn != null && searchIn.isComparable(collatedPart)) {
+				return cmatches(searchIn, collatedPart, mode);
+			}
+		}
 		return cmatches(collator, name, part, mode);
 	}
+
+	private static boolean cmatches(CollatedString base, CollatedString part, StringMatcherMode mode) {
+		switch (mode) {
+		case CHECK_CONTAINS:
+			return ccontains(base, part);
+		case CHECK_EQUALS_FROM_SPACE:
+			return cstartsWith(base, part, true, true, true, false);
+		case CHECK_STARTS_FROM_SPACE:
+			return cstartsWith(base, part, true, true, false, false);
+		case CHECK_STARTS_FROM_SPACE_NOT_BEGINNING:
+			return cstartsWith(base, part, false, true, false, false);
+		case CHECK_ONLY_STARTS_WITH:
+			return cstartsWith(base, part, true, false, false, false);
+		case CHECK_ONLY_STARTS_WITH_TRIM:
+			return cstartsWith(base, part, true, false, false, true);
+		case CHECK_EQUALS:
+			return cstartsWith(base, part, false, false, true, false);
+		}
+		return false;
+	}
+
+	private static boolean ccontains(CollatedString base, CollatedString part) {
+		int baseLength = base.length();
+		if (baseLength <= part.length()) {
+			return base.regionEquals(0, baseLength, part, part.length());
+		}
+		int partWeights = part.weightsLength(0, part.length());
+		for (int pos = 0; pos <= baseLength - part.length() + 1; pos++) {
+			for (int end = pos; end <= baseLength; end++) {
+				int w = base.weightsLength(pos, end);
+				if (w > partWeights) {
+					break;
+				}
+				if (w == partWeights && base.regionEquals(pos, end, part, part.length())) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	// searchIn is lower case string (with trailing space to trim)
+	private static boolean cstartsWith(CollatedString searchIn, CollatedString theStart,
+			boolean checkBeginning, boolean checkSpaces, boolean equals, boolean trim) {
+		int searchInLength = searchIn.length();
+		int startLength = theStart.length();
+		if (trim && searchInLength > 0 && startLength > searchInLength) {
+			startLength = searchInLength;
+		}
+		if (startLength == 0) {
+			return true;
+		}
+		if (startLength > searchInLength) {
+			return false;
+		}
+		if (checkBeginning) {
+			if (searchIn.regionEquals(0, startLength, theStart, startLength)) {
+				if (!equals || startLength == searchInLength || isSpace(searchIn.charAt(startLength))) {
+					return true;
+				}
+			}
+		}
+		if (checkSpaces) {
+			for (int i = 1; i <= searchInLength - startLength; i++) {
+				if (isSpace(searchIn.charAt(i - 1)) && !isSpace(searchIn.charAt(i))
+						&& searchIn.regionEquals(i, i + startLength, theStart, startLength)) {
+					if (!equals || i + startLength == searchInLength || isSpace(searchIn.charAt(i + startLength))) {
+						return true;
+					}
+				}
+			}
+		}
+		if (!checkBeginning && !checkSpaces && equals) {
+			return searchIn.regionEquals(0, searchInLength, theStart, startLength);
+		}
+		return false;
+	}
 	
 	
 	public static boolean cmatches(Collator collator, String base, String part, StringMatcherMode mode){
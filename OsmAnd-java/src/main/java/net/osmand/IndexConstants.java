@@ -74,6 +74,7 @@ public class IndexConstants {
 	public static final String ROUTING_XML_FILE= "routing.xml";
 	public static final String SETTINGS_DIR = "settings/"; //$NON-NLS-1$
 	public static final String TEMP_DIR = "temp/";
+	public static final String TRANSPORT_CACHE_DIR = "transport_cache/";
 	public static final String ROUTING_PROFILES_DIR = "routing/";
 	public static final String PLUGINS_DIR = "plugins/";
 }
@@ -107,35 +107,46 @@ public class TspAnt {
     // Adds 1 to edge lengths to ensure no zero length edges.
     public TspAnt readGraph(List<LatLon> intermediates, LatLon start, LatLon end) {
         boolean keepEndPoint = end != null;
-    	List<LatLon> l = new ArrayList<LatLon>();
-    	l.add(start);
-    	l.addAll(intermediates);
+        List<LatLon> l = new ArrayList<LatLon>();
+        l.add(start);
+        l.addAll(intermediates);
         if (keepEndPoint) {
             l.add(end);
         }
-        n = l.size() ;
-//        System.out.println("Cost");
+        double[][] costs = new double[l.size()][l.size()];
+        for (int i = 0; i < costs.length; i++) {
+            for (int j = 1; j < costs.length; j++) {
+                costs[i][j] = MapUtils.getDistance(l.get(i), l.get(j));
+            }
+        }
+        return readGraph(costs, keepEndPoint);
+    }
+
+    // Read graph from cost matrix (for example real road times calculated by RouteMatrixCalculator),
+    // first point is start, last point is end if keepEndPoint is set.
+    public TspAnt readGraph(double[][] costs, boolean keepEndPoint) {
+        n = costs.length;
         graph = new double[n][n];
         double maxSum = 0;
-		for (int i = 0; i < n ; i++) {
-			double maxIWeight = 0;
-			for (int j = 1; j < n ; j++) {
-				double d = Math.rint(MapUtils.getDistance(l.get(i), l.get(j))) + 0.1;
-				maxIWeight = Math.max(d, maxIWeight);
-				graph[i][j] = d;
-			}
-			maxSum += maxIWeight;
-		}
-		maxSum = Math.rint(maxSum) + 1;
-		for (int i = 0; i < n; i++) {
-			if (keepEndPoint && i == n - 1) {
-				graph[i][0] = 0.1;
-			} else {
-				graph[i][0] = maxSum;
-			}
-//			System.out.println(Arrays.toString(graph[i]));
-		}
-		
+        for (int i = 0; i < n ; i++) {
+            double maxIWeight = 0;
+            for (int j = 1; j < n ; j++) {
+                double d = Math.rint(costs[i][j]) + 0.1;
+                maxIWeight = Math.max(d, maxIWeight);
+                graph[i][j] = d;
+            }
+            maxSum += maxIWeight;
+        }
+        maxSum = Math.rint(maxSum) + 1;
+        for (int i = 0; i < n; i++) {
+            if (keepEndPoint && i == n - 1) {
+                graph[i][0] = 0.1;
+            } else {
+                graph[i][0] = maxSum;
+            }
+//            System.out.println(Arrays.toString(graph[i]));
+        }
+
         m = (int) (n * numAntFactor);
         // all memory allocations done here
         trails = new double[n][n];
@@ -54,6 +54,8 @@ public class BinaryMapAddressReaderAdapter {
 		List<CitiesBlock> cities = new ArrayList<BinaryMapAddressReaderAdapter.CitiesBlock>();
 
 		LatLon calculatedCenter = null;
+		// name prefix table in memory (read on the first search by name)
+		NamePrefixIndex nameIndex;
 		int bottom31;
 		int top31;
 		int right31;
@@ -624,7 +626,15 @@ public class BinaryMapAddressReaderAdapter {
 				indexOffset = codedIS.getTotalBytesRead();
 				int oldLimit = codedIS.pushLimit(length);
 				// here offsets are sorted by distance
-				map.readIndexedStringTable(stringMatcher.getCollator(), req.nameQuery, "", loffsets, 0);
+				if (BinaryMapIndexReader.USE_NAME_PREFIX_INDEX) {
+					if (reg.nameIndex == null) {
+						reg.nameIndex = map.readNamePrefixIndex();
+					}
+					reg.nameIndex.search(req.nameQuery, loffsets);
+					codedIS.skipRawBytes(codedIS.getBytesUntilLimit());
+				} else {
+					map.readIndexedStringTable(stringMatcher.getCollator(), req.nameQuery, "", loffsets, 0);
+				}
 				codedIS.popLimit(oldLimit);
 				break;
 			case OsmAndAddressNameIndexData.ATOM_FIELD_NUMBER:
@@ -53,6 +53,7 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.RandomAccessFile;
 import java.io.Reader;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
@@ -97,8 +98,17 @@ public class BinaryMapIndexReader {
 	};
 	
 	
+	// read files through memory mapping (seek is a pointer move, page cache is shared between readers)
+	public static boolean USE_MEMORY_MAPPED_FILES = false;
+	// keep name prefix tables of poi and address indexes in memory (see NamePrefixIndex)
+	public static boolean USE_NAME_PREFIX_INDEX = false;
+	// reuse data read by the previous poi search by name if query extends it (see PoiNameSearchCache)
+	public static boolean USE_INCREMENTAL_NAME_SEARCH = false;
+
 	private final RandomAccessFile raf;
 	protected final File file;
+	// memory mapped content shared by readers of the same file (null if it is read by raf)
+	private MappedFile mappedFile;
 	/*private*/ int version;
 	/*private*/ long dateCreated;
 	// keep them immutable inside
@@ -123,7 +133,7 @@ public class BinaryMapIndexReader {
 	public BinaryMapIndexReader(final RandomAccessFile raf, File file) throws IOException {
 		this.raf = raf;
 		this.file = file;
-		codedIS = CodedInputStream.newInstance(raf);
+		codedIS = createCodedInputStream(raf, null);
 		codedIS.setSizeLimit(Integer.MAX_VALUE); // 2048 MB
 		transportAdapter = new BinaryMapTransportReaderAdapter(this);
 		addressAdapter = new BinaryMapAddressReaderAdapter(this);
@@ -135,7 +145,7 @@ public class BinaryMapIndexReader {
 	public BinaryMapIndexReader(final RandomAccessFile raf, File file, boolean init) throws IOException {
 		this.raf = raf;
 		this.file = file;
-		codedIS = CodedInputStream.newInstance(raf);
+		codedIS = createCodedInputStream(raf, null);
 		codedIS.setSizeLimit(Integer.MAX_VALUE); // 2048 MB
 		transportAdapter = new BinaryMapTransportReaderAdapter(this);
 		addressAdapter = new BinaryMapAddressReaderAdapter(this);
@@ -149,7 +159,7 @@ public class BinaryMapIndexReader {
 	public BinaryMapIndexReader(final RandomAccessFile raf, BinaryMapIndexReader referenceToSameFile) throws IOException {
 		this.raf = raf;
 		this.file = referenceToSameFile.file;
-		codedIS = CodedInputStream.newInstance(raf);
+		codedIS = createCodedInputStream(raf, referenceToSameFile.mappedFile);
 		codedIS.setSizeLimit(Integer.MAX_VALUE); // 2048 MB
 		version = referenceToSameFile.version;
 		dateCreated = referenceToSameFile.dateCreated;
@@ -168,6 +178,53 @@ public class BinaryMapIndexReader {
 	}
 
 
+	// mapping is released when the last reader sharing it is closed
+	private static class MappedFile {
+		private final ByteBuffer[] chunks;
+		private int readers = 1;
+
+		private MappedFile(ByteBuffer[] chunks) {
+			this.chunks = chunks;
+		}
+
+		synchronized boolean acquire() {
+			if (readers == 0) {
+				return false;
+			}
+			readers++;
+			return true;
+		}
+
+		synchronized void release() {
+			if (readers > 0 && --readers == 0) {
+				CodedInputStream.unmapFile(chunks);
+			}
+		}
+	}
+
+	private CodedInputStream createCodedInputStream(RandomAccessFile raf, MappedFile sharedMapping) {
+		if (USE_MEMORY_MAPPED_FILES) {
+			if (sharedMapping != null && sharedMapping.acquire()) {
+				mappedFile = sharedMapping;
+			} else {
+				try {
+					mappedFile = new MappedFile(CodedInputStream.mapFile(raf.getChannel()));
+				} catch (IOException e) {
+					// address space could be exhausted on 32 bit systems or file is bigger than 2GB
+					log.warn("File " + file.getName() + " couldn't be memory mapped: " + e.getMessage());
+				}
+			}
+			if (mappedFile != null) {
+				return CodedInputStream.newInstance(mappedFile.chunks);
+			}
+		}
+		return CodedInputStream.newInstance(raf);
+	}
+
+	public boolean isMemoryMapped() {
+		return mappedFile != null;
+	}
+
 	public long getDateCreated() {
 		return dateCreated;
 	}
@@ -869,11 +926,13 @@ public class BinaryMapIndexReader {
 				continue;
 			}
 			// lazy initializing rules
-			if (mapIndex.encodingRules.isEmpty()) {
-				codedIS.seek(mapIndex.filePointer);
-				int oldLimit = codedIS.pushLimit(mapIndex.length);
-				readMapIndex(mapIndex, true);
-				codedIS.popLimit(oldLimit);
+			synchronized (mapIndex) {
+				if (mapIndex.encodingRules.isEmpty()) {
+					codedIS.seek(mapIndex.filePointer);
+					int oldLimit = codedIS.pushLimit(mapIndex.length);
+					readMapIndex(mapIndex, true);
+					codedIS.popLimit(oldLimit);
+				}
 			}
 			for (MapRoot index : mapIndex.getRoots()) {
 				if (index.minZoom <= req.zoom && index.maxZoom >= req.zoom) {
@@ -884,12 +943,14 @@ public class BinaryMapIndexReader {
 
 
 					// lazy initializing trees
-					if (index.trees == null) {
-						index.trees = new ArrayList<MapTree>();
-						codedIS.seek(index.filePointer);
-						int oldLimit = codedIS.pushLimit(index.length);
-						readMapLevel(index);
-						codedIS.popLimit(oldLimit);
+					synchronized (index) {
+						if (index.trees == null) {
+							index.trees = new ArrayList<MapTree>();
+							codedIS.seek(index.filePointer);
+							int oldLimit = codedIS.pushLimit(index.length);
+							readMapLevel(index);
+							codedIS.popLimit(oldLimit);
+						}
 					}
 
 					for (MapTree tree : index.trees) {
@@ -1558,8 +1619,13 @@ public class BinaryMapIndexReader {
 
 	public void close() throws IOException {
 		if (codedIS != null) {
+			PoiNameSearchCache.release(poiIndexes);
 			raf.close();
 			codedIS = null;
+			if (mappedFile != null) {
+				mappedFile.release();
+				mappedFile = null;
+			}
 			mapIndexes.clear();
 			addressIndexes.clear();
 			transportIndexes.clear();
@@ -2388,6 +2454,55 @@ public class BinaryMapIndexReader {
 		}
 	}
 
+	/**
+	 * Reads all keys (expanded with keys of parent tables) and values of the table
+	 */
+	void readIndexedStringTable(String prefix, List<String> keys, TIntArrayList values) throws IOException {
+		String key = null;
+		while (true) {
+			int t = codedIS.readTag();
+			int tag = WireFormat.getTagFieldNumber(t);
+			switch (tag) {
+			case 0:
+				return;
+			case OsmandOdb.IndexedStringTable.KEY_FIELD_NUMBER :
+				key = prefix + codedIS.readString();
+				break;
+			case OsmandOdb.IndexedStringTable.VAL_FIELD_NUMBER :
+				int val = readInt();
+				if (key != null) {
+					keys.add(key);
+					values.add(val);
+				}
+				break;
+			case OsmandOdb.IndexedStringTable.SUBTABLES_FIELD_NUMBER :
+				int len = codedIS.readRawVarint32();
+				int oldLim = codedIS.pushLimit(len);
+				if (key != null) {
+					readIndexedStringTable(key, keys, values);
+				} else {
+					codedIS.skipRawBytes(codedIS.getBytesUntilLimit());
+				}
+				codedIS.popLimit(oldLim);
+				break;
+			default:
+				skipUnknownField(t);
+				break;
+			}
+		}
+	}
+
+	NamePrefixIndex readNamePrefixIndex() throws IOException {
+		long time = System.currentTimeMillis();
+		List<String> keys = new ArrayList<String>();
+		TIntArrayList values = new TIntArrayList();
+		readIndexedStringTable("", keys, values);
+		NamePrefixIndex index = new NamePrefixIndex(keys, values);
+		log.info("Name prefix index of " + file.getName() + " (" + index.size() + " keys) is read in "
+				+ (System.currentTimeMillis() - time) + " ms");
+		return index;
+	}
+
 	private static void testAddressSearchByName(BinaryMapIndexReader reader) throws IOException {
 		SearchRequest<MapObject> req = buildAddressByNameRequest(new ResultMatcher<MapObject>() {
 			@Override
@@ -59,6 +59,8 @@ public class BinaryMapPoiReaderAdapter {
 		int right31;
 		int top31;
 		int bottom31;
+		// name prefix table in memory (read on the first search by name)
+		NamePrefixIndex nameIndex;
 		
 		public int getLeft31() {
 			return left31;
@@ -282,11 +284,13 @@ public class BinaryMapPoiReaderAdapter {
 	}
 
 	public void initCategories(PoiRegion region) throws IOException {
-		if (region.categories.isEmpty()) {
-			codedIS.seek(region.filePointer);
-			int oldLimit = codedIS.pushLimit(region.length);
-			readPoiIndex(region, true);
-			codedIS.popLimit(oldLimit);
+		synchronized (region) {
+			if (region.categories.isEmpty()) {
+				codedIS.seek(region.filePointer);
+				int oldLimit = codedIS.pushLimit(region.length);
+				readPoiIndex(region, true);
+				codedIS.popLimit(oldLimit);
+			}
 		}
 	}
 
@@ -299,6 +303,11 @@ public class BinaryMapPoiReaderAdapter {
 		String query = normalizeSearchPoiByNameQuery(req.nameQuery);
 		CollatorStringMatcher matcher = new CollatorStringMatcher(query,
 				StringMatcherMode.CHECK_STARTS_FROM_SPACE);
+		// read data doesn't depend on query only without type filter and route
+		PoiNameSearchCache cache = null;
+		if (BinaryMapIndexReader.USE_INCREMENTAL_NAME_SEARCH && req.poiTypeFilter == null && req.tiles == null) {
+			cache = PoiNameSearchCache.get(region, query);
+		}
 		long time = System.currentTimeMillis();
 		int indexOffset = codedIS.getTotalBytesRead();
 		while (true) {
@@ -314,7 +323,7 @@ public class BinaryMapPoiReaderAdapter {
 				int length = readInt();
 				int oldLimit = codedIS.pushLimit(length);
 				// here offsets are sorted by distance
-				offsets = readPoiNameIndex(matcher.getCollator(), query, req);
+				offsets = readPoiNameIndex(matcher.getCollator(), query, req, region, cache);
 				codedIS.popLimit(oldLimit);
 				break;
 			case OsmandOdb.OsmAndPoiIndex.POIDATA_FIELD_NUMBER:
@@ -350,11 +359,31 @@ public class BinaryMapPoiReaderAdapter {
 				LOG.info("Searched poi structure in " + (System.currentTimeMillis() - time) +
 						"ms. Found " + offKeys.length + " subtrees");
 				for (int j = 0; j < offKeys.length; j++) {
-					codedIS.seek(offKeys[j] + indexOffset);
-					int len = readInt();
-					int oldLim = codedIS.pushLimit(len);
-					readPoiData(matcher, req, region);
-					codedIS.popLimit(oldLim);
+					PoiNameSearchCache.Subtree subtree = cache == null ? null : cache.getSubtree(offKeys[j] + indexOffset);
+					if (subtree == null) {
+						codedIS.seek(offKeys[j] + indexOffset);
+						int len = readInt();
+						int oldLim = codedIS.pushLimit(len);
+						if (cache != null) {
+							subtree = new PoiNameSearchCache.Subtree();
+						}
+						readPoiData(matcher, req, region, subtree);
+						codedIS.popLimit(oldLim);
+						if (subtree != null && !req.isCancelled()) {
+							cache.putSubtree(offKeys[j] + indexOffset, subtree);
+						}
+					}
+					if (subtree != null) {
+						int i = 0;
+						while (i < subtree.pois.size() && !req.isCancelled() && !req.limitExceeded()) {
+							Amenity am = subtree.pois.get(i++);
+							if (matchesName(matcher, am)) {
+								req.publish(am);
+							}
+						}
+						// the same counters as by reading of subtree without cache
+						subtree.addCounters(req, req.limitExceeded() ? i : -1);
+					}
 					if (req.isCancelled() || req.limitExceeded()) {
 						return;
 					}
@@ -370,7 +399,8 @@ public class BinaryMapPoiReaderAdapter {
 		}
 	}
 
-	private TIntLongHashMap readPoiNameIndex(Collator instance, String query, SearchRequest<Amenity> req) throws IOException {
+	private TIntLongHashMap readPoiNameIndex(Collator instance, String query, SearchRequest<Amenity> req,
+			PoiRegion region, PoiNameSearchCache cache) throws IOException {
 		TIntLongHashMap offsets = new TIntLongHashMap();
 		TIntArrayList dataOffsets = null;
 		int offset = 0;
@@ -385,7 +415,15 @@ public class BinaryMapPoiReaderAdapter {
 				int oldLimit = codedIS.pushLimit(length);
 				dataOffsets = new TIntArrayList();
 				offset = codedIS.getTotalBytesRead();
-				map.readIndexedStringTable(instance, query, "", dataOffsets, 0);
+				if (BinaryMapIndexReader.USE_NAME_PREFIX_INDEX) {
+					if (region.nameIndex == null) {
+						region.nameIndex = map.readNamePrefixIndex();
+					}
+					region.nameIndex.search(query, dataOffsets);
+					codedIS.skipRawBytes(codedIS.getBytesUntilLimit());
+				} else {
+					map.readIndexedStringTable(instance, query, "", dataOffsets, 0);
+				}
 				codedIS.popLimit(oldLimit);
 				break;
 			}
@@ -393,11 +431,28 @@ public class BinaryMapPoiReaderAdapter {
 				if (dataOffsets != null) {
 					dataOffsets.sort(); // 1104125
 					for (int i = 0; i < dataOffsets.size(); i++) {
-						codedIS.seek(dataOffsets.get(i) + offset);
-						int len = codedIS.readRawVarint32();
-						int oldLim = codedIS.pushLimit(len);
-						readPoiNameIndexData(offsets, req);
-						codedIS.popLimit(oldLim);
+						int dataOffset = dataOffsets.get(i) + offset;
+						int[] atoms = cache == null ? null : cache.getAtoms(dataOffset);
+						if (atoms == null) {
+							codedIS.seek(dataOffset);
+							int len = codedIS.readRawVarint32();
+							int oldLim = codedIS.pushLimit(len);
+							TIntArrayList atomsList = new TIntArrayList();
+							readPoiNameIndexData(atomsList);
+							codedIS.popLimit(oldLim);
+							atoms = atomsList.toArray();
+							if (cache != null) {
+								cache.putAtoms(dataOffset, atoms);
+							}
+						}
+						for (int k = 0; k < atoms.length; k += 3) {
+							int x31 = atoms[k];
+							int y31 = atoms[k + 1];
+							if (req.contains(x31, y31, x31, y31)) {
+								long d = Math.abs(req.x - x31) + Math.abs(req.y - y31);
+								offsets.put(atoms[k + 2], d);
+							}
+						}
 						if (req.isCancelled()) {
 							codedIS.skipRawBytes(codedIS.getBytesUntilLimit());
 							return offsets;
@@ -415,7 +470,7 @@ public class BinaryMapPoiReaderAdapter {
 
 	}
 
-	private void readPoiNameIndexData(TIntLongHashMap offsets, SearchRequest<Amenity> req) throws IOException {
+	private void readPoiNameIndexData(TIntArrayList atoms) throws IOException {
 		while (true) {
 			int t = codedIS.readTag();
 			int tag = WireFormat.getTagFieldNumber(t);
@@ -425,7 +480,7 @@ public class BinaryMapPoiReaderAdapter {
 			case OsmAndPoiNameIndexData.ATOMS_FIELD_NUMBER:
 				int len = codedIS.readRawVarint32();
 				int oldLim = codedIS.pushLimit(len);
-				readPoiNameIndexDataAtom(offsets, req);
+				readPoiNameIndexDataAtom(atoms);
 				codedIS.popLimit(oldLim);
 				break;
 			default:
@@ -435,7 +490,8 @@ public class BinaryMapPoiReaderAdapter {
 		}
 	}
 
-	private void readPoiNameIndexDataAtom(TIntLongHashMap offsets, SearchRequest<Amenity> req) throws IOException {
+	// adds x31, y31 and shift to subtree of the atom
+	private void readPoiNameIndexDataAtom(TIntArrayList atoms) throws IOException {
 		int x = 0;
 		int y = 0;
 		int zoom = 15;
@@ -458,10 +514,9 @@ public class BinaryMapPoiReaderAdapter {
 				int x31 = (x << (31 - zoom));
 				int y31 = (y << (31 - zoom));
 				int shift = readInt();
-				if (req.contains(x31, y31, x31, y31)) {
-					long d = Math.abs(req.x - x31) + Math.abs(req.y - y31);
-					offsets.put(shift, d);
-				}
+				atoms.add(x31);
+				atoms.add(y31);
+				atoms.add(shift);
 				break;
 			default:
 				skipUnknownField(t);
@@ -538,19 +593,27 @@ public class BinaryMapPoiReaderAdapter {
 		}
 	}
 
-	private void readPoiData(CollatorStringMatcher matcher, SearchRequest<Amenity> req, PoiRegion region) throws IOException {
+	/**
+	 * Publishes pois of subtree which match name or adds all pois to the subtree (if it isn't null),
+	 * counters of request are not changed in the latter case but kept in the subtree
+	 */
+	private void readPoiData(CollatorStringMatcher matcher, SearchRequest<Amenity> req, PoiRegion region,
+			PoiNameSearchCache.Subtree subtree) throws IOException {
 		int x = 0;
 		int y = 0;
 		int zoom = 0;
+		int visitedObjects = req.numberOfVisitedObjects;
+		int acceptedObjects = req.numberOfAcceptedObjects;
 		while (true) {
 			if (req.isCancelled() || req.limitExceeded()) {
-				return;
+				break;
 			}
 			int t = codedIS.readTag();
 			int tag = WireFormat.getTagFieldNumber(t);
+			if (tag == 0) {
+				break;
+			}
 			switch (tag) {
-			case 0:
-				return;
 			case OsmandOdb.OsmAndPoiBoxData.X_FIELD_NUMBER:
 				x = codedIS.readUInt32();
 				break;
@@ -566,30 +629,10 @@ public class BinaryMapPoiReaderAdapter {
 				Amenity am = readPoiPoint(0, Integer.MAX_VALUE, 0, Integer.MAX_VALUE, x, y, zoom, req, region, false);
 				codedIS.popLimit(oldLim);
 				if (am != null) {
-					boolean matches = matcher.matches(am.getName().toLowerCase()) ||
-							matcher.matches(am.getEnName(true).toLowerCase());
-					if (!matches) {
-						for (String s : am.getAllNames()) {
-							matches = matcher.matches(s.toLowerCase());
-							if (matches) {
-								break;
-							}
-						}
-						if (!matches) {
-							Map<String, String> lt = am.getAdditionalInfo();
-							for (Entry<String, String> e : lt.entrySet()) {
-								if(!e.getKey().contains("_name") && 
-									!e.getKey().equals("brand")) {
-									continue;
-								}
-								matches = matcher.matches(e.getValue());
-								if (matches) {
-									break;
-								}
-							}
-						}
-					}
-					if (matches) {
+					if (subtree != null) {
+						subtree.addPoi(am, req.numberOfVisitedObjects - visitedObjects,
+								req.numberOfAcceptedObjects - acceptedObjects);
+					} else if (matchesName(matcher, am)) {
 						req.publish(am);
 					}
 				}
@@ -599,6 +642,38 @@ public class BinaryMapPoiReaderAdapter {
 				break;
 			}
 		}
+		if (subtree != null) {
+			subtree.setCounters(req.numberOfVisitedObjects - visitedObjects, req.numberOfAcceptedObjects - acceptedObjects);
+			req.numberOfVisitedObjects = visitedObjects;
+			req.numberOfAcceptedObjects = acceptedObjects;
+		}
+	}
+
+	private boolean matchesName(CollatorStringMatcher matcher, Amenity am) {
+		boolean matches = matcher.matches(am.getName().toLowerCase()) ||
+				matcher.matches(am.getEnName(true).toLowerCase());
+		if (!matches) {
+			for (String s : am.getAllNames()) {
+				matches = matcher.matches(s.toLowerCase());
+				if (matches) {
+					break;
+				}
+			}
+			if (!matches) {
+				Map<String, String> lt = am.getAdditionalInfo();
+				for (Entry<String, String> e : lt.entrySet()) {
+					if(!e.getKey().contains("_name") && 
+						!e.getKey().equals("brand")) {
+						continue;
+					}
+					matches = matcher.matches(e.getValue());
+					if (matches) {
+						break;
+					}
+				}
+			}
+		}
+		return matches;
 	}
 
 	private boolean readPoiData(int left31, int right31, int top31, int bottom31,
@@ -0,0 +1,226 @@
+package net.osmand.binary;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.commons.logging.Log;
+
+import net.osmand.PlatformUtil;
+
+/**
+ * Registry of map files that could be read by many threads at the same time.
+ *
+ * Index structure (MapIndex, RouteRegion, PoiRegion, AddressRegion, TransportIndex) is parsed once by the initial reader,
+ * readers acquired from the pool are light readers (own file handle and CodedInputStream) that share the parsed structure.
+ * Lazily loaded parts of the structure are initialized under the lock of the owning index part.
+ *
+ * Acquired reader is used by one thread at a time and should be released after use (it is reused by next acquire).
+ * Unregister and close wait till all acquired readers of the file are released.
+ */
+public class BinaryMapReaderPool {
+
+	private static final Log log = PlatformUtil.getLog(BinaryMapReaderPool.class);
+
+	private static class PooledFile {
+		final File file;
+		final BinaryMapIndexReader initialReader;
+		// all opened readers (idle and acquired)
+		final Set<BinaryMapIndexReader> readers =
+				Collections.newSetFromMap(new ConcurrentHashMap<BinaryMapIndexReader, Boolean>());
+		final ConcurrentLinkedQueue<BinaryMapIndexReader> idleReaders = new ConcurrentLinkedQueue<BinaryMapIndexReader>();
+		// guarded by this
+		int acquired;
+		volatile boolean closed;
+
+		PooledFile(File file, BinaryMapIndexReader initialReader) {
+			this.file = file;
+			this.initialReader = initialReader;
+		}
+
+		BinaryMapIndexReader acquire() throws IOException {
+			synchronized (this) {
+				if (closed) {
+					throw new IOException("File " + file.getName() + " is closed");
+				}
+				acquired++;
+			}
+			BinaryMapIndexReader r = idleReaders.poll();
+			if (r == null) {
+				try {
+					r = new BinaryMapIndexReader(new RandomAccessFile(file, "r"), initialReader);
+				} catch (IOException e) {
+					release(null);
+					throw e;
+				}
+				readers.add(r);
+			}
+			return r;
+		}
+
+		void release(BinaryMapIndexReader r) {
+			synchronized (this) {
+				acquired--;
+				if (closed) {
+					notifyAll();
+					return;
+				}
+				if (r != null) {
+					idleReaders.add(r);
+				}
+			}
+		}
+
+		void close() {
+			synchronized (this) {
+				closed = true;
+				while (acquired > 0) {
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						log.warn("Interrupted while waiting for readers of " + file.getName());
+						break;
+					}
+				}
+			}
+			close(initialReader);
+			for (BinaryMapIndexReader r : readers) {
+				close(r);
+			}
+			readers.clear();
+			idleReaders.clear();
+		}
+
+		private void close(BinaryMapIndexReader r) {
+			try {
+				r.close();
+			} catch (IOException e) {
+				log.error("Fail to close " + file.getName(), e);
+			}
+		}
+	}
+
+	private final Map<String, PooledFile> files = new ConcurrentHashMap<String, PooledFile>();
+	// keeps registration order
+	private final List<PooledFile> orderedFiles = new CopyOnWriteArrayList<PooledFile>();
+	// acquired reader -> file it belongs to
+	private final Map<BinaryMapIndexReader, PooledFile> acquiredReaders = new ConcurrentHashMap<BinaryMapIndexReader, PooledFile>();
+
+	/**
+	 * Opens and indexes file, returns reader which should be used only to access index structure
+	 */
+	public BinaryMapIndexReader register(File f) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(f, "r");
+		BinaryMapIndexReader reader;
+		try {
+			reader = new BinaryMapIndexReader(raf, f);
+		} catch (IOException e) {
+			raf.close();
+			throw e;
+		}
+		register(reader);
+		return reader;
+	}
+
+	/**
+	 * Registers already initialized reader (for example created by {@link CachedOsmandIndexes}),
+	 * pool takes ownership of the reader
+	 */
+	public void register(BinaryMapIndexReader initialReader) {
+		PooledFile pf = new PooledFile(initialReader.getFile(), initialReader);
+		PooledFile old = files.put(initialReader.getFile().getName(), pf);
+		orderedFiles.add(pf);
+		if (old != null) {
+			orderedFiles.remove(old);
+			old.close();
+		}
+	}
+
+	/**
+	 * Removes file from the pool, waits till acquired readers of the file are released
+	 */
+	public void unregister(String fileName) {
+		PooledFile pf = files.remove(fileName);
+		if (pf != null) {
+			orderedFiles.remove(pf);
+			pf.close();
+		}
+	}
+
+	public boolean isRegistered(String fileName) {
+		return files.containsKey(fileName);
+	}
+
+	/**
+	 * Reader of the file for exclusive use till {@link #release(BinaryMapIndexReader...)}, null if file is not registered
+	 */
+	public BinaryMapIndexReader acquireReader(String fileName) throws IOException {
+		PooledFile pf = files.get(fileName);
+		if (pf == null) {
+			return null;
+		}
+		BinaryMapIndexReader r = pf.acquire();
+		acquiredReaders.put(r, pf);
+		return r;
+	}
+
+	/**
+	 * Readers of all registered files in registration order for exclusive use till
+	 * {@link #release(BinaryMapIndexReader...)} (files closed meanwhile are skipped)
+	 */
+	public BinaryMapIndexReader[] acquireReaders() {
+		List<BinaryMapIndexReader> res = new ArrayList<BinaryMapIndexReader>(orderedFiles.size());
+		for (PooledFile pf : orderedFiles) {
+			try {
+				BinaryMapIndexReader r = pf.acquire();
+				acquiredReaders.put(r, pf);
+				res.add(r);
+			} catch (IOException e) {
+				// unregistered meanwhile
+			}
+		}
+		return res.toArray(new BinaryMapIndexReader[res.size()]);
+	}
+
+	/**
+	 * Returns acquired readers to the pool, they should not be used after that
+	 */
+	public void release(BinaryMapIndexReader... readers) {
+		for (BinaryMapIndexReader r : readers) {
+			PooledFile pf = acquiredReaders.remove(r);
+			if (pf != null) {
+				pf.release(r);
+			}
+		}
+	}
+
+	// should not be used to read from file, only to access index structure
+	public BinaryMapIndexReader getShallowReader(String fileName) {
+		PooledFile pf = files.get(fileName);
+		return pf == null ? null : pf.initialReader;
+	}
+
+	public int size() {
+		return files.size();
+	}
+
+	/**
+	 * Closes all files, waits till all acquired readers are released
+	 */
+	public void close() {
+		for (PooledFile pf : orderedFiles) {
+			pf.close();
+		}
+		orderedFiles.clear();
+		files.clear();
+	}
+}
@@ -389,29 +389,32 @@ public class BinaryMapTransportReaderAdapter {
 
 	protected TIntObjectHashMap<String> initializeStringTable(TransportIndex ind,
 			TIntObjectHashMap<String> requested) throws IOException {
-		if (ind.stringTable.stringTable == null) {
-			ind.stringTable.stringTable = new TIntObjectHashMap<>();
-			codedIS.seek(ind.stringTable.fileOffset);
-			int oldLimit = codedIS.pushLimit(ind.stringTable.length);
-			int current = 0;
-			int i = 0;
-			while (codedIS.getBytesUntilLimit() > 0) {
-				int t = codedIS.readTag();
-				int tag = WireFormat.getTagFieldNumber(t);
-				switch (tag) {
-				case 0:
-					break;
-				case OsmandOdb.StringTable.S_FIELD_NUMBER:
-					String value = codedIS.readString();
-					ind.stringTable.stringTable.put(current, value);
-					current++;
-					break;
-				default:
-					skipUnknownField(t);
-					break;
+		// index could be shared by readers of the same file used from different threads
+		synchronized (ind.stringTable) {
+			if (ind.stringTable.stringTable == null) {
+				ind.stringTable.stringTable = new TIntObjectHashMap<>();
+				codedIS.seek(ind.stringTable.fileOffset);
+				int oldLimit = codedIS.pushLimit(ind.stringTable.length);
+				int current = 0;
+				int i = 0;
+				while (codedIS.getBytesUntilLimit() > 0) {
+					int t = codedIS.readTag();
+					int tag = WireFormat.getTagFieldNumber(t);
+					switch (tag) {
+					case 0:
+						break;
+					case OsmandOdb.StringTable.S_FIELD_NUMBER:
+						String value = codedIS.readString();
+						ind.stringTable.stringTable.put(current, value);
+						current++;
+						break;
+					default:
+						skipUnknownField(t);
+						break;
+					}
 				}
+				codedIS.popLimit(oldLimit);
 			}
-			codedIS.popLimit(oldLimit);
 		}
 		return ind.stringTable.stringTable;
 	}
@@ -0,0 +1,526 @@
+package net.osmand.binary;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+
+import com.google.protobuf.CodedInputStream;
+
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.list.array.TLongArrayList;
+import gnu.trove.map.hash.TLongObjectHashMap;
+
+import net.osmand.PlatformUtil;
+import net.osmand.data.TransportStop;
+import net.osmand.util.MapUtils;
+
+/**
+ * Sidecar file of obf with transport stops prepared for routing: stops of all transport indexes
+ * (merged by id) with references to routes, route ids and deleted route ids, and walking transfers
+ * between stops within transfer radius (square around the stop, same as {@link #isWithinRadius} for uncached stops).
+ * Stops are sorted by tile of {@link #INDEX_ZOOM}, file is memory mapped
+ * (till {@link #close()}), opened caches are shared by {@link CachedTransportStopsIndexes}.
+ * Cache is valid while obf has the same size and date (as in {@link CachedOsmandIndexes}).
+ */
+public class CachedTransportStopsIndex {
+
+	public static final int VERSION = 2;
+	public static final String FILE_EXT = ".tstops";
+	public static final int INDEX_ZOOM = 15;
+
+	private static final int MAGIC = 0x4f545349;
+	private static final int HEADER_SIZE = 48;
+	// id, x31, y31, refs start, refs count, deleted start, deleted count, transfers start, transfers count
+	private static final int STOP_SIZE = 40;
+	private static final Log log = PlatformUtil.getLog(CachedTransportStopsIndex.class);
+
+	private final ByteBuffer buf;
+	private final long obfSize;
+	private final long obfDate;
+	private final int transferRadius;
+	private final int stopsCount;
+	private final int stopsOffset;
+	private final int idsOrderOffset;
+	private final int refsOffset;
+	private final int routeIdsOffset;
+	private final int deletedOffset;
+	private final int transfersOffset;
+	private boolean closed;
+
+	private CachedTransportStopsIndex(ByteBuffer buf) throws IOException {
+		this.buf = buf;
+		if (buf.capacity() < HEADER_SIZE || buf.getInt(0) != MAGIC || buf.getInt(4) != VERSION) {
+			throw new IOException("Not a transport stops cache");
+		}
+		obfSize = buf.getLong(8);
+		obfDate = buf.getLong(16);
+		transferRadius = buf.getInt(24);
+		stopsCount = buf.getInt(28);
+		int refsCount = buf.getInt(32);
+		int deletedCount = buf.getInt(36);
+		int transfersCount = buf.getInt(40);
+		stopsOffset = HEADER_SIZE;
+		idsOrderOffset = stopsOffset + stopsCount * STOP_SIZE;
+		refsOffset = idsOrderOffset + stopsCount * 4;
+		routeIdsOffset = refsOffset + refsCount * 4;
+		deletedOffset = routeIdsOffset + refsCount * 8;
+		transfersOffset = deletedOffset + deletedCount * 8;
+		if (transfersOffset + transfersCount * 8 != buf.capacity()) {
+			throw new IOException("Transport stops cache is corrupted");
+		}
+	}
+
+	public static File getCacheFile(File cacheDir, File obf) {
+		return new File(cacheDir, obf.getName() + FILE_EXT);
+	}
+
+	/**
+	 * Opens cache of reader file in cacheDir, cache is (re)built if it is missing or outdated
+	 */
+	public static CachedTransportStopsIndex getIndex(BinaryMapIndexReader reader, File cacheDir, int transferRadius)
+			throws IOException {
+		File cache = getCacheFile(cacheDir, reader.getFile());
+		if (cache.exists()) {
+			try {
+				CachedTransportStopsIndex index = open(cache);
+				if (index.isValid(reader, transferRadius)) {
+					return index;
+				}
+			} catch (IOException e) {
+				log.warn("Transport stops cache " + cache.getName() + " is not readable", e);
+			}
+		}
+		build(reader, cache, transferRadius);
+		return open(cache);
+	}
+
+	public static CachedTransportStopsIndex open(File cache) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(cache, "r");
+		try {
+			MappedByteBuffer buf = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+			return new CachedTransportStopsIndex(buf);
+		} finally {
+			// mapping stays valid after channel is closed
+			raf.close();
+		}
+	}
+
+	public boolean isValid(BinaryMapIndexReader reader, int transferRadius) {
+		File f = reader.getFile();
+		return obfSize == f.length() && obfDate == getFileDate(reader) && this.transferRadius == transferRadius;
+	}
+
+	static long getFileDate(BinaryMapIndexReader reader) {
+		long d = reader.getDateCreated();
+		return d == 0 ? reader.getFile().lastModified() : d;
+	}
+
+	/**
+	 * Unmaps the file, cache should not be used after that
+	 */
+	public synchronized void close() {
+		if (!closed) {
+			closed = true;
+			CodedInputStream.unmapFile(new ByteBuffer[] { buf });
+		}
+	}
+
+	synchronized boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * Radius in 31 tile coordinates (as radius of transport routing context)
+	 */
+	public static int getRadius31(int radiusMeters) {
+		return (int) (radiusMeters / MapUtils.getTileDistanceWidth(31));
+	}
+
+	/**
+	 * Stop is reachable by walk if it is in the square of radius around the point
+	 */
+	public static boolean isWithinRadius(int x31, int y31, int stopX31, int stopY31, int radius31) {
+		return Math.abs(stopX31 - x31) <= radius31 && Math.abs(stopY31 - y31) <= radius31;
+	}
+
+	public int getTransferRadius() {
+		return transferRadius;
+	}
+
+	public int getStopsCount() {
+		return stopsCount;
+	}
+
+	public long getStopId(int stop) {
+		return buf.getLong(stopsOffset + stop * STOP_SIZE);
+	}
+
+	public int getStopX31(int stop) {
+		return buf.getInt(stopsOffset + stop * STOP_SIZE + 8);
+	}
+
+	public int getStopY31(int stop) {
+		return buf.getInt(stopsOffset + stop * STOP_SIZE + 12);
+	}
+
+	private int getStopInt(int stop, int field) {
+		return buf.getInt(stopsOffset + stop * STOP_SIZE + 16 + field * 4);
+	}
+
+	/**
+	 * @return index of stop or -1
+	 */
+	public int findStop(long id) {
+		int l = 0;
+		int r = stopsCount - 1;
+		while (l <= r) {
+			int m = (l + r) >>> 1;
+			int stop = buf.getInt(idsOrderOffset + m * 4);
+			long mid = getStopId(stop);
+			if (mid < id) {
+				l = m + 1;
+			} else if (mid > id) {
+				r = m - 1;
+			} else {
+				return stop;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Adds stops reachable by walk within transfer radius (without stop itself)
+	 * @return number of added transfers
+	 */
+	public int getTransfers(int stop, TIntArrayList stops, TIntArrayList distances) {
+		int start = getStopInt(stop, 4);
+		int cnt = getStopInt(stop, 5);
+		for (int i = 0; i < cnt; i++) {
+			int p = transfersOffset + (start + i) * 8;
+			stops.add(buf.getInt(p));
+			distances.add(buf.getInt(p + 4));
+		}
+		return cnt;
+	}
+
+	/**
+	 * Same stops as {@link BinaryMapIndexReader#searchTransportIndex} returns for request of these bounds,
+	 * but only with location, references to routes and route ids (no names and exits)
+	 */
+	public List<TransportStop> searchTransportStops(int left31, int right31, int top31, int bottom31,
+			List<TransportStop> res) {
+		int shift = 31 - BinaryMapIndexReader.TRANSPORT_STOP_ZOOM;
+		int left = left31 >> shift;
+		int right = right31 >> shift;
+		int top = top31 >> shift;
+		int bottom = bottom31 >> shift;
+		int tshift = 31 - INDEX_ZOOM;
+		int tl = Math.max(0, left31 >> tshift);
+		int tr = Math.min((1 << INDEX_ZOOM) - 1, right31 >> tshift);
+		int tt = Math.max(0, top31 >> tshift);
+		int tb = Math.min((1 << INDEX_ZOOM) - 1, bottom31 >> tshift);
+		for (int tx = tl; tx <= tr; tx++) {
+			for (int ty = tt; ty <= tb; ty++) {
+				int key = getTileKey(tx, ty);
+				for (int stop = firstStopOfTile(key); stop < stopsCount; stop++) {
+					int x31 = getStopX31(stop);
+					int y31 = getStopY31(stop);
+					if (getTileKey(x31 >> tshift, y31 >> tshift) != key) {
+						break;
+					}
+					int x = x31 >> shift;
+					int y = y31 >> shift;
+					if (x >= left && x <= right && y >= top && y <= bottom) {
+						res.add(createStop(stop));
+					}
+				}
+			}
+		}
+		return res;
+	}
+
+	private int firstStopOfTile(int key) {
+		int tshift = 31 - INDEX_ZOOM;
+		int l = 0;
+		int r = stopsCount;
+		while (l < r) {
+			int m = (l + r) >>> 1;
+			if (getTileKey(getStopX31(m) >> tshift, getStopY31(m) >> tshift) < key) {
+				l = m + 1;
+			} else {
+				r = m;
+			}
+		}
+		return l;
+	}
+
+	private TransportStop createStop(int stop) {
+		TransportStop s = new TransportStop();
+		int shift = 31 - BinaryMapIndexReader.TRANSPORT_STOP_ZOOM;
+		s.setLocation(BinaryMapIndexReader.TRANSPORT_STOP_ZOOM, getStopX31(stop) >> shift, getStopY31(stop) >> shift);
+		s.setId(getStopId(stop));
+		int refsStart = getStopInt(stop, 0);
+		int refsCount = getStopInt(stop, 1);
+		int[] refs = new int[refsCount];
+		long[] routeIds = new long[refsCount];
+		int routeIdsCount = 0;
+		for (int i = 0; i < refsCount; i++) {
+			refs[i] = buf.getInt(refsOffset + (refsStart + i) * 4);
+			long rid = buf.getLong(routeIdsOffset + (refsStart + i) * 8);
+			if (rid != -1) {
+				routeIds[routeIdsCount++] = rid;
+			}
+		}
+		int delStart = getStopInt(stop, 2);
+		long[] deleted = new long[getStopInt(stop, 3)];
+		for (int i = 0; i < deleted.length; i++) {
+			deleted[i] = buf.getLong(deletedOffset + (delStart + i) * 8);
+		}
+		s.setReferencesToRoutes(refs);
+		s.setRoutesIds(routeIdsCount == refsCount ? routeIds : Arrays.copyOf(routeIds, routeIdsCount));
+		s.setDeletedRoutesIds(deleted);
+		return s;
+	}
+
+	private static int getTileKey(int tx, int ty) {
+		return (tx << INDEX_ZOOM) | ty;
+	}
+
+	private static int getTileKey(TransportStop s) {
+		return getTileKey(s.x31 >> (31 - INDEX_ZOOM), s.y31 >> (31 - INDEX_ZOOM));
+	}
+
+	public static void build(BinaryMapIndexReader reader, File cache, int transferRadius) throws IOException {
+		long time = System.currentTimeMillis();
+		List<TransportStop> loaded = reader.searchTransportIndex(BinaryMapIndexReader.buildSearchTransportRequest(0,
+				Integer.MAX_VALUE, 0, Integer.MAX_VALUE, -1, null));
+		int count = write(cache, loaded, reader.getFile().length(), getFileDate(reader), transferRadius);
+		log.info("Transport stops cache " + cache.getName() + " with " + count + " stops is built in "
+				+ (System.currentTimeMillis() - time) + " ms");
+	}
+
+	static int write(File cache, List<TransportStop> loaded, long obfSize, long obfDate, int transferRadius)
+			throws IOException {
+		List<TransportStop> stops = new ArrayList<TransportStop>();
+		TLongObjectHashMap<TransportStop> byId = new TLongObjectHashMap<TransportStop>();
+		for (TransportStop s : loaded) {
+			TransportStop ex = byId.get(s.getId());
+			if (ex == null) {
+				byId.put(s.getId(), s);
+				stops.add(s);
+			} else {
+				mergeStop(ex, s);
+			}
+		}
+		Collections.sort(stops, new Comparator<TransportStop>() {
+			@Override
+			public int compare(TransportStop o1, TransportStop o2) {
+				int c = Integer.compare(getTileKey(o1), getTileKey(o2));
+				return c != 0 ? c : Long.compare(o1.getId(), o2.getId());
+			}
+		});
+		List<TIntArrayList> transfers = buildTransfers(stops, transferRadius);
+		Integer[] idsOrder = new Integer[stops.size()];
+		for (int i = 0; i < idsOrder.length; i++) {
+			idsOrder[i] = i;
+		}
+		final List<TransportStop> sorted = stops;
+		Arrays.sort(idsOrder, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer o1, Integer o2) {
+				return Long.compare(sorted.get(o1).getId(), sorted.get(o2).getId());
+			}
+		});
+
+		File tmp = new File(cache.getParentFile(), cache.getName() + ".tmp");
+		if (cache.getParentFile() != null) {
+			cache.getParentFile().mkdirs();
+		}
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+		try {
+			int refsCount = 0;
+			int deletedCount = 0;
+			int transfersCount = 0;
+			for (int i = 0; i < stops.size(); i++) {
+				TransportStop s = stops.get(i);
+				refsCount += refsLength(s);
+				deletedCount += length(s.getDeletedRoutesIds());
+				transfersCount += transfers.get(i).size() / 2;
+			}
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(obfSize);
+			out.writeLong(obfDate);
+			out.writeInt(transferRadius);
+			out.writeInt(stops.size());
+			out.writeInt(refsCount);
+			out.writeInt(deletedCount);
+			out.writeInt(transfersCount);
+			out.writeInt(0);
+			int refsStart = 0;
+			int delStart = 0;
+			int trStart = 0;
+			for (int i = 0; i < stops.size(); i++) {
+				TransportStop s = stops.get(i);
+				out.writeLong(s.getId());
+				out.writeInt(s.x31);
+				out.writeInt(s.y31);
+				out.writeInt(refsStart);
+				out.writeInt(refsLength(s));
+				out.writeInt(delStart);
+				out.writeInt(length(s.getDeletedRoutesIds()));
+				out.writeInt(trStart);
+				out.writeInt(transfers.get(i).size() / 2);
+				refsStart += refsLength(s);
+				delStart += length(s.getDeletedRoutesIds());
+				trStart += transfers.get(i).size() / 2;
+			}
+			for (Integer i : idsOrder) {
+				out.writeInt(i);
+			}
+			for (TransportStop s : stops) {
+				if (s.getReferencesToRoutes() != null) {
+					for (int ref : s.getReferencesToRoutes()) {
+						out.writeInt(ref);
+					}
+				}
+			}
+			for (TransportStop s : stops) {
+				long[] routeIds = s.getRoutesIds();
+				for (int i = 0; i < refsLength(s); i++) {
+					// old format stops have no route ids
+					out.writeLong(routeIds != null && i < routeIds.length ? routeIds[i] : -1);
+				}
+			}
+			for (TransportStop s : stops) {
+				if (s.getDeletedRoutesIds() != null) {
+					for (long id : s.getDeletedRoutesIds()) {
+						out.writeLong(id);
+					}
+				}
+			}
+			for (TIntArrayList tr : transfers) {
+				for (int i = 0; i < tr.size(); i++) {
+					out.writeInt(tr.getQuick(i));
+				}
+			}
+		} finally {
+			out.close();
+		}
+		if (cache.exists() && !cache.delete()) {
+			throw new IOException("Can't replace " + cache.getAbsolutePath());
+		}
+		if (!tmp.renameTo(cache)) {
+			throw new IOException("Can't create " + cache.getAbsolutePath());
+		}
+		return stops.size();
+	}
+
+	private static int refsLength(TransportStop s) {
+		return length(s.getReferencesToRoutes());
+	}
+
+	private static int length(int[] a) {
+		return a == null ? 0 : a.length;
+	}
+
+	private static int length(long[] a) {
+		return a == null ? 0 : a.length;
+	}
+
+	private static void mergeStop(TransportStop stop, TransportStop dup) {
+		if (stop.isDeleted() || dup.isDeleted()) {
+			stop.setDeleted();
+			stop.setRoutesIds(new long[0]);
+			return;
+		}
+		int[] refs = dup.getReferencesToRoutes();
+		long[] routeIds = dup.getRoutesIds();
+		if (refs != null) {
+			TIntArrayList mrefs = new TIntArrayList(stop.getReferencesToRoutes() == null ? new int[0] : stop.getReferencesToRoutes());
+			TLongArrayList mids = new TLongArrayList(stop.getRoutesIds() == null ? new long[0] : stop.getRoutesIds());
+			boolean withIds = mids.size() == mrefs.size() && routeIds != null && routeIds.length == refs.length;
+			for (int i = 0; i < refs.length; i++) {
+				if (withIds) {
+					// route ids are parallel to references, new routes are appended as by merge of loaded stops
+					if (!mids.contains(routeIds[i])) {
+						mids.add(routeIds[i]);
+						mrefs.add(refs[i]);
+					}
+				} else if (!mrefs.contains(refs[i])) {
+					mrefs.add(refs[i]);
+				}
+			}
+			stop.setReferencesToRoutes(mrefs.toArray());
+			stop.setRoutesIds(withIds ? mids.toArray() : new long[0]);
+		}
+		if (dup.getDeletedRoutesIds() != null) {
+			for (long id : dup.getDeletedRoutesIds()) {
+				if (!stop.isRouteDeleted(id)) {
+					stop.addDeletedRouteId(id);
+				}
+			}
+		}
+	}
+
+	private static long getCellKey(int x, int y) {
+		return (((long) x) << 32) | (y & 0xffffffffL);
+	}
+
+	private static List<TIntArrayList> buildTransfers(List<TransportStop> stops, int transferRadius) {
+		int radius31 = getRadius31(transferRadius);
+		int cell = Math.max(1, radius31);
+		TLongObjectHashMap<TIntArrayList> grid = new TLongObjectHashMap<TIntArrayList>();
+		for (int i = 0; i < stops.size(); i++) {
+			TransportStop s = stops.get(i);
+			long key = getCellKey(s.x31 / cell, s.y31 / cell);
+			TIntArrayList l = grid.get(key);
+			if (l == null) {
+				l = new TIntArrayList();
+				grid.put(key, l);
+			}
+			l.add(i);
+		}
+		List<TIntArrayList> res = new ArrayList<TIntArrayList>(stops.size());
+		for (int i = 0; i < stops.size(); i++) {
+			TransportStop s = stops.get(i);
+			TIntArrayList tr = new TIntArrayList();
+			int cx = s.x31 / cell;
+			int cy = s.y31 / cell;
+			for (int x = cx - 1; x <= cx + 1; x++) {
+				for (int y = cy - 1; y <= cy + 1; y++) {
+					TIntArrayList l = grid.get(getCellKey(x, y));
+					if (l == null) {
+						continue;
+					}
+					for (int j = 0; j < l.size(); j++) {
+						int o = l.getQuick(j);
+						if (o == i) {
+							continue;
+						}
+						TransportStop t = stops.get(o);
+						if (isWithinRadius(s.x31, s.y31, t.x31, t.y31, radius31)) {
+							tr.add(o);
+							tr.add((int) Math.round(MapUtils.measuredDist31(s.x31, s.y31, t.x31, t.y31)));
+						}
+					}
+				}
+			}
+			res.add(tr);
+		}
+		return res;
+	}
+}
@@ -0,0 +1,166 @@
+package net.osmand.binary;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+import org.apache.commons.logging.Log;
+
+import net.osmand.PlatformUtil;
+
+/**
+ * Transport stops caches ({@link CachedTransportStopsIndex}) of map files kept open between route calculations.
+ *
+ * Missing or outdated cache is built once by executor in background, calculations started meanwhile
+ * read stops from the map file. Cache is acquired by calculation and released after it, outdated caches and
+ * caches of closed registry are unmapped when the last calculation releases them.
+ */
+public class CachedTransportStopsIndexes {
+
+	private static final Log log = PlatformUtil.getLog(CachedTransportStopsIndexes.class);
+
+	private final File cacheDir;
+	private final Executor executor;
+	// file name -> opened cache
+	private final Map<String, CachedIndex> indexes = new HashMap<String, CachedIndex>();
+	// outdated caches still used by calculations
+	private final List<CachedIndex> retired = new ArrayList<CachedIndex>();
+	// file, size, date and transfer radius of scheduled (or failed) builds
+	private final Set<String> builds = new HashSet<String>();
+	private boolean closed;
+
+	private static class CachedIndex {
+		final CachedTransportStopsIndex index;
+		int users;
+
+		CachedIndex(CachedTransportStopsIndex index) {
+			this.index = index;
+		}
+	}
+
+	/**
+	 * @param executor runs builds of missing caches (not shut down by registry)
+	 */
+	public CachedTransportStopsIndexes(File cacheDir, Executor executor) {
+		this.cacheDir = cacheDir;
+		this.executor = executor;
+	}
+
+	/**
+	 * Cache of reader file for the calculation till {@link #release(CachedTransportStopsIndex)},
+	 * null if cache is not built yet (build is scheduled) or file has no transport index
+	 */
+	public synchronized CachedTransportStopsIndex acquire(BinaryMapIndexReader reader, int transferRadius) {
+		if (closed || reader.getTransportIndexes().isEmpty()) {
+			return null;
+		}
+		String name = reader.getFile().getName();
+		CachedIndex ci = indexes.get(name);
+		if (ci != null && !ci.index.isValid(reader, transferRadius)) {
+			indexes.remove(name);
+			retire(ci);
+			ci = null;
+		}
+		if (ci == null) {
+			File cache = CachedTransportStopsIndex.getCacheFile(cacheDir, reader.getFile());
+			if (cache.exists()) {
+				try {
+					CachedTransportStopsIndex index = CachedTransportStopsIndex.open(cache);
+					if (index.isValid(reader, transferRadius)) {
+						ci = new CachedIndex(index);
+						indexes.put(name, ci);
+					} else {
+						index.close();
+					}
+				} catch (IOException e) {
+					log.warn("Transport stops cache " + cache.getName() + " is not readable", e);
+				}
+			}
+		}
+		if (ci == null) {
+			scheduleBuild(reader, transferRadius);
+			return null;
+		}
+		ci.users++;
+		return ci.index;
+	}
+
+	public synchronized void release(CachedTransportStopsIndex index) {
+		for (CachedIndex ci : indexes.values()) {
+			if (ci.index == index) {
+				ci.users--;
+				return;
+			}
+		}
+		for (int i = 0; i < retired.size(); i++) {
+			CachedIndex ci = retired.get(i);
+			if (ci.index == index) {
+				if (--ci.users == 0) {
+					retired.remove(i);
+					ci.index.close();
+				}
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Unmaps caches (caches used by calculations are unmapped when they are released)
+	 */
+	public synchronized void close() {
+		closed = true;
+		for (CachedIndex ci : indexes.values()) {
+			retire(ci);
+		}
+		indexes.clear();
+	}
+
+	private void retire(CachedIndex ci) {
+		if (ci.users == 0) {
+			ci.index.close();
+		} else {
+			retired.add(ci);
+		}
+	}
+
+	private void scheduleBuild(BinaryMapIndexReader reader, final int transferRadius) {
+		final File file = reader.getFile();
+		String key = file.getName() + ":" + file.length() + ":" + CachedTransportStopsIndex.getFileDate(reader) + ":"
+				+ transferRadius;
+		if (!builds.add(key)) {
+			return;
+		}
+		// reader belongs to the calculation, build reads the file by own reader
+		final BinaryMapIndexReader initial = reader;
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				File cache = CachedTransportStopsIndex.getCacheFile(cacheDir, file);
+				try {
+					RandomAccessFile raf = new RandomAccessFile(file, "r");
+					BinaryMapIndexReader r;
+					try {
+						r = new BinaryMapIndexReader(raf, initial);
+					} catch (IOException e) {
+						raf.close();
+						throw e;
+					}
+					try {
+						CachedTransportStopsIndex.build(r, cache, transferRadius);
+					} finally {
+						r.close();
+					}
+				} catch (IOException e) {
+					log.error("Transport stops cache " + cache.getName() + " is not built", e);
+				}
+			}
+		});
+	}
+}
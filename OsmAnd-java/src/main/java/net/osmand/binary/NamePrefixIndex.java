@@ -0,0 +1,133 @@
+package net.osmand.binary;
+
+import java.text.Normalizer;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import gnu.trove.list.array.TIntArrayList;
+import net.osmand.Collator;
+import net.osmand.OsmAndCollator;
+
+/**
+ * In memory copy of the name prefix table (IndexedStringTable) of poi or address index.
+ *
+ * Keys of all levels of the table are expanded to full prefixes, folded to the primary collation form
+ * (see {@link #fold(String)}) and sorted, so prefix of the query is found by binary search
+ * without reading the table from the file and without collator calls.
+ * Index is built once per region on the first search and is immutable (shared by readers of the same file).
+ */
+final class NamePrefixIndex {
+
+	// folded form of the char, 0 - not calculated yet
+	private static final char[] FOLDED_CHARS = new char[Character.MAX_VALUE + 1];
+	private static final Collator collator = OsmAndCollator.primaryCollator();
+
+	private final String[] keys;
+	private final int[] values;
+
+	NamePrefixIndex(List<String> keys, TIntArrayList values) {
+		int size = keys.size();
+		final String[] folded = new String[size];
+		for (int i = 0; i < size; i++) {
+			folded[i] = fold(keys.get(i));
+		}
+		Integer[] ind = new Integer[size];
+		for (int i = 0; i < size; i++) {
+			ind[i] = i;
+		}
+		Arrays.sort(ind, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer o1, Integer o2) {
+				return folded[o1].compareTo(folded[o2]);
+			}
+		});
+		this.keys = new String[size];
+		this.values = new int[size];
+		for (int i = 0; i < size; i++) {
+			this.keys[i] = folded[ind[i]];
+			this.values[i] = values.get(ind[i]);
+		}
+	}
+
+	int size() {
+		return keys.length;
+	}
+
+	/**
+	 * Same matching as {@link BinaryMapIndexReader#readIndexedStringTable} : values of keys which start with query
+	 * or (if there are no such keys) values of the longest keys which are prefix of the query.
+	 * @return length of matched part of the query
+	 */
+	int search(String query, TIntArrayList list) {
+		String q = fold(query);
+		int from = lowerBound(q);
+		int to = from;
+		while (to < keys.length && keys[to].startsWith(q)) {
+			to++;
+		}
+		if (to > from) {
+			list.add(values, from, to - from);
+			return q.length();
+		}
+		for (int l = q.length() - 1; l > 0; l--) {
+			String prefix = q.substring(0, l);
+			int i = lowerBound(prefix);
+			if (i < keys.length && keys[i].equals(prefix)) {
+				for (; i < keys.length && keys[i].equals(prefix); i++) {
+					list.add(values[i]);
+				}
+				return l;
+			}
+		}
+		return 0;
+	}
+
+	private int lowerBound(String key) {
+		int lo = 0;
+		int hi = keys.length;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (keys[mid].compareTo(key) < 0) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	/**
+	 * Folds every char to the base letter (lower case without diacritics) if collator treats them as equal,
+	 * so chars of folded strings are equal only if they are equal for the primary collator.
+	 */
+	static String fold(String s) {
+		char[] res = null;
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			char f = foldChar(c);
+			if (f != c && res == null) {
+				res = s.toCharArray();
+			}
+			if (res != null) {
+				res[i] = f;
+			}
+		}
+		return res == null ? s : new String(res);
+	}
+
+	private static char foldChar(char c) {
+		char f = FOLDED_CHARS[c];
+		if (f == 0) {
+			f = c;
+			String d = Normalizer.normalize(String.valueOf(c), Normalizer.Form.NFD);
+			char base = Character.toLowerCase(d.length() > 0 ? d.charAt(0) : c);
+			if (base != c && base != 0 && collator.equals(String.valueOf(c), String.valueOf(base))) {
+				f = base;
+			}
+			// calculation is deterministic, so concurrent writes are harmless
+			FOLDED_CHARS[c] = f;
+		}
+		return f;
+	}
+}
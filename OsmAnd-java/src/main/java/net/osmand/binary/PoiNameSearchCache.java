@@ -0,0 +1,212 @@
+package net.osmand.binary;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.hash.TIntObjectHashMap;
+import net.osmand.binary.BinaryMapIndexReader.SearchRequest;
+import net.osmand.binary.BinaryMapPoiReaderAdapter.PoiRegion;
+import net.osmand.data.Amenity;
+
+/**
+ * Data read by the last poi search by name of the region : atoms of name index data and pois of subtrees
+ * by their file offsets. Both don't depend on the query (name and bbox are checked after reading),
+ * so search of the query which extends the previous one (next typed char) reads from the file only
+ * data which wasn't read before (see {@link BinaryMapIndexReader#USE_INCREMENTAL_NAME_SEARCH}).
+ *
+ * Cache is replaced when query doesn't extend the cached one, it could be used by readers of the same file.
+ * Caches of all regions are limited together (the least recently used caches are released to cache new data)
+ * and released when they are not used for {@link #CACHE_TIMEOUT} (typing is finished) or file is closed.
+ */
+final class PoiNameSearchCache {
+
+	// limits of data cached by all regions
+	static final int MAX_CACHED_ATOMS = 200000;
+	static final int MAX_CACHED_POIS = 20000;
+	static final long CACHE_TIMEOUT = 30000;
+
+	// region -> cache, all caches are accessed under lock of the map
+	private static final Map<PoiRegion, PoiNameSearchCache> caches = new IdentityHashMap<PoiRegion, PoiNameSearchCache>();
+	private static int cachedAtoms;
+	private static int cachedPois;
+
+	private final String query;
+	// name index data offset -> x31, y31, shift to subtree of atoms
+	private final TIntObjectHashMap<int[]> atoms = new TIntObjectHashMap<int[]>();
+	// subtree offset -> all pois of subtree
+	private final TIntObjectHashMap<Subtree> subtrees = new TIntObjectHashMap<Subtree>();
+	private int atomsSize;
+	private int poisSize;
+	private long lastAccessTime;
+
+	/**
+	 * Pois of subtree and counters of request which were increased by reading of subtree till each poi
+	 * (search with limit stops reading after the poi which exceeds limit) and till the end of subtree
+	 */
+	static final class Subtree {
+		final List<Amenity> pois = new ArrayList<Amenity>();
+		private final TIntArrayList visitedObjects = new TIntArrayList();
+		private final TIntArrayList acceptedObjects = new TIntArrayList();
+		private int allVisitedObjects;
+		private int allAcceptedObjects;
+
+		void addPoi(Amenity am, int visitedObjects, int acceptedObjects) {
+			pois.add(am);
+			this.visitedObjects.add(visitedObjects);
+			this.acceptedObjects.add(acceptedObjects);
+		}
+
+		void setCounters(int visitedObjects, int acceptedObjects) {
+			allVisitedObjects = visitedObjects;
+			allAcceptedObjects = acceptedObjects;
+		}
+
+		/**
+		 * @param read number of pois processed by search or -1 if whole subtree is processed
+		 */
+		void addCounters(SearchRequest<Amenity> req, int read) {
+			if (read > 0 && read <= pois.size()) {
+				req.numberOfVisitedObjects += visitedObjects.get(read - 1);
+				req.numberOfAcceptedObjects += acceptedObjects.get(read - 1);
+			} else {
+				req.numberOfVisitedObjects += allVisitedObjects;
+				req.numberOfAcceptedObjects += allAcceptedObjects;
+			}
+		}
+	}
+
+	private PoiNameSearchCache(String query) {
+		this.query = query;
+	}
+
+	/**
+	 * @return cache of the region for query (cache of the previous query if query extends it)
+	 */
+	static PoiNameSearchCache get(PoiRegion region, String query) {
+		synchronized (caches) {
+			long time = System.currentTimeMillis();
+			Iterator<PoiNameSearchCache> it = caches.values().iterator();
+			while (it.hasNext()) {
+				PoiNameSearchCache c = it.next();
+				if (time - c.lastAccessTime > CACHE_TIMEOUT) {
+					c.clear();
+					it.remove();
+				}
+			}
+			PoiNameSearchCache cache = caches.get(region);
+			if (cache == null || !query.startsWith(cache.query)) {
+				if (cache != null) {
+					cache.clear();
+				}
+				cache = new PoiNameSearchCache(query);
+				caches.put(region, cache);
+			}
+			cache.lastAccessTime = time;
+			return cache;
+		}
+	}
+
+	/**
+	 * Releases caches of regions (file is closed)
+	 */
+	static void release(List<PoiRegion> regions) {
+		synchronized (caches) {
+			for (PoiRegion region : regions) {
+				PoiNameSearchCache cache = caches.remove(region);
+				if (cache != null) {
+					cache.clear();
+				}
+			}
+		}
+	}
+
+	static int getCachedPois() {
+		synchronized (caches) {
+			return cachedPois;
+		}
+	}
+
+	int[] getAtoms(int offset) {
+		synchronized (caches) {
+			return atoms.get(offset);
+		}
+	}
+
+	void putAtoms(int offset, int[] a) {
+		synchronized (caches) {
+			if (a.length <= MAX_CACHED_ATOMS && !atoms.containsKey(offset) && isCached()) {
+				while (cachedAtoms + a.length > MAX_CACHED_ATOMS) {
+					if (!releaseLeastRecentlyUsed()) {
+						break;
+					}
+				}
+				if (cachedAtoms + a.length <= MAX_CACHED_ATOMS) {
+					atoms.put(offset, a);
+					atomsSize += a.length;
+					cachedAtoms += a.length;
+				}
+			}
+		}
+	}
+
+	Subtree getSubtree(int offset) {
+		synchronized (caches) {
+			return subtrees.get(offset);
+		}
+	}
+
+	void putSubtree(int offset, Subtree subtree) {
+		synchronized (caches) {
+			int size = subtree.pois.size();
+			if (size <= MAX_CACHED_POIS && !subtrees.containsKey(offset) && isCached()) {
+				while (cachedPois + size > MAX_CACHED_POIS) {
+					if (!releaseLeastRecentlyUsed()) {
+						break;
+					}
+				}
+				if (cachedPois + size <= MAX_CACHED_POIS) {
+					subtrees.put(offset, subtree);
+					poisSize += size;
+					cachedPois += size;
+				}
+			}
+		}
+	}
+
+	// cache is released (replaced by another query or timed out) while search is running
+	private boolean isCached() {
+		return caches.containsValue(this);
+	}
+
+	// releases the least recently used cache of other region
+	private boolean releaseLeastRecentlyUsed() {
+		PoiRegion lruRegion = null;
+		PoiNameSearchCache lru = null;
+		for (Map.Entry<PoiRegion, PoiNameSearchCache> e : caches.entrySet()) {
+			PoiNameSearchCache c = e.getValue();
+			if (c != this && (lru == null || c.lastAccessTime < lru.lastAccessTime)) {
+				lruRegion = e.getKey();
+				lru = c;
+			}
+		}
+		if (lru == null) {
+			return false;
+		}
+		lru.clear();
+		caches.remove(lruRegion);
+		return true;
+	}
+
+	private void clear() {
+		cachedAtoms -= atomsSize;
+		cachedPois -= poisSize;
+		atomsSize = 0;
+		poisSize = 0;
+		atoms.clear();
+		subtrees.clear();
+	}
+}
@@ -3,6 +3,7 @@ package net.osmand.binary;
 import net.osmand.Location;
 import net.osmand.binary.BinaryMapRouteReaderAdapter.RouteRegion;
 import net.osmand.binary.BinaryMapRouteReaderAdapter.RouteTypeRule;
+import net.osmand.router.RoadTurnInfo;
 import net.osmand.util.Algorithms;
 import net.osmand.util.MapUtils;
 import net.osmand.util.TransliterationHelper;
@@ -33,7 +34,10 @@ public class RouteDataObject {
 	public final static float NONE_MAX_SPEED = 40f;
 	public int[] nameIds;
 	// mixed array [0, height, cumulative_distance height, cumulative_distance, height, ...] - length is length(points)*2
-	public float[] heightDistanceArray = null;
+	// published when it is filled, road could be shared between threads
+	public volatile float[] heightDistanceArray = null;
+	// decoded turn lanes and restrictions (see RoadTurnInfo.get), shared by copies while types are the same
+	public RoadTurnInfo turnInfo;
 
 	public RouteDataObject(RouteRegion region) {
 		this.region = region;
@@ -62,6 +66,7 @@ public class RouteDataObject {
 		this.pointNames = copy.pointNames;
 		this.pointNameTypes = copy.pointNameTypes;
 		this.id = copy.id;
+		this.turnInfo = copy.turnInfo;
 	}
 
 	public boolean compareRoute(RouteDataObject thatObj) {
@@ -171,7 +176,8 @@ public class RouteDataObject {
 			return heightDistanceArray;
 		}
 
-		heightDistanceArray = new float[2*getPointsLength()];
+		// array is published when it is filled (road could be shared between threads)
+		float[] heightDistanceArray = new float[2*getPointsLength()];
 		double plon = 0;
 		double plat = 0;
 		float prevHeight = startHeight;
@@ -220,6 +226,7 @@ public class RouteDataObject {
 			plat = lat;
 			plon = lon;
 		}
+		this.heightDistanceArray = heightDistanceArray;
 		return heightDistanceArray;
 	}
 
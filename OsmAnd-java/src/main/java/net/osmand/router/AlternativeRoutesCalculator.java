@@ -0,0 +1,420 @@
+package net.osmand.router;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.apache.commons.logging.Log;
+
+import gnu.trove.list.array.TLongArrayList;
+import gnu.trove.map.hash.TLongObjectHashMap;
+import gnu.trove.set.hash.TLongHashSet;
+import net.osmand.PlatformUtil;
+import net.osmand.binary.RouteDataObject;
+import net.osmand.router.BinaryRoutePlanner.FinalRouteSegment;
+import net.osmand.router.BinaryRoutePlanner.RouteSegment;
+
+/**
+ * Alternative routes by via point (plateau) method.
+ *
+ * Bidirectional search of {@link BinaryRoutePlanner} continues after the best route is found and every meeting of
+ * forward and reverse search trees is a via point candidate: route from start to via point (forward tree) and from
+ * via point to target (reverse tree). Plateau of the candidate is the part of the route around via point which is
+ * the shortest path in both trees : forward tree reaches the points after via point by the same route and reverse tree
+ * reaches the points before via point by the same route. Long plateau is required for locally optimal route
+ * (short plateau means that the route is a detour to reach via point and come back).
+ * Candidates are evaluated in parallel (trees are not changed anymore) and accepted greedily by cost when they are not
+ * too slow and share limited part with the best route and already accepted alternatives.
+ */
+public class AlternativeRoutesCalculator {
+
+	private static final Log log = PlatformUtil.getLog(AlternativeRoutesCalculator.class);
+
+	// alternative route could be at most 25% slower than the best
+	public static final float DEFAULT_MAX_STRETCH = 0.25f;
+	// part of the alternative route (by distance) which could be shared with the best and other alternatives
+	public static final float DEFAULT_MAX_SHARING = 0.7f;
+	public static final int DEFAULT_ALTERNATIVES = 2;
+	// plateau should be at least 10% of the alternative part of the route
+	private static final float MIN_PLATEAU_RATIO = 0.1f;
+	// search continues at most for same number of segments as visited by the best route search
+	private static final float VISITED_SEGMENTS_BUDGET = 1f;
+	private static final int MAX_CANDIDATES = 1024;
+
+	private final ForkJoinPool pool;
+	private float maxStretch = DEFAULT_MAX_STRETCH;
+	private float maxSharing = DEFAULT_MAX_SHARING;
+	private int maxAlternatives = DEFAULT_ALTERNATIVES;
+
+	private FinalRouteSegment bestRoute;
+	private final List<FinalRouteSegment> candidates = new ArrayList<FinalRouteSegment>();
+	// visited segments of forward and reverse search (not changed after the search)
+	private TLongObjectHashMap<RouteSegment> visitedDirectSegments;
+	private TLongObjectHashMap<RouteSegment> visitedOppositeSegments;
+
+	/**
+	 * @param pool evaluates candidates (pool is not shut down by calculator)
+	 */
+	public AlternativeRoutesCalculator(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Calculator using common pool (not available on Android before API 24, app passes own pool)
+	 */
+	public AlternativeRoutesCalculator() {
+		this(ForkJoinPool.commonPool());
+	}
+
+	public AlternativeRoutesCalculator setMaxStretch(float maxStretch) {
+		this.maxStretch = maxStretch;
+		return this;
+	}
+
+	public AlternativeRoutesCalculator setMaxSharing(float maxSharing) {
+		this.maxSharing = maxSharing;
+		return this;
+	}
+
+	public AlternativeRoutesCalculator setMaxAlternatives(int maxAlternatives) {
+		this.maxAlternatives = maxAlternatives;
+		return this;
+	}
+
+	void setBestRoute(FinalRouteSegment bestRoute, TLongObjectHashMap<RouteSegment> visitedDirectSegments,
+			TLongObjectHashMap<RouteSegment> visitedOppositeSegments) {
+		this.bestRoute = bestRoute;
+		this.visitedDirectSegments = visitedDirectSegments;
+		this.visitedOppositeSegments = visitedOppositeSegments;
+		this.candidates.clear();
+	}
+
+	float getMaxCost() {
+		return bestRoute.distanceFromStart * (1 + maxStretch);
+	}
+
+	int getVisitedSegmentsBudget(int visitedSegments) {
+		return (int) (visitedSegments * VISITED_SEGMENTS_BUDGET);
+	}
+
+	void addCandidate(FinalRouteSegment candidate) {
+		candidates.add(candidate);
+	}
+
+	boolean isFull() {
+		return candidates.size() >= MAX_CANDIDATES;
+	}
+
+	int getCandidatesSize() {
+		return candidates.size();
+	}
+
+	/**
+	 * Route (sequence of road intervals) passing through via point
+	 */
+	private static class CandidateRoute {
+		final FinalRouteSegment finalSegment;
+		// road intervals with length in meters (direction is not important to compare routes)
+		final TLongHashSet intervals = new TLongHashSet();
+		final TLongArrayList intervalIds = new TLongArrayList();
+		float[] intervalLengths = new float[16];
+		// intervals of the route from via point to start (forward tree) and from via point to target (reverse tree)
+		final List<RouteInterval> toStart = new ArrayList<RouteInterval>();
+		final List<RouteInterval> toTarget = new ArrayList<RouteInterval>();
+		float length;
+		float sharedWithBest;
+		float plateau;
+
+		CandidateRoute(FinalRouteSegment finalSegment) {
+			this.finalSegment = finalSegment;
+		}
+
+		float getCost() {
+			return finalSegment.distanceFromStart;
+		}
+
+		void build() {
+			FinalRouteSegment fs = finalSegment;
+			// same traversal of both trees as RouteResultPreparation.convertFinalSegmentToResults
+			RouteSegment segment = fs.reverseWaySearch ? fs : fs.opposite.getParentRoute();
+			int parentSegmentStart = fs.reverseWaySearch ? fs.opposite.getSegmentStart() : fs.opposite.getParentSegmentEnd();
+			while (segment != null) {
+				// road is passed from parentSegmentStart to segment start
+				addIntervals(segment.getRoad(), parentSegmentStart, segment.getSegmentStart(), toTarget);
+				parentSegmentStart = segment.getParentSegmentEnd();
+				segment = segment.getParentRoute();
+			}
+			segment = fs.reverseWaySearch ? fs.opposite.getParentRoute() : fs;
+			int parentSegmentEnd = fs.reverseWaySearch ? fs.opposite.getParentSegmentEnd() : fs.opposite.getSegmentStart();
+			while (segment != null) {
+				// road is passed from segment start to parentSegmentEnd
+				addIntervals(segment.getRoad(), parentSegmentEnd, segment.getSegmentStart(), toStart);
+				parentSegmentEnd = segment.getParentSegmentEnd();
+				segment = segment.getParentRoute();
+			}
+		}
+
+		/**
+		 * Adds intervals of the road between points in order from point closer to via point
+		 */
+		private void addIntervals(RouteDataObject road, int fromVia, int to, List<RouteInterval> ordered) {
+			int step = to > fromVia ? 1 : -1;
+			// route passes road in positive direction towards target
+			boolean positive = (ordered == toTarget) == (to > fromVia);
+			for (int p = fromVia; p != to; p += step) {
+				int i = Math.min(p, p + step);
+				ordered.add(new RouteInterval(road, i, positive));
+				long id = intervalId(road, i);
+				if (intervals.add(id)) {
+					float d = intervalLength(road, i);
+					if (intervalIds.size() == intervalLengths.length) {
+						intervalLengths = Arrays.copyOf(intervalLengths, intervalLengths.length * 2);
+					}
+					intervalLengths[intervalIds.size()] = d;
+					intervalIds.add(id);
+					length += d;
+				}
+			}
+		}
+
+		/**
+		 * Length of the route part around via point where forward tree continues by the route after via point
+		 * and reverse tree continues by the route before via point.
+		 */
+		void calculatePlateau(TLongObjectHashMap<RouteSegment> visitedDirect, TLongObjectHashMap<RouteSegment> visitedOpposite) {
+			plateau = 0;
+			if (toStart.isEmpty() || toTarget.isEmpty()) {
+				return;
+			}
+			plateau += sharedTreePath(visitedDirect, true, toStart.get(0), toTarget);
+			plateau += sharedTreePath(visitedOpposite, false, toTarget.get(0), toStart);
+		}
+
+		/**
+		 * Length of the route intervals (in order from via point) which continue the tree path of the first interval
+		 */
+		private static float sharedTreePath(TLongObjectHashMap<RouteSegment> visited, boolean forwardTree,
+				RouteInterval first, List<RouteInterval> ordered) {
+			float shared = 0;
+			RouteSegment prev = visited.get(first.getVisitedId(forwardTree));
+			for (int i = 0; i < ordered.size() && prev != null; i++) {
+				RouteInterval ri = ordered.get(i);
+				RouteSegment s = visited.get(ri.getVisitedId(forwardTree));
+				if (s == null || !isTreeChild(prev, s)) {
+					break;
+				}
+				shared += intervalLength(ri.road, ri.interval);
+				prev = s;
+			}
+			return shared;
+		}
+
+		float sharedLength(CandidateRoute other) {
+			float shared = 0;
+			for (int i = 0; i < intervalIds.size(); i++) {
+				if (other.intervals.contains(intervalIds.getQuick(i))) {
+					shared += intervalLengths[i];
+				}
+			}
+			return shared;
+		}
+
+		boolean isSameRoute(CandidateRoute other) {
+			if (intervals.size() != other.intervals.size() || Math.abs(length - other.length) > 1) {
+				return false;
+			}
+			for (int i = 0; i < intervalIds.size(); i++) {
+				if (!other.intervals.contains(intervalIds.getQuick(i))) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Road interval passed by the route in positive or negative direction
+	 */
+	private static class RouteInterval {
+		final RouteDataObject road;
+		final int interval;
+		final boolean positive;
+
+		RouteInterval(RouteDataObject road, int interval, boolean positive) {
+			this.road = road;
+			this.interval = interval;
+			this.positive = positive;
+		}
+
+		// reverse search passes roads in opposite direction
+		long getVisitedId(boolean forwardTree) {
+			return BinaryRoutePlanner.calculateRoutePointId(road, interval, forwardTree == positive);
+		}
+	}
+
+	/**
+	 * Segment where tree enters the road (visited segments of the road passing are linked by parent to it)
+	 */
+	private static RouteSegment getRoadEntry(RouteSegment s) {
+		RouteSegment p = s.getParentRoute();
+		while (p != null && p.getRoad().getId() == s.getRoad().getId() && p.isPositive() == s.isPositive()) {
+			s = p;
+			p = s.getParentRoute();
+		}
+		return s;
+	}
+
+	/**
+	 * Tree path to segment passes the parent segment : both are on the same road passing or segment's road is
+	 * entered from the road passing of parent
+	 */
+	private static boolean isTreeChild(RouteSegment parent, RouteSegment segment) {
+		RouteSegment parentEntry = getRoadEntry(parent);
+		RouteSegment entry = getRoadEntry(segment);
+		if (entry == parentEntry) {
+			return true;
+		}
+		return entry.getParentRoute() != null && getRoadEntry(entry.getParentRoute()) == parentEntry;
+	}
+
+	private static long intervalId(RouteDataObject road, int interval) {
+		return BinaryRoutePlanner.calculateRoutePointId(road, interval, true);
+	}
+
+	private static float intervalLength(RouteDataObject road, int interval) {
+		return (float) BinaryRoutePlanner.squareRootDist(road.getPoint31XTile(interval), road.getPoint31YTile(interval),
+				road.getPoint31XTile(interval + 1), road.getPoint31YTile(interval + 1));
+	}
+
+	private static class CandidatesTask extends RecursiveAction {
+		private static final long serialVersionUID = -3409428317562394523L;
+		private final List<CandidateRoute> routes;
+		private final CandidateRoute best;
+		private final TLongObjectHashMap<RouteSegment> visitedDirect;
+		private final TLongObjectHashMap<RouteSegment> visitedOpposite;
+		private final int from;
+		private final int to;
+		private final int threshold;
+
+		CandidatesTask(List<CandidateRoute> routes, CandidateRoute best, TLongObjectHashMap<RouteSegment> visitedDirect,
+				TLongObjectHashMap<RouteSegment> visitedOpposite, int from, int to, int threshold) {
+			this.routes = routes;
+			this.best = best;
+			this.visitedDirect = visitedDirect;
+			this.visitedOpposite = visitedOpposite;
+			this.from = from;
+			this.to = to;
+			this.threshold = threshold;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > threshold) {
+				int middle = (from + to) >>> 1;
+				invokeAll(new CandidatesTask(routes, best, visitedDirect, visitedOpposite, from, middle, threshold),
+						new CandidatesTask(routes, best, visitedDirect, visitedOpposite, middle, to, threshold));
+				return;
+			}
+			for (int i = from; i < to; i++) {
+				CandidateRoute r = routes.get(i);
+				r.build();
+				r.sharedWithBest = r.sharedLength(best);
+				// trees are only read
+				r.calculatePlateau(visitedDirect, visitedOpposite);
+			}
+		}
+	}
+
+	/**
+	 * Selects alternative routes (final segments) among collected candidates, the best route is not included.
+	 */
+	List<FinalRouteSegment> selectAlternatives() {
+		List<FinalRouteSegment> res = new ArrayList<FinalRouteSegment>();
+		if (bestRoute == null || candidates.isEmpty() || maxAlternatives <= 0) {
+			return res;
+		}
+		CandidateRoute best = new CandidateRoute(bestRoute);
+		best.build();
+		List<CandidateRoute> routes = new ArrayList<CandidateRoute>(candidates.size());
+		for (FinalRouteSegment c : candidates) {
+			routes.add(new CandidateRoute(c));
+		}
+		int threshold = Math.max(1, routes.size() / (pool.getParallelism() * 4));
+		pool.invoke(new CandidatesTask(routes, best, visitedDirectSegments, visitedOppositeSegments, 0, routes.size(),
+				threshold));
+		// trees are not needed anymore
+		visitedDirectSegments = null;
+		visitedOppositeSegments = null;
+
+		Collections.sort(routes, new Comparator<CandidateRoute>() {
+			@Override
+			public int compare(CandidateRoute o1, CandidateRoute o2) {
+				return Float.compare(o1.getCost(), o2.getCost());
+			}
+		});
+		// merge candidates of the same route (equal cost doesn't mean same route, so routes are compared)
+		List<CandidateRoute> distinct = new ArrayList<CandidateRoute>();
+		for (CandidateRoute r : routes) {
+			if (r.length - r.sharedWithBest < 1) {
+				// best route itself
+				continue;
+			}
+			CandidateRoute same = null;
+			for (int i = distinct.size() - 1; i >= 0 && same == null; i--) {
+				CandidateRoute d = distinct.get(i);
+				if (Math.abs(d.getCost() - r.getCost()) <= 1 && d.isSameRoute(r)) {
+					same = d;
+				}
+			}
+			if (same == null) {
+				distinct.add(r);
+			} else {
+				// via points of the same route have the same plateau unless trees were changed by restrictions
+				same.plateau = Math.max(same.plateau, r.plateau);
+			}
+		}
+		List<CandidateRoute> accepted = new ArrayList<CandidateRoute>();
+		for (CandidateRoute r : distinct) {
+			if (accepted.size() >= maxAlternatives) {
+				break;
+			}
+			float alternativePart = r.length - r.sharedWithBest;
+			if (r.sharedWithBest > maxSharing * r.length || r.plateau < MIN_PLATEAU_RATIO * alternativePart) {
+				continue;
+			}
+			boolean differs = true;
+			for (CandidateRoute a : accepted) {
+				if (r.sharedLength(a) > maxSharing * Math.min(r.length, a.length)) {
+					differs = false;
+					break;
+				}
+			}
+			if (differs) {
+				accepted.add(r);
+				res.add(r.finalSegment);
+			}
+		}
+		log.info("Alternative routes: " + candidates.size() + " via points, " + distinct.size() + " distinct routes, "
+				+ accepted.size() + " accepted");
+		return res;
+	}
+
+	/**
+	 * Prepares results of selected alternatives (best route should be prepared separately)
+	 */
+	List<List<RouteSegmentResult>> prepareAlternatives(RoutingContext ctx) throws IOException {
+		List<List<RouteSegmentResult>> res = new ArrayList<List<RouteSegmentResult>>();
+		float routingTime = ctx.routingTime;
+		// preparation attaches roads and loads tiles of the context, so it runs sequentially
+		for (FinalRouteSegment alt : selectAlternatives()) {
+			res.add(new RouteResultPreparation().prepareResult(ctx, alt));
+		}
+		ctx.routingTime = routingTime;
+		return res;
+	}
+}
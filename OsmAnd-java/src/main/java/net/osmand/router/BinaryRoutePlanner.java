@@ -7,7 +7,6 @@ import java.text.MessageFormat;
 import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
-import java.util.PriorityQueue;
 
 import net.osmand.PlatformUtil;
 import net.osmand.binary.RouteDataObject;
@@ -30,6 +29,10 @@ public class BinaryRoutePlanner {
 	private static final int ROUTE_POINTS = 11;
 	private static final boolean TRACE_ROUTING = false;
 
+	// speed overlay snapshot used by the whole calculation (null if there is no overlay)
+	private RouteSpeedOverlay.Snapshot speedOverlay;
+	private float departureMinuteOfWeek;
+
 
 	public static double squareRootDist(int x1, int y1, int x2, int y2) {
 		return MapUtils.squareRootDist31(x1, y1, x2, y2);
@@ -37,19 +40,6 @@ public class BinaryRoutePlanner {
 	}
 
 
-	private static class SegmentsComparator implements Comparator<RouteSegment> {
-		final RoutingContext ctx;
-
-		public SegmentsComparator(RoutingContext ctx) {
-			this.ctx = ctx;
-		}
-
-		@Override
-		public int compare(RouteSegment o1, RouteSegment o2) {
-			return ctx.roadPriorityComparator(o1.distanceFromStart, o1.distanceToEnd, o2.distanceFromStart, o2.distanceToEnd);
-		}
-	}
-
 	private static class NonHeuristicSegmentsComparator implements Comparator<RouteSegment> {
 		public NonHeuristicSegmentsComparator() {
 		}
@@ -64,35 +54,69 @@ public class BinaryRoutePlanner {
 	 * Calculate route between start.segmentEnd and end.segmentStart (using A* algorithm)
 	 * return list of segments
 	 */
-	@SuppressWarnings("unused")
 	FinalRouteSegment searchRouteInternal(final RoutingContext ctx, RouteSegmentPoint start, RouteSegmentPoint end,
 			RouteSegment recalculationEnd ) throws InterruptedException, IOException {
+		return searchRouteInternal(ctx, start, end, recalculationEnd, null);
+	}
+
+	/**
+	 * Calculate route between start.segmentEnd and end.segmentStart (using A* algorithm).
+	 * If reverse tree is not empty only forward search is run till it meets the tree (incremental recalculation),
+	 * otherwise reverse search stores visited segments in the tree.
+	 */
+	FinalRouteSegment searchRouteInternal(final RoutingContext ctx, RouteSegmentPoint start, RouteSegmentPoint end,
+			RouteSegment recalculationEnd, ReverseSearchTree reverseTree) throws InterruptedException, IOException {
+		return searchRouteInternal(ctx, start, end, recalculationEnd, reverseTree, null);
+	}
+
+	/**
+	 * Calculate route between start.segmentEnd and end.segmentStart (using A* algorithm).
+	 * If alternatives are requested bidirectional search continues after the route is found and all meetings of
+	 * forward and reverse search with acceptable cost are passed to the calculator as via point candidates.
+	 */
+	@SuppressWarnings("unused")
+	FinalRouteSegment searchRouteInternal(final RoutingContext ctx, RouteSegmentPoint start, RouteSegmentPoint end,
+			RouteSegment recalculationEnd, ReverseSearchTree reverseTree, AlternativeRoutesCalculator alternatives)
+			throws InterruptedException, IOException {
 		// measure time
+		long searchStart = System.nanoTime();
 		ctx.timeToLoad = 0;
 		ctx.memoryOverhead = 1000;
 		ctx.visitedSegments = 0;
+		initSpeedOverlay(ctx);
 
 		// Initializing priority queue to visit way segments 
 		Comparator<RouteSegment> nonHeuristicSegmentsComparator = new NonHeuristicSegmentsComparator();
-		PriorityQueue<RouteSegment> graphDirectSegments = new PriorityQueue<RouteSegment>(50, new SegmentsComparator(ctx));
-		PriorityQueue<RouteSegment> graphReverseSegments = new PriorityQueue<RouteSegment>(50, new SegmentsComparator(ctx));
+		boolean incremental = reverseTree != null && !reverseTree.isEmpty();
+		// meetings with reverse tree are queued with full cost, with admissible heuristic the first polled meeting
+		// is the best one (queue minimum reached its cost)
+		double directHeuristic = incremental ? Math.min(1, ctx.config.heuristicCoefficient) : ctx.config.heuristicCoefficient;
+		RouteSegmentQueue graphDirectSegments = new RouteSegmentQueue(directHeuristic);
+		RouteSegmentQueue graphReverseSegments = new RouteSegmentQueue(ctx.config.heuristicCoefficient);
 
 		// Set to not visit one segment twice (stores road.id << X + segmentStart)
 		TLongObjectHashMap<RouteSegment> visitedDirectSegments = new TLongObjectHashMap<RouteSegment>();
-		TLongObjectHashMap<RouteSegment> visitedOppositeSegments = new TLongObjectHashMap<RouteSegment>();
+		TLongObjectHashMap<RouteSegment> visitedOppositeSegments = reverseTree != null ? reverseTree.getVisitedSegments()
+				: new TLongObjectHashMap<RouteSegment>();
 
 		initQueuesWithStartEnd(ctx, start, end, recalculationEnd, graphDirectSegments, graphReverseSegments, 
 				visitedDirectSegments, visitedOppositeSegments);
+		if (incremental) {
+			// reverse search is already done by previous calculation
+			graphReverseSegments.clear();
+		}
 
 		// Extract & analyze segment with min(f(x)) from queue while final segment is not found
 		boolean forwardSearch = true;
 
-		PriorityQueue<RouteSegment> graphSegments = graphDirectSegments;
+		RouteSegmentQueue graphSegments = graphDirectSegments;
 
 		FinalRouteSegment finalSegment = null;
-		boolean onlyBackward = ctx.getPlanRoadDirection() < 0;
-		boolean onlyForward = ctx.getPlanRoadDirection() > 0;
+		boolean onlyBackward = !incremental && ctx.getPlanRoadDirection() < 0;
+		boolean onlyForward = incremental || ctx.getPlanRoadDirection() > 0;
+		int maxQueueSize = 0;
 		while (!graphSegments.isEmpty()) {
+			maxQueueSize = Math.max(maxQueueSize, Math.max(graphDirectSegments.size(), graphReverseSegments.size()));
 			RouteSegment segment = graphSegments.poll();
 			// use accumulative approach
 			ctx.memoryOverhead = (visitedDirectSegments.size() + visitedOppositeSegments.size()) * STANDARD_ROAD_VISITED_OVERHEAD +
@@ -133,11 +157,13 @@ public class BinaryRoutePlanner {
 			}
 			updateCalculationProgress(ctx, graphDirectSegments, graphReverseSegments);
 
-			checkIfGraphIsEmpty(ctx, ctx.getPlanRoadDirection() <= 0, graphReverseSegments, end, visitedOppositeSegments,
+			checkIfGraphIsEmpty(ctx, !incremental && ctx.getPlanRoadDirection() <= 0, graphReverseSegments, end, visitedOppositeSegments,
 					"Route is not found to selected target point.");
-			checkIfGraphIsEmpty(ctx, ctx.getPlanRoadDirection() >= 0, graphDirectSegments, start, visitedDirectSegments,
+			checkIfGraphIsEmpty(ctx, incremental || ctx.getPlanRoadDirection() >= 0, graphDirectSegments, start, visitedDirectSegments,
 					"Route is not found from selected start point.");
-			if (ctx.planRouteIn2Directions()) {
+			if (incremental) {
+				forwardSearch = true;
+			} else if (ctx.planRouteIn2Directions()) {
 				forwardSearch = (nonHeuristicSegmentsComparator.compare(graphDirectSegments.peek(), graphReverseSegments.peek()) < 0);
 //				if (graphDirectSegments.size() * 2 > graphReverseSegments.size()) {
 //					forwardSearch = false;
@@ -165,13 +191,115 @@ public class BinaryRoutePlanner {
 				throw new InterruptedException("Route calculation interrupted");
 			}
 		}
+		if (alternatives != null && finalSegment != null && !incremental && ctx.planRouteIn2Directions()) {
+			alternatives.setBestRoute(finalSegment, visitedDirectSegments, visitedOppositeSegments);
+			searchAlternativeMeetings(ctx, alternatives, graphDirectSegments, graphReverseSegments, visitedDirectSegments,
+					visitedOppositeSegments);
+		}
 		ctx.visitedSegments = visitedDirectSegments.size() + visitedOppositeSegments.size();
 		printDebugMemoryInformation(ctx, graphDirectSegments, graphReverseSegments, visitedDirectSegments, visitedOppositeSegments);
+		if (ctx.metricsListener != null) {
+			ctx.metricsListener.phaseFinished(RoutingMetricsListener.Phase.SEARCH, System.nanoTime() - searchStart);
+			ctx.metricsListener.phaseFinished(RoutingMetricsListener.Phase.TILE_LOAD, ctx.timeToLoad);
+			ctx.metricsListener.searchFinished(ctx.visitedSegments, maxQueueSize, ctx.getCurrentlyLoadedTiles(),
+					(long) ctx.getCurrentEstimatedSize() + ctx.memoryOverhead);
+		}
 		return finalSegment;
 	}
 
+	private void initSpeedOverlay(RoutingContext ctx) {
+		speedOverlay = ctx.getSpeedOverlaySnapshot();
+		departureMinuteOfWeek = RouteSpeedOverlay.getMinuteOfWeek(ctx.getDepartureTime());
+	}
+
+	/**
+	 * Overlay speed of road segment at the estimated time of passing it. Search cost is not time (it includes
+	 * road priorities and turn penalties) and reverse search doesn't know time to the target, so in both
+	 * directions time from start is estimated by straight line with max speed.
+	 */
+	private float getOverlaySpeed(RoutingContext ctx, int overlayRoad, int segmentIndex, int x, int y) {
+		float timeFromStart = (float) (squareRootDist(ctx.startX, ctx.startY, x, y) / ctx.getRouter().getMaxSpeed());
+		return speedOverlay.getSegmentSpeed(overlayRoad, segmentIndex, departureMinuteOfWeek + timeFromStart / 60);
+	}
+
+	/**
+	 * Difference between time with overlay speed and time with router speed (overlay speed is limited by max speed
+	 * as in {@link #calculateTimeWithObstacles(RoutingContext, RouteDataObject, float, float)} to keep A* heuristic valid)
+	 */
+	static float calculateOverlayTimeDelta(RoutingContext ctx, RouteDataObject road, float distOnRoadToPass, float overlaySpeed) {
+		float priority = ctx.getRouter().defineSpeedPriority(road);
+		float speed = ctx.getRouter().defineRoutingSpeed(road) * priority;
+		if (speed == 0) {
+			speed = ctx.getRouter().getDefaultSpeed() * priority;
+		}
+		float maxSpeed = ctx.getRouter().getMaxSpeed();
+		speed = Math.min(speed, maxSpeed);
+		float liveSpeed = Math.min(overlaySpeed * priority, maxSpeed);
+		if (liveSpeed <= 0 || speed <= 0) {
+			return 0;
+		}
+		return distOnRoadToPass / liveSpeed - distOnRoadToPass / speed;
+	}
+
+	/**
+	 * Continue bidirectional search (same queues and visited segments) after the best route is found
+	 * till the queues exceed maximum cost of alternative route or the budget of visited segments.
+	 */
+	private void searchAlternativeMeetings(final RoutingContext ctx, AlternativeRoutesCalculator alternatives,
+			RouteSegmentQueue graphDirectSegments, RouteSegmentQueue graphReverseSegments,
+			TLongObjectHashMap<RouteSegment> visitedDirectSegments, TLongObjectHashMap<RouteSegment> visitedOppositeSegments)
+			throws InterruptedException, IOException {
+		Comparator<RouteSegment> nonHeuristicSegmentsComparator = new NonHeuristicSegmentsComparator();
+		float maxCost = alternatives.getMaxCost();
+		int budget = alternatives.getVisitedSegmentsBudget(ctx.visitedSegments);
+		int visited = 0;
+		while (visited < budget && !alternatives.isFull()) {
+			boolean forwardSearch;
+			if (graphDirectSegments.isEmpty() || graphReverseSegments.isEmpty()) {
+				if (graphDirectSegments.isEmpty() && graphReverseSegments.isEmpty()) {
+					break;
+				}
+				forwardSearch = !graphDirectSegments.isEmpty();
+			} else {
+				forwardSearch = nonHeuristicSegmentsComparator.compare(graphDirectSegments.peek(),
+						graphReverseSegments.peek()) < 0;
+			}
+			RouteSegment segment = forwardSearch ? graphDirectSegments.poll() : graphReverseSegments.poll();
+			if (segment instanceof FinalRouteSegment) {
+				if (segment.distanceFromStart <= maxCost) {
+					alternatives.addCandidate((FinalRouteSegment) segment);
+				}
+				continue;
+			}
+			// h() is lower bound (without precalculated direction), so segment can't be part of acceptable alternative
+			if (segment.distanceFromStart + segment.distanceToEnd > maxCost) {
+				continue;
+			}
+			ctx.memoryOverhead = (visitedDirectSegments.size() + visitedOppositeSegments.size()) * STANDARD_ROAD_VISITED_OVERHEAD +
+					(graphDirectSegments.size() + graphReverseSegments.size()) * STANDARD_ROAD_IN_QUEUE_OVERHEAD;
+			if (ctx.memoryOverhead > ctx.config.memoryLimitation * 0.95) {
+				// best route is already found, so stop with candidates found so far
+				break;
+			}
+			visited++;
+			if (forwardSearch) {
+				processRouteSegment(ctx, false, graphDirectSegments, visitedDirectSegments,
+						segment, visitedOppositeSegments, false);
+			} else {
+				processRouteSegment(ctx, true, graphReverseSegments, visitedOppositeSegments, segment,
+						visitedDirectSegments, false);
+			}
+			if (ctx.calculationProgress != null && ctx.calculationProgress.isCancelled) {
+				throw new InterruptedException("Route calculation interrupted");
+			}
+		}
+		if (TRACE_ROUTING) {
+			println("Alternative meetings " + alternatives.getCandidatesSize() + " visited " + visited);
+		}
+	}
+
 	protected void checkIfGraphIsEmpty(final RoutingContext ctx, boolean allowDirection,
-			PriorityQueue<RouteSegment> graphSegments, RouteSegmentPoint pnt, TLongObjectHashMap<RouteSegment> visited,
+			RouteSegmentQueue graphSegments, RouteSegmentPoint pnt, TLongObjectHashMap<RouteSegment> visited,
 			String msg) {
 		if (allowDirection && graphSegments.isEmpty()) {
 			if (pnt.others != null) {
@@ -241,7 +369,7 @@ public class BinaryRoutePlanner {
 
 
 	private void initQueuesWithStartEnd(final RoutingContext ctx, RouteSegment start, RouteSegment end,
-			RouteSegment recalculationEnd, PriorityQueue<RouteSegment> graphDirectSegments, PriorityQueue<RouteSegment> graphReverseSegments, 
+			RouteSegment recalculationEnd, RouteSegmentQueue graphDirectSegments, RouteSegmentQueue graphReverseSegments, 
 			TLongObjectHashMap<RouteSegment> visitedDirectSegments, TLongObjectHashMap<RouteSegment> visitedOppositeSegments) {
 		RouteSegment startPos = initRouteSegment(ctx, start, true);
 		RouteSegment startNeg = initRouteSegment(ctx, start, false);
@@ -303,8 +431,8 @@ public class BinaryRoutePlanner {
 	}
 
 
-	private void updateCalculationProgress(final RoutingContext ctx, PriorityQueue<RouteSegment> graphDirectSegments,
-			PriorityQueue<RouteSegment> graphReverseSegments) {
+	private void updateCalculationProgress(final RoutingContext ctx, RouteSegmentQueue graphDirectSegments,
+			RouteSegmentQueue graphReverseSegments) {
 		if (ctx.calculationProgress != null) {
 			ctx.calculationProgress.reverseSegmentQueueSize = graphReverseSegments.size();
 			ctx.calculationProgress.directSegmentQueueSize = graphDirectSegments.size();
@@ -367,7 +495,7 @@ public class BinaryRoutePlanner {
 		log.warn(logMsg);
 	}
 	
-	public void printDebugMemoryInformation(RoutingContext ctx, PriorityQueue<RouteSegment> graphDirectSegments, PriorityQueue<RouteSegment> graphReverseSegments, 
+	public void printDebugMemoryInformation(RoutingContext ctx, RouteSegmentQueue graphDirectSegments, RouteSegmentQueue graphReverseSegments, 
 			TLongObjectHashMap<RouteSegment> visitedDirectSegments,TLongObjectHashMap<RouteSegment> visitedOppositeSegments) {
 		printInfo(String.format("Time. Total: %.2f, to load: %.2f, to load headers: %.2f, to calc dev: %.2f, to calc rules: %.2f ", 
 				(System.nanoTime() - ctx.timeToCalculate) / 1e6, ctx.timeToLoad / 1e6, 
@@ -391,7 +519,7 @@ public class BinaryRoutePlanner {
 
 	@SuppressWarnings("unused")
 	private void processRouteSegment(final RoutingContext ctx, boolean reverseWaySearch,
-			PriorityQueue<RouteSegment> graphSegments, TLongObjectHashMap<RouteSegment> visitedSegments, 
+			RouteSegmentQueue graphSegments, TLongObjectHashMap<RouteSegment> visitedSegments, 
             RouteSegment segment, TLongObjectHashMap<RouteSegment> oppositeSegments, boolean doNotAddIntersections) throws IOException {
 		final RouteDataObject road = segment.road;
 		boolean initDirectionAllowed = checkIfInitialMovementAllowedOnSegment(ctx, reverseWaySearch, visitedSegments, segment, road);
@@ -414,6 +542,7 @@ public class BinaryRoutePlanner {
 		boolean[] processFurther = new boolean[1];
 		RouteSegment previous = segment;
 		boolean dir = segment.isPositive();
+		int overlayRoad = speedOverlay != null ? speedOverlay.findRoad(road.getId()) : -1;
 		while (directionAllowed) {
 			// mark previous interval as visited and move to next intersection
 			short prevInd = segmentPoint;
@@ -438,7 +567,19 @@ public class BinaryRoutePlanner {
 			}
 
 			// 2. calculate point and try to load neighbor ways if they are not loaded
-			segmentDist += squareRootDist(x, y, prevx, prevy);
+			float dist = (float) squareRootDist(x, y, prevx, prevy);
+			segmentDist += dist;
+			if (overlayRoad >= 0) {
+				float overlaySpeed = getOverlaySpeed(ctx, overlayRoad, Math.min(prevInd, segmentPoint), x, y);
+				if (overlaySpeed == 0) {
+					// road is closed
+					directionAllowed = false;
+					continue;
+				}
+				if (overlaySpeed > 0) {
+					obstaclesTime += calculateOverlayTimeDelta(ctx, road, dist, overlaySpeed);
+				}
+			}
 
 			// 2.1 calculate possible obstacle plus time
 			double obstacle = ctx.getRouter().defineRoutingObstacle(road, segmentPoint);
@@ -551,7 +692,7 @@ public class BinaryRoutePlanner {
 	}
 
 	private boolean checkIfOppositeSegmentWasVisited(final RoutingContext ctx, boolean reverseWaySearch,
-			PriorityQueue<RouteSegment> graphSegments, RouteSegment segment, TLongObjectHashMap<RouteSegment> oppositeSegments,
+			RouteSegmentQueue graphSegments, RouteSegment segment, TLongObjectHashMap<RouteSegment> oppositeSegments,
 			int segmentPoint, float segmentDist, float obstaclesTime) {
 		RouteDataObject road = segment.getRoad();
 		long opp = calculateRoutePointId(road, segment.isPositive() ? segmentPoint - 1 : segmentPoint, !segment.isPositive());
@@ -580,7 +721,7 @@ public class BinaryRoutePlanner {
 	}
 
 
-	private float calculateTimeWithObstacles(RoutingContext ctx, RouteDataObject road, float distOnRoadToPass, float obstaclesTime) {
+	static float calculateTimeWithObstacles(RoutingContext ctx, RouteDataObject road, float distOnRoadToPass, float obstaclesTime) {
 		float priority = ctx.getRouter().defineSpeedPriority(road);
 		float speed = (ctx.getRouter().defineRoutingSpeed(road) * priority);
 		if (speed == 0) {
@@ -593,7 +734,7 @@ public class BinaryRoutePlanner {
 		return obstaclesTime + distOnRoadToPass / speed;
 	}
 
-	private long calculateRoutePointId(final RouteDataObject road, int intervalId, boolean positive) {
+	static long calculateRoutePointId(final RouteDataObject road, int intervalId, boolean positive) {
 		if (intervalId < 0) {
 			// should be assert
 			throw new IllegalStateException("Assert failed");
@@ -713,7 +854,7 @@ public class BinaryRoutePlanner {
 	}
 
 
-	private RouteSegment processIntersections(RoutingContext ctx, PriorityQueue<RouteSegment> graphSegments,
+	private RouteSegment processIntersections(RoutingContext ctx, RouteSegmentQueue graphSegments,
 			TLongObjectHashMap<RouteSegment> visitedSegments,  float distFromStart, RouteSegment segment,
 			short segmentPoint, RouteSegment inputNext, boolean reverseWaySearch, boolean doNotAddIntersections, 
 			boolean[] processFurther) {
@@ -784,7 +925,7 @@ public class BinaryRoutePlanner {
 
 
 	@SuppressWarnings("unused")
-	private void processOneRoadIntersection(RoutingContext ctx, PriorityQueue<RouteSegment> graphSegments,
+	private void processOneRoadIntersection(RoutingContext ctx, RouteSegmentQueue graphSegments,
 			TLongObjectHashMap<RouteSegment> visitedSegments, float distFromStart, float distanceToEnd,  RouteSegment segment,
 			int segmentPoint, RouteSegment next) {
 		if (next != null) {
@@ -879,6 +1020,8 @@ public class BinaryRoutePlanner {
 		// distance measured in time (seconds)
 		float distanceFromStart = 0;
 		float distanceToEnd = 0;
+		// id in RouteSegmentQueue (-1 not queued)
+		int queueIndex = -1;
 
 		public RouteSegment(RouteDataObject road, int segmentStart) {
 			this.road = road;
@@ -0,0 +1,1053 @@
+package net.osmand.router;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.list.array.TLongArrayList;
+import gnu.trove.set.hash.TLongHashSet;
+import net.osmand.PlatformUtil;
+import net.osmand.binary.BinaryMapIndexReader;
+import net.osmand.binary.BinaryMapRouteReaderAdapter.RouteSubregion;
+import net.osmand.binary.RouteDataObject;
+import net.osmand.osm.MapRenderingTypes;
+import net.osmand.router.BinaryRoutePlanner.RouteSegment;
+import net.osmand.router.BinaryRoutePlanner.RouteSegmentPoint;
+import net.osmand.router.RoutingContext.RoutingSubregionTile;
+
+/**
+ * Contraction hierarchy (shortcut overlay) of the road graph for a set of maps and one routing profile.
+ *
+ * Graph nodes are road junctions (points shared by several roads and road ends), edges are road parts between
+ * junctions weighted the same way as {@link BinaryRoutePlanner} does it (speed * priority + routing obstacles).
+ * Turn penalties and other costs of a junction passage are not part of the node based hierarchy, so hierarchy is used
+ * only for routers without them (see {@link #isSupported(RoutingContext)}) and its routes have the same cost as routes
+ * of A* with heuristic coefficient 1. Turn restrictions are not part of the hierarchy either : they only forbid turns,
+ * so route of the hierarchy which passes all junctions allowed is the best one and other routes are calculated by A*.
+ * Hierarchy is built for the router parameters, it falls back to A* when the route couldn't be expressed by the hierarchy.
+ */
+public class ContractionHierarchy {
+
+	private static final Log log = PlatformUtil.getLog(ContractionHierarchy.class);
+
+	public static final String FILE_EXT = ".chg";
+	private static final int MAGIC = 0x4F434847;
+	private static final int VERSION = 2;
+	// limits local witness search (bigger value - less shortcuts but slower preprocessing)
+	private static final int MAX_WITNESS_SETTLED_NODES = 500;
+	private static final int NO_EDGE = -1;
+
+	private String routerName;
+	private String routerParameters;
+	private String[] fileNames;
+	private long[] fileDates;
+
+	// sorted junctions (x31 << 31) + y31
+	private long[] nodes;
+	private int[] rank;
+
+	// edges (original roads and shortcuts)
+	private int edgesSize;
+	private int[] edgeFrom;
+	private int[] edgeTo;
+	private float[] edgeWeight;
+	private long[] edgeRoadId;
+	private int[] edgeStartPoint;
+	private int[] edgeEndPoint;
+	private int[] edgeFirstChild;
+	private int[] edgeSecondChild;
+
+	// upward graph (compressed rows)
+	private int[] upOutIndex;
+	private int[] upOut;
+	private int[] upInIndex;
+	private int[] upIn;
+
+	private final ThreadLocal<QueryState> queryStates = new ThreadLocal<QueryState>();
+	private final AtomicInteger answeredQueries = new AtomicInteger();
+	private final AtomicInteger restrictedQueries = new AtomicInteger();
+
+	private ContractionHierarchy() {
+	}
+
+	public String getRouterName() {
+		return routerName;
+	}
+
+	public int getNodesCount() {
+		return nodes.length;
+	}
+
+	public int getEdgesCount() {
+		return edgesSize;
+	}
+
+	/**
+	 * Number of routes calculated by hierarchy
+	 */
+	public int getAnsweredQueries() {
+		return answeredQueries.get();
+	}
+
+	/**
+	 * Number of routes of hierarchy which pass forbidden turns (route is calculated by A*)
+	 */
+	public int getRestrictedQueries() {
+		return restrictedQueries.get();
+	}
+
+	public static File getHierarchyFile(BinaryMapIndexReader reader, String routerName) {
+		File f = reader.getFile();
+		return new File(f.getParentFile(), f.getName() + "." + routerName + FILE_EXT);
+	}
+
+	/**
+	 * Routing costs of the context could be expressed by node based hierarchy : no turn costs, no costs depending
+	 * on time or on the way segment is passed and same transition penalty of all roads (last one is checked by
+	 * {@link #build(RoutingContext)}). Turn restrictions are checked for every route of the hierarchy.
+	 */
+	public static boolean isSupported(RoutingContext ctx) {
+		if (!(ctx.getRouter() instanceof GeneralRouter)) {
+			return false;
+		}
+		GeneralRouter router = (GeneralRouter) ctx.getRouter();
+		return router.getLeftTurn() == 0 && router.getRightTurn() == 0
+				&& router.getRoundaboutTurn() == 0 && !router.getHeightObstacles()
+				&& router.getImpassableRoadIds().length == 0 && ctx.config.routeCalculationTime == 0
+				&& ctx.speedOverlay == null;
+	}
+
+	private static String getRouterParameters(RoutingContext ctx) {
+		return ((GeneralRouter) ctx.getRouter()).getParameterValues().toString();
+	}
+
+	/**
+	 * Key of the profile, parameters and versions of maps of the context (hierarchy is compatible with contexts
+	 * of the same key)
+	 */
+	public static String getContextKey(RoutingContext ctx) {
+		StringBuilder key = new StringBuilder(ctx.config.routerName);
+		if (ctx.getRouter() instanceof GeneralRouter) {
+			key.append(getRouterParameters(ctx));
+		}
+		for (BinaryMapIndexReader r : ctx.getMaps()) {
+			key.append(' ').append(r.getFile().getName()).append(':').append(r.getDateCreated());
+		}
+		return key.toString();
+	}
+
+	/**
+	 * Check that hierarchy was built for the same profile, same router parameters and same versions of all maps
+	 * of the context
+	 */
+	public boolean isCompatible(RoutingContext ctx) {
+		if (!routerName.equals(ctx.config.routerName) || !isSupported(ctx)
+				|| !routerParameters.equals(getRouterParameters(ctx))) {
+			return false;
+		}
+		BinaryMapIndexReader[] maps = ctx.getMaps();
+		if (maps.length != fileNames.length) {
+			return false;
+		}
+		for (BinaryMapIndexReader r : maps) {
+			boolean found = false;
+			for (int i = 0; i < fileNames.length; i++) {
+				if (fileNames[i].equals(r.getFile().getName()) && fileDates[i] == r.getDateCreated()) {
+					found = true;
+					break;
+				}
+			}
+			if (!found) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Load hierarchy stored next to the first map of the context, returns null if it is missing or outdated
+	 */
+	public static ContractionHierarchy loadForContext(RoutingContext ctx) throws IOException {
+		BinaryMapIndexReader[] maps = ctx.getMaps();
+		if (maps.length == 0 || !isSupported(ctx)) {
+			return null;
+		}
+		File f = getHierarchyFile(maps[0], ctx.config.routerName);
+		if (!f.exists()) {
+			return null;
+		}
+		ContractionHierarchy ch = load(f);
+		if (!ch.isCompatible(ctx)) {
+			log.warn("Contraction hierarchy " + f.getName() + " is outdated");
+			return null;
+		}
+		return ch;
+	}
+
+	///////////////////////////////////// Preprocessing /////////////////////////////////////
+
+	private interface RoadVisitor {
+		void visitRoad(RouteDataObject road);
+	}
+
+	private static void visitAllRoads(RoutingContext ctx, RoadVisitor visitor) throws IOException {
+		TLongHashSet visited = new TLongHashSet();
+		for (Entry<BinaryMapIndexReader, List<RouteSubregion>> e : ctx.map.entrySet()) {
+			BinaryMapIndexReader reader = e.getKey();
+			for (RouteSubregion reg : e.getValue()) {
+				for (RoutingSubregionTile tile : ctx.loadAllSubregionTiles(reader, reg)) {
+					List<RouteDataObject> res = reader.loadRouteIndexData(tile.subregion);
+					for (RouteDataObject ro : res) {
+						if (ro == null || ro.getPointsLength() < 2 || !visited.add(ro.getId())) {
+							continue;
+						}
+						if (ctx.config.routeCalculationTime != 0) {
+							ro.processConditionalTags(ctx.config.routeCalculationTime);
+						}
+						if (ctx.config.router.acceptLine(ro)) {
+							visitor.visitRoad(ro);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	private static long pointKey(RouteDataObject ro, int i) {
+		return (((long) ro.getPoint31XTile(i)) << 31) + (long) ro.getPoint31YTile(i);
+	}
+
+	/**
+	 * Builds hierarchy for all maps and router of the context (offline operation, all roads are read twice)
+	 * @throws IllegalArgumentException if routing costs of the context couldn't be expressed by the hierarchy
+	 */
+	public static ContractionHierarchy build(final RoutingContext ctx) throws IOException {
+		if (!isSupported(ctx)) {
+			throw new IllegalArgumentException("Router " + ctx.config.routerName
+					+ " uses turn costs, contraction hierarchy can't be built");
+		}
+		long time = System.currentTimeMillis();
+		final ContractionHierarchy ch = new ContractionHierarchy();
+		ch.routerName = ctx.config.routerName;
+		ch.routerParameters = getRouterParameters(ctx);
+		BinaryMapIndexReader[] maps = ctx.getMaps();
+		ch.fileNames = new String[maps.length];
+		ch.fileDates = new long[maps.length];
+		for (int i = 0; i < maps.length; i++) {
+			ch.fileNames[i] = maps[i].getFile().getName();
+			ch.fileDates[i] = maps[i].getDateCreated();
+		}
+		// 1. find junctions : road ends and points used more than once
+		final TLongArrayList allPoints = new TLongArrayList();
+		final float[] penaltyTransition = new float[] { Float.NaN };
+		visitAllRoads(ctx, new RoadVisitor() {
+			@Override
+			public void visitRoad(RouteDataObject road) {
+				// transition penalty is a cost of the junction passage between roads of different penalties
+				float pt = ctx.getRouter().getPenaltyTransition(road);
+				if (Float.isNaN(penaltyTransition[0])) {
+					penaltyTransition[0] = pt;
+				} else if (penaltyTransition[0] != pt) {
+					throw new IllegalArgumentException("Router " + ctx.config.routerName
+							+ " uses transition penalties, contraction hierarchy can't be built");
+				}
+				int last = road.getPointsLength() - 1;
+				long prev = -1;
+				for (int i = 0; i <= last; i++) {
+					long key = pointKey(road, i);
+					if (key == prev) {
+						continue;
+					}
+					allPoints.add(key);
+					if (i == 0 || i == last) {
+						allPoints.add(key);
+					}
+					prev = key;
+				}
+			}
+		});
+		allPoints.sort();
+		TLongArrayList junctions = new TLongArrayList();
+		for (int i = 1; i < allPoints.size(); i++) {
+			long k = allPoints.getQuick(i);
+			if (k == allPoints.getQuick(i - 1) && (junctions.isEmpty() || junctions.get(junctions.size() - 1) != k)) {
+				junctions.add(k);
+			}
+		}
+		allPoints.clear(0);
+		ch.nodes = junctions.toArray();
+		ch.initEdges(ch.nodes.length * 3);
+		// 2. create edges between junctions
+		visitAllRoads(ctx, new RoadVisitor() {
+			@Override
+			public void visitRoad(RouteDataObject road) {
+				ch.addRoadEdges(ctx, road);
+			}
+		});
+		log.info("Contraction hierarchy graph : " + ch.nodes.length + " nodes, " + ch.edgesSize + " edges");
+		// 3. contract
+		ch.contract();
+		log.info("Contraction hierarchy built in " + (System.currentTimeMillis() - time) / 1000f + " s : " + ch.edgesSize
+				+ " edges with shortcuts");
+		return ch;
+	}
+
+	private int findNode(long key) {
+		int ind = Arrays.binarySearch(nodes, key);
+		return ind < 0 ? -1 : ind;
+	}
+
+	private void addRoadEdges(RoutingContext ctx, RouteDataObject road) {
+		int oneway = ctx.getRouter().isOneWay(road);
+		int prevNode = -1;
+		int prevIndex = -1;
+		float fwdDist = 0;
+		float fwdObstacles = 0;
+		float bwdObstacles = 0;
+		boolean blocked = false;
+		for (int i = 0; i < road.getPointsLength(); i++) {
+			if (i > 0) {
+				fwdDist += BinaryRoutePlanner.squareRootDist(road.getPoint31XTile(i - 1), road.getPoint31YTile(i - 1),
+						road.getPoint31XTile(i), road.getPoint31YTile(i));
+				// obstacle is counted on arrival to the point (same as A*)
+				float fo = ctx.getRouter().defineRoutingObstacle(road, i);
+				float bo = ctx.getRouter().defineRoutingObstacle(road, i - 1);
+				if (fo < 0 || bo < 0) {
+					blocked = true;
+				}
+				fwdObstacles += fo;
+				bwdObstacles += bo;
+			}
+			int node = findNode(pointKey(road, i));
+			if (node < 0) {
+				continue;
+			}
+			if (prevNode >= 0 && prevNode != node && !blocked) {
+				if (oneway >= 0) {
+					addEdge(prevNode, node, BinaryRoutePlanner.calculateTimeWithObstacles(ctx, road, fwdDist, fwdObstacles),
+							road.getId(), prevIndex, i, NO_EDGE, NO_EDGE);
+				}
+				if (oneway <= 0) {
+					addEdge(node, prevNode, BinaryRoutePlanner.calculateTimeWithObstacles(ctx, road, fwdDist, bwdObstacles),
+							road.getId(), i, prevIndex, NO_EDGE, NO_EDGE);
+				}
+			}
+			prevNode = node;
+			prevIndex = i;
+			fwdDist = 0;
+			fwdObstacles = 0;
+			bwdObstacles = 0;
+			blocked = false;
+		}
+	}
+
+	private void initEdges(int capacity) {
+		capacity = Math.max(capacity, 16);
+		edgesSize = 0;
+		edgeFrom = new int[capacity];
+		edgeTo = new int[capacity];
+		edgeWeight = new float[capacity];
+		edgeRoadId = new long[capacity];
+		edgeStartPoint = new int[capacity];
+		edgeEndPoint = new int[capacity];
+		edgeFirstChild = new int[capacity];
+		edgeSecondChild = new int[capacity];
+	}
+
+	private int addEdge(int from, int to, float weight, long roadId, int startPoint, int endPoint, int first, int second) {
+		if (edgesSize == edgeFrom.length) {
+			int ncap = edgesSize * 3 / 2 + 1;
+			edgeFrom = Arrays.copyOf(edgeFrom, ncap);
+			edgeTo = Arrays.copyOf(edgeTo, ncap);
+			edgeWeight = Arrays.copyOf(edgeWeight, ncap);
+			edgeRoadId = Arrays.copyOf(edgeRoadId, ncap);
+			edgeStartPoint = Arrays.copyOf(edgeStartPoint, ncap);
+			edgeEndPoint = Arrays.copyOf(edgeEndPoint, ncap);
+			edgeFirstChild = Arrays.copyOf(edgeFirstChild, ncap);
+			edgeSecondChild = Arrays.copyOf(edgeSecondChild, ncap);
+		}
+		int e = edgesSize++;
+		edgeFrom[e] = from;
+		edgeTo[e] = to;
+		edgeWeight[e] = weight;
+		edgeRoadId[e] = roadId;
+		edgeStartPoint[e] = startPoint;
+		edgeEndPoint[e] = endPoint;
+		edgeFirstChild[e] = first;
+		edgeSecondChild[e] = second;
+		return e;
+	}
+
+	private static class ContractionState {
+		final TIntArrayList[] outEdges;
+		final TIntArrayList[] inEdges;
+		final boolean[] contracted;
+		final int[] contractedNeighbours;
+		// witness search
+		final IndexedMinHeap heap;
+		final float[] dist;
+		final TIntArrayList touched = new TIntArrayList();
+
+		ContractionState(int n) {
+			outEdges = new TIntArrayList[n];
+			inEdges = new TIntArrayList[n];
+			contracted = new boolean[n];
+			contractedNeighbours = new int[n];
+			heap = new IndexedMinHeap(n);
+			dist = new float[n];
+			Arrays.fill(dist, Float.POSITIVE_INFINITY);
+		}
+	}
+
+	private void contract() {
+		int n = nodes.length;
+		ContractionState st = new ContractionState(n);
+		for (int e = 0; e < edgesSize; e++) {
+			edgeList(st.outEdges, edgeFrom[e]).add(e);
+			edgeList(st.inEdges, edgeTo[e]).add(e);
+		}
+		IndexedMinHeap order = new IndexedMinHeap(n);
+		for (int v = 0; v < n; v++) {
+			order.push(v, priority(st, v));
+		}
+		rank = new int[n];
+		int currentRank = 0;
+		while (!order.isEmpty()) {
+			int v = order.poll();
+			// lazy update of priority
+			float p = priority(st, v);
+			if (!order.isEmpty() && p > order.peekKey()) {
+				order.push(v, p);
+				continue;
+			}
+			contractNode(st, v, false);
+			st.contracted[v] = true;
+			rank[v] = currentRank++;
+			TIntArrayList neighbours = new TIntArrayList();
+			collectActiveNeighbours(st, v, neighbours);
+			for (int i = 0; i < neighbours.size(); i++) {
+				int u = neighbours.getQuick(i);
+				st.contractedNeighbours[u]++;
+				order.push(u, priority(st, u));
+			}
+			// edges to contracted node are not needed anymore
+			st.outEdges[v] = null;
+			st.inEdges[v] = null;
+		}
+		buildUpwardGraph();
+	}
+
+	private static TIntArrayList edgeList(TIntArrayList[] lists, int node) {
+		if (lists[node] == null) {
+			lists[node] = new TIntArrayList(4);
+		}
+		return lists[node];
+	}
+
+	private void collectActiveNeighbours(ContractionState st, int v, TIntArrayList res) {
+		TIntArrayList out = st.outEdges[v];
+		TIntArrayList in = st.inEdges[v];
+		for (int i = 0; out != null && i < out.size(); i++) {
+			int w = edgeTo[out.getQuick(i)];
+			if (!st.contracted[w] && w != v && !res.contains(w)) {
+				res.add(w);
+			}
+		}
+		for (int i = 0; in != null && i < in.size(); i++) {
+			int u = edgeFrom[in.getQuick(i)];
+			if (!st.contracted[u] && u != v && !res.contains(u)) {
+				res.add(u);
+			}
+		}
+	}
+
+	private float priority(ContractionState st, int v) {
+		int shortcuts = contractNode(st, v, true);
+		int degree = 0;
+		TIntArrayList out = st.outEdges[v];
+		TIntArrayList in = st.inEdges[v];
+		for (int i = 0; out != null && i < out.size(); i++) {
+			if (!st.contracted[edgeTo[out.getQuick(i)]]) {
+				degree++;
+			}
+		}
+		for (int i = 0; in != null && i < in.size(); i++) {
+			if (!st.contracted[edgeFrom[in.getQuick(i)]]) {
+				degree++;
+			}
+		}
+		// edge difference + uniformity
+		return shortcuts - degree + st.contractedNeighbours[v];
+	}
+
+	/**
+	 * @return number of shortcuts needed (or added if simulate is false) to contract node v
+	 */
+	private int contractNode(ContractionState st, int v, boolean simulate) {
+		TIntArrayList in = st.inEdges[v];
+		TIntArrayList out = st.outEdges[v];
+		if (in == null || out == null) {
+			return 0;
+		}
+		int shortcuts = 0;
+		for (int i = 0; i < in.size(); i++) {
+			int inEdge = in.getQuick(i);
+			int u = edgeFrom[inEdge];
+			if (st.contracted[u] || u == v) {
+				continue;
+			}
+			float maxCost = -1;
+			for (int j = 0; j < out.size(); j++) {
+				int outEdge = out.getQuick(j);
+				int w = edgeTo[outEdge];
+				if (!st.contracted[w] && w != v && w != u) {
+					maxCost = Math.max(maxCost, edgeWeight[inEdge] + edgeWeight[outEdge]);
+				}
+			}
+			if (maxCost < 0) {
+				continue;
+			}
+			witnessSearch(st, u, v, maxCost);
+			for (int j = 0; j < out.size(); j++) {
+				int outEdge = out.getQuick(j);
+				int w = edgeTo[outEdge];
+				if (st.contracted[w] || w == v || w == u) {
+					continue;
+				}
+				float via = edgeWeight[inEdge] + edgeWeight[outEdge];
+				if (st.dist[w] > via) {
+					shortcuts++;
+					if (!simulate) {
+						int sc = addEdge(u, w, via, 0, 0, 0, inEdge, outEdge);
+						edgeList(st.outEdges, u).add(sc);
+						edgeList(st.inEdges, w).add(sc);
+						// following witness searches could use new shortcut
+						st.dist[w] = via;
+					}
+				}
+			}
+			resetWitnessSearch(st);
+		}
+		return shortcuts;
+	}
+
+	private void witnessSearch(ContractionState st, int source, int excluded, float maxCost) {
+		st.heap.clear();
+		st.dist[source] = 0;
+		st.touched.add(source);
+		st.heap.push(source, 0);
+		int settled = 0;
+		while (!st.heap.isEmpty() && settled < MAX_WITNESS_SETTLED_NODES) {
+			float d = st.heap.peekKey();
+			if (d > maxCost) {
+				break;
+			}
+			int x = st.heap.poll();
+			settled++;
+			TIntArrayList out = st.outEdges[x];
+			for (int i = 0; out != null && i < out.size(); i++) {
+				int e = out.getQuick(i);
+				int y = edgeTo[e];
+				if (y == excluded || st.contracted[y]) {
+					continue;
+				}
+				float nd = d + edgeWeight[e];
+				if (nd < st.dist[y]) {
+					if (st.dist[y] == Float.POSITIVE_INFINITY) {
+						st.touched.add(y);
+					}
+					st.dist[y] = nd;
+					st.heap.push(y, nd);
+				}
+			}
+		}
+	}
+
+	private void resetWitnessSearch(ContractionState st) {
+		for (int i = 0; i < st.touched.size(); i++) {
+			st.dist[st.touched.getQuick(i)] = Float.POSITIVE_INFINITY;
+		}
+		st.touched.clear(0);
+		st.heap.clear();
+	}
+
+	private void buildUpwardGraph() {
+		int n = nodes.length;
+		upOutIndex = new int[n + 1];
+		upInIndex = new int[n + 1];
+		for (int e = 0; e < edgesSize; e++) {
+			if (rank[edgeFrom[e]] < rank[edgeTo[e]]) {
+				upOutIndex[edgeFrom[e] + 1]++;
+			} else {
+				upInIndex[edgeTo[e] + 1]++;
+			}
+		}
+		for (int i = 0; i < n; i++) {
+			upOutIndex[i + 1] += upOutIndex[i];
+			upInIndex[i + 1] += upInIndex[i];
+		}
+		upOut = new int[upOutIndex[n]];
+		upIn = new int[upInIndex[n]];
+		int[] outFill = Arrays.copyOf(upOutIndex, n);
+		int[] inFill = Arrays.copyOf(upInIndex, n);
+		for (int e = 0; e < edgesSize; e++) {
+			if (rank[edgeFrom[e]] < rank[edgeTo[e]]) {
+				upOut[outFill[edgeFrom[e]]++] = e;
+			} else {
+				upIn[inFill[edgeTo[e]]++] = e;
+			}
+		}
+	}
+
+	///////////////////////////////////// Query /////////////////////////////////////
+
+	private static class QueryState {
+		final IndexedMinHeap forward;
+		final IndexedMinHeap backward;
+		final float[] forwardDist;
+		final float[] backwardDist;
+		final int[] forwardParent;
+		final int[] backwardParent;
+		final TIntArrayList touched = new TIntArrayList();
+
+		QueryState(int n) {
+			forward = new IndexedMinHeap(n);
+			backward = new IndexedMinHeap(n);
+			forwardDist = new float[n];
+			backwardDist = new float[n];
+			forwardParent = new int[n];
+			backwardParent = new int[n];
+			Arrays.fill(forwardDist, Float.POSITIVE_INFINITY);
+			Arrays.fill(backwardDist, Float.POSITIVE_INFINITY);
+		}
+
+		void touch(int node) {
+			if (forwardDist[node] == Float.POSITIVE_INFINITY && backwardDist[node] == Float.POSITIVE_INFINITY) {
+				touched.add(node);
+			}
+		}
+
+		void reset() {
+			for (int i = 0; i < touched.size(); i++) {
+				int n = touched.getQuick(i);
+				forwardDist[n] = Float.POSITIVE_INFINITY;
+				backwardDist[n] = Float.POSITIVE_INFINITY;
+			}
+			touched.clear(0);
+			forward.clear();
+			backward.clear();
+		}
+	}
+
+	// part of the road from route point to the nearest junction
+	private static class Access {
+		int node;
+		float cost;
+		int startPoint;
+		int endPoint;
+	}
+
+	private QueryState getQueryState() {
+		QueryState qs = queryStates.get();
+		if (qs == null) {
+			qs = new QueryState(nodes.length);
+			queryStates.set(qs);
+		}
+		return qs;
+	}
+
+	/**
+	 * Calculate route using hierarchy. Returns null if route couldn't be calculated by hierarchy
+	 * (point is not attached to the graph, start and end on the same road, route passes forbidden turn)
+	 * and regular A* should be used.
+	 */
+	public List<RouteSegmentResult> searchRoute(RoutingContext ctx, RouteSegmentPoint start, RouteSegmentPoint end) {
+		if (start.getRoad().getId() == end.getRoad().getId()) {
+			return null;
+		}
+		List<Access> startAccess = findAccess(ctx, start, true);
+		List<Access> endAccess = findAccess(ctx, end, false);
+		if (startAccess.isEmpty() || endAccess.isEmpty()) {
+			return null;
+		}
+		QueryState qs = getQueryState();
+		try {
+			for (Access a : startAccess) {
+				if (a.cost < qs.forwardDist[a.node]) {
+					qs.touch(a.node);
+					qs.forwardDist[a.node] = a.cost;
+					qs.forwardParent[a.node] = NO_EDGE;
+					qs.forward.push(a.node, a.cost);
+				}
+			}
+			for (Access a : endAccess) {
+				if (a.cost < qs.backwardDist[a.node]) {
+					qs.touch(a.node);
+					qs.backwardDist[a.node] = a.cost;
+					qs.backwardParent[a.node] = NO_EDGE;
+					qs.backward.push(a.node, a.cost);
+				}
+			}
+			float best = Float.POSITIVE_INFINITY;
+			int meeting = -1;
+			int visited = 0;
+			while (!qs.forward.isEmpty() || !qs.backward.isEmpty()) {
+				if (Math.min(qs.forward.peekKey(), qs.backward.peekKey()) >= best) {
+					break;
+				}
+				boolean fwd = qs.forward.peekKey() <= qs.backward.peekKey();
+				IndexedMinHeap heap = fwd ? qs.forward : qs.backward;
+				float[] dist = fwd ? qs.forwardDist : qs.backwardDist;
+				float[] opposite = fwd ? qs.backwardDist : qs.forwardDist;
+				int[] parent = fwd ? qs.forwardParent : qs.backwardParent;
+				int[] index = fwd ? upOutIndex : upInIndex;
+				int[] edges = fwd ? upOut : upIn;
+				int u = heap.poll();
+				visited++;
+				float du = dist[u];
+				if (opposite[u] != Float.POSITIVE_INFINITY && du + opposite[u] < best) {
+					best = du + opposite[u];
+					meeting = u;
+				}
+				for (int i = index[u]; i < index[u + 1]; i++) {
+					int e = edges[i];
+					int w = fwd ? edgeTo[e] : edgeFrom[e];
+					float nd = du + edgeWeight[e];
+					if (nd < dist[w]) {
+						qs.touch(w);
+						dist[w] = nd;
+						parent[w] = e;
+						heap.push(w, nd);
+					}
+				}
+				if (ctx.calculationProgress != null && ctx.calculationProgress.isCancelled) {
+					return null;
+				}
+			}
+			ctx.visitedSegments += visited;
+			if (meeting < 0) {
+				return null;
+			}
+			List<RouteSegmentResult> res = convertToResults(ctx, qs, meeting, start, end, startAccess, endAccess);
+			if (ctx.getRouter().restrictionsAware() && !checkRestrictions(ctx, res)) {
+				restrictedQueries.incrementAndGet();
+				return null;
+			}
+			answeredQueries.incrementAndGet();
+			ctx.routingTime = best;
+			return res;
+		} finally {
+			qs.reset();
+		}
+	}
+
+	private List<RouteSegmentResult> convertToResults(RoutingContext ctx, QueryState qs, int meeting,
+			RouteSegmentPoint start, RouteSegmentPoint end, List<Access> startAccess, List<Access> endAccess) {
+		TIntArrayList path = new TIntArrayList();
+		int n = meeting;
+		while (qs.forwardParent[n] != NO_EDGE) {
+			int e = qs.forwardParent[n];
+			path.add(e);
+			n = edgeFrom[e];
+		}
+		int firstNode = n;
+		path.reverse();
+		n = meeting;
+		while (qs.backwardParent[n] != NO_EDGE) {
+			int e = qs.backwardParent[n];
+			path.add(e);
+			n = edgeTo[e];
+		}
+		int lastNode = n;
+		List<RouteSegmentResult> res = new ArrayList<RouteSegmentResult>();
+		Access sa = selectAccess(startAccess, firstNode, qs.forwardDist);
+		res.add(new RouteSegmentResult(start.getRoad(), sa.startPoint, sa.endPoint));
+		TIntArrayList stack = new TIntArrayList();
+		for (int i = path.size() - 1; i >= 0; i--) {
+			stack.add(path.getQuick(i));
+		}
+		while (!stack.isEmpty()) {
+			int e = stack.removeAt(stack.size() - 1);
+			if (edgeFirstChild[e] != NO_EDGE) {
+				stack.add(edgeSecondChild[e]);
+				stack.add(edgeFirstChild[e]);
+				continue;
+			}
+			RouteDataObject road = findRoad(ctx, nodes[edgeFrom[e]], edgeRoadId[e]);
+			RouteSegmentResult rr = new RouteSegmentResult(road, edgeStartPoint[e], edgeEndPoint[e]);
+			rr.setRoutingTime(edgeWeight[e]);
+			res.add(rr);
+		}
+		Access ea = selectAccess(endAccess, lastNode, qs.backwardDist);
+		res.add(new RouteSegmentResult(end.getRoad(), ea.startPoint, ea.endPoint));
+		Iterator<RouteSegmentResult> it = res.iterator();
+		while (it.hasNext()) {
+			RouteSegmentResult r = it.next();
+			if (r.getStartPointIndex() == r.getEndPointIndex()) {
+				it.remove();
+			}
+		}
+		return res;
+	}
+
+	/**
+	 * Check that route passes junctions the same way as A* allows it (see BinaryRoutePlanner.processRestriction) :
+	 * no prohibitory restriction of the road to the next road, no mandatory restriction of the road to other road
+	 * of the junction and no prohibitory restriction via the road from the previous road to the next road
+	 */
+	private boolean checkRestrictions(RoutingContext ctx, List<RouteSegmentResult> res) {
+		RouteDataObject parent = null;
+		for (int i = 1; i < res.size(); i++) {
+			RouteDataObject road = res.get(i - 1).getObject();
+			long nextId = res.get(i).getObject().getId();
+			if (road.getId() == nextId) {
+				continue;
+			}
+			if (road.getRestrictionLength() > 0) {
+				int end = res.get(i - 1).getEndPointIndex();
+				RouteSegment junction = ctx.loadRouteSegment(road.getPoint31XTile(end), road.getPoint31YTile(end), 0);
+				if (!isTurnAllowed(road, nextId, junction)) {
+					return false;
+				}
+			}
+			if (parent != null) {
+				for (int k = 0; k < parent.getRestrictionLength(); k++) {
+					if (parent.getRestrictionId(k) == nextId && parent.getRestrictionVia(k) == road.getId()) {
+						if (isProhibitory(parent.getRestrictionType(k))) {
+							return false;
+						}
+						break;
+					}
+				}
+			}
+			parent = road;
+		}
+		return true;
+	}
+
+	private static boolean isTurnAllowed(RouteDataObject road, long nextId, RouteSegment junction) {
+		for (int k = 0; k < road.getRestrictionLength(); k++) {
+			if (road.getRestrictionId(k) == nextId) {
+				return !isProhibitory(road.getRestrictionType(k));
+			}
+		}
+		for (int k = 0; k < road.getRestrictionLength(); k++) {
+			if (!isProhibitory(road.getRestrictionType(k))) {
+				for (RouteSegment s = junction; s != null; s = s.getNext()) {
+					if (s.getRoad().getId() == road.getRestrictionId(k)) {
+						return false;
+					}
+				}
+			}
+		}
+		return true;
+	}
+
+	private static boolean isProhibitory(int type) {
+		return type == MapRenderingTypes.RESTRICTION_NO_LEFT_TURN || type == MapRenderingTypes.RESTRICTION_NO_RIGHT_TURN
+				|| type == MapRenderingTypes.RESTRICTION_NO_STRAIGHT_ON || type == MapRenderingTypes.RESTRICTION_NO_U_TURN;
+	}
+
+	private Access selectAccess(List<Access> access, int node, float[] dist) {
+		Access res = null;
+		for (Access a : access) {
+			if (a.node == node && (res == null || a.cost < res.cost)) {
+				res = a;
+			}
+		}
+		return res;
+	}
+
+	private RouteDataObject findRoad(RoutingContext ctx, long nodeKey, long roadId) {
+		int x31 = (int) (nodeKey >> 31);
+		int y31 = (int) (nodeKey - (((long) x31) << 31));
+		RouteSegment s = ctx.loadRouteSegment(x31, y31, 0);
+		while (s != null) {
+			if (s.getRoad().getId() == roadId) {
+				return s.getRoad();
+			}
+			s = s.getNext();
+		}
+		throw new IllegalStateException("Contraction hierarchy doesn't match map data (road " + (roadId >> 6) + ")");
+	}
+
+	/**
+	 * Point is located between segmentStart - 1 and segmentStart.
+	 * For start point it finds junctions reachable from the point, for end point junctions from which point is reachable.
+	 */
+	private List<Access> findAccess(RoutingContext ctx, RouteSegmentPoint pnt, boolean start) {
+		List<Access> res = new ArrayList<Access>(2);
+		RouteDataObject road = pnt.getRoad();
+		int oneway = ctx.getRouter().isOneWay(road);
+		int s = Math.max(pnt.getSegmentStart(), 1);
+		int len = road.getPointsLength();
+		// junction with bigger index
+		for (int j = s; j < len; j++) {
+			int node = findNode(pointKey(road, j));
+			if (node >= 0) {
+				// start moves in positive direction, end is reached in negative direction
+				if (start ? oneway >= 0 : oneway <= 0) {
+					addAccess(ctx, res, node, road, start ? s - 1 : j, start ? j : s - 1);
+				}
+				break;
+			}
+		}
+		// junction with smaller index
+		for (int j = s - 1; j >= 0; j--) {
+			int node = findNode(pointKey(road, j));
+			if (node >= 0) {
+				if (start ? oneway <= 0 : oneway >= 0) {
+					addAccess(ctx, res, node, road, start ? s : j, start ? j : s);
+				}
+				break;
+			}
+		}
+		return res;
+	}
+
+	private void addAccess(RoutingContext ctx, List<Access> res, int node, RouteDataObject road, int startPoint, int endPoint) {
+		float dist = 0;
+		float obstacles = 0;
+		int next;
+		for (int i = startPoint; i != endPoint; i = next) {
+			next = startPoint < endPoint ? i + 1 : i - 1;
+			dist += BinaryRoutePlanner.squareRootDist(road.getPoint31XTile(i), road.getPoint31YTile(i),
+					road.getPoint31XTile(next), road.getPoint31YTile(next));
+			float o = ctx.getRouter().defineRoutingObstacle(road, next);
+			if (o < 0) {
+				return;
+			}
+			obstacles += o;
+		}
+		Access a = new Access();
+		a.node = node;
+		a.cost = BinaryRoutePlanner.calculateTimeWithObstacles(ctx, road, dist, obstacles);
+		a.startPoint = startPoint;
+		a.endPoint = endPoint;
+		res.add(a);
+	}
+
+	///////////////////////////////////// Storage /////////////////////////////////////
+
+	public void save(File f) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f), 1 << 16));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeUTF(routerName);
+			out.writeUTF(routerParameters);
+			out.writeInt(fileNames.length);
+			for (int i = 0; i < fileNames.length; i++) {
+				out.writeUTF(fileNames[i]);
+				out.writeLong(fileDates[i]);
+			}
+			out.writeInt(nodes.length);
+			for (int i = 0; i < nodes.length; i++) {
+				out.writeLong(nodes[i]);
+				out.writeInt(rank[i]);
+			}
+			out.writeInt(edgesSize);
+			for (int e = 0; e < edgesSize; e++) {
+				out.writeInt(edgeFrom[e]);
+				out.writeInt(edgeTo[e]);
+				out.writeFloat(edgeWeight[e]);
+				out.writeInt(edgeFirstChild[e]);
+				if (edgeFirstChild[e] == NO_EDGE) {
+					out.writeLong(edgeRoadId[e]);
+					out.writeInt(edgeStartPoint[e]);
+					out.writeInt(edgeEndPoint[e]);
+				} else {
+					out.writeInt(edgeSecondChild[e]);
+				}
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	public static ContractionHierarchy load(File f) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f), 1 << 16));
+		try {
+			if (in.readInt() != MAGIC) {
+				throw new IOException("File is not a contraction hierarchy " + f.getName());
+			}
+			int version = in.readInt();
+			if (version != VERSION) {
+				throw new IOException("Unsupported contraction hierarchy version " + version);
+			}
+			ContractionHierarchy ch = new ContractionHierarchy();
+			ch.routerName = in.readUTF();
+			ch.routerParameters = in.readUTF();
+			int files = in.readInt();
+			ch.fileNames = new String[files];
+			ch.fileDates = new long[files];
+			for (int i = 0; i < files; i++) {
+				ch.fileNames[i] = in.readUTF();
+				ch.fileDates[i] = in.readLong();
+			}
+			int n = in.readInt();
+			ch.nodes = new long[n];
+			ch.rank = new int[n];
+			for (int i = 0; i < n; i++) {
+				ch.nodes[i] = in.readLong();
+				ch.rank[i] = in.readInt();
+			}
+			int edges = in.readInt();
+			ch.initEdges(edges);
+			for (int e = 0; e < edges; e++) {
+				int from = in.readInt();
+				int to = in.readInt();
+				float w = in.readFloat();
+				int first = in.readInt();
+				if (first == NO_EDGE) {
+					ch.addEdge(from, to, w, in.readLong(), in.readInt(), in.readInt(), NO_EDGE, NO_EDGE);
+				} else {
+					ch.addEdge(from, to, w, 0, 0, 0, first, in.readInt());
+				}
+			}
+			ch.buildUpwardGraph();
+			return ch;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Preprocessing tool : ContractionHierarchy <router> <file.obf> [<file2.obf> ...]
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.out.println("Usage: <router> <file.obf> [<file2.obf> ...]");
+			return;
+		}
+		String router = args[0];
+		BinaryMapIndexReader[] readers = new BinaryMapIndexReader[args.length - 1];
+		for (int i = 1; i < args.length; i++) {
+			File f = new File(args[i]);
+			readers[i - 1] = new BinaryMapIndexReader(new RandomAccessFile(f, "r"), f);
+		}
+		RoutingConfiguration config = RoutingConfiguration.getDefault().build(router,
+				RoutingConfiguration.DEFAULT_MEMORY_LIMIT * 10, Collections.<String, String>emptyMap());
+		RoutingContext ctx = new RoutePlannerFrontEnd().buildRoutingContext(config, null, readers);
+		ContractionHierarchy ch = build(ctx);
+		File out = getHierarchyFile(readers[0], config.routerName);
+		ch.save(out);
+		System.out.println("Saved " + out.getAbsolutePath());
+	}
+}
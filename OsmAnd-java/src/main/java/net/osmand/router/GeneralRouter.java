@@ -11,7 +11,7 @@ import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.BitSet;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
@@ -19,6 +19,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 import gnu.trove.set.hash.TLongHashSet;
 
@@ -47,6 +49,8 @@ public class GeneralRouter implements VehicleRouter {
 	private final RouteAttributeContext[] objectAttributes;
 	public final Map<String, String> attributes;
 	private final Map<String, RoutingParameter> parameters; 
+	// values of parameters the router was built with (sorted, empty for profile router)
+	private final Map<String, String> parameterValues;
 	private final Map<String, Integer> universalRules;
 	private final List<String> universalRulesById;
 	private final Map<String, BitSet> tagRuleMask;
@@ -57,7 +61,7 @@ public class GeneralRouter implements VehicleRouter {
 	private String filename = null;
 	private String profileName = "";
 
-	private Map<RouteRegion, Map<Integer, Integer>> regionConvert = new LinkedHashMap<RouteRegion, Map<Integer,Integer>>();
+	private final ConcurrentHashMap<RouteRegion, CompiledRegionRules> regionRules = new ConcurrentHashMap<RouteRegion, CompiledRegionRules>();
 	
 	// cached values
 	private boolean restrictionsAware = true;
@@ -73,8 +77,19 @@ public class GeneralRouter implements VehicleRouter {
 
 	private TLongHashSet impassableRoads;
 	private GeneralRouterProfile profile;
-	
-	Map<RouteRegion, Map<IntHolder, Float>>[] evalCache;	
+
+	// indexes of values in compiled road table
+	private static final int ROAD_ACCESS = 0;
+	private static final int ROAD_ONEWAY = 1;
+	private static final int ROAD_SPEED = 2;
+	private static final int ROAD_PRIORITY = 3;
+	private static final int ROAD_PENALTY_TRANSITION = 4;
+	private static final int ROAD_AREA = 5;
+	private static final int ROAD_VALUES = 6;
+	// indexes of values in compiled point table
+	private static final int POINT_OBSTACLE = 0;
+	private static final int POINT_ROUTING_OBSTACLE = 1;
+	private static final int POINT_VALUES = 2;
 	
 	public enum RouteDataObjectAttribute {
 		ROAD_SPEED("speed"),
@@ -130,6 +145,7 @@ public class GeneralRouter implements VehicleRouter {
 		tagRuleMask = parent.tagRuleMask;
 		ruleToValue = parent.ruleToValue;
 		parameters = parent.parameters;
+		parameterValues = new TreeMap<String, String>(params);
 		
 		objectAttributes = new RouteAttributeContext[RouteDataObjectAttribute.values().length];
 		for (int i = 0; i < objectAttributes.length; i++) {
@@ -150,7 +166,6 @@ public class GeneralRouter implements VehicleRouter {
 		if (shortestRoute) {
 			maxSpeed = Math.min(CAR_SHORTEST_DEFAULT_SPEED, maxSpeed);
 		}
-		initCaches();
 	}
 	
 	public GeneralRouter(GeneralRouterProfile profile, Map<String, String> attributes) {
@@ -170,18 +185,7 @@ public class GeneralRouter implements VehicleRouter {
 		tagRuleMask = new LinkedHashMap<String, BitSet>();
 		ruleToValue = new ArrayList<Object>();
 		parameters = new LinkedHashMap<String, GeneralRouter.RoutingParameter>();
-		
-		initCaches();
-
-	}
-
-	@SuppressWarnings("unchecked")
-	private void initCaches() {
-		int l = RouteDataObjectAttribute.values().length;
-		evalCache = new Map[l];
-		for (int i = 0; i < l; i++) {
-			evalCache[i] = new HashMap<>();
-		}
+		parameterValues = new TreeMap<String, String>();
 	}
 
 	public String getFilename() {
@@ -213,6 +217,29 @@ public class GeneralRouter implements VehicleRouter {
 		return parameters;
 	}
 
+	public Map<String, String> getParameterValues() {
+		return Collections.unmodifiableMap(parameterValues);
+	}
+
+	/**
+	 * Routers of the same profile built with the same parameters and impassable roads calculate same costs
+	 * (new router is built for every calculation, so instances couldn't be compared)
+	 */
+	public boolean isSameRouter(GeneralRouter r) {
+		if (r == this) {
+			return true;
+		}
+		return r != null && profile == r.profile && Algorithms.objectEquals(profileName, r.profileName)
+				&& attributes.equals(r.attributes) && parameterValues.equals(r.parameterValues)
+				&& Arrays.equals(getSortedImpassableRoadIds(), r.getSortedImpassableRoadIds());
+	}
+
+	private long[] getSortedImpassableRoadIds() {
+		long[] ids = getImpassableRoadIds();
+		Arrays.sort(ids);
+		return ids;
+	}
+
 	public void addAttribute(String k, String v) {
 		attributes.put(k, v);
 		if(k.equals("restrictionsAware")) {
@@ -262,11 +289,7 @@ public class GeneralRouter implements VehicleRouter {
 
 	@Override
 	public boolean acceptLine(RouteDataObject way) {
-		Float res = getCache(RouteDataObjectAttribute.ACCESS, way);
-		if(res == null) {
-			res = (float) getObjContext(RouteDataObjectAttribute.ACCESS).evaluateInt(way, 0);
-			putCache(RouteDataObjectAttribute.ACCESS, way, res);
-		}
+		float res = getRoadValues(way)[ROAD_ACCESS];
 		if(impassableRoads != null && impassableRoads.contains(way.id)) {
 			return false;
 		}
@@ -285,18 +308,21 @@ public class GeneralRouter implements VehicleRouter {
 	}
 	
 	public int registerTagValueAttribute(String tag, String value) {
-		String key = tag +"$"+value;
-		if(universalRules.containsKey(key)) {
-			return universalRules.get(key);
-		}
-		int id = universalRules.size();
-		universalRulesById.add(key);
-		universalRules.put(key, id);
-		if(!tagRuleMask.containsKey(tag)) {
-			tagRuleMask.put(tag, new BitSet());
-		}
-		tagRuleMask.get(tag).set(id);
-		return id;
+		// universal rules are shared by all routers built from the same profile
+		synchronized (universalRules) {
+			String key = tag + "$" + value;
+			if (universalRules.containsKey(key)) {
+				return universalRules.get(key);
+			}
+			int id = universalRules.size();
+			universalRulesById.add(key);
+			universalRules.put(key, id);
+			if (!tagRuleMask.containsKey(tag)) {
+				tagRuleMask.put(tag, new BitSet());
+			}
+			tagRuleMask.get(tag).set(id);
+			return id;
+		}
 	}
 	
 	
@@ -323,18 +349,21 @@ public class GeneralRouter implements VehicleRouter {
 	}
 	
 	private Object parseValueFromTag(int id, String type) {
-		while (ruleToValue.size() <= id) {
-			ruleToValue.add(null);
-		}
-		Object res = ruleToValue.get(id);
-		if (res == null) {
-			String v = universalRulesById.get(id);
-			String value = v.substring(v.indexOf('$') + 1);
-			res = parseValue(value, type);
+		Object res;
+		synchronized (universalRules) {
+			while (ruleToValue.size() <= id) {
+				ruleToValue.add(null);
+			}
+			res = ruleToValue.get(id);
 			if (res == null) {
-				res = "";
+				String v = universalRulesById.get(id);
+				String value = v.substring(v.indexOf('$') + 1);
+				res = parseValue(value, type);
+				if (res == null) {
+					res = "";
+				}
+				ruleToValue.set(id, res);
 			}
-			ruleToValue.set(id, res);
 		}
 		if ("".equals(res)) {
 			return null;
@@ -356,12 +385,7 @@ public class GeneralRouter implements VehicleRouter {
 	public float defineObstacle(RouteDataObject road, int point) {
 		int[] pointTypes = road.getPointTypes(point);
 		if(pointTypes != null) {
-			Float obst = getCache(RouteDataObjectAttribute.OBSTACLES, road.region, pointTypes);
-			if(obst == null) {
-				obst = getObjContext(RouteDataObjectAttribute.OBSTACLES).evaluateFloat(road.region, pointTypes, 0);
-				putCache(RouteDataObjectAttribute.OBSTACLES, road.region, pointTypes, obst);
-			}
-			return obst;
+			return getPointValues(road.region, pointTypes)[POINT_OBSTACLE];
 		}
 		return 0;
 	}
@@ -370,12 +394,7 @@ public class GeneralRouter implements VehicleRouter {
 	public float defineRoutingObstacle(RouteDataObject road, int point) {
 		int[] pointTypes = road.getPointTypes(point);
 		if(pointTypes != null){
-			Float obst = getCache(RouteDataObjectAttribute.ROUTING_OBSTACLES, road.region, pointTypes);
-			if(obst ==  null) {
-				obst = getObjContext(RouteDataObjectAttribute.ROUTING_OBSTACLES).evaluateFloat(road.region, pointTypes, 0);
-				putCache(RouteDataObjectAttribute.ROUTING_OBSTACLES, road.region, pointTypes, obst);
-			}
-			return obst;
+			return getPointValues(road.region, pointTypes)[POINT_ROUTING_OBSTACLE];
 		}
 		return 0;
 	}
@@ -393,6 +412,8 @@ public class GeneralRouter implements VehicleRouter {
 		double sum = 0;
 		int knext;
 		RouteAttributeContext objContext = getObjContext(RouteDataObjectAttribute.OBSTACLE_SRTM_ALT_SPEED);
+		// incline is passed in own context of the call, router could be used by many threads
+		ParameterContext inclineContext = objContext.newParameterContext();
 		for(int k = startIndex; k != endIndex; k = knext) {
 			knext = startIndex < endIndex ? k + 1 : k - 1;
 			double dist = startIndex < endIndex ? heightArray[2 * knext] : heightArray[2 * k]  ;
@@ -402,8 +423,8 @@ public class GeneralRouter implements VehicleRouter {
 				int percentIncl = (int) (incl * 100);
 				percentIncl = (percentIncl + 2)/ 3 * 3 - 2; // 1, 4, 7, 10, .   
 				if(percentIncl >= 1) {
-					objContext.paramContext.incline = diff > 0 ? percentIncl : -percentIncl;
-					sum += objContext.evaluateFloat(road, 0) * (diff > 0? diff : -diff );
+					inclineContext.incline = diff > 0 ? percentIncl : -percentIncl;
+					sum += objContext.evaluateFloat(road, inclineContext, 0) * (diff > 0? diff : -diff );
 				}
 			}
 		}
@@ -413,113 +434,170 @@ public class GeneralRouter implements VehicleRouter {
 	
 	@Override
 	public int isOneWay(RouteDataObject road) {
-		Float res = getCache(RouteDataObjectAttribute.ONEWAY, road);
-		if(res == null) {
-			res = (float) getObjContext(RouteDataObjectAttribute.ONEWAY).evaluateInt(road, 0);
-			putCache(RouteDataObjectAttribute.ONEWAY, road, res);
-		}
-		return res.intValue();
+		return (int) getRoadValues(road)[ROAD_ONEWAY];
 	}
 	
 	@Override
 	public boolean isArea(RouteDataObject road) {
-		return getObjContext(RouteDataObjectAttribute.AREA).evaluateInt(road, 0) == 1;
+		return getRoadValues(road)[ROAD_AREA] == 1;
 	}
 	
 	@Override
 	public float getPenaltyTransition(RouteDataObject road) {
-		Float vl = getCache(RouteDataObjectAttribute.PENALTY_TRANSITION, road);
-		if (vl == null) {
-			vl = (float) getObjContext(RouteDataObjectAttribute.PENALTY_TRANSITION).evaluateInt(road, 0);
-			putCache(RouteDataObjectAttribute.PENALTY_TRANSITION, road, vl);
-		}
-		return vl;
+		return getRoadValues(road)[ROAD_PENALTY_TRANSITION];
 	}
 
 	@Override
 	public float defineRoutingSpeed(RouteDataObject road) {
-		Float definedSpd = getCache(RouteDataObjectAttribute.ROAD_SPEED, road);
-		if (definedSpd == null) {
-			float spd = getObjContext(RouteDataObjectAttribute.ROAD_SPEED).evaluateFloat(road, defaultSpeed);
-			definedSpd = Math.max(Math.min(spd, maxSpeed), minSpeed);
-			putCache(RouteDataObjectAttribute.ROAD_SPEED, road, definedSpd);
-		}
-		return definedSpd;
+		return getRoadValues(road)[ROAD_SPEED];
 	}
 	
 	@Override
 	public float defineVehicleSpeed(RouteDataObject road) {
-		Float sp = getCache(RouteDataObjectAttribute.ROAD_SPEED, road);
-		if (sp == null) {
-			float spd = getObjContext(RouteDataObjectAttribute.ROAD_SPEED).evaluateFloat(road, defaultSpeed);
-			sp = Math.max(Math.min(spd, maxSpeed), minSpeed);
-			putCache(RouteDataObjectAttribute.ROAD_SPEED, road, sp);
-		}
-		return sp;
+		return getRoadValues(road)[ROAD_SPEED];
 	}
 	
 	@Override
 	public float defineSpeedPriority(RouteDataObject road) {
-		Float sp = getCache(RouteDataObjectAttribute.ROAD_PRIORITIES, road);
-		if(sp == null) {
-			sp = getObjContext(RouteDataObjectAttribute.ROAD_PRIORITIES).evaluateFloat(road, 1f);
-			putCache(RouteDataObjectAttribute.ROAD_PRIORITIES, road, sp);
-		}
-		return sp;
+		return getRoadValues(road)[ROAD_PRIORITY];
 	}
 
-	private void putCache(RouteDataObjectAttribute attr, RouteDataObject road, Float val) {
-		putCache(attr, road.region, road.types, val);
+	private float[] getRoadValues(RouteDataObject road) {
+		return getRegionRules(road.region).getRoadValues(road.types);
 	}
-	
-	private void putCache(RouteDataObjectAttribute attr, RouteRegion reg, int[] types, Float val) {
-		Map<RouteRegion, Map<IntHolder, Float>> ch = evalCache[attr.ordinal()];
-		if (USE_CACHE) {
-			Map<IntHolder, Float> rM = ch.get(reg);
-			if (rM == null) {
-				rM = new HashMap<IntHolder, Float>();
-				ch.put(reg, rM);
+
+	private float[] getPointValues(RouteRegion reg, int[] pointTypes) {
+		return getRegionRules(reg).getPointValues(pointTypes);
+	}
+
+	private CompiledRegionRules getRegionRules(RouteRegion reg) {
+		CompiledRegionRules rules = regionRules.get(reg);
+		if (rules == null) {
+			rules = new CompiledRegionRules(reg);
+			CompiledRegionRules prev = regionRules.putIfAbsent(reg, rules);
+			if (prev != null) {
+				rules = prev;
+			}
+		}
+		return rules;
+	}
+
+	/**
+	 * Routing profile compiled for one route region : region encoding types are mapped once to universal rule ids
+	 * and every evaluated combination of road (point) types is stored as flat array of attribute values.
+	 * Lookups don't take locks, rules are evaluated under lock only first time combination is met.
+	 */
+	private class CompiledRegionRules {
+		private final RouteRegion region;
+		// region type -> universal rule id + 1 (0 not converted yet)
+		private volatile int[] universalIds = new int[0];
+		private final ConcurrentHashMap<IntHolder, float[]> roadValues = new ConcurrentHashMap<IntHolder, float[]>();
+		private final ConcurrentHashMap<IntHolder, float[]> pointValues = new ConcurrentHashMap<IntHolder, float[]>();
+
+		CompiledRegionRules(RouteRegion region) {
+			this.region = region;
+		}
+
+		BitSet convert(int[] types) {
+			BitSet b = new BitSet(universalRules.size());
+			for (int k = 0; k < types.length; k++) {
+				b.set(getUniversalId(types[k]));
+			}
+			return b;
+		}
+
+		private int getUniversalId(int type) {
+			int[] ids = universalIds;
+			if (type < ids.length && ids[type] > 0) {
+				return ids[type] - 1;
+			}
+			synchronized (universalRules) {
+				ids = universalIds;
+				if (type >= ids.length) {
+					ids = Arrays.copyOf(ids, Math.max(type + 1, ids.length * 2));
+				} else if (ids[type] > 0) {
+					return ids[type] - 1;
+				} else {
+					ids = ids.clone();
+				}
+				RouteTypeRule r = region.quickGetEncodingRule(type);
+				int nid = registerTagValueAttribute(r.getTag(), r.getValue());
+				ids[type] = nid + 1;
+				universalIds = ids;
+				return nid;
+			}
+		}
+
+		float[] getRoadValues(int[] types) {
+			if (!USE_CACHE) {
+				return compileRoadValues(types);
+			}
+			IntHolder key = new IntHolder(types);
+			float[] vls = roadValues.get(key);
+			if (vls == null) {
+				vls = compileRoadValues(types);
+				roadValues.put(key, vls);
+			}
+			return vls;
+		}
+
+		float[] getPointValues(int[] types) {
+			if (!USE_CACHE) {
+				return compilePointValues(types);
+			}
+			IntHolder key = new IntHolder(types);
+			float[] vls = pointValues.get(key);
+			if (vls == null) {
+				vls = compilePointValues(types);
+				pointValues.put(key, vls);
+			}
+			return vls;
+		}
+
+		private float[] compileRoadValues(int[] types) {
+			long time = System.nanoTime();
+			float[] vls = new float[ROAD_VALUES];
+			synchronized (universalRules) {
+				BitSet b = convert(types);
+				vls[ROAD_ACCESS] = getObjContext(RouteDataObjectAttribute.ACCESS).evaluateInt(b, 0);
+				vls[ROAD_ONEWAY] = getObjContext(RouteDataObjectAttribute.ONEWAY).evaluateInt(b, 0);
+				float spd = getObjContext(RouteDataObjectAttribute.ROAD_SPEED).evaluateFloat(b, defaultSpeed);
+				vls[ROAD_SPEED] = Math.max(Math.min(spd, maxSpeed), minSpeed);
+				vls[ROAD_PRIORITY] = getObjContext(RouteDataObjectAttribute.ROAD_PRIORITIES).evaluateFloat(b, 1f);
+				vls[ROAD_PENALTY_TRANSITION] = getObjContext(RouteDataObjectAttribute.PENALTY_TRANSITION).evaluateInt(b, 0);
+				vls[ROAD_AREA] = getObjContext(RouteDataObjectAttribute.AREA).evaluateInt(b, 0);
+				TIMER += System.nanoTime() - time;
 			}
-			rM.put(new IntHolder(types), val);
+			return vls;
+		}
+
+		private float[] compilePointValues(int[] types) {
+			long time = System.nanoTime();
+			float[] vls = new float[POINT_VALUES];
+			synchronized (universalRules) {
+				BitSet b = convert(types);
+				vls[POINT_OBSTACLE] = getObjContext(RouteDataObjectAttribute.OBSTACLES).evaluateFloat(b, 0);
+				vls[POINT_ROUTING_OBSTACLE] = getObjContext(RouteDataObjectAttribute.ROUTING_OBSTACLES).evaluateFloat(b, 0);
+				TIMER += System.nanoTime() - time;
+			}
+			return vls;
 		}
-		TIMER += System.nanoTime();
 	}
 	
-	class IntHolder {
+	private static class IntHolder {
 	    private final int[] array;
-	    IntHolder(int[] ts) { array = ts; }
-	    @Override public int hashCode() { return Arrays.hashCode(array); }
+	    private final int hash;
+	    IntHolder(int[] ts) { array = ts; hash = Arrays.hashCode(ts); }
+	    @Override public int hashCode() { return hash; }
 	    @Override public boolean equals(Object other) {
-	        if (array == other) { return true; }
+	        if (this == other) { return true; }
 	        if (! (other instanceof IntHolder) ) {
 	            return false;
 	        }
-	        //noinspection unchecked
 	        return Arrays.equals(array, ((IntHolder) other).array);
 	    }
 	}
 
-	private Float getCache(RouteDataObjectAttribute attr, RouteDataObject road) {
-		return getCache(attr, road.region, road.types);
-	}
-	
-	private Float getCache(RouteDataObjectAttribute attr, RouteRegion reg, int[] types) {
-		Map<RouteRegion, Map<IntHolder, Float>> ch = evalCache[attr.ordinal()];
-		TIMER -= System.nanoTime();
-		if (USE_CACHE) {
-			Map<IntHolder, Float> rM = ch.get(reg);
-			if (rM == null) {
-				return null;
-			}
-			Float vl = rM.get(new IntHolder(types));
-			if(vl != null) {
-				TIMER += System.nanoTime();
-				return vl;
-			}
-		}
-		return null;
-	}
-
 	@Override
 	public float getDefaultSpeed() {
 		return defaultSpeed;
@@ -723,7 +801,18 @@ public class GeneralRouter implements VehicleRouter {
 			return rules.get(rules.size() - 1);
 		}
 
+		// copy of parameter context with own variables (incline) for one evaluation
+		ParameterContext newParameterContext() {
+			ParameterContext pc = new ParameterContext();
+			pc.vars = paramContext != null ? paramContext.vars : Collections.<String, String>emptyMap();
+			return pc;
+		}
+
 		private Object evaluate(BitSet types) {
+			return evaluate(types, paramContext);
+		}
+
+		private Object evaluate(BitSet types, ParameterContext paramContext) {
 			for (int k = 0; k < rules.size(); k++) {
 				RouteAttributeEvalRule r = rules.get(k);
 				Object o = r.eval(types, paramContext);
@@ -785,6 +874,14 @@ public class GeneralRouter implements VehicleRouter {
 			return ((Number)o).floatValue();
 		}
 		
+		float evaluateFloat(RouteDataObject ro, ParameterContext pc, float defValue) {
+			Object o = evaluate(convert(ro.region, ro.types), pc);
+			if(!(o instanceof Number)) {
+				return defValue;
+			}
+			return ((Number)o).floatValue();
+		}
+		
 		public float evaluateFloat(RouteRegion region, int[] types, float defValue) {
 			Object o = evaluate(convert(region, types));
 			if(!(o instanceof Number)) {
@@ -802,22 +899,7 @@ public class GeneralRouter implements VehicleRouter {
 		}
 		
 		private BitSet convert(RouteRegion reg, int[] types) {
-			BitSet b = new BitSet(universalRules.size());
-			Map<Integer, Integer> map = regionConvert.get(reg);
-			if(map == null){
-				map = new HashMap<Integer, Integer>();
-				regionConvert.put(reg, map);
-			}
-			for(int k = 0; k < types.length; k++) {
-				Integer nid = map.get(types[k]);
-				if(nid == null){
-					RouteTypeRule r = reg.quickGetEncodingRule(types[k]);
-					nid = registerTagValueAttribute(r.getTag(), r.getValue());
-					map.put(types[k], nid);
-				}
-				b.set(nid);
-			}
-			return b;
+			return getRegionRules(reg).convert(types);
 		}
 	}
 
@@ -911,7 +993,6 @@ public class GeneralRouter implements VehicleRouter {
 		protected String selectType = null;
 		protected BitSet filterTypes = new BitSet();
 		protected BitSet filterNotTypes = new BitSet();
-		protected BitSet evalFilterTypes = new BitSet();
 		
 		protected Set<String> onlyTags = new LinkedHashSet<String>();
 		protected Set<String> onlyNotTags = new LinkedHashSet<String>();
@@ -1027,7 +1108,7 @@ public class GeneralRouter implements VehicleRouter {
 			parameters.add(param);
 		}
 
-		public synchronized Object eval(BitSet types, ParameterContext paramContext) {
+		public Object eval(BitSet types, ParameterContext paramContext) {
 			if (matches(types, paramContext)) {
 				return calcSelectValue(types, paramContext);
 			}
@@ -1048,7 +1129,8 @@ public class GeneralRouter implements VehicleRouter {
 			} else if (selectValue instanceof String && selectValue.toString().startsWith(":")) {
 				String p = ((String) selectValue).substring(1);
 				if (paramContext != null && paramContext.vars.containsKey(p)) {
-					selectValue = parseValue(paramContext.vars.get(p), selectType);
+					// rule is shared between routers with different parameters, so value is not stored
+					return parseValue(paramContext.vars.get(p), selectType);
 				} else {
 					return null;
 				}
@@ -1112,14 +1194,12 @@ public class GeneralRouter implements VehicleRouter {
 		}
 
 		private boolean checkAllTypesShouldBePresent(BitSet types) {
-			// Bitset method subset is missing "filterTypes.isSubset(types)"    
-			// reset previous evaluation
-			// evalFilterTypes.clear(); // not needed same as or()
-			evalFilterTypes.or(filterTypes);
-			// evaluate bit intersection and check if filterTypes contained as set in types
-			evalFilterTypes.and(types);
-			if(!evalFilterTypes.equals(filterTypes)) {
-				return false;
+			// Bitset method subset is missing "filterTypes.isSubset(types)", check bits one by one
+			// (no shared temporary bitset, so rule could be evaluated from many threads)
+			for (int i = filterTypes.nextSetBit(0); i >= 0; i = filterTypes.nextSetBit(i + 1)) {
+				if (!types.get(i)) {
+					return false;
+				}
 			}
 			return true;
 		}
@@ -0,0 +1,178 @@
+package net.osmand.router;
+
+import java.util.Arrays;
+
+/**
+ * Binary min heap of int items [0, capacity) with float keys stored in primitive arrays.
+ * Supports decrease/increase key and cheap clear (only touched items are reset),
+ * so one instance could be reused for many searches without allocations.
+ */
+public class IndexedMinHeap {
+
+	private int[] heap;
+	private int[] positions;
+	private float[] keys;
+	private int size;
+
+	public IndexedMinHeap(int capacity) {
+		heap = new int[Math.max(capacity, 1)];
+		positions = new int[Math.max(capacity, 1)];
+		keys = new float[Math.max(capacity, 1)];
+		Arrays.fill(positions, -1);
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public int capacity() {
+		return positions.length;
+	}
+
+	public boolean contains(int item) {
+		return item < positions.length && positions[item] >= 0;
+	}
+
+	public float getKey(int item) {
+		return keys[item];
+	}
+
+	public int peek() {
+		if (size == 0) {
+			throw new IllegalStateException("Heap is empty");
+		}
+		return heap[0];
+	}
+
+	public float peekKey() {
+		if (size == 0) {
+			return Float.POSITIVE_INFINITY;
+		}
+		return keys[heap[0]];
+	}
+
+	/**
+	 * Insert item or change its key if it is already in the heap
+	 */
+	public void push(int item, float key) {
+		ensureCapacity(item + 1);
+		int p = positions[item];
+		if (p < 0) {
+			p = size++;
+			heap[p] = item;
+			positions[item] = p;
+			keys[item] = key;
+			siftUp(p);
+		} else {
+			float old = keys[item];
+			keys[item] = key;
+			if (key < old) {
+				siftUp(p);
+			} else if (key > old) {
+				siftDown(p);
+			}
+		}
+	}
+
+	/**
+	 * Insert item or decrease its key, returns false if item already has lower or equal key
+	 */
+	public boolean pushIfLess(int item, float key) {
+		if (contains(item) && keys[item] <= key) {
+			return false;
+		}
+		push(item, key);
+		return true;
+	}
+
+	public int poll() {
+		if (size == 0) {
+			throw new IllegalStateException("Heap is empty");
+		}
+		int item = heap[0];
+		positions[item] = -1;
+		size--;
+		if (size > 0) {
+			heap[0] = heap[size];
+			positions[heap[0]] = 0;
+			siftDown(0);
+		}
+		return item;
+	}
+
+	public void remove(int item) {
+		if (!contains(item)) {
+			return;
+		}
+		int p = positions[item];
+		positions[item] = -1;
+		size--;
+		if (p < size) {
+			int last = heap[size];
+			heap[p] = last;
+			positions[last] = p;
+			siftDown(p);
+			siftUp(positions[last]);
+		}
+	}
+
+	public void clear() {
+		for (int i = 0; i < size; i++) {
+			positions[heap[i]] = -1;
+		}
+		size = 0;
+	}
+
+	private void ensureCapacity(int cap) {
+		if (cap > positions.length) {
+			int ncap = Math.max(cap, positions.length * 3 / 2 + 1);
+			int oldLength = positions.length;
+			heap = Arrays.copyOf(heap, ncap);
+			keys = Arrays.copyOf(keys, ncap);
+			positions = Arrays.copyOf(positions, ncap);
+			Arrays.fill(positions, oldLength, ncap, -1);
+		}
+	}
+
+	private void siftUp(int p) {
+		int item = heap[p];
+		float key = keys[item];
+		while (p > 0) {
+			int parent = (p - 1) >> 1;
+			int pitem = heap[parent];
+			if (keys[pitem] <= key) {
+				break;
+			}
+			heap[p] = pitem;
+			positions[pitem] = p;
+			p = parent;
+		}
+		heap[p] = item;
+		positions[item] = p;
+	}
+
+	private void siftDown(int p) {
+		int item = heap[p];
+		float key = keys[item];
+		int half = size >> 1;
+		while (p < half) {
+			int child = (p << 1) + 1;
+			int right = child + 1;
+			if (right < size && keys[heap[right]] < keys[heap[child]]) {
+				child = right;
+			}
+			if (key <= keys[heap[child]]) {
+				break;
+			}
+			heap[p] = heap[child];
+			positions[heap[p]] = p;
+			p = child;
+		}
+		heap[p] = item;
+		positions[item] = p;
+	}
+}
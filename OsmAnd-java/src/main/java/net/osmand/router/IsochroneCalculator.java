@@ -0,0 +1,420 @@
+package net.osmand.router;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.list.array.TLongArrayList;
+import gnu.trove.map.hash.TIntLongHashMap;
+import net.osmand.PlatformUtil;
+import net.osmand.binary.RouteDataObject;
+import net.osmand.data.LatLon;
+import net.osmand.router.RoadGraph.Access;
+import net.osmand.router.RoadGraph.LocatedPoint;
+import net.osmand.util.MapUtils;
+
+/**
+ * Calculates area reachable from the origin within time (seconds) or distance (meters) budget.
+ *
+ * Origins are grouped by grid cells of the size of max distance which could be passed within the budget, roads of the
+ * area around origins of the cell (extended by that distance) are loaded once by the routing context into
+ * {@link RoadGraph}, then one Dijkstra expansion per origin stops at the budget and origins of the cell are processed in
+ * parallel. Result contains completely reached road intervals and convex hull of reached points (including points of
+ * partially reached intervals).
+ * Roads of the graph are limited by the graph size limit (half of the context memory limit by default) : if area of the
+ * cell is too large, origins are calculated one by one and area around origin is reduced till it fits the limit.
+ */
+public class IsochroneCalculator {
+
+	private static final Log log = PlatformUtil.getLog(IsochroneCalculator.class);
+	private static final int INITIAL_VISITED_CAPACITY = 256;
+	private static final double EQUATOR_LENGTH = 40075016;
+	// area around origin is not reduced below that distance
+	private static final int MIN_EXTENSION_METERS = 500;
+
+	private final ForkJoinPool pool;
+	private long graphSizeLimit;
+
+	/**
+	 * @param pool runs searches of origins (pool is not shut down by calculator)
+	 */
+	public IsochroneCalculator(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * @param graphSizeLimit max estimated size of graph roads in bytes (0 - half of the context memory limit)
+	 */
+	public void setGraphSizeLimit(long graphSizeLimit) {
+		this.graphSizeLimit = graphSizeLimit;
+	}
+
+	private long getGraphSizeLimit(RoutingContext ctx) {
+		// loaded roads stay referenced by the graph together with its arrays
+		return graphSizeLimit > 0 ? graphSizeLimit : ctx.config.memoryLimitation / 2;
+	}
+
+	public static class Isochrone {
+		public final LatLon origin;
+		public final float budget;
+		public final boolean distanceBudget;
+		// completely reached parts of roads
+		public final List<RouteSegmentResult> segments = new ArrayList<RouteSegmentResult>();
+		// polygon of reached area (not closed, empty if origin is not located on the road)
+		public final List<LatLon> hull = new ArrayList<LatLon>();
+		public int reachedPoints;
+		// roads around origin were limited by graph size limit, so reached area could be smaller than the budget allows
+		public boolean limitedArea;
+
+		Isochrone(LatLon origin, float budget, boolean distanceBudget) {
+			this.origin = origin;
+			this.budget = budget;
+			this.distanceBudget = distanceBudget;
+		}
+	}
+
+	public Isochrone calculate(RoutingContext ctx, LatLon origin, float budget, boolean distanceBudget) throws IOException {
+		List<Isochrone> res = calculate(ctx, Collections.singletonList(origin), budget, distanceBudget);
+		return res == null ? null : res.get(0);
+	}
+
+	/**
+	 * @param budget time in seconds or distance in meters (distanceBudget)
+	 * @return isochrones in order of origins or null if calculation was cancelled
+	 */
+	public List<Isochrone> calculate(RoutingContext ctx, List<LatLon> origins, float budget, boolean distanceBudget)
+			throws IOException {
+		long time = System.currentTimeMillis();
+		RouteCalculationProgress progress = ctx.calculationProgress;
+		if (progress != null) {
+			progress.totalEstimatedDistance = budget * origins.size();
+			progress.distanceFromBegin = 0;
+		}
+		int extension = (int) Math.ceil(distanceBudget ? budget : budget * ctx.getRouter().getMaxSpeed());
+		Isochrone[] res = new Isochrone[origins.size()];
+		for (int i = 0; i < res.length; i++) {
+			res[i] = new Isochrone(origins.get(i), budget, distanceBudget);
+		}
+		RoutePlannerFrontEnd frontEnd = new RoutePlannerFrontEnd();
+		AtomicInteger calculated = new AtomicInteger();
+		AtomicInteger visited = new AtomicInteger(progress != null ? progress.visitedSegments : 0);
+		long sizeLimit = getGraphSizeLimit(ctx);
+		for (TIntArrayList cluster : clusterOrigins(origins, extension)) {
+			List<RouteDataObject> roads = loadRoads(ctx, origins, cluster, extension, sizeLimit);
+			if (roads != null) {
+				calculateCluster(ctx, frontEnd, roads, origins, cluster, res, calculated, visited);
+			} else {
+				// cell is too large : origins one by one, area around origin is reduced till it fits the limit
+				for (int i = 0; i < cluster.size() && (progress == null || !progress.isCancelled); i++) {
+					TIntArrayList origin = new TIntArrayList(new int[] { cluster.getQuick(i) });
+					int ext = extension;
+					roads = cluster.size() > 1 ? loadRoads(ctx, origins, origin, ext, sizeLimit) : null;
+					while (roads == null && ext > MIN_EXTENSION_METERS) {
+						ext = Math.max(ext / 2, MIN_EXTENSION_METERS);
+						roads = loadRoads(ctx, origins, origin, ext, sizeLimit);
+					}
+					Isochrone r = res[origin.getQuick(0)];
+					if (roads == null || ext < extension) {
+						r.limitedArea = true;
+						log.warn("Isochrone area of " + r.origin + " is reduced to " + ext + " m by graph size limit");
+					}
+					if (roads != null) {
+						calculateCluster(ctx, frontEnd, roads, origins, origin, res, calculated, visited);
+					} else {
+						// isochrone stays empty
+						calculated.incrementAndGet();
+					}
+				}
+			}
+			if (progress != null && progress.isCancelled) {
+				return null;
+			}
+		}
+		if (progress != null) {
+			progress.visitedSegments = visited.get();
+		}
+		log.info(origins.size() + " isochrones calculated in " + (System.currentTimeMillis() - time) / 1000f + " s");
+		return Arrays.asList(res);
+	}
+
+	private static List<RouteDataObject> loadRoads(RoutingContext ctx, List<LatLon> origins, TIntArrayList cluster,
+			int extension, long sizeLimit) {
+		List<LatLon> points = new ArrayList<LatLon>(cluster.size());
+		for (int i = 0; i < cluster.size(); i++) {
+			points.add(origins.get(cluster.getQuick(i)));
+		}
+		return RoadGraph.loadRoads(ctx, points, extension, sizeLimit);
+	}
+
+	private void calculateCluster(RoutingContext ctx, RoutePlannerFrontEnd frontEnd, List<RouteDataObject> roads,
+			List<LatLon> origins, TIntArrayList cluster, Isochrone[] res, AtomicInteger calculated,
+			AtomicInteger visited) throws IOException {
+		long clusterTime = System.currentTimeMillis();
+		// graph of the cell is released before the next one is loaded
+		RoadGraph graph = RoadGraph.build(ctx, roads);
+		LocatedPoint[] located = new LocatedPoint[cluster.size()];
+		Isochrone[] clusterRes = new Isochrone[cluster.size()];
+		for (int i = 0; i < located.length; i++) {
+			located[i] = graph.locate(frontEnd, ctx, origins.get(cluster.getQuick(i)), true);
+			clusterRes[i] = res[cluster.getQuick(i)];
+		}
+		log.info("Isochrone graph of " + located.length + " origins : " + graph.points.length + " nodes, "
+				+ graph.outTarget.length + " edges prepared in " + (System.currentTimeMillis() - clusterTime) / 1000f
+				+ " s");
+		int threshold = Math.max(1, located.length / (pool.getParallelism() * 4));
+		pool.invoke(new OriginsTask(ctx.calculationProgress, graph, located, clusterRes, clusterRes[0].budget,
+				clusterRes[0].distanceBudget, calculated, visited, 0, located.length, threshold));
+	}
+
+	/**
+	 * Groups indexes of origins by grid cells not smaller than the extension, so area loaded for the cell is
+	 * at most 4 times larger than area of one origin and distant origins don't make one huge area.
+	 */
+	static List<TIntArrayList> clusterOrigins(List<LatLon> origins, int extensionMeters) {
+		int zoom = 1;
+		// tile size at zoom is 40 000 km / 2^zoom on equator and smaller on other latitudes
+		while (zoom < 31 && EQUATOR_LENGTH / (1L << (zoom + 1)) >= extensionMeters * 2d) {
+			zoom++;
+		}
+		Map<Long, TIntArrayList> cells = new LinkedHashMap<Long, TIntArrayList>();
+		for (int i = 0; i < origins.size(); i++) {
+			LatLon l = origins.get(i);
+			long cell = (((long) MapUtils.get31TileNumberX(l.getLongitude())) >> (31 - zoom) << 32)
+					+ (MapUtils.get31TileNumberY(l.getLatitude()) >> (31 - zoom));
+			TIntArrayList cluster = cells.get(cell);
+			if (cluster == null) {
+				cluster = new TIntArrayList();
+				cells.put(cell, cluster);
+			}
+			cluster.add(i);
+		}
+		return new ArrayList<TIntArrayList>(cells.values());
+	}
+
+	private static class OriginsTask extends RecursiveAction {
+		private static final long serialVersionUID = -6215318794458519032L;
+		private final RouteCalculationProgress progress;
+		private final RoadGraph graph;
+		private final LocatedPoint[] origins;
+		private final Isochrone[] results;
+		private final float budget;
+		private final boolean distanceBudget;
+		private final AtomicInteger calculated;
+		private final AtomicInteger visited;
+		private final int from;
+		private final int to;
+		private final int threshold;
+
+		// search state is sized by visited nodes (not by graph) : nodes get local index when they are reached
+		private TIntLongHashMap localIndexes;
+		private TIntArrayList nodes;
+		private float[] cost;
+
+		OriginsTask(RouteCalculationProgress progress, RoadGraph graph, LocatedPoint[] origins, Isochrone[] results,
+				float budget, boolean distanceBudget, AtomicInteger calculated, AtomicInteger visited, int from, int to,
+				int threshold) {
+			this.progress = progress;
+			this.graph = graph;
+			this.origins = origins;
+			this.results = results;
+			this.budget = budget;
+			this.distanceBudget = distanceBudget;
+			this.calculated = calculated;
+			this.visited = visited;
+			this.from = from;
+			this.to = to;
+			this.threshold = threshold;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > threshold) {
+				int middle = (from + to) >>> 1;
+				invokeAll(new OriginsTask(progress, graph, origins, results, budget, distanceBudget, calculated, visited,
+						from, middle, threshold), new OriginsTask(progress, graph, origins, results, budget,
+						distanceBudget, calculated, visited, middle, to, threshold));
+				return;
+			}
+			IndexedMinHeap heap = new IndexedMinHeap(INITIAL_VISITED_CAPACITY);
+			localIndexes = new TIntLongHashMap(INITIAL_VISITED_CAPACITY, 0.5f, -1, -1);
+			nodes = new TIntArrayList(INITIAL_VISITED_CAPACITY);
+			cost = new float[INITIAL_VISITED_CAPACITY];
+			for (int i = from; i < to; i++) {
+				if (progress != null && progress.isCancelled) {
+					return;
+				}
+				if (origins[i].segment != null) {
+					int polled = search(heap, origins[i]);
+					collect(results[i]);
+					localIndexes.clear();
+					nodes.clear(0);
+					heap.clear();
+					int v = visited.addAndGet(polled);
+					if (progress != null) {
+						progress.visitedSegments = v;
+					}
+				}
+				int done = calculated.incrementAndGet();
+				if (progress != null) {
+					progress.distanceFromBegin = done * budget;
+				}
+			}
+		}
+
+		private float getCost(int node) {
+			int local = (int) localIndexes.get(node);
+			return local < 0 ? Float.POSITIVE_INFINITY : cost[local];
+		}
+
+		/**
+		 * Local index of the node (node gets it when it is reached first time)
+		 */
+		private int getLocalIndex(int node) {
+			int local = (int) localIndexes.get(node);
+			if (local < 0) {
+				local = nodes.size();
+				nodes.add(node);
+				localIndexes.put(node, local);
+				if (local == cost.length) {
+					cost = Arrays.copyOf(cost, cost.length * 2);
+				}
+				cost[local] = Float.POSITIVE_INFINITY;
+			}
+			return local;
+		}
+
+		// Dijkstra from origin which stops at the budget, returns number of polled nodes
+		private int search(IndexedMinHeap heap, LocatedPoint origin) {
+			float[] weights = distanceBudget ? graph.outDistance : graph.outTime;
+			for (Access a : origin.access) {
+				float c = distanceBudget ? a.distance : a.time;
+				if (c <= budget && c < getCost(a.node)) {
+					int local = getLocalIndex(a.node);
+					cost[local] = c;
+					heap.push(local, c);
+				}
+			}
+			int polled = 0;
+			while (!heap.isEmpty()) {
+				int lu = heap.poll();
+				int u = nodes.getQuick(lu);
+				float cu = cost[lu];
+				polled++;
+				for (int e = graph.outIndex[u]; e < graph.outIndex[u + 1]; e++) {
+					int w = graph.outTarget[e];
+					float cw = cu + weights[e];
+					if (cw <= budget && cw < getCost(w)) {
+						int lw = getLocalIndex(w);
+						cost[lw] = cw;
+						heap.push(lw, cw);
+					}
+				}
+			}
+			return polled;
+		}
+
+		private void collect(Isochrone res) {
+			float[] weights = distanceBudget ? graph.outDistance : graph.outTime;
+			// completely reached road intervals : (road index << 32) + first point index
+			TLongArrayList intervals = new TLongArrayList();
+			TLongArrayList hullPoints = new TLongArrayList(nodes.size() + 1);
+			hullPoints.add((((long) MapUtils.get31TileNumberX(res.origin.getLongitude())) << 31)
+					+ MapUtils.get31TileNumberY(res.origin.getLatitude()));
+			for (int k = 0; k < nodes.size(); k++) {
+				int u = nodes.getQuick(k);
+				float cu = cost[k];
+				hullPoints.add(graph.points[u]);
+				for (int e = graph.outIndex[u]; e < graph.outIndex[u + 1]; e++) {
+					int w = graph.outTarget[e];
+					if (cu + weights[e] <= budget) {
+						RouteDataObject road = graph.roads[graph.outRoad[e]];
+						int end = graph.outRoadPoint[e];
+						boolean positive = end > 0 && road.getPoint31XTile(end - 1) == graph.getNodeX(u)
+								&& road.getPoint31YTile(end - 1) == graph.getNodeY(u);
+						intervals.add((((long) graph.outRoad[e]) << 32) + (positive ? end - 1 : end));
+					} else if (getCost(w) == Float.POSITIVE_INFINITY && weights[e] > 0) {
+						// budget ends inside of the interval
+						float part = (budget - cu) / weights[e];
+						int ux = graph.getNodeX(u);
+						int uy = graph.getNodeY(u);
+						int x = (int) (ux + (graph.getNodeX(w) - (double) ux) * part);
+						int y = (int) (uy + (graph.getNodeY(w) - (double) uy) * part);
+						hullPoints.add((((long) x) << 31) + y);
+					}
+				}
+			}
+			res.reachedPoints = nodes.size();
+			addSegments(intervals, res);
+			convexHull(hullPoints, res.hull);
+		}
+
+		private void addSegments(TLongArrayList intervals, Isochrone res) {
+			intervals.sort();
+			int i = 0;
+			while (i < intervals.size()) {
+				long key = intervals.getQuick(i);
+				int road = (int) (key >> 32);
+				int start = (int) key;
+				int end = start + 1;
+				i++;
+				while (i < intervals.size()) {
+					long next = intervals.getQuick(i);
+					if ((int) (next >> 32) != road || (int) next > end) {
+						break;
+					}
+					end = Math.max(end, (int) next + 1);
+					i++;
+				}
+				res.segments.add(new RouteSegmentResult(graph.roads[road], start, end));
+			}
+		}
+	}
+
+	// Andrew's monotone chain, points are 31 tile coordinates packed to long (sorted by x, then y)
+	static void convexHull(TLongArrayList points, List<LatLon> hull) {
+		points.sort();
+		int n = points.size();
+		if (n == 0) {
+			return;
+		}
+		long[] h = new long[2 * n];
+		int k = 0;
+		for (int i = 0; i < n; i++) {
+			long p = points.getQuick(i);
+			while (k >= 2 && cross(h[k - 2], h[k - 1], p) <= 0) {
+				k--;
+			}
+			h[k++] = p;
+		}
+		for (int i = n - 2, t = k + 1; i >= 0; i--) {
+			long p = points.getQuick(i);
+			while (k >= t && cross(h[k - 2], h[k - 1], p) <= 0) {
+				k--;
+			}
+			h[k++] = p;
+		}
+		int size = n == 1 ? 1 : k - 1;
+		for (int i = 0; i < size; i++) {
+			int x = (int) (h[i] >> 31);
+			int y = (int) (h[i] - (((long) x) << 31));
+			hull.add(new LatLon(MapUtils.get31LatitudeY(y), MapUtils.get31LongitudeX(x)));
+		}
+	}
+
+	private static double cross(long o, long a, long b) {
+		double ox = o >> 31, oy = o - ((o >> 31) << 31);
+		double ax = a >> 31, ay = a - ((a >> 31) << 31);
+		double bx = b >> 31, by = b - ((b >> 31) << 31);
+		return (ax - ox) * (by - oy) - (ay - oy) * (bx - ox);
+	}
+}
@@ -0,0 +1,617 @@
+package net.osmand.router;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.apache.commons.logging.Log;
+
+import gnu.trove.map.hash.TLongObjectHashMap;
+import net.osmand.GPXUtilities.TrkSegment;
+import net.osmand.GPXUtilities.WptPt;
+import net.osmand.PlatformUtil;
+import net.osmand.binary.BinaryMapIndexReader;
+import net.osmand.binary.BinaryMapReaderPool;
+import net.osmand.binary.RouteDataObject;
+import net.osmand.router.BinaryRoutePlanner.RouteSegment;
+import net.osmand.router.BinaryRoutePlanner.RouteSegmentPoint;
+import net.osmand.util.MapUtils;
+
+/**
+ * Map matching of recorded tracks by hidden Markov model (Newson, Krumm "Hidden Markov map matching through noise and sparseness").
+ *
+ * States of track point are its projections to the nearest roads, emission probability depends on distance to the road
+ * and transition probability on difference between distance by roads and straight distance between track points.
+ * Distances by roads are calculated by small Dijkstra search (oneway roads are respected, turn restrictions are not)
+ * limited by the straight distance, the most probable sequence of states is found by Viterbi algorithm.
+ * Matched route passes every state at the nearest point of its road, so projections near intersections don't add
+ * parts of the crossing roads.
+ *
+ * Track is processed as a stream : as soon as all states of the current point have the same ancestor, route till the
+ * ancestor is final and released, so memory doesn't depend on track length.
+ * Many tracks are matched in parallel by {@link #matchTracks(RoutingConfiguration, BinaryMapReaderPool, List, ForkJoinPool)},
+ * every worker has own routing context and readers acquired from the pool (they share index structure of the files),
+ * they are reused by all tracks matched by the worker.
+ */
+public class MapMatcher {
+
+	private static final Log log = PlatformUtil.getLog(MapMatcher.class);
+
+	// gps noise (standard deviation) in meters
+	private static final double SIGMA = 10;
+	// expected difference between distance by roads and straight distance in meters
+	private static final double BETA = 20;
+	private static final double CANDIDATES_RADIUS = 50;
+	private static final int MAX_CANDIDATES = 5;
+	// track points closer to the previous point are skipped
+	private static final double MIN_POINT_DISTANCE = 15;
+	// after longer gap matching starts again
+	private static final double MAX_POINT_DISTANCE = 2000;
+	private static final double MAX_ROUTE_DISTANCE_FACTOR = 2;
+	// if states don't converge, the best state is fixed after that number of points
+	private static final int MAX_UNRESOLVED_POINTS = 100;
+
+	private final RoutePlannerFrontEnd frontEnd;
+
+	public MapMatcher(RoutePlannerFrontEnd frontEnd) {
+		this.frontEnd = frontEnd;
+	}
+
+	public MapMatcher() {
+		this(new RoutePlannerFrontEnd());
+	}
+
+	// part of the road between points (direction from start to end)
+	private static class RoadPart {
+		final RouteDataObject road;
+		int start;
+		int end;
+
+		RoadPart(RouteDataObject road, int start, int end) {
+			this.road = road;
+			this.start = start;
+			this.end = end;
+		}
+
+		boolean isPositive() {
+			return end > start;
+		}
+
+		// next part continues this part (same road and direction, starts inside this part)
+		boolean merge(RoadPart next) {
+			if (next.road.getId() != road.getId() || next.isPositive() != isPositive()) {
+				return false;
+			}
+			if (isPositive() && next.start >= start && next.start <= end) {
+				end = Math.max(end, next.end);
+				return true;
+			}
+			if (!isPositive() && next.start <= start && next.start >= end) {
+				end = Math.min(end, next.end);
+				return true;
+			}
+			return false;
+		}
+	}
+
+	// state of hmm : projection of track point to the road
+	private static class Candidate {
+		final RouteSegmentPoint point;
+		final double emission;
+		double score = Double.NEGATIVE_INFINITY;
+		Candidate previous;
+		// road parts from previous candidate
+		List<RoadPart> path;
+		// used to find common ancestor
+		int stamp;
+		int count;
+
+		Candidate(RouteSegmentPoint point, double distance) {
+			this.point = point;
+			this.emission = -0.5 * (distance / SIGMA) * (distance / SIGMA);
+		}
+
+		RouteDataObject getRoad() {
+			return point.getRoad();
+		}
+
+		int getInterval() {
+			// projection is between segmentStart - 1 and segmentStart
+			return point.getSegmentStart();
+		}
+
+		// route parts start and end at road points, so candidate is passed at the nearest point of its interval
+		int getNearestPoint() {
+			int k = getInterval();
+			return distToPoint(this, k - 1) <= distToPoint(this, k) ? k - 1 : k;
+		}
+	}
+
+	private static class Node implements Comparable<Node> {
+		final long key;
+		final double dist;
+		final Node parent;
+		// part of the road from parent (or from the projection for initial nodes)
+		final RoadPart part;
+
+		Node(long key, double dist, Node parent, RoadPart part) {
+			this.key = key;
+			this.dist = dist;
+			this.parent = parent;
+			this.part = part;
+		}
+
+		@Override
+		public int compareTo(Node o) {
+			return Double.compare(dist, o.dist);
+		}
+	}
+
+	private static class Target {
+		final int candidate;
+		final int pointIndex;
+		final double dist;
+
+		Target(int candidate, int pointIndex, double dist) {
+			this.candidate = candidate;
+			this.pointIndex = pointIndex;
+			this.dist = dist;
+		}
+	}
+
+	// readers and routing context of the worker are reused for all its tracks (loaded tiles are shared by tracks)
+	private static class Worker {
+		final BinaryMapIndexReader[] readers;
+		final RoutingContext ctx;
+
+		Worker(BinaryMapIndexReader[] readers, RoutingContext ctx) {
+			this.readers = readers;
+			this.ctx = ctx;
+		}
+	}
+
+	/**
+	 * Matches all tracks in parallel, result contains matched route for every track (empty if track couldn't be matched,
+	 * null if calculation was cancelled).
+	 * Every worker acquires readers of all files of the reader pool, they are released when all tracks are matched.
+	 */
+	public List<List<RouteSegmentResult>> matchTracks(RoutingConfiguration config, BinaryMapReaderPool readers,
+			List<TrkSegment> tracks, ForkJoinPool pool) throws IOException {
+		long time = System.currentTimeMillis();
+		List<List<RouteSegmentResult>> results = new ArrayList<List<RouteSegmentResult>>(tracks.size());
+		for (int i = 0; i < tracks.size(); i++) {
+			results.add(null);
+		}
+		ConcurrentLinkedQueue<Worker> workers = new ConcurrentLinkedQueue<Worker>();
+		try {
+			int threshold = Math.max(1, tracks.size() / (pool.getParallelism() * 4));
+			pool.invoke(new TracksTask(this, config, readers, workers, tracks, results, 0, tracks.size(), threshold));
+		} catch (IllegalStateException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw e;
+		} finally {
+			for (Worker w : workers) {
+				readers.release(w.readers);
+			}
+		}
+		log.info("Map matching of " + tracks.size() + " tracks took " + (System.currentTimeMillis() - time) / 1000f + " s");
+		return results;
+	}
+
+	private static class TracksTask extends RecursiveAction {
+		private static final long serialVersionUID = 7719502851330961584L;
+		private final MapMatcher matcher;
+		private final RoutingConfiguration config;
+		private final BinaryMapReaderPool readers;
+		private final ConcurrentLinkedQueue<Worker> workers;
+		private final List<TrkSegment> tracks;
+		private final List<List<RouteSegmentResult>> results;
+		private final int from;
+		private final int to;
+		private final int threshold;
+
+		TracksTask(MapMatcher matcher, RoutingConfiguration config, BinaryMapReaderPool readers,
+				ConcurrentLinkedQueue<Worker> workers, List<TrkSegment> tracks, List<List<RouteSegmentResult>> results,
+				int from, int to, int threshold) {
+			this.matcher = matcher;
+			this.config = config;
+			this.readers = readers;
+			this.workers = workers;
+			this.tracks = tracks;
+			this.results = results;
+			this.from = from;
+			this.to = to;
+			this.threshold = threshold;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > threshold) {
+				int middle = (from + to) >>> 1;
+				invokeAll(new TracksTask(matcher, config, readers, workers, tracks, results, from, middle, threshold),
+						new TracksTask(matcher, config, readers, workers, tracks, results, middle, to, threshold));
+				return;
+			}
+			Worker worker = workers.poll();
+			try {
+				if (worker == null) {
+					BinaryMapIndexReader[] rs = readers.acquireReaders();
+					worker = new Worker(rs, matcher.frontEnd.buildRoutingContext(config, null, rs));
+				}
+				for (int i = from; i < to; i++) {
+					List<RouteSegmentResult> res;
+					try {
+						res = matcher.matchSegment(worker.ctx, tracks.get(i));
+					} catch (RuntimeException e) {
+						log.error("Track " + i + " couldn't be matched", e);
+						res = new ArrayList<RouteSegmentResult>();
+					}
+					// results are different elements of the list
+					synchronized (results) {
+						results.set(i, res);
+					}
+				}
+			} catch (IOException e) {
+				throw new IllegalStateException(e);
+			} catch (InterruptedException e) {
+				// cancelled by calculation progress of the context
+				return;
+			} finally {
+				if (worker != null) {
+					workers.add(worker);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Matches track segment to the roads of the context, parts of the track which are far from roads are skipped
+	 * (result is not connected there).
+	 */
+	public List<RouteSegmentResult> matchSegment(RoutingContext ctx, TrkSegment segment) throws IOException,
+			InterruptedException {
+		List<List<RoadPart>> parts = new ArrayList<List<RoadPart>>();
+		List<RoadPart> matched = new ArrayList<RoadPart>();
+		List<Candidate> states = null;
+		WptPt prev = null;
+		int unresolved = 0;
+		int stamp = 0;
+		for (WptPt p : segment.points) {
+			if (ctx.calculationProgress != null && ctx.calculationProgress.isCancelled) {
+				throw new InterruptedException("Map matching interrupted");
+			}
+			double gc = prev == null ? 0 : MapUtils.getDistance(prev.lat, prev.lon, p.lat, p.lon);
+			if (prev != null && gc < MIN_POINT_DISTANCE) {
+				continue;
+			}
+			if (ctx.checkIfMemoryLimitCritical(ctx.config.memoryLimitation)) {
+				ctx.unloadUnusedTiles(ctx.config.memoryLimitation);
+			}
+			List<Candidate> candidates = findCandidates(ctx, p);
+			if (candidates.isEmpty()) {
+				continue;
+			}
+			boolean connected = false;
+			if (states != null && gc <= MAX_POINT_DISTANCE) {
+				connected = transition(ctx, states, candidates, gc);
+			}
+			if (!connected) {
+				if (states != null) {
+					// hmm is broken : finish matched part with the best state
+					emit(getBest(states), matched);
+					if (!matched.isEmpty()) {
+						parts.add(matched);
+						matched = new ArrayList<RoadPart>();
+					}
+				}
+				for (Candidate c : candidates) {
+					c.score = c.emission;
+				}
+			} else {
+				for (int i = candidates.size() - 1; i >= 0; i--) {
+					if (candidates.get(i).score == Double.NEGATIVE_INFINITY) {
+						candidates.remove(i);
+					}
+				}
+			}
+			states = candidates;
+			prev = p;
+			unresolved++;
+			Candidate common = findCommonAncestor(states, ++stamp);
+			if (common == null && unresolved > MAX_UNRESOLVED_POINTS) {
+				common = getBest(states);
+				for (int i = 0; i < MAX_UNRESOLVED_POINTS / 2 && common.previous != null; i++) {
+					common = common.previous;
+				}
+				for (int i = states.size() - 1; i >= 0; i--) {
+					if (!hasAncestor(states.get(i), common)) {
+						states.remove(i);
+					}
+				}
+			}
+			if (common != null) {
+				emit(common, matched);
+				unresolved = 0;
+			}
+		}
+		if (states != null) {
+			emit(getBest(states), matched);
+		}
+		if (!matched.isEmpty()) {
+			parts.add(matched);
+		}
+		List<RouteSegmentResult> res = new ArrayList<RouteSegmentResult>();
+		RouteResultPreparation preparation = new RouteResultPreparation();
+		for (List<RoadPart> part : parts) {
+			List<RouteSegmentResult> r = new ArrayList<RouteSegmentResult>(part.size());
+			for (RoadPart rp : part) {
+				if (rp.start != rp.end) {
+					r.add(new RouteSegmentResult(rp.road, rp.start, rp.end));
+				}
+			}
+			res.addAll(preparation.prepareResult(ctx, r, false));
+		}
+		return res;
+	}
+
+	private List<Candidate> findCandidates(RoutingContext ctx, WptPt p) throws IOException {
+		List<RouteSegmentPoint> list = new ArrayList<RouteSegmentPoint>();
+		frontEnd.findRouteSegment(p.lat, p.lon, ctx, list);
+		int px = MapUtils.get31TileNumberX(p.lon);
+		int py = MapUtils.get31TileNumberY(p.lat);
+		List<Candidate> res = new ArrayList<Candidate>();
+		for (RouteSegmentPoint s : list) {
+			double d = MapUtils.measuredDist31(px, py, s.preciseX, s.preciseY);
+			if (d <= CANDIDATES_RADIUS) {
+				res.add(new Candidate(s, d));
+			}
+		}
+		if (res.size() > MAX_CANDIDATES) {
+			// list is sorted by distance with road priority, so the nearest are taken by real distance
+			Collections.sort(res, new Comparator<Candidate>() {
+				@Override
+				public int compare(Candidate o1, Candidate o2) {
+					return -Double.compare(o1.emission, o2.emission);
+				}
+			});
+			res = new ArrayList<Candidate>(res.subList(0, MAX_CANDIDATES));
+		}
+		return res;
+	}
+
+	/**
+	 * Viterbi step : calculates score and best previous state of every candidate.
+	 * @return false if no candidate is reachable from previous states
+	 */
+	private boolean transition(RoutingContext ctx, List<Candidate> states, List<Candidate> candidates, double gc) {
+		double maxDist = gc * MAX_ROUTE_DISTANCE_FACTOR + 2 * CANDIDATES_RADIUS;
+		TLongObjectHashMap<List<Target>> targets = new TLongObjectHashMap<List<Target>>();
+		for (int i = 0; i < candidates.size(); i++) {
+			Candidate c = candidates.get(i);
+			RouteDataObject road = c.getRoad();
+			int k = c.getInterval();
+			int oneway = ctx.getRouter().isOneWay(road);
+			if (oneway >= 0) {
+				addTarget(targets, road, k - 1, new Target(i, k - 1, distToPoint(c, k - 1)));
+			}
+			if (oneway <= 0) {
+				addTarget(targets, road, k, new Target(i, k, distToPoint(c, k)));
+			}
+		}
+		boolean connected = false;
+		double[] dist = new double[candidates.size()];
+		RoadPart[] finalParts = new RoadPart[candidates.size()];
+		Node[] finalNodes = new Node[candidates.size()];
+		for (Candidate s : states) {
+			searchDistances(ctx, s, candidates, targets, maxDist, dist, finalNodes, finalParts);
+			for (int i = 0; i < candidates.size(); i++) {
+				if (dist[i] == Double.POSITIVE_INFINITY) {
+					continue;
+				}
+				Candidate c = candidates.get(i);
+				double score = s.score + c.emission - Math.abs(dist[i] - gc) / BETA;
+				if (score > c.score) {
+					c.score = score;
+					c.previous = s;
+					c.path = buildPath(finalNodes[i], finalParts[i]);
+					connected = true;
+				}
+			}
+		}
+		return connected;
+	}
+
+	private static void addTarget(TLongObjectHashMap<List<Target>> targets, RouteDataObject road, int ind, Target t) {
+		long key = pointKey(road, ind);
+		List<Target> l = targets.get(key);
+		if (l == null) {
+			l = new ArrayList<Target>(2);
+			targets.put(key, l);
+		}
+		l.add(t);
+	}
+
+	private static long pointKey(RouteDataObject road, int ind) {
+		return (((long) road.getPoint31XTile(ind)) << 31) + (long) road.getPoint31YTile(ind);
+	}
+
+	private static double distToPoint(Candidate c, int ind) {
+		RouteDataObject road = c.getRoad();
+		return MapUtils.measuredDist31(c.point.preciseX, c.point.preciseY, road.getPoint31XTile(ind),
+				road.getPoint31YTile(ind));
+	}
+
+	/**
+	 * Dijkstra search by road points from the state to all candidates (distances are in meters).
+	 */
+	private void searchDistances(RoutingContext ctx, Candidate from, List<Candidate> candidates,
+			TLongObjectHashMap<List<Target>> targets, double maxDist, double[] dist, Node[] finalNodes, RoadPart[] finalParts) {
+		for (int i = 0; i < dist.length; i++) {
+			dist[i] = Double.POSITIVE_INFINITY;
+			finalNodes[i] = null;
+			finalParts[i] = null;
+		}
+		RouteDataObject road = from.getRoad();
+		int j = from.getInterval();
+		int oneway = ctx.getRouter().isOneWay(road);
+		// candidates on the same interval are reached directly
+		for (int i = 0; i < candidates.size(); i++) {
+			Candidate c = candidates.get(i);
+			if (c.getRoad().getId() == road.getId() && c.getInterval() == j) {
+				boolean positive = distToPoint(c, j - 1) >= distToPoint(from, j - 1);
+				if (positive ? oneway >= 0 : oneway <= 0) {
+					dist[i] = MapUtils.measuredDist31(from.point.preciseX, from.point.preciseY, c.point.preciseX,
+							c.point.preciseY);
+					finalParts[i] = new RoadPart(road, from.getNearestPoint(), c.getNearestPoint());
+				}
+			}
+		}
+		PriorityQueue<Node> queue = new PriorityQueue<Node>();
+		TLongObjectHashMap<Node> settled = new TLongObjectHashMap<Node>();
+		int nearest = from.getNearestPoint();
+		if (oneway >= 0) {
+			queue.add(new Node(pointKey(road, j), distToPoint(from, j), null, new RoadPart(road, nearest, j)));
+		}
+		if (oneway <= 0) {
+			queue.add(new Node(pointKey(road, j - 1), distToPoint(from, j - 1), null, new RoadPart(road, nearest, j - 1)));
+		}
+		int found = 0;
+		while (!queue.isEmpty() && found < candidates.size()) {
+			Node n = queue.poll();
+			if (n.dist > maxDist) {
+				break;
+			}
+			if (settled.containsKey(n.key)) {
+				continue;
+			}
+			settled.put(n.key, n);
+			List<Target> ts = targets.get(n.key);
+			if (ts != null) {
+				for (Target t : ts) {
+					double d = n.dist + t.dist;
+					if (d < dist[t.candidate]) {
+						if (dist[t.candidate] == Double.POSITIVE_INFINITY) {
+							found++;
+						}
+						dist[t.candidate] = d;
+						finalNodes[t.candidate] = n;
+						Candidate c = candidates.get(t.candidate);
+						finalParts[t.candidate] = new RoadPart(c.getRoad(), t.pointIndex, c.getNearestPoint());
+					}
+				}
+			}
+			int x = (int) (n.key >> 31);
+			int y = (int) (n.key - (((long) x) << 31));
+			RouteSegment s = ctx.loadRouteSegment(x, y, ctx.config.memoryLimitation - ctx.memoryOverhead);
+			while (s != null) {
+				RouteDataObject r = s.getRoad();
+				int ind = s.getSegmentStart();
+				int ow = ctx.getRouter().isOneWay(r);
+				if (ow >= 0 && ind + 1 < r.getPointsLength()) {
+					addNode(queue, settled, n, r, ind, ind + 1);
+				}
+				if (ow <= 0 && ind > 0) {
+					addNode(queue, settled, n, r, ind, ind - 1);
+				}
+				s = s.getNext();
+			}
+		}
+	}
+
+	private static void addNode(PriorityQueue<Node> queue, TLongObjectHashMap<Node> settled, Node parent,
+			RouteDataObject road, int from, int to) {
+		long key = pointKey(road, to);
+		if (!settled.containsKey(key)) {
+			double d = MapUtils.measuredDist31(road.getPoint31XTile(from), road.getPoint31YTile(from),
+					road.getPoint31XTile(to), road.getPoint31YTile(to));
+			queue.add(new Node(key, parent.dist + d, parent, new RoadPart(road, from, to)));
+		}
+	}
+
+	private static List<RoadPart> buildPath(Node last, RoadPart finalPart) {
+		List<RoadPart> reversed = new ArrayList<RoadPart>();
+		reversed.add(new RoadPart(finalPart.road, finalPart.start, finalPart.end));
+		for (Node n = last; n != null; n = n.parent) {
+			reversed.add(new RoadPart(n.part.road, n.part.start, n.part.end));
+		}
+		List<RoadPart> path = new ArrayList<RoadPart>(reversed.size());
+		for (int i = reversed.size() - 1; i >= 0; i--) {
+			appendPart(path, reversed.get(i));
+		}
+		return path;
+	}
+
+	private static void appendPart(List<RoadPart> path, RoadPart part) {
+		// candidate at the road point is reached without passing its road
+		if (part.start == part.end) {
+			return;
+		}
+		if (path.isEmpty() || !path.get(path.size() - 1).merge(part)) {
+			path.add(part);
+		}
+	}
+
+	private static Candidate getBest(List<Candidate> states) {
+		Candidate best = null;
+		for (Candidate c : states) {
+			if (best == null || c.score > best.score) {
+				best = c;
+			}
+		}
+		return best;
+	}
+
+	private static boolean hasAncestor(Candidate c, Candidate ancestor) {
+		for (Candidate p = c; p != null; p = p.previous) {
+			if (p == ancestor) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	// the latest state which is ancestor of all states (state itself is own ancestor)
+	private static Candidate findCommonAncestor(List<Candidate> states, int stamp) {
+		for (Candidate c : states) {
+			for (Candidate p = c; p != null; p = p.previous) {
+				if (p.stamp != stamp) {
+					p.stamp = stamp;
+					p.count = 0;
+				}
+				p.count++;
+			}
+		}
+		for (Candidate p = states.get(0); p != null; p = p.previous) {
+			if (p.count == states.size()) {
+				return p;
+			}
+		}
+		return null;
+	}
+
+	// appends not released route till the state and releases it
+	private static void emit(Candidate state, List<RoadPart> matched) {
+		List<Candidate> chain = new ArrayList<Candidate>();
+		for (Candidate p = state; p != null; p = p.previous) {
+			chain.add(p);
+		}
+		for (int i = chain.size() - 1; i >= 0; i--) {
+			Candidate c = chain.get(i);
+			if (c.path != null) {
+				for (RoadPart rp : c.path) {
+					appendPart(matched, rp);
+				}
+			}
+			c.path = null;
+		}
+		state.previous = null;
+	}
+}
@@ -0,0 +1,159 @@
+package net.osmand.router;
+
+import java.util.List;
+
+import gnu.trove.iterator.TLongObjectIterator;
+import gnu.trove.map.hash.TLongObjectHashMap;
+import gnu.trove.set.hash.TLongHashSet;
+import net.osmand.binary.RouteDataObject;
+import net.osmand.router.BinaryRoutePlanner.RouteSegment;
+
+/**
+ * Reverse search tree (segments visited from the target point) kept after route calculation.
+ * Distance from start of every segment in the tree is time needed to reach the target, so when driver deviates
+ * the route could be recalculated by short forward search from the new position till it meets the tree
+ * (same target, router with same parameters, speed overlay and departure time are required,
+ * see {@link #isApplicable(RoutingContext, RouteSegment)}).
+ * Meetings are queued with their full cost and forward search uses admissible heuristic, so search finishes when
+ * the queue minimum reaches the cost of the best meeting.
+ *
+ * Besides the visited segments, tree contains the whole calculated route with exact times to the target,
+ * so forward search close to the previous route meets it after few steps. Only segments in the corridor around
+ * the route are kept (see {@link #CORRIDOR_ZOOM}).
+ * Tree is not thread safe and should be used by one calculation at a time.
+ */
+public class ReverseSearchTree {
+
+	// visited segments are kept if they are in the same or neighbour tile of this zoom as the route (~ 2.5-5 km)
+	public static final int CORRIDOR_ZOOM = 13;
+
+	private final long endRoadId;
+	private final int endSegmentStart;
+	private final VehicleRouter router;
+	// costs of the tree depend on overlay speeds and conditional tags at the departure time
+	private final RouteSpeedOverlay.Snapshot speedOverlay;
+	private final int departureMinuteOfWeek;
+	// same keys as visited segments of BinaryRoutePlanner (road id, interval, direction)
+	private final TLongObjectHashMap<RouteSegment> visited = new TLongObjectHashMap<RouteSegment>();
+
+	public ReverseSearchTree(RouteSegment end, RoutingContext ctx) {
+		this.endRoadId = end.getRoad().getId();
+		this.endSegmentStart = end.getSegmentStart();
+		this.router = ctx.getRouter();
+		this.speedOverlay = ctx.getSpeedOverlaySnapshot();
+		this.departureMinuteOfWeek = getDepartureMinuteOfWeek(ctx);
+	}
+
+	// -1 if costs don't depend on time
+	private static int getDepartureMinuteOfWeek(RoutingContext ctx) {
+		if (ctx.getSpeedOverlaySnapshot() == null && ctx.config.routeCalculationTime == 0) {
+			return -1;
+		}
+		return RouteSpeedOverlay.getMinuteOfWeek(ctx.getDepartureTime());
+	}
+
+	TLongObjectHashMap<RouteSegment> getVisitedSegments() {
+		return visited;
+	}
+
+	public boolean isEmpty() {
+		return visited.isEmpty();
+	}
+
+	public int size() {
+		return visited.size();
+	}
+
+	/**
+	 * Tree could be used if the target is the same and router calculates the same costs (new router is built for
+	 * every calculation, so routers are compared by profile and parameters). Speed overlay snapshot should be the same
+	 * and time dependent costs (overlay speeds, conditional tags) should be taken at the same departure minute.
+	 */
+	public boolean isApplicable(RoutingContext ctx, RouteSegment end) {
+		if (end.getRoad().getId() != endRoadId || end.getSegmentStart() != endSegmentStart) {
+			return false;
+		}
+		if (ctx.getSpeedOverlaySnapshot() != speedOverlay || getDepartureMinuteOfWeek(ctx) != departureMinuteOfWeek) {
+			return false;
+		}
+		VehicleRouter r = ctx.getRouter();
+		if (r instanceof GeneralRouter && router instanceof GeneralRouter) {
+			return ((GeneralRouter) r).isSameRouter((GeneralRouter) router);
+		}
+		return r == router;
+	}
+
+	/**
+	 * Removes visited segments far from the route (forward search from position near the route meets the route
+	 * or visited segments around it). Kept segments still reference their path to the target.
+	 */
+	public void pruneFarFromRoute(List<RouteSegmentResult> route) {
+		int shift = 31 - CORRIDOR_ZOOM;
+		final TLongHashSet cells = new TLongHashSet();
+		for (RouteSegmentResult rr : route) {
+			RouteDataObject road = rr.getObject();
+			int st = Math.min(rr.getStartPointIndex(), rr.getEndPointIndex());
+			int end = Math.min(Math.max(rr.getStartPointIndex(), rr.getEndPointIndex()), road.getPointsLength() - 1);
+			for (int k = st; k <= end; k++) {
+				long cx = road.getPoint31XTile(k) >> shift;
+				long cy = road.getPoint31YTile(k) >> shift;
+				for (int dx = -1; dx <= 1; dx++) {
+					for (int dy = -1; dy <= 1; dy++) {
+						cells.add(((cx + dx) << 32) + (cy + dy));
+					}
+				}
+			}
+		}
+		if (cells.isEmpty()) {
+			return;
+		}
+		TLongObjectIterator<RouteSegment> it = visited.iterator();
+		while (it.hasNext()) {
+			it.advance();
+			RouteSegment s = it.value();
+			RouteDataObject road = s.getRoad();
+			int p = Math.min(s.getSegmentStart(), road.getPointsLength() - 1);
+			long cx = road.getPoint31XTile(p) >> shift;
+			long cy = road.getPoint31YTile(p) >> shift;
+			if (!cells.contains((cx << 32) + cy)) {
+				it.remove();
+			}
+		}
+		visited.compact();
+	}
+
+	/**
+	 * Adds calculated route (result of calculation to the same target) to the tree,
+	 * route segments replace visited segments of the same intervals.
+	 */
+	public void addRoute(RoutingContext ctx, List<RouteSegmentResult> route) {
+		RouteSegment parent = null;
+		int parentStart = 0;
+		float timeToEnd = 0;
+		for (int i = route.size() - 1; i >= 0; i--) {
+			RouteSegmentResult rr = route.get(i);
+			RouteDataObject road = rr.getObject();
+			int st = rr.getStartPointIndex();
+			int end = rr.getEndPointIndex();
+			if (ctx.getRouter().isArea(road) || Math.max(st, end) >= road.getPointsLength()) {
+				// area roads are simplified by result preparation and point indexes don't match original road,
+				// the rest of the route can't be linked to the target
+				break;
+			}
+			RouteSegment segment = new RouteSegment(road, end);
+			segment.assignDirection((byte) (st < end ? -1 : 1));
+			segment.distanceFromStart = timeToEnd;
+			if (parent != null) {
+				segment.setParentRoute(parent);
+				segment.setParentSegmentEnd(parentStart);
+			}
+			// reverse search passes route in opposite direction
+			for (int k = Math.min(st, end); k < Math.max(st, end); k++) {
+				visited.put(BinaryRoutePlanner.calculateRoutePointId(road, k, st > end), segment);
+			}
+			timeToEnd += rr.getSegmentTime();
+			parent = segment;
+			parentStart = st;
+		}
+	}
+}
@@ -0,0 +1,210 @@
+package net.osmand.router;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.list.array.TLongArrayList;
+import net.osmand.binary.RouteDataObject;
+import net.osmand.data.LatLon;
+import net.osmand.data.QuadRect;
+import net.osmand.router.BinaryRoutePlanner.RouteSegmentPoint;
+import net.osmand.util.MapUtils;
+
+/**
+ * Immutable road graph of the area (nodes are road points) built from roads loaded by the routing context,
+ * so many searches could run in parallel without the context (see {@link RouteMatrixCalculator}, {@link IsochroneCalculator}).
+ * Costs are the same as in {@link BinaryRoutePlanner} (speed, priority and obstacles) but turn restrictions are not applied.
+ */
+class RoadGraph {
+
+	long[] points;
+	int[] outIndex;
+	int[] outTarget;
+	float[] outTime;
+	float[] outDistance;
+	// road (index in roads) and index of the road point where edge ends
+	int[] outRoad;
+	int[] outRoadPoint;
+	RouteDataObject[] roads;
+
+	int findNode(int x31, int y31) {
+		int ind = Arrays.binarySearch(points, (((long) x31) << 31) + y31);
+		return ind < 0 ? -1 : ind;
+	}
+
+	int getNodeX(int node) {
+		return (int) (points[node] >> 31);
+	}
+
+	int getNodeY(int node) {
+		return (int) (points[node] - (((long) getNodeX(node)) << 31));
+	}
+
+	// way from located point to the graph node (or from graph node to located point)
+	static class Access {
+		final int node;
+		final float time;
+		final float distance;
+
+		Access(int node, float time, float distance) {
+			this.node = node;
+			this.time = time;
+			this.distance = distance;
+		}
+	}
+
+	static class LocatedPoint {
+		RouteSegmentPoint segment;
+		List<Access> access = new ArrayList<Access>(2);
+	}
+
+	/**
+	 * Loads roads of the bounding box of points extended by extensionMeters.
+	 * @param sizeLimit max estimated size of loaded roads in bytes (0 - no limit)
+	 * @return roads or null if the area is too large for the limit
+	 */
+	static List<RouteDataObject> loadRoads(RoutingContext ctx, List<LatLon> points, int extensionMeters, long sizeLimit) {
+		double top = -90, bottom = 90, left = 180, right = -180;
+		for (LatLon l : points) {
+			top = Math.max(top, l.getLatitude());
+			bottom = Math.min(bottom, l.getLatitude());
+			left = Math.min(left, l.getLongitude());
+			right = Math.max(right, l.getLongitude());
+		}
+		QuadRect topLeft = MapUtils.calculateLatLonBbox(top, left, extensionMeters);
+		QuadRect bottomRight = MapUtils.calculateLatLonBbox(bottom, right, extensionMeters);
+		List<RouteDataObject> roads = new ArrayList<RouteDataObject>();
+		if (!ctx.loadTileDataInBounds(MapUtils.get31TileNumberX(topLeft.left), MapUtils.get31TileNumberY(topLeft.top),
+				MapUtils.get31TileNumberX(bottomRight.right), MapUtils.get31TileNumberY(bottomRight.bottom), roads,
+				sizeLimit)) {
+			return null;
+		}
+		return roads;
+	}
+
+	private static long pointKey(RouteDataObject road, int i) {
+		return (((long) road.getPoint31XTile(i)) << 31) + road.getPoint31YTile(i);
+	}
+
+	static RoadGraph build(RoutingContext ctx, List<RouteDataObject> roads) {
+		TLongArrayList keys = new TLongArrayList();
+		for (RouteDataObject road : roads) {
+			for (int i = 0; i < road.getPointsLength(); i++) {
+				keys.add(pointKey(road, i));
+			}
+		}
+		keys.sort();
+		TLongArrayList unique = new TLongArrayList(keys.size() / 2);
+		for (int i = 0; i < keys.size(); i++) {
+			if (i == 0 || keys.getQuick(i) != keys.getQuick(i - 1)) {
+				unique.add(keys.getQuick(i));
+			}
+		}
+		RoadGraph g = new RoadGraph();
+		g.points = unique.toArray();
+		g.roads = roads.toArray(new RouteDataObject[roads.size()]);
+		TIntArrayList from = new TIntArrayList();
+		TIntArrayList to = new TIntArrayList();
+		// time and distance are stored as float bits to use primitive lists
+		TIntArrayList time = new TIntArrayList();
+		TIntArrayList dist = new TIntArrayList();
+		TIntArrayList roadRef = new TIntArrayList();
+		TIntArrayList roadPoint = new TIntArrayList();
+		VehicleRouter router = ctx.getRouter();
+		for (int r = 0; r < g.roads.length; r++) {
+			RouteDataObject road = g.roads[r];
+			int oneway = router.isOneWay(road);
+			int prev = g.findNode(road.getPoint31XTile(0), road.getPoint31YTile(0));
+			for (int i = 1; i < road.getPointsLength(); i++) {
+				int node = g.findNode(road.getPoint31XTile(i), road.getPoint31YTile(i));
+				if (node != prev) {
+					float d = (float) BinaryRoutePlanner.squareRootDist(road.getPoint31XTile(i - 1),
+							road.getPoint31YTile(i - 1), road.getPoint31XTile(i), road.getPoint31YTile(i));
+					float obstacle = router.defineRoutingObstacle(road, i);
+					if (oneway >= 0 && obstacle >= 0) {
+						from.add(prev);
+						to.add(node);
+						time.add(Float.floatToIntBits(BinaryRoutePlanner.calculateTimeWithObstacles(ctx, road, d, obstacle)));
+						dist.add(Float.floatToIntBits(d));
+						roadRef.add(r);
+						roadPoint.add(i);
+					}
+					obstacle = router.defineRoutingObstacle(road, i - 1);
+					if (oneway <= 0 && obstacle >= 0) {
+						from.add(node);
+						to.add(prev);
+						time.add(Float.floatToIntBits(BinaryRoutePlanner.calculateTimeWithObstacles(ctx, road, d, obstacle)));
+						dist.add(Float.floatToIntBits(d));
+						roadRef.add(r);
+						roadPoint.add(i - 1);
+					}
+				}
+				prev = node;
+			}
+		}
+		int n = g.points.length;
+		int m = from.size();
+		g.outIndex = new int[n + 1];
+		for (int e = 0; e < m; e++) {
+			g.outIndex[from.getQuick(e) + 1]++;
+		}
+		for (int i = 0; i < n; i++) {
+			g.outIndex[i + 1] += g.outIndex[i];
+		}
+		int[] fill = Arrays.copyOf(g.outIndex, n);
+		g.outTarget = new int[m];
+		g.outTime = new float[m];
+		g.outDistance = new float[m];
+		g.outRoad = new int[m];
+		g.outRoadPoint = new int[m];
+		for (int e = 0; e < m; e++) {
+			int p = fill[from.getQuick(e)]++;
+			g.outTarget[p] = to.getQuick(e);
+			g.outTime[p] = Float.intBitsToFloat(time.getQuick(e));
+			g.outDistance[p] = Float.intBitsToFloat(dist.getQuick(e));
+			g.outRoad[p] = roadRef.getQuick(e);
+			g.outRoadPoint[p] = roadPoint.getQuick(e);
+		}
+		return g;
+	}
+
+	LocatedPoint locate(RoutePlannerFrontEnd frontEnd, RoutingContext ctx, LatLon l, boolean source) throws IOException {
+		LocatedPoint lp = new LocatedPoint();
+		lp.segment = frontEnd.findRouteSegment(l.getLatitude(), l.getLongitude(), ctx, null);
+		if (lp.segment == null) {
+			return lp;
+		}
+		RouteDataObject road = lp.segment.getRoad();
+		VehicleRouter router = ctx.getRouter();
+		int oneway = router.isOneWay(road);
+		int end = lp.segment.getSegmentStart();
+		int start = end - 1;
+		// source moves to the segment end in positive direction, target is reached from the segment start
+		int positive = source ? end : start;
+		int negative = source ? start : end;
+		if (oneway >= 0) {
+			addAccess(ctx, lp, road, positive, source);
+		}
+		if (oneway <= 0) {
+			addAccess(ctx, lp, road, negative, source);
+		}
+		return lp;
+	}
+
+	private void addAccess(RoutingContext ctx, LocatedPoint lp, RouteDataObject road, int pointIndex, boolean source) {
+		int node = findNode(road.getPoint31XTile(pointIndex), road.getPoint31YTile(pointIndex));
+		if (node < 0) {
+			return;
+		}
+		float d = (float) BinaryRoutePlanner.squareRootDist(lp.segment.preciseX, lp.segment.preciseY,
+				road.getPoint31XTile(pointIndex), road.getPoint31YTile(pointIndex));
+		float obstacle = source ? ctx.getRouter().defineRoutingObstacle(road, pointIndex) : 0;
+		if (obstacle < 0) {
+			return;
+		}
+		lp.access.add(new Access(node, BinaryRoutePlanner.calculateTimeWithObstacles(ctx, road, d, obstacle), d));
+	}
+}
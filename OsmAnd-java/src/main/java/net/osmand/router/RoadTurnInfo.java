@@ -0,0 +1,232 @@
+package net.osmand.router;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.osmand.binary.BinaryMapRouteReaderAdapter.RouteTypeRule;
+import net.osmand.binary.RouteDataObject;
+import net.osmand.osm.MapRenderingTypes;
+
+/**
+ * Turn lanes and prohibited turns of the road decoded once from tags and restrictions
+ * (immutable, kept in {@link RouteDataObject#turnInfo} and shared by copies of the object).
+ *
+ * Every lane is encoded as int with lane options (turn types in order of turn:lanes value) by 4 bits,
+ * the first option in the lowest bits and 0 after the last option (and flag if value has many options),
+ * so raw lanes for any main turn are calculated without parsing strings
+ * (see {@link RouteResultPreparation#calculateRawTurnLanes(String, int)}).
+ * Options of lane with more than 7 options (rare broken values) are kept in the table shared by all roads
+ * and lane keeps their index.
+ */
+public final class RoadTurnInfo {
+
+	public static final int TURN_LANES = 0;
+	public static final int TURN_LANES_FORWARD = 1;
+	public static final int TURN_LANES_BACKWARD = 2;
+	private static final String[] TAGS = new String[] { "turn:lanes", "turn:lanes:forward", "turn:lanes:backward" };
+	static final int OPTION_BITS = 4;
+	static final int OPTION_MASK = (1 << OPTION_BITS) - 1;
+	private static final int MAX_OPTIONS = 7;
+	static final int OPTIONS_MASK = (1 << (OPTION_BITS * MAX_OPTIONS)) - 1;
+	private static final int MULTIPLE_OPTIONS = 1 << (OPTION_BITS * MAX_OPTIONS);
+	// lane has more than MAX_OPTIONS options, OPTIONS_MASK bits are index in overflowOptions
+	private static final int OVERFLOW_OPTIONS = MULTIPLE_OPTIONS << 1;
+	private static final List<int[]> overflowOptions = new ArrayList<int[]>();
+	private static final Map<String, Integer> overflowIndexes = new HashMap<String, Integer>();
+
+	private static final RoadTurnInfo EMPTY = new RoadTurnInfo(new int[TAGS.length][], null);
+
+	private final int[][] lanes;
+	// sorted ids of roads where turn is prohibited (no_left_turn, no_right_turn, ...)
+	private final long[] prohibitedTurns;
+
+	private RoadTurnInfo(int[][] lanes, long[] prohibitedTurns) {
+		this.lanes = lanes;
+		this.prohibitedTurns = prohibitedTurns;
+	}
+
+	/**
+	 * @return decoded info of the road (decoded on the first call if it wasn't done at tile load)
+	 */
+	public static RoadTurnInfo get(RouteDataObject ro) {
+		RoadTurnInfo info = ro.turnInfo;
+		if (info == null) {
+			info = decode(ro);
+			ro.turnInfo = info;
+		}
+		return info;
+	}
+
+	public static RoadTurnInfo decode(RouteDataObject ro) {
+		// same lookup order as RouteDataObject.getValue : types and then names
+		String[] values = null;
+		if (ro.types != null) {
+			for (int i = 0; i < ro.types.length; i++) {
+				RouteTypeRule r = ro.region.quickGetEncodingRule(ro.types[i]);
+				values = addTurnLanesValue(values, r.getTag(), r.getValue());
+			}
+		}
+		if (ro.nameIds != null) {
+			for (int i = 0; i < ro.nameIds.length; i++) {
+				RouteTypeRule r = ro.region.quickGetEncodingRule(ro.nameIds[i]);
+				values = addTurnLanesValue(values, r.getTag(), ro.names.get(ro.nameIds[i]));
+			}
+		}
+		long[] prohibited = null;
+		int restrictions = ro.getRestrictionLength();
+		if (restrictions > 0) {
+			long[] ids = new long[restrictions];
+			int size = 0;
+			for (int k = 0; k < restrictions; k++) {
+				if (ro.getRestrictionType(k) <= MapRenderingTypes.RESTRICTION_NO_STRAIGHT_ON) {
+					ids[size++] = ro.getRestrictionId(k);
+				}
+			}
+			if (size > 0) {
+				prohibited = Arrays.copyOf(ids, size);
+				Arrays.sort(prohibited);
+			}
+		}
+		if (values == null && prohibited == null) {
+			return EMPTY;
+		}
+		int[][] lanes = new int[TAGS.length][];
+		if (values != null) {
+			for (int k = 0; k < TAGS.length; k++) {
+				if (values[k] != null) {
+					lanes[k] = encodeLanes(values[k]);
+				}
+			}
+		}
+		return new RoadTurnInfo(lanes, prohibited);
+	}
+
+	private static String[] addTurnLanesValue(String[] values, String tag, String value) {
+		if (tag.startsWith("turn:lanes")) {
+			for (int k = 0; k < TAGS.length; k++) {
+				if (tag.equals(TAGS[k])) {
+					if (values == null) {
+						values = new String[TAGS.length];
+					}
+					if (values[k] == null) {
+						values[k] = value;
+					}
+				}
+			}
+		}
+		return values;
+	}
+
+	static int[] encodeLanes(String turnLanes) {
+		// split the same way as RouteResultPreparation.calculateRawTurnLanes
+		String[] splitLaneOptions = turnLanes.split("\\|", -1);
+		int[] res = new int[splitLaneOptions.length];
+		for (int i = 0; i < splitLaneOptions.length; i++) {
+			String[] laneOptions = splitLaneOptions[i].split(";");
+			if (laneOptions.length > MAX_OPTIONS) {
+				res[i] = getOverflowIndex(laneOptions) | OVERFLOW_OPTIONS;
+			} else {
+				for (int j = laneOptions.length - 1; j >= 0; j--) {
+					res[i] = (res[i] << OPTION_BITS) | TurnType.convertType(laneOptions[j]);
+				}
+			}
+			if (splitLaneOptions[i].indexOf(';') >= 0) {
+				res[i] |= MULTIPLE_OPTIONS;
+			}
+		}
+		return res;
+	}
+
+	private static synchronized int getOverflowIndex(String[] laneOptions) {
+		String key = Arrays.toString(laneOptions);
+		Integer ind = overflowIndexes.get(key);
+		if (ind == null) {
+			int[] options = new int[laneOptions.length];
+			for (int j = 0; j < options.length; j++) {
+				options[j] = TurnType.convertType(laneOptions[j]);
+			}
+			ind = overflowOptions.size();
+			overflowOptions.add(options);
+			overflowIndexes.put(key, ind);
+		}
+		return ind;
+	}
+
+	private static synchronized int[] getOverflowOptions(int lane) {
+		return overflowOptions.get(lane & OPTIONS_MASK);
+	}
+
+	/**
+	 * @return turn types of the encoded lane in order of turn:lanes value
+	 */
+	public static int[] getOptions(int lane) {
+		if ((lane & OVERFLOW_OPTIONS) != 0) {
+			return getOverflowOptions(lane);
+		}
+		int size = 0;
+		for (int options = lane & OPTIONS_MASK; options != 0; options >>>= OPTION_BITS) {
+			size++;
+		}
+		int[] res = new int[size];
+		int options = lane & OPTIONS_MASK;
+		for (int j = 0; j < size; j++, options >>>= OPTION_BITS) {
+			res[j] = options & OPTION_MASK;
+		}
+		return res;
+	}
+
+	/**
+	 * @return encoded lanes of the tag or null if there is no tag
+	 */
+	public int[] getLaneOptions(int tag) {
+		return lanes[tag];
+	}
+
+	/**
+	 * @return true if lane value has more than one option (contains ';')
+	 */
+	public static boolean hasMultipleOptions(int lane) {
+		return (lane & MULTIPLE_OPTIONS) != 0;
+	}
+
+	/**
+	 * Same as {@link RouteResultPreparation#calculateRawTurnLanes(String, int)} for encoded lanes
+	 */
+	public static int[] calculateRawTurnLanes(int[] laneOptions, int calcTurnType) {
+		int[] res = new int[laneOptions.length];
+		for (int i = 0; i < laneOptions.length; i++) {
+			boolean isTertiaryTurn = false;
+			int[] overflow = (laneOptions[i] & OVERFLOW_OPTIONS) != 0 ? getOverflowOptions(laneOptions[i]) : null;
+			int options = overflow == null ? laneOptions[i] & OPTIONS_MASK : 0;
+			for (int j = 0; overflow != null ? j < overflow.length : options != 0; j++) {
+				int turn;
+				if (overflow != null) {
+					turn = overflow[j];
+				} else {
+					turn = options & OPTION_MASK;
+					options >>>= OPTION_BITS;
+				}
+				if (TurnType.getPrimaryTurn(res[i]) == 0) {
+					TurnType.setPrimaryTurnAndReset(res, i, turn);
+				} else if (turn == calcTurnType || (TurnType.isRightTurn(calcTurnType) && TurnType.isRightTurn(turn))
+						|| (TurnType.isLeftTurn(calcTurnType) && TurnType.isLeftTurn(turn))) {
+					TurnType.setPrimaryTurnShiftOthers(res, i, turn);
+				} else if (!isTertiaryTurn) {
+					TurnType.setSecondaryTurnShiftOthers(res, i, turn);
+					isTertiaryTurn = true;
+				} else {
+					TurnType.setTertiaryTurn(res, i, turn);
+					break;
+				}
+			}
+		}
+		return res;
+	}
+
+	public boolean isTurnProhibited(long toRoadId) {
+		return prohibitedTurns != null && Arrays.binarySearch(prohibitedTurns, toRoadId) >= 0;
+	}
+}
@@ -0,0 +1,326 @@
+package net.osmand.router;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.apache.commons.logging.Log;
+
+import gnu.trove.list.array.TIntArrayList;
+import net.osmand.PlatformUtil;
+import net.osmand.binary.RouteDataObject;
+import net.osmand.data.LatLon;
+import net.osmand.router.RoadGraph.Access;
+import net.osmand.router.RoadGraph.LocatedPoint;
+
+/**
+ * Calculates time / distance matrix between many sources and many targets.
+ *
+ * Road graph of the area around all points is loaded once by the (single threaded) routing context and converted
+ * to immutable arrays, then one Dijkstra expansion per source reaches all targets and sources are processed in parallel.
+ * Costs are the same as in {@link BinaryRoutePlanner} (speed, priority and obstacles) but turn restrictions are not
+ * applied, so the matrix is intended for ordering / planning and not for final routes.
+ *
+ * Area of distant points could be too large for the graph : if estimated size of its roads exceeds the graph size limit
+ * (half of the context memory limit by default), then route is calculated for every cell by {@link RoutePlannerFrontEnd}
+ * (sequentially, with memory limit and turn restrictions of the context).
+ */
+public class RouteMatrixCalculator {
+
+	private static final Log log = PlatformUtil.getLog(RouteMatrixCalculator.class);
+
+	public static final float UNREACHABLE = -1;
+	// extend area around points to find detours
+	private static final int BBOX_EXTENSION_METERS = 5000;
+
+	private final ForkJoinPool pool;
+	private long graphSizeLimit;
+
+	/**
+	 * @param pool runs searches from sources, it is not shut down by the calculator
+	 */
+	public RouteMatrixCalculator(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * @param graphSizeLimit max estimated size of graph roads in bytes (0 - half of the context memory limit)
+	 */
+	public void setGraphSizeLimit(long graphSizeLimit) {
+		this.graphSizeLimit = graphSizeLimit;
+	}
+
+	private long getGraphSizeLimit(RoutingContext ctx) {
+		// loaded roads stay referenced by the graph together with its arrays
+		return graphSizeLimit > 0 ? graphSizeLimit : ctx.config.memoryLimitation / 2;
+	}
+
+	public static class RouteMatrix {
+		// [source][target] in seconds (routing time) and meters, UNREACHABLE if target couldn't be reached
+		public final float[][] times;
+		public final float[][] distances;
+
+		RouteMatrix(int sources, int targets) {
+			times = new float[sources][targets];
+			distances = new float[sources][targets];
+			for (int i = 0; i < sources; i++) {
+				Arrays.fill(times[i], UNREACHABLE);
+				Arrays.fill(distances[i], UNREACHABLE);
+			}
+		}
+
+		// cost matrix for tsp solvers
+		public double[][] getTimesMatrix(double unreachableCost) {
+			double[][] res = new double[times.length][];
+			for (int i = 0; i < times.length; i++) {
+				res[i] = new double[times[i].length];
+				for (int j = 0; j < times[i].length; j++) {
+					res[i][j] = times[i][j] == UNREACHABLE ? unreachableCost : times[i][j];
+				}
+			}
+			return res;
+		}
+	}
+
+	/**
+	 * @return matrix or null if calculation was cancelled
+	 */
+	public RouteMatrix calculate(RoutingContext ctx, List<LatLon> sources, List<LatLon> targets) throws IOException,
+			InterruptedException {
+		long time = System.currentTimeMillis();
+		RoutePlannerFrontEnd frontEnd = new RoutePlannerFrontEnd();
+		List<LatLon> all = new ArrayList<LatLon>(sources);
+		all.addAll(targets);
+		List<RouteDataObject> roads = RoadGraph.loadRoads(ctx, all, BBOX_EXTENSION_METERS, getGraphSizeLimit(ctx));
+		if (roads == null) {
+			log.info("Route matrix area is too large for the graph, routes are calculated for every cell");
+			return calculateRoutes(ctx, sources, targets);
+		}
+		RoadGraph graph = RoadGraph.build(ctx, roads);
+		final LocatedPoint[] src = new LocatedPoint[sources.size()];
+		final LocatedPoint[] trg = new LocatedPoint[targets.size()];
+		for (int i = 0; i < src.length; i++) {
+			src[i] = graph.locate(frontEnd, ctx, sources.get(i), true);
+		}
+		for (int i = 0; i < trg.length; i++) {
+			trg[i] = graph.locate(frontEnd, ctx, targets.get(i), false);
+		}
+		log.info("Route matrix graph : " + graph.points.length + " nodes, " + graph.outTarget.length + " edges prepared in "
+				+ (System.currentTimeMillis() - time) / 1000f + " s");
+		RouteMatrix matrix = new RouteMatrix(src.length, trg.length);
+		int threshold = Math.max(1, src.length / (pool.getParallelism() * 4));
+		pool.invoke(new SourcesTask(ctx, graph, src, trg, matrix, 0, src.length, threshold));
+		if (ctx.calculationProgress != null && ctx.calculationProgress.isCancelled) {
+			return null;
+		}
+		log.info("Route matrix " + src.length + "x" + trg.length + " calculated in "
+				+ (System.currentTimeMillis() - time) / 1000f + " s");
+		return matrix;
+	}
+
+	private RouteMatrix calculateRoutes(RoutingContext ctx, List<LatLon> sources, List<LatLon> targets)
+			throws IOException, InterruptedException {
+		long time = System.currentTimeMillis();
+		RoutePlannerFrontEnd frontEnd = new RoutePlannerFrontEnd();
+		RouteMatrix matrix = new RouteMatrix(sources.size(), targets.size());
+		for (int i = 0; i < sources.size(); i++) {
+			for (int j = 0; j < targets.size(); j++) {
+				if (ctx.calculationProgress != null && ctx.calculationProgress.isCancelled) {
+					return null;
+				}
+				RoutingContext local = new RoutingContext(ctx);
+				local.calculationProgress = ctx.calculationProgress;
+				List<RouteSegmentResult> route = frontEnd.searchRoute(local, sources.get(i), targets.get(j), null);
+				if (route == null || route.isEmpty()) {
+					continue;
+				}
+				float[] res = new float[2];
+				for (RouteSegmentResult r : route) {
+					addSegmentCost(local, r, res);
+				}
+				matrix.times[i][j] = res[0];
+				matrix.distances[i][j] = res[1];
+			}
+		}
+		if (ctx.calculationProgress != null && ctx.calculationProgress.isCancelled) {
+			return null;
+		}
+		log.info("Route matrix " + sources.size() + "x" + targets.size() + " calculated by routes in "
+				+ (System.currentTimeMillis() - time) / 1000f + " s");
+		return matrix;
+	}
+
+	// cost of the route segment as of graph edges (routing time of the route is not counted on the start road)
+	private static void addSegmentCost(RoutingContext ctx, RouteSegmentResult r, float[] res) {
+		RouteDataObject road = r.getObject();
+		int st = r.getStartPointIndex();
+		int end = r.getEndPointIndex();
+		for (int i = st; i != end; i += st < end ? 1 : -1) {
+			int next = st < end ? i + 1 : i - 1;
+			float d = (float) BinaryRoutePlanner.squareRootDist(road.getPoint31XTile(i), road.getPoint31YTile(i),
+					road.getPoint31XTile(next), road.getPoint31YTile(next));
+			float obstacle = ctx.getRouter().defineRoutingObstacle(road, next);
+			res[0] += BinaryRoutePlanner.calculateTimeWithObstacles(ctx, road, d, Math.max(0, obstacle));
+			res[1] += d;
+		}
+	}
+
+	// direct way when source and target are located on the same road segment
+	private static void checkSameSegment(RoutingContext ctx, LocatedPoint s, LocatedPoint t, float[] res) {
+		if (s.segment.getRoad().getId() != t.segment.getRoad().getId()
+				|| s.segment.getSegmentStart() != t.segment.getSegmentStart()) {
+			return;
+		}
+		RouteDataObject road = s.segment.getRoad();
+		int st = s.segment.getSegmentStart() - 1;
+		int x = road.getPoint31XTile(st);
+		int y = road.getPoint31YTile(st);
+		boolean positive = BinaryRoutePlanner.squareRootDist(x, y, t.segment.preciseX, t.segment.preciseY) >= BinaryRoutePlanner
+				.squareRootDist(x, y, s.segment.preciseX, s.segment.preciseY);
+		int oneway = ctx.getRouter().isOneWay(road);
+		if (positive ? oneway >= 0 : oneway <= 0) {
+			float d = (float) BinaryRoutePlanner.squareRootDist(s.segment.preciseX, s.segment.preciseY, t.segment.preciseX,
+					t.segment.preciseY);
+			float tm = BinaryRoutePlanner.calculateTimeWithObstacles(ctx, road, d, 0);
+			if (res[0] == UNREACHABLE || tm < res[0]) {
+				res[0] = tm;
+				res[1] = d;
+			}
+		}
+	}
+
+	private static class SearchState {
+		final IndexedMinHeap heap;
+		final float[] time;
+		final float[] distance;
+		final boolean[] targetNode;
+		final TIntArrayList touched = new TIntArrayList();
+
+		SearchState(int n) {
+			heap = new IndexedMinHeap(n);
+			time = new float[n];
+			distance = new float[n];
+			targetNode = new boolean[n];
+			Arrays.fill(time, Float.POSITIVE_INFINITY);
+		}
+
+		void reset() {
+			for (int i = 0; i < touched.size(); i++) {
+				time[touched.getQuick(i)] = Float.POSITIVE_INFINITY;
+			}
+			touched.clear(0);
+			heap.clear();
+		}
+	}
+
+	private static class SourcesTask extends RecursiveAction {
+		private static final long serialVersionUID = 5235781267543718264L;
+		private final RoutingContext ctx;
+		private final RoadGraph graph;
+		private final LocatedPoint[] sources;
+		private final LocatedPoint[] targets;
+		private final RouteMatrix matrix;
+		private final int from;
+		private final int to;
+		private final int threshold;
+
+		SourcesTask(RoutingContext ctx, RoadGraph graph, LocatedPoint[] sources, LocatedPoint[] targets,
+				RouteMatrix matrix, int from, int to, int threshold) {
+			this.ctx = ctx;
+			this.graph = graph;
+			this.sources = sources;
+			this.targets = targets;
+			this.matrix = matrix;
+			this.from = from;
+			this.to = to;
+			this.threshold = threshold;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > threshold) {
+				int middle = (from + to) >>> 1;
+				invokeAll(new SourcesTask(ctx, graph, sources, targets, matrix, from, middle, threshold),
+						new SourcesTask(ctx, graph, sources, targets, matrix, middle, to, threshold));
+				return;
+			}
+			SearchState st = new SearchState(graph.points.length);
+			int targetNodes = 0;
+			for (LocatedPoint t : targets) {
+				for (Access a : t.access) {
+					if (!st.targetNode[a.node]) {
+						st.targetNode[a.node] = true;
+						targetNodes++;
+					}
+				}
+			}
+			float[] direct = new float[2];
+			for (int i = from; i < to; i++) {
+				if (ctx.calculationProgress != null && ctx.calculationProgress.isCancelled) {
+					return;
+				}
+				LocatedPoint s = sources[i];
+				if (s.segment == null) {
+					continue;
+				}
+				search(st, s, targetNodes);
+				for (int j = 0; j < targets.length; j++) {
+					LocatedPoint t = targets[j];
+					if (t.segment == null) {
+						continue;
+					}
+					direct[0] = UNREACHABLE;
+					direct[1] = UNREACHABLE;
+					for (Access a : t.access) {
+						float tm = st.time[a.node];
+						if (tm != Float.POSITIVE_INFINITY && (direct[0] == UNREACHABLE || tm + a.time < direct[0])) {
+							direct[0] = tm + a.time;
+							direct[1] = st.distance[a.node] + a.distance;
+						}
+					}
+					checkSameSegment(ctx, s, t, direct);
+					matrix.times[i][j] = direct[0];
+					matrix.distances[i][j] = direct[1];
+				}
+				st.reset();
+			}
+		}
+
+		// Dijkstra from source which stops when all target nodes are settled
+		private void search(SearchState st, LocatedPoint s, int targetNodes) {
+			for (Access a : s.access) {
+				if (a.time < st.time[a.node]) {
+					if (st.time[a.node] == Float.POSITIVE_INFINITY) {
+						st.touched.add(a.node);
+					}
+					st.time[a.node] = a.time;
+					st.distance[a.node] = a.distance;
+					st.heap.push(a.node, a.time);
+				}
+			}
+			int settledTargets = 0;
+			while (!st.heap.isEmpty() && settledTargets < targetNodes) {
+				int u = st.heap.poll();
+				if (st.targetNode[u]) {
+					settledTargets++;
+				}
+				float tu = st.time[u];
+				for (int e = graph.outIndex[u]; e < graph.outIndex[u + 1]; e++) {
+					int w = graph.outTarget[e];
+					float tw = tu + graph.outTime[e];
+					if (tw < st.time[w]) {
+						if (st.time[w] == Float.POSITIVE_INFINITY) {
+							st.touched.add(w);
+						}
+						st.time[w] = tw;
+						st.distance[w] = st.distance[u] + graph.outDistance[e];
+						st.heap.push(w, tw);
+					}
+				}
+			}
+		}
+	}
+}
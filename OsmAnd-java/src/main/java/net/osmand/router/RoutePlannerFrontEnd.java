@@ -8,6 +8,8 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import net.osmand.NativeLibrary;
 import net.osmand.PlatformUtil;
@@ -28,7 +30,11 @@ public class RoutePlannerFrontEnd {
 	protected static final Log log = PlatformUtil.getLog(RoutePlannerFrontEnd.class);
 	// Check issue #8649
 	protected static final double GPS_POSSIBLE_ERROR = 7;
+	private static final int SNAP_BATCH_SIZE = 4096;
 	public boolean useSmartRouteRecalculation = true;
+	public boolean useContractionHierarchy = false;
+	public boolean useIncrementalRecalculation = false;
+	private RouteTileCache tileCache;
 
 	
 	public RoutePlannerFrontEnd() {
@@ -41,11 +47,24 @@ public class RoutePlannerFrontEnd {
 	}
 
 	public RoutingContext buildRoutingContext(RoutingConfiguration config, NativeLibrary nativeLibrary, BinaryMapIndexReader[] map, RouteCalculationMode rm) {
-		return new RoutingContext(config, nativeLibrary, map, rm);
+		RoutingContext ctx = new RoutingContext(config, nativeLibrary, map, rm);
+		ctx.tileCache = tileCache;
+		return ctx;
 	}
 
 	public RoutingContext buildRoutingContext(RoutingConfiguration config, NativeLibrary nativeLibrary, BinaryMapIndexReader[] map) {
-		return new RoutingContext(config, nativeLibrary, map, RouteCalculationMode.NORMAL);
+		return buildRoutingContext(config, nativeLibrary, map, RouteCalculationMode.NORMAL);
+	}
+
+	/**
+	 * Share decoded route tiles between all contexts built by this front end (cache could be shared by many front ends)
+	 */
+	public void setTileCache(RouteTileCache tileCache) {
+		this.tileCache = tileCache;
+	}
+
+	public RouteTileCache getTileCache() {
+		return tileCache;
 	}
 
 
@@ -60,48 +79,163 @@ public class RoutePlannerFrontEnd {
 		return findRouteSegment(lat, lon, ctx, list, false);
 	}
 
+	/**
+	 * Nearest roads are searched by segment indexes of the tiles around the point (bigger area if nothing is found) :
+	 * candidates are roads crossing the square covered by these tiles, not all roads of the loaded tiles.
+	 */
 	public RouteSegmentPoint findRouteSegment(double lat, double lon, RoutingContext ctx, List<RouteSegmentPoint> list, boolean transportStop) throws IOException {
+		long time = System.nanoTime();
 		int px = MapUtils.get31TileNumberX(lon);
 		int py = MapUtils.get31TileNumberY(lat);
-		ArrayList<RouteDataObject> dataObjects = new ArrayList<RouteDataObject>();
-		ctx.loadTileData(px, py, 17, dataObjects);
-		if (dataObjects.isEmpty()) {
-			ctx.loadTileData(px, py, 15, dataObjects);
+		List<SegmentGridIndex> indexes = new ArrayList<SegmentGridIndex>();
+		List<RouteSegmentPoint> nearest = SegmentGridIndex.findNearestSegments(indexes, px, py,
+				ctx.loadSegmentIndexes(px, py, 17, indexes));
+		if (nearest.isEmpty()) {
+			indexes.clear();
+			nearest = SegmentGridIndex.findNearestSegments(indexes, px, py, ctx.loadSegmentIndexes(px, py, 15, indexes));
+		}
+		if (nearest.isEmpty()) {
+			indexes.clear();
+			nearest = SegmentGridIndex.findNearestSegments(indexes, px, py, ctx.loadSegmentIndexes(px, py, 14, indexes));
+		}
+		RouteSegmentPoint res = selectRouteSegment(ctx, nearest, list, transportStop);
+		if (ctx.metricsListener != null) {
+			ctx.metricsListener.phaseFinished(RoutingMetricsListener.Phase.INITIAL_SEGMENTS, System.nanoTime() - time);
+		}
+		return res;
+	}
+
+	/**
+	 * Snaps many points to the roads (same result as {@link #findRouteSegment(double, double, RoutingContext, List)}).
+	 * Tiles are loaded by the context for a batch of close points and then points are snapped in parallel
+	 * using segment indexes of the tiles. As for one point, candidates are roads crossing the square covered by the
+	 * tiles around the point.
+	 * @return route segment for every point (null if there is no road around) or null if calculation was cancelled
+	 */
+	public RouteSegmentPoint[] findRouteSegments(RoutingContext ctx, List<LatLon> points, ForkJoinPool pool) throws IOException {
+		long time = System.currentTimeMillis();
+		RouteSegmentPoint[] res = new RouteSegmentPoint[points.size()];
+		// process points sorted by tile, so batch uses few tiles and they are not unloaded by memory limit
+		long[] order = new long[points.size()];
+		int tileShift = 31 - ctx.config.ZOOM_TO_LOAD_TILES;
+		for (int i = 0; i < order.length; i++) {
+			long tx = MapUtils.get31TileNumberX(points.get(i).getLongitude()) >> tileShift;
+			long ty = MapUtils.get31TileNumberY(points.get(i).getLatitude()) >> tileShift;
+			order[i] = (((tx << ctx.config.ZOOM_TO_LOAD_TILES) + ty) << 32) + i;
+		}
+		Arrays.sort(order);
+		int[] x31 = new int[SNAP_BATCH_SIZE];
+		int[] y31 = new int[SNAP_BATCH_SIZE];
+		int[] radius31 = new int[SNAP_BATCH_SIZE];
+		int[] pointIndex = new int[SNAP_BATCH_SIZE];
+		List<List<SegmentGridIndex>> indexes = new ArrayList<List<SegmentGridIndex>>(SNAP_BATCH_SIZE);
+		boolean[] notFound = new boolean[points.size()];
+		for (int start = 0; start < order.length; start += SNAP_BATCH_SIZE) {
+			if (ctx.calculationProgress != null && ctx.calculationProgress.isCancelled) {
+				return null;
+			}
+			int size = Math.min(SNAP_BATCH_SIZE, order.length - start);
+			indexes.clear();
+			for (int k = 0; k < size; k++) {
+				int i = (int) order[start + k];
+				LatLon l = points.get(i);
+				pointIndex[k] = i;
+				x31[k] = MapUtils.get31TileNumberX(l.getLongitude());
+				y31[k] = MapUtils.get31TileNumberY(l.getLatitude());
+				List<SegmentGridIndex> pointIndexes = new ArrayList<SegmentGridIndex>();
+				radius31[k] = ctx.loadSegmentIndexes(x31[k], y31[k], 17, pointIndexes);
+				indexes.add(pointIndexes);
+			}
+			int threshold = Math.max(1, size / (pool.getParallelism() * 4));
+			pool.invoke(new SnapTask(ctx, x31, y31, radius31, pointIndex, indexes, res, notFound, 0, size, threshold));
+		}
+		int found = 0;
+		for (int i = 0; i < res.length; i++) {
+			if (notFound[i]) {
+				// no roads in the nearest tiles : search in the bigger area
+				res[i] = findRouteSegment(points.get(i).getLatitude(), points.get(i).getLongitude(), ctx, null);
+			}
+			if (res[i] != null) {
+				found++;
+			}
+		}
+		if (ctx.metricsListener != null) {
+			ctx.metricsListener.phaseFinished(RoutingMetricsListener.Phase.INITIAL_SEGMENTS,
+					(System.currentTimeMillis() - time) * 1000000);
 		}
-		if (dataObjects.isEmpty()) {
-			ctx.loadTileData(px, py, 14, dataObjects);
+		log.info("Snapped " + found + " of " + points.size() + " points in " + (System.currentTimeMillis() - time) + " ms");
+		return res;
+	}
+
+	private static class SnapTask extends RecursiveAction {
+		private static final long serialVersionUID = 4096536214377120951L;
+		private final RoutingContext ctx;
+		private final int[] x31;
+		private final int[] y31;
+		private final int[] radius31;
+		private final int[] pointIndex;
+		private final List<List<SegmentGridIndex>> indexes;
+		private final RouteSegmentPoint[] res;
+		private final boolean[] notFound;
+		private final int from;
+		private final int to;
+		private final int threshold;
+
+		SnapTask(RoutingContext ctx, int[] x31, int[] y31, int[] radius31, int[] pointIndex,
+				List<List<SegmentGridIndex>> indexes, RouteSegmentPoint[] res, boolean[] notFound, int from, int to,
+				int threshold) {
+			this.ctx = ctx;
+			this.x31 = x31;
+			this.y31 = y31;
+			this.radius31 = radius31;
+			this.pointIndex = pointIndex;
+			this.indexes = indexes;
+			this.res = res;
+			this.notFound = notFound;
+			this.from = from;
+			this.to = to;
+			this.threshold = threshold;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > threshold) {
+				int middle = (from + to) >>> 1;
+				invokeAll(new SnapTask(ctx, x31, y31, radius31, pointIndex, indexes, res, notFound, from, middle, threshold),
+						new SnapTask(ctx, x31, y31, radius31, pointIndex, indexes, res, notFound, middle, to, threshold));
+				return;
+			}
+			for (int k = from; k < to; k++) {
+				List<RouteSegmentPoint> nearest = SegmentGridIndex.findNearestSegments(indexes.get(k), x31[k], y31[k],
+						radius31[k]);
+				if (nearest.isEmpty()) {
+					notFound[pointIndex[k]] = true;
+				} else {
+					res[pointIndex[k]] = selectRouteSegment(ctx, nearest, null, false);
+				}
+			}
 		}
+	}
+
+	private static RouteSegmentPoint selectRouteSegment(RoutingContext ctx, List<RouteSegmentPoint> nearest,
+			List<RouteSegmentPoint> list, boolean transportStop) {
 		if (list == null) {
 			list = new ArrayList<BinaryRoutePlanner.RouteSegmentPoint>();
 		}
-		for (RouteDataObject r : dataObjects) {
-			if (r.getPointsLength() > 1) {
-				RouteSegmentPoint road = null;
-				for (int j = 1; j < r.getPointsLength(); j++) {
-					QuadPoint pr = MapUtils.getProjectionPoint31(px, py, r.getPoint31XTile(j - 1),
-							r.getPoint31YTile(j - 1), r.getPoint31XTile(j), r.getPoint31YTile(j));
-					double currentsDistSquare = squareDist((int) pr.x, (int) pr.y, px, py);
-					if (road == null || currentsDistSquare < road.distSquare) {
-						RouteDataObject ro = new RouteDataObject(r);
-						
-						road = new RouteSegmentPoint(ro, j, currentsDistSquare);
-						road.preciseX = (int) pr.x;
-						road.preciseY = (int) pr.y;
-					}
-				}
-				if (road != null) {
-					if(!transportStop) {
-						float prio = ctx.getRouter().defineSpeedPriority(road.road);
-						if (prio > 0) {
-							road.distSquare = (road.distSquare + GPS_POSSIBLE_ERROR * GPS_POSSIBLE_ERROR)
-									/ (prio * prio);
-							list.add(road);
-						}
-					} else {
-						list.add(road);
-					}
-					
+		for (RouteSegmentPoint n : nearest) {
+			// road is copied because precise points could be inserted into it
+			RouteSegmentPoint road = new RouteSegmentPoint(new RouteDataObject(n.getRoad()), n.getSegmentStart(),
+					n.distSquare);
+			road.preciseX = n.preciseX;
+			road.preciseY = n.preciseY;
+			if (!transportStop) {
+				float prio = ctx.getRouter().defineSpeedPriority(road.road);
+				if (prio > 0) {
+					road.distSquare = (road.distSquare + GPS_POSSIBLE_ERROR * GPS_POSSIBLE_ERROR) / (prio * prio);
+					list.add(road);
 				}
+			} else {
+				list.add(road);
 			}
 		}
 		Collections.sort(list, new Comparator<RouteSegmentPoint>() {
@@ -143,10 +277,102 @@ public class RoutePlannerFrontEnd {
 		return searchRoute(ctx, start, end, intermediates, null);
 	}
 
+	/**
+	 * Calculate time / distance matrix from every source to every target (see {@link RouteMatrixCalculator})
+	 */
+	public RouteMatrixCalculator.RouteMatrix searchRouteMatrix(final RoutingContext ctx, List<LatLon> sources, List<LatLon> targets,
+			ForkJoinPool pool) throws IOException, InterruptedException {
+		if (ctx.calculationProgress == null) {
+			ctx.calculationProgress = new RouteCalculationProgress();
+		}
+		return new RouteMatrixCalculator(pool).calculate(ctx, sources, targets);
+	}
+
+	/**
+	 * Calculate the best route and up to {@link AlternativeRoutesCalculator#DEFAULT_ALTERNATIVES} alternative routes
+	 * by one bidirectional search (see {@link AlternativeRoutesCalculator}).
+	 * First route of the result is the best route, null is returned if route is not found.
+	 * Routes share roads, so precise start / end points are not inserted into the roads (see makeStartEndPointsPrecise).
+	 */
+	public List<List<RouteSegmentResult>> searchRouteAlternatives(final RoutingContext ctx, LatLon start, LatLon end,
+			ForkJoinPool pool) throws IOException, InterruptedException {
+		return searchRouteAlternatives(ctx, start, end, new AlternativeRoutesCalculator(pool));
+	}
+
+	/**
+	 * Same as {@link #searchRouteAlternatives(RoutingContext, LatLon, LatLon, ForkJoinPool)} with configured
+	 * calculator (stretch, sharing and number of alternatives)
+	 */
+	public List<List<RouteSegmentResult>> searchRouteAlternatives(final RoutingContext ctx, LatLon start, LatLon end,
+			AlternativeRoutesCalculator alternatives) throws IOException, InterruptedException {
+		ctx.timeToCalculate = System.nanoTime();
+		if (ctx.calculationProgress == null) {
+			ctx.calculationProgress = new RouteCalculationProgress();
+		}
+		List<RouteSegmentPoint> points = new ArrayList<RouteSegmentPoint>();
+		if (!addSegment(start, ctx, 0, points, ctx.startTransportStop) || !addSegment(end, ctx, 1, points, ctx.targetTransportStop)) {
+			return null;
+		}
+		ctx.calculationProgress.nextIteration();
+		ctx.initStartAndTargetPoints(points.get(0), points.get(1));
+		refreshProgressDistance(ctx);
+		ctx.finalRouteSegment = new BinaryRoutePlanner().searchRouteInternal(ctx, points.get(0), points.get(1), null, null,
+				alternatives);
+		if (ctx.finalRouteSegment == null) {
+			return null;
+		}
+		List<List<RouteSegmentResult>> res = new ArrayList<List<RouteSegmentResult>>();
+		List<RouteSegmentResult> best = new RouteResultPreparation().prepareResult(ctx, ctx.finalRouteSegment);
+		res.add(best);
+		res.addAll(alternatives.prepareAlternatives(ctx));
+		new RouteResultPreparation().printResults(ctx, start, end, best);
+		return res;
+	}
+
 	public void setUseFastRecalculation(boolean use) {
 		useSmartRouteRecalculation = use;
 	}
 
+	/**
+	 * Use contraction hierarchy stored next to the map (see {@link ContractionHierarchy}) if it is up to date
+	 * and router has no turn costs ({@link ContractionHierarchy#isSupported(RoutingContext)}), routes passing
+	 * forbidden turns are calculated by A*
+	 */
+	public void setUseContractionHierarchy(boolean use) {
+		useContractionHierarchy = use;
+	}
+
+	/**
+	 * Keep reverse search tree in {@link RoutingContext#reverseSearchTree} after calculation and recalculate route
+	 * to the same target by forward search till it meets the tree
+	 */
+	public void setUseIncrementalRecalculation(boolean use) {
+		useIncrementalRecalculation = use;
+	}
+
+	private ContractionHierarchy getContractionHierarchy(RoutingContext ctx) {
+		if (!useContractionHierarchy || ctx.calculationMode == RouteCalculationMode.BASE) {
+			return null;
+		}
+		if (!ContractionHierarchy.isSupported(ctx)) {
+			return null;
+		}
+		// missing hierarchy is looked up only once for the same maps and router
+		String key = ContractionHierarchy.getContextKey(ctx);
+		if (!key.equals(ctx.contractionHierarchyKey)) {
+			ctx.contractionHierarchyKey = key;
+			if (ctx.contractionHierarchy == null || !ctx.contractionHierarchy.isCompatible(ctx)) {
+				try {
+					ctx.contractionHierarchy = ContractionHierarchy.loadForContext(ctx);
+				} catch (IOException e) {
+					log.error("Contraction hierarchy couldn't be loaded", e);
+					ctx.contractionHierarchy = null;
+				}
+			}
+		}
+		return ctx.contractionHierarchy;
+	}
+
 
 	private boolean needRequestPrivateAccessRouting(RoutingContext ctx, List<LatLon> points) throws IOException {
 		boolean res = false;
@@ -196,7 +422,7 @@ public class RoutePlannerFrontEnd {
 			}
 		}
 		if (ctx.calculationMode == RouteCalculationMode.COMPLEX && routeDirection == null
-				&& maxDistance > ctx.config.DEVIATION_RADIUS * 6) {
+				&& maxDistance > ctx.config.DEVIATION_RADIUS * 6 && getContractionHierarchy(ctx) == null) {
 			ctx.calculationProgress.totalIterations++;
 			RoutingContext nctx = buildRoutingContext(ctx.config, ctx.nativeLib, ctx.getMaps(), RouteCalculationMode.BASE);
 			nctx.calculationProgress = ctx.calculationProgress;
@@ -336,6 +562,9 @@ public class RoutePlannerFrontEnd {
 		}
 
 		if (insert != 0) {
+			// road could be kept by reverse search tree for the next calculation, so point is inserted into its copy
+			r = new RouteDataObject(r);
+			routeSegmentResult.setObject(r);
 			if (st && routeSegmentResult.getStartPointIndex() < routeSegmentResult.getEndPointIndex()) {
 				routeSegmentResult.setEndPointIndex(routeSegmentResult.getEndPointIndex() + 1);
 			}
@@ -373,6 +602,14 @@ public class RoutePlannerFrontEnd {
 
 	private List<RouteSegmentResult> searchRouteInternalPrepare(final RoutingContext ctx, RouteSegmentPoint start, RouteSegmentPoint end,
 	                                                            PrecalculatedRouteDirection routeDirection) throws IOException, InterruptedException {
+		if (useIncrementalRecalculation && ctx.nativeLib == null && ctx.reverseSearchTree != null
+				&& !ctx.reverseSearchTree.isEmpty() && ctx.reverseSearchTree.isApplicable(ctx, end)) {
+			List<RouteSegmentResult> res = searchRouteIncremental(ctx, start, end);
+			if (res != null) {
+				return res;
+			}
+			ctx.reverseSearchTree = null;
+		}
 		RouteSegment recalculationEnd = getRecalculationEnd(ctx);
 		if (recalculationEnd != null) {
 			ctx.initStartAndTargetPoints(start, recalculationEnd);
@@ -385,12 +622,51 @@ public class RoutePlannerFrontEnd {
 		if (ctx.nativeLib != null) {
 			return runNativeRouting(ctx, recalculationEnd);
 		} else {
+			ContractionHierarchy ch = recalculationEnd == null ? getContractionHierarchy(ctx) : null;
+			if (ch != null) {
+				long time = System.currentTimeMillis();
+				List<RouteSegmentResult> res = ch.searchRoute(ctx, start, end);
+				if (res != null) {
+					log.info("Contraction hierarchy routing took " + (System.currentTimeMillis() - time) / 1000f + " seconds");
+					return new RouteResultPreparation().prepareResult(ctx, res, false);
+				}
+			}
 			refreshProgressDistance(ctx);
+			ReverseSearchTree tree = useIncrementalRecalculation ? new ReverseSearchTree(end, ctx) : null;
+			// reverse search from previous route or with followed direction doesn't measure time to the target
+			boolean keepVisited = recalculationEnd == null
+					&& (ctx.precalculatedRouteDirection == null || !ctx.precalculatedRouteDirection.isFollowNext());
 			// Split into 2 methods to let GC work in between
-			ctx.finalRouteSegment = new BinaryRoutePlanner().searchRouteInternal(ctx, start, end, recalculationEnd);
+			ctx.finalRouteSegment = new BinaryRoutePlanner().searchRouteInternal(ctx, start, end, recalculationEnd,
+					keepVisited ? tree : null);
 			// 4. Route is found : collect all segments and prepare result
-			return new RouteResultPreparation().prepareResult(ctx, ctx.finalRouteSegment);
+			List<RouteSegmentResult> res = new RouteResultPreparation().prepareResult(ctx, ctx.finalRouteSegment);
+			if (tree != null) {
+				// recalculated part of the route has own tree, the rest of the route is added as it is
+				tree.addRoute(ctx, res);
+				tree.pruneFarFromRoute(res);
+				ctx.reverseSearchTree = ctx.finalRouteSegment != null ? tree : null;
+			}
+			return res;
+		}
+	}
+
+	private List<RouteSegmentResult> searchRouteIncremental(final RoutingContext ctx, RouteSegmentPoint start, RouteSegmentPoint end)
+			throws IOException, InterruptedException {
+		long time = System.currentTimeMillis();
+		ctx.initStartAndTargetPoints(start, end);
+		refreshProgressDistance(ctx);
+		ReverseSearchTree tree = ctx.reverseSearchTree;
+		ctx.finalRouteSegment = new BinaryRoutePlanner().searchRouteInternal(ctx, start, end, null, tree);
+		if (ctx.finalRouteSegment == null) {
+			return null;
 		}
+		log.info("Incremental recalculation took " + (System.currentTimeMillis() - time) / 1000f + " seconds, tree size "
+				+ tree.size());
+		List<RouteSegmentResult> res = new RouteResultPreparation().prepareResult(ctx, ctx.finalRouteSegment);
+		tree.addRoute(ctx, res);
+		tree.pruneFarFromRoute(res);
+		return res;
 	}
 
 	public RouteSegment getRecalculationEnd(final RoutingContext ctx) {
@@ -516,6 +792,7 @@ public class RoutePlannerFrontEnd {
 			local.visitor = ctx.visitor;
 			local.calculationProgress = ctx.calculationProgress;
 			List<RouteSegmentResult> res = searchRouteInternalPrepare(local, points.get(i), points.get(i + 1), routeDirection);
+			ctx.reverseSearchTree = local.reverseSearchTree;
 
 			results.addAll(res);
 			ctx.distinctLoadedTiles += local.distinctLoadedTiles;
@@ -5,7 +5,6 @@ import net.osmand.binary.BinaryMapIndexReader;
 import net.osmand.binary.BinaryMapRouteReaderAdapter.RouteTypeRule;
 import net.osmand.binary.RouteDataObject;
 import net.osmand.data.LatLon;
-import net.osmand.osm.MapRenderingTypes;
 import net.osmand.render.RenderingRuleSearchRequest;
 import net.osmand.render.RenderingRulesStorage;
 import net.osmand.render.RenderingRulesStorage.RenderingRulesStorageResolver;
@@ -33,6 +32,8 @@ import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import gnu.trove.iterator.TIntIterator;
 import gnu.trove.list.array.TIntArrayList;
@@ -45,6 +46,8 @@ public class RouteResultPreparation {
 	private static final float TURN_DEGREE_MIN = 45;
 	public static final int SHIFT_ID = 6;
 	private Log log = PlatformUtil.getLog(RouteResultPreparation.class);
+	// pool of parallel stages of the current preparation (null to run stages inline)
+	private ForkJoinPool preparationPool;
 	/**
 	 * Helper method to prepare final result 
 	 */
@@ -166,14 +169,19 @@ public class RouteResultPreparation {
 	}
 
 	List<RouteSegmentResult> prepareResult(RoutingContext ctx, List<RouteSegmentResult> result, boolean recalculation) throws IOException {
+		long time = System.nanoTime();
+		preparationPool = ctx.preparationPool;
 		for(int i = 0; i < result.size(); i++) {
 			checkAndInitRouteRegion(ctx, result.get(i).getObject());
 		}
 		combineWayPointsForAreaRouting(ctx, result);
 		validateAllPointsConnected(result);
+		// attaching roads loads tiles of routing context, so it is sequential
 		splitRoadsAndAttachRoadSegments(ctx, result, recalculation);
 		calculateTimeSpeed(ctx, result);
+		applySpeedOverlay(ctx, result);
 		
+		// turns depend on previous segment (lanes), so they are calculated by sequential pass
 		for (int i = 0; i < result.size(); i ++) {
 			TurnType turnType = getTurnInfo(result, i, ctx.leftSideNavigation);
 			result.get(i).setTurnType(turnType);
@@ -183,9 +191,65 @@ public class RouteResultPreparation {
 		ignorePrecedingStraightsOnSameIntersection(ctx.leftSideNavigation, result);
 		justifyUTurns(ctx.leftSideNavigation, result);
 		addTurnInfoDescriptions(result);
+		if (ctx.metricsListener != null) {
+			ctx.metricsListener.phaseFinished(RoutingMetricsListener.Phase.PREPARATION, System.nanoTime() - time);
+		}
 		return result;
 	}
 
+	// segments processed by one task of parallel stage
+	private static final int PARALLEL_CHUNK_SIZE = 64;
+
+	/**
+	 * Stage which processes every segment independently from others
+	 */
+	private interface SegmentsStage {
+
+		void process(int from, int to) throws IOException;
+	}
+
+	private static class SegmentsStageTask extends RecursiveAction {
+		private static final long serialVersionUID = -2830421653124768126L;
+		private final SegmentsStage stage;
+		private final int from;
+		private final int to;
+
+		SegmentsStageTask(SegmentsStage stage, int from, int to) {
+			this.stage = stage;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > PARALLEL_CHUNK_SIZE) {
+				int middle = (from + to) >>> 1;
+				invokeAll(new SegmentsStageTask(stage, from, middle), new SegmentsStageTask(stage, middle, to));
+				return;
+			}
+			try {
+				stage.process(from, to);
+			} catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+	}
+
+	private static void runStage(ForkJoinPool pool, int size, SegmentsStage stage) throws IOException {
+		if (pool == null || size <= PARALLEL_CHUNK_SIZE) {
+			stage.process(0, size);
+			return;
+		}
+		try {
+			pool.invoke(new SegmentsStageTask(stage, 0, size));
+		} catch (IllegalStateException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw e;
+		}
+	}
+
 	protected void ignorePrecedingStraightsOnSameIntersection(boolean leftside, List<RouteSegmentResult> result) {
 		//Issue 2571: Ignore TurnType.C if immediately followed by another turn in non-motorway cases, as these likely belong to the very same intersection
 		RouteSegmentResult nextSegment = null;
@@ -236,66 +300,111 @@ public class RouteResultPreparation {
 	// reference speed 30ms (108kmh) - 2ms (7kmh)
 	private static final double SLOW_DOWN_SPEED = 2;
 	
-	private void calculateTimeSpeed(RoutingContext ctx, List<RouteSegmentResult> result) throws IOException {
+	private void calculateTimeSpeed(final RoutingContext ctx, final List<RouteSegmentResult> result) throws IOException {
 		//for Naismith
-		boolean usePedestrianHeight = ((((GeneralRouter) ctx.getRouter()).getProfile() == GeneralRouterProfile.PEDESTRIAN) && ((GeneralRouter) ctx.getRouter()).getHeightObstacles());
-
-		for (int i = 0; i < result.size(); i++) {
-			RouteSegmentResult rr = result.get(i);
-			RouteDataObject road = rr.getObject();
-			double distOnRoadToPass = 0;
-			double speed = ctx.getRouter().defineVehicleSpeed(road);
-			if (speed == 0) {
-				speed = ctx.getRouter().getDefaultSpeed();
-			} else {
-				if (speed > SLOW_DOWN_SPEED_THRESHOLD) {
-					speed = speed - (speed / SLOW_DOWN_SPEED_THRESHOLD - 1) * SLOW_DOWN_SPEED;
+		final boolean usePedestrianHeight = ((((GeneralRouter) ctx.getRouter()).getProfile() == GeneralRouterProfile.PEDESTRIAN) && ((GeneralRouter) ctx.getRouter()).getHeightObstacles());
+		runStage(preparationPool, result.size(), new SegmentsStage() {
+			@Override
+			public void process(int from, int to) {
+				for (int i = from; i < to; i++) {
+					calculateTimeSpeed(ctx, result.get(i), usePedestrianHeight);
 				}
 			}
-			boolean plus = rr.getStartPointIndex() < rr.getEndPointIndex();
-			int next;
-			double distance = 0;
+		});
+	}
 
-			//for Naismith
-			float prevHeight = -99999.0f;
-			float[] heightDistanceArray = null;
-			if (usePedestrianHeight) {
-				road.calculateHeightArray();
-				heightDistanceArray = road.heightDistanceArray;
+	private void calculateTimeSpeed(RoutingContext ctx, RouteSegmentResult rr, boolean usePedestrianHeight) {
+		RouteDataObject road = rr.getObject();
+		double distOnRoadToPass = 0;
+		double speed = ctx.getRouter().defineVehicleSpeed(road);
+		if (speed == 0) {
+			speed = ctx.getRouter().getDefaultSpeed();
+		} else {
+			if (speed > SLOW_DOWN_SPEED_THRESHOLD) {
+				speed = speed - (speed / SLOW_DOWN_SPEED_THRESHOLD - 1) * SLOW_DOWN_SPEED;
 			}
+		}
+		boolean plus = rr.getStartPointIndex() < rr.getEndPointIndex();
+		int next;
+		double distance = 0;
 
-			for (int j = rr.getStartPointIndex(); j != rr.getEndPointIndex(); j = next) {
-				next = plus ? j + 1 : j - 1;
-				double d = measuredDist(road.getPoint31XTile(j), road.getPoint31YTile(j), road.getPoint31XTile(next),
-						road.getPoint31YTile(next));
-				distance += d;
-				double obstacle = ctx.getRouter().defineObstacle(road, j);
-				if (obstacle < 0) {
-					obstacle = 0;
-				}
-				distOnRoadToPass += d / speed + obstacle;  //this is time in seconds
-
-				//for Naismith
-				if (usePedestrianHeight) {
-					int heightIndex = 2 * j + 1;
-					if (heightDistanceArray != null && heightIndex < heightDistanceArray.length) {
-						float height = heightDistanceArray[heightIndex];
-						if (prevHeight != -99999.0f) {
-							float heightDiff = height - prevHeight;
-							if (heightDiff > 0) {  //ascent only
-								distOnRoadToPass += heightDiff * 6.0f;  //Naismith's rule: add 1 hour per every 600m of ascent
-							}
+		//for Naismith
+		float prevHeight = -99999.0f;
+		float[] heightDistanceArray = null;
+		if (usePedestrianHeight) {
+			heightDistanceArray = road.calculateHeightArray();
+		}
+
+		for (int j = rr.getStartPointIndex(); j != rr.getEndPointIndex(); j = next) {
+			next = plus ? j + 1 : j - 1;
+			double d = measuredDist(road.getPoint31XTile(j), road.getPoint31YTile(j), road.getPoint31XTile(next),
+					road.getPoint31YTile(next));
+			distance += d;
+			double obstacle = ctx.getRouter().defineObstacle(road, j);
+			if (obstacle < 0) {
+				obstacle = 0;
+			}
+			distOnRoadToPass += d / speed + obstacle;  //this is time in seconds
+
+			//for Naismith
+			if (usePedestrianHeight) {
+				int heightIndex = 2 * j + 1;
+				if (heightDistanceArray != null && heightIndex < heightDistanceArray.length) {
+					float height = heightDistanceArray[heightIndex];
+					if (prevHeight != -99999.0f) {
+						float heightDiff = height - prevHeight;
+						if (heightDiff > 0) {  //ascent only
+							distOnRoadToPass += heightDiff * 6.0f;  //Naismith's rule: add 1 hour per every 600m of ascent
 						}
-					prevHeight = height;
 					}
+				prevHeight = height;
 				}
 			}
+		}
 
-			// last point turn time can be added
-			// if(i + 1 < result.size()) { distOnRoadToPass += ctx.getRouter().calculateTurnTime(); }
-			rr.setSegmentTime((float) distOnRoadToPass);
-			rr.setSegmentSpeed((float) speed);
-			rr.setDistance((float) distance);
+		// last point turn time can be added
+		// if(i + 1 < result.size()) { distOnRoadToPass += ctx.getRouter().calculateTurnTime(); }
+		rr.setSegmentTime((float) distOnRoadToPass);
+		rr.setSegmentSpeed((float) speed);
+		rr.setDistance((float) distance);
+	}
+
+	/**
+	 * Corrects segment times by speed overlay, time of passing segment depends on time of previous segments,
+	 * so it is sequential pass over the route.
+	 */
+	private void applySpeedOverlay(RoutingContext ctx, List<RouteSegmentResult> result) {
+		// the same snapshot and departure time as used by the search
+		RouteSpeedOverlay.Snapshot overlay = ctx.getSpeedOverlaySnapshot();
+		if (overlay == null) {
+			return;
+		}
+		float minute = RouteSpeedOverlay.getMinuteOfWeek(ctx.getDepartureTime());
+		for (RouteSegmentResult rr : result) {
+			RouteDataObject road = rr.getObject();
+			int overlayRoad = overlay.findRoad(road.getId());
+			float time = rr.getSegmentTime();
+			if (overlayRoad >= 0) {
+				double speed = rr.getSegmentSpeed();
+				boolean plus = rr.getStartPointIndex() < rr.getEndPointIndex();
+				int next;
+				// time from segment start (without obstacles)
+				double passed = 0;
+				for (int j = rr.getStartPointIndex(); j != rr.getEndPointIndex() && speed > 0; j = next) {
+					next = plus ? j + 1 : j - 1;
+					double d = measuredDist(road.getPoint31XTile(j), road.getPoint31YTile(j), road.getPoint31XTile(next),
+							road.getPoint31YTile(next));
+					float overlaySpeed = overlay.getSegmentSpeed(overlayRoad, Math.min(j, next), (float) (minute + passed / 60));
+					if (overlaySpeed > 0) {
+						time += (float) (d / overlaySpeed - d / speed);
+						passed += d / overlaySpeed;
+					} else {
+						passed += d / speed;
+					}
+				}
+				rr.setSegmentTime(Math.max(time, 0));
+			}
+			minute += rr.getSegmentTime() / 60;
 		}
 	}
 
@@ -698,18 +807,15 @@ public class RouteResultPreparation {
 	}
 
 
-	protected void addTurnInfoDescriptions(List<RouteSegmentResult> result) {
+	protected void addTurnInfoDescriptions(final List<RouteSegmentResult> result) {
+		// distance to the next turn is accumulated sequentially, descriptions are formatted by stage
+		final float[] turnDist = new float[result.size()];
 		int prevSegment = -1;
 		float dist = 0;
 		for (int i = 0; i <= result.size(); i++) {
 			if (i == result.size() || result.get(i).getTurnType() != null) {
 				if (prevSegment >= 0) {
-					String turn = result.get(prevSegment).getTurnType().toString();
-					result.get(prevSegment).setDescription(
-							turn + MessageFormat.format(" and go {0,number,#.##} meters", dist));
-					if (result.get(prevSegment).getTurnType().isSkipToSpeak()) {
-						result.get(prevSegment).setDescription("-*" + result.get(prevSegment).getDescription());
-					}
+					turnDist[prevSegment] = dist;
 				}
 				prevSegment = i;
 				dist = 0;
@@ -718,6 +824,27 @@ public class RouteResultPreparation {
 				dist += result.get(i).getDistance();
 			}
 		}
+		try {
+			runStage(preparationPool, result.size(), new SegmentsStage() {
+				@Override
+				public void process(int from, int to) {
+					for (int i = from; i < to; i++) {
+						RouteSegmentResult rr = result.get(i);
+						if (rr.getTurnType() == null) {
+							continue;
+						}
+						String turn = rr.getTurnType().toString();
+						rr.setDescription(turn + MessageFormat.format(" and go {0,number,#.##} meters", turnDist[i]));
+						if (rr.getTurnType().isSkipToSpeak()) {
+							rr.setDescription("-*" + rr.getDescription());
+						}
+					}
+				}
+			});
+		} catch (IOException e) {
+			// descriptions are formatted without reading data
+			throw new IllegalStateException(e);
+		}
 	}
 
 	protected TurnType justifyUTurn(boolean leftside, List<RouteSegmentResult> result, int i, TurnType t) {
@@ -1095,7 +1222,7 @@ public class RouteResultPreparation {
 	}
 
 	private int[] getTurnLanesInfo(RouteSegmentResult prevSegm, int mainTurnType) {
-		String turnLanes = getTurnLanesString(prevSegm);
+		int[] turnLanes = getTurnLanes(prevSegm);
 		int[] lanesArray;
 		if (turnLanes == null) {
 			if(prevSegm.getTurnType() != null && prevSegm.getTurnType().getLanes() != null
@@ -1115,7 +1242,7 @@ public class RouteResultPreparation {
 				return null;
 			}
 		} else {
-			lanesArray = calculateRawTurnLanes(turnLanes, mainTurnType);
+			lanesArray = RoadTurnInfo.calculateRawTurnLanes(turnLanes, mainTurnType);
 		}
 		// Manually set the allowed lanes.
 		boolean isSet = setAllowedLanes(mainTurnType, lanesArray);
@@ -1230,7 +1357,7 @@ public class RouteResultPreparation {
 		}
 		
 		// turn lanes exist
-		String turnLanes = getTurnLanesString(prevSegm);
+		int[] turnLanes = getTurnLanes(prevSegm);
 		if (turnLanes != null) {
 			return createKeepLeftRightTurnBasedOnTurnTypes(rs, prevSegm, currentSegm, turnLanes, leftSide);
 		}
@@ -1244,10 +1371,10 @@ public class RouteResultPreparation {
 	}
 
 	protected TurnType createKeepLeftRightTurnBasedOnTurnTypes(RoadSplitStructure rs, RouteSegmentResult prevSegm,
-			RouteSegmentResult currentSegm, String turnLanes, boolean leftSide) {
+			RouteSegmentResult currentSegm, int[] turnLanes, boolean leftSide) {
 		// Maybe going straight at a 90-degree intersection
 		TurnType t = TurnType.valueOf(TurnType.C, leftSide);
-		int[] rawLanes = calculateRawTurnLanes(turnLanes, TurnType.C);
+		int[] rawLanes = RoadTurnInfo.calculateRawTurnLanes(turnLanes, TurnType.C);
 		boolean possiblyLeftTurn = rs.roadsOnLeft == 0;
 		boolean possiblyRightTurn = rs.roadsOnRight == 0;
 		for (int k = 0; k < rawLanes.length; k++) {
@@ -1265,18 +1392,17 @@ public class RouteResultPreparation {
 		t.setPossibleLeftTurn(possiblyLeftTurn);
 		t.setPossibleRightTurn(possiblyRightTurn);
 		if (rs.keepLeft || rs.keepRight) {
-			String[] splitLaneOptions = turnLanes.split("\\|", -1);
-			int activeBeginIndex = findActiveIndex(rawLanes, splitLaneOptions, rs.leftLanes, true, 
+			int activeBeginIndex = findActiveIndex(rawLanes, turnLanes, rs.leftLanes, true, 
 					rs.leftLanesInfo, rs.roadsOnLeft, rs.addRoadsOnLeft);
 			
 			if(!rs.keepLeft && activeBeginIndex != -1 && 
-					splitLaneOptions.length > 0 && !splitLaneOptions[splitLaneOptions.length - 1].contains(";")) {
+					turnLanes.length > 0 && !RoadTurnInfo.hasMultipleOptions(turnLanes[turnLanes.length - 1])) {
 				activeBeginIndex = Math.max(activeBeginIndex, 1);
 			}
-			int activeEndIndex = findActiveIndex(rawLanes, splitLaneOptions, rs.rightLanes, false, 
+			int activeEndIndex = findActiveIndex(rawLanes, turnLanes, rs.rightLanes, false, 
 					rs.rightLanesInfo, rs.roadsOnRight, rs.addRoadsOnRight);
 			if(!rs.keepRight && activeEndIndex != -1  && 
-					splitLaneOptions.length > 0 && !splitLaneOptions[0].contains(";") ) {
+					turnLanes.length > 0 && !RoadTurnInfo.hasMultipleOptions(turnLanes[0]) ) {
 				activeEndIndex = Math.min(activeEndIndex, rawLanes.length - 1);
 			}
 			if (activeBeginIndex == -1 || activeEndIndex == -1 || activeBeginIndex > activeEndIndex) {
@@ -1330,7 +1456,7 @@ public class RouteResultPreparation {
 		return t;
 	}
 
-	protected int findActiveIndex(int[] rawLanes, String[] splitLaneOptions, int lanes, boolean left, 
+	protected int findActiveIndex(int[] rawLanes, int[] turnLanes, int lanes, boolean left, 
 			List<int[]> lanesInfo, int roads, int addRoads) {
 		int activeStartIndex = -1;
 		boolean lookupSlightTurn = addRoads > 0;
@@ -1352,10 +1478,9 @@ public class RouteResultPreparation {
 			int ind = left ? i : (rawLanes.length - i - 1);
 			if (!lookupSlightTurn ||
 					TurnType.hasAnySlightTurnLane(rawLanes[ind])) {
-				String[] laneTurns = splitLaneOptions[ind].split(";");
 				int cnt = 0;
-				for(String lTurn : laneTurns) {
-					boolean added = addedTurns.add(TurnType.convertType(lTurn));
+				for (int turn : RoadTurnInfo.getOptions(turnLanes[ind])) {
+					boolean added = addedTurns.add(turn);
 					if(added) {
 						cnt++;
 						diffTurnRoads --;
@@ -1381,15 +1506,7 @@ public class RouteResultPreparation {
 		RoadSplitStructure rs = new RoadSplitStructure();
 		int speakPriority = Math.max(highwaySpeakPriority(prevSegm.getObject().getHighway()), highwaySpeakPriority(currentSegm.getObject().getHighway()));
 		for (RouteSegmentResult attached : attachedRoutes) {
-			boolean restricted = false;
-			for(int k = 0; k < prevSegm.getObject().getRestrictionLength(); k++) {
-				if(prevSegm.getObject().getRestrictionId(k) == attached.getObject().getId() && 
-						prevSegm.getObject().getRestrictionType(k) <= MapRenderingTypes.RESTRICTION_NO_STRAIGHT_ON) {
-					restricted = true;
-					break;
-				}
-			}
-			if(restricted) {
+			if (RoadTurnInfo.get(prevSegm.getObject()).isTurnProhibited(attached.getObject().getId())) {
 				continue;
 			}
 			double ex = MapUtils.degreesDiff(attached.getBearingBegin(), currentSegm.getBearingBegin());
@@ -1471,9 +1588,9 @@ public class RouteResultPreparation {
 		final boolean oneway = attached.getObject().getOneway() != 0;
 		int lns = attached.getObject().getLanes();
 		if(lns == 0) {
-			String tls = getTurnLanesString(attached);
+			int[] tls = getTurnLanes(attached);
 			if(tls != null) {
-				return Math.max(1, countOccurrences(tls, '|'));
+				return Math.max(1, tls.length - 1);
 			}
 		}
 		if (oneway) {
@@ -1491,47 +1608,38 @@ public class RouteResultPreparation {
 		return Math.max(1, (lns + 1) / 2);
 	}
 
-	protected static String getTurnLanesString(RouteSegmentResult segment) {
+	// encoded turn lanes of the segment direction (see RoadTurnInfo)
+	protected static int[] getTurnLanes(RouteSegmentResult segment) {
+		RoadTurnInfo info = RoadTurnInfo.get(segment.getObject());
 		if (segment.getObject().getOneway() == 0) {
 			if (segment.isForwardDirection()) {
-				return segment.getObject().getValue("turn:lanes:forward");
+				return info.getLaneOptions(RoadTurnInfo.TURN_LANES_FORWARD);
 			} else {
-				return segment.getObject().getValue("turn:lanes:backward");
+				return info.getLaneOptions(RoadTurnInfo.TURN_LANES_BACKWARD);
 			}
 		} else {
-			return segment.getObject().getValue("turn:lanes");
-		}
-	}
-
-	
-
-	private int countOccurrences(String haystack, char needle) {
-	    int count = 0;
-		for (int i = 0; i < haystack.length(); i++) {
-			if (haystack.charAt(i) == needle) {
-				count++;
-			}
+			return info.getLaneOptions(RoadTurnInfo.TURN_LANES);
 		}
-		return count;
 	}
 
 	public static int[] parseTurnLanes(RouteDataObject ro, double dirToNorthEastPi) {
-		String turnLanes = null;
+		RoadTurnInfo info = RoadTurnInfo.get(ro);
+		int[] turnLanes = null;
 		if (ro.getOneway() == 0) {
 			// we should get direction to detect forward or backward
 			double cmp = ro.directionRoute(0, true);
 			if(Math.abs(MapUtils.alignAngleDifference(dirToNorthEastPi -cmp)) < Math.PI / 2) {
-				turnLanes = ro.getValue("turn:lanes:forward");
+				turnLanes = info.getLaneOptions(RoadTurnInfo.TURN_LANES_FORWARD);
 			} else {
-				turnLanes = ro.getValue("turn:lanes:backward");
+				turnLanes = info.getLaneOptions(RoadTurnInfo.TURN_LANES_BACKWARD);
 			}
 		} else {
-			turnLanes = ro.getValue("turn:lanes");
+			turnLanes = info.getLaneOptions(RoadTurnInfo.TURN_LANES);
 		}
 		if(turnLanes == null) {
 			return null;
 		}
-		return calculateRawTurnLanes(turnLanes, 0);
+		return RoadTurnInfo.calculateRawTurnLanes(turnLanes, 0);
 	}
 	
 	public static int[] parseLanes(RouteDataObject ro, double dirToNorthEastPi) {
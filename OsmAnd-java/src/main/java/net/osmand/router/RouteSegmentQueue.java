@@ -0,0 +1,94 @@
+package net.osmand.router;
+
+import java.util.Arrays;
+
+import net.osmand.router.BinaryRoutePlanner.RouteSegment;
+
+/**
+ * A* frontier of route segments on top of {@link IndexedMinHeap}.
+ *
+ * Segment gets int id when it is queued first time, heap keeps ids and float priorities
+ * f = distanceFromStart + heuristicCoefficient * distanceToEnd in primitive arrays, so sift operations don't
+ * read segment fields. Adding segment which is already queued updates its priority instead of inserting duplicate.
+ * Arrays grow and are never shrunk, so after warm up add/poll don't allocate.
+ */
+public class RouteSegmentQueue {
+
+	private static final int INITIAL_CAPACITY = 64;
+
+	private final float heuristicCoefficient;
+	private final IndexedMinHeap heap;
+	// segments by id (id is stored in RouteSegment.queueIndex)
+	private RouteSegment[] segments;
+	private int ids;
+
+	public RouteSegmentQueue(double heuristicCoefficient) {
+		this(heuristicCoefficient, INITIAL_CAPACITY);
+	}
+
+	public RouteSegmentQueue(double heuristicCoefficient, int initialCapacity) {
+		this.heuristicCoefficient = (float) heuristicCoefficient;
+		int c = Math.max(initialCapacity, 2);
+		heap = new IndexedMinHeap(c);
+		segments = new RouteSegment[c];
+	}
+
+	public int size() {
+		return heap.size();
+	}
+
+	public boolean isEmpty() {
+		return heap.isEmpty();
+	}
+
+	public RouteSegment peek() {
+		return heap.isEmpty() ? null : segments[heap.peek()];
+	}
+
+	/**
+	 * Priority of the head segment or Double.POSITIVE_INFINITY when queue is empty
+	 */
+	public double peekKey() {
+		return heap.peekKey();
+	}
+
+	private boolean hasId(RouteSegment s) {
+		int id = s.queueIndex;
+		return id >= 0 && id < ids && segments[id] == s;
+	}
+
+	public boolean contains(RouteSegment s) {
+		return hasId(s) && heap.contains(s.queueIndex);
+	}
+
+	/**
+	 * Adds segment with priority calculated from its current distances, if segment is already in the queue
+	 * its priority is updated
+	 */
+	public void add(RouteSegment s) {
+		if (!hasId(s)) {
+			if (ids == segments.length) {
+				segments = Arrays.copyOf(segments, ids << 1);
+			}
+			s.queueIndex = ids;
+			segments[ids++] = s;
+		}
+		heap.push(s.queueIndex, s.distanceFromStart + heuristicCoefficient * s.distanceToEnd);
+	}
+
+	public RouteSegment poll() {
+		if (heap.isEmpty()) {
+			return null;
+		}
+		return segments[heap.poll()];
+	}
+
+	public void clear() {
+		heap.clear();
+		for (int i = 0; i < ids; i++) {
+			segments[i].queueIndex = -1;
+			segments[i] = null;
+		}
+		ids = 0;
+	}
+}
@@ -21,7 +21,7 @@ import gnu.trove.map.hash.TIntObjectHashMap;
 
 
 public class RouteSegmentResult implements StringExternalizable<RouteDataBundle> {
-	private final RouteDataObject object;
+	private RouteDataObject object;
 	private int startPointIndex;
 	private int endPointIndex;
 	private List<RouteSegmentResult>[] attachedRoutes;
@@ -435,6 +435,10 @@ public class RouteSegmentResult implements StringExternalizable<RouteDataBundle>
 		this.turnType = turnType;
 	}
 	
+	void setObject(RouteDataObject object) {
+		this.object = object;
+	}
+
 	public RouteDataObject getObject() {
 		return object;
 	}
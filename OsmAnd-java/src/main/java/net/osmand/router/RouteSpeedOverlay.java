@@ -0,0 +1,278 @@
+package net.osmand.router;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+
+import net.osmand.PlatformUtil;
+
+/**
+ * Speeds of roads (whole road or one segment of the road) which override speeds defined by the router
+ * (live traffic, time dependent speeds).
+ *
+ * Overlay is loaded from text file, every line is
+ * <pre>
+ * # comment
+ * profile,&lt;name&gt;,&lt;minutes per slot&gt;,&lt;speed km/h&gt;,&lt;speed km/h&gt;,...
+ * &lt;road id&gt;,&lt;segment index or *&gt;,&lt;speed km/h or profile name&gt;
+ * </pre>
+ * Road id is {@link net.osmand.binary.RouteDataObject#getId()} and segment index is index of the first point of segment.
+ * Profile slots start on Monday 00:00 (local time) and repeat, so 24 slots of 60 minutes is daily profile and
+ * 168 slots of 60 minutes is weekly profile. Speed 0 means that road is closed, empty value means no data.
+ *
+ * Data is kept in immutable {@link Snapshot} (sorted arrays, speeds as bytes) and replaced atomically on reload,
+ * so readers (parallel routing) don't need any locks and every calculation uses one snapshot.
+ */
+public class RouteSpeedOverlay {
+
+	private static final Log log = PlatformUtil.getLog(RouteSpeedOverlay.class);
+
+	public static final float NO_DATA = -1;
+	public static final int WHOLE_ROAD = -1;
+	public static final int MINUTES_IN_WEEK = 7 * 24 * 60;
+	private static final int MAX_SPEED_KMH = 254;
+	private static final byte NO_DATA_SPEED = (byte) 255;
+
+	private final File file;
+	private long fileLastModified;
+	private volatile Snapshot snapshot = Snapshot.EMPTY;
+
+	public RouteSpeedOverlay(File file) {
+		this.file = file;
+	}
+
+	public RouteSpeedOverlay() {
+		this(null);
+	}
+
+	public Snapshot getSnapshot() {
+		return snapshot;
+	}
+
+	public void setSnapshot(Snapshot snapshot) {
+		this.snapshot = snapshot == null ? Snapshot.EMPTY : snapshot;
+	}
+
+	/**
+	 * Reads overlay file if it was changed after the last reading.
+	 * Readers continue to use previous snapshot till the new one is completely parsed.
+	 */
+	public synchronized boolean reloadIfModified() throws IOException {
+		if (file == null) {
+			return false;
+		}
+		if (!file.exists()) {
+			if (fileLastModified != 0) {
+				fileLastModified = 0;
+				setSnapshot(null);
+				return true;
+			}
+			return false;
+		}
+		long lastModified = file.lastModified();
+		if (lastModified == fileLastModified) {
+			return false;
+		}
+		long time = System.currentTimeMillis();
+		Reader reader = new InputStreamReader(new FileInputStream(file), "UTF-8");
+		try {
+			setSnapshot(parse(reader));
+		} finally {
+			reader.close();
+		}
+		fileLastModified = lastModified;
+		log.info("Speed overlay " + file.getName() + " is loaded: " + snapshot.size() + " roads segments, "
+				+ (System.currentTimeMillis() - time) + " ms");
+		return true;
+	}
+
+	public static int getMinuteOfWeek(long timeMillis) {
+		Calendar c = Calendar.getInstance();
+		c.setTimeInMillis(timeMillis);
+		int day = (c.get(Calendar.DAY_OF_WEEK) + 5) % 7; // Monday = 0
+		return day * 24 * 60 + c.get(Calendar.HOUR_OF_DAY) * 60 + c.get(Calendar.MINUTE);
+	}
+
+	public static Snapshot parse(Reader reader) throws IOException {
+		BufferedReader r = new BufferedReader(reader);
+		Map<String, Integer> profilesByName = new HashMap<String, Integer>();
+		Map<Integer, Integer> constantProfiles = new HashMap<Integer, Integer>();
+		List<byte[]> profiles = new ArrayList<byte[]>();
+		List<Integer> slots = new ArrayList<Integer>();
+		List<Entry> entries = new ArrayList<Entry>();
+		String line;
+		int lineNumber = 0;
+		while ((line = r.readLine()) != null) {
+			lineNumber++;
+			line = line.trim();
+			if (line.length() == 0 || line.startsWith("#")) {
+				continue;
+			}
+			String[] values = line.split(",", -1);
+			try {
+				if (values[0].equals("profile")) {
+					byte[] speeds = new byte[values.length - 3];
+					for (int i = 0; i < speeds.length; i++) {
+						speeds[i] = parseSpeed(values[i + 3]);
+					}
+					int slotMinutes = Integer.parseInt(values[2].trim());
+					if (speeds.length == 0 || slotMinutes <= 0) {
+						throw new IllegalArgumentException("Empty profile");
+					}
+					profilesByName.put(values[1].trim(), profiles.size());
+					profiles.add(speeds);
+					slots.add(slotMinutes);
+				} else {
+					Entry e = new Entry();
+					e.roadId = Long.parseLong(values[0].trim());
+					e.segment = values[1].trim().equals("*") ? WHOLE_ROAD : Integer.parseInt(values[1].trim());
+					String speed = values[2].trim();
+					Integer profile = profilesByName.get(speed);
+					if (profile == null) {
+						int kmh = parseSpeed(speed) & 0xff;
+						profile = constantProfiles.get(kmh);
+						if (profile == null) {
+							profile = profiles.size();
+							constantProfiles.put(kmh, profile);
+							profiles.add(new byte[] { (byte) kmh });
+							slots.add(MINUTES_IN_WEEK);
+						}
+					}
+					e.profile = profile;
+					entries.add(e);
+				}
+			} catch (RuntimeException e) {
+				// one broken line shouldn't break the whole overlay
+				log.warn("Speed overlay line " + lineNumber + " is ignored: " + e.getMessage());
+			}
+		}
+		Collections.sort(entries);
+		Snapshot s = new Snapshot(entries.size(), profiles.size());
+		for (int i = 0; i < entries.size(); i++) {
+			Entry e = entries.get(i);
+			s.roadIds[i] = e.roadId;
+			s.segments[i] = e.segment;
+			s.entryProfiles[i] = e.profile;
+		}
+		for (int i = 0; i < profiles.size(); i++) {
+			s.profiles[i] = profiles.get(i);
+			s.slotMinutes[i] = slots.get(i);
+		}
+		return s;
+	}
+
+	private static byte parseSpeed(String v) {
+		v = v.trim();
+		if (v.length() == 0) {
+			return NO_DATA_SPEED;
+		}
+		int kmh = Math.round(Float.parseFloat(v));
+		if (kmh < 0) {
+			return NO_DATA_SPEED;
+		}
+		return (byte) Math.min(kmh, MAX_SPEED_KMH);
+	}
+
+	private static class Entry implements Comparable<Entry> {
+		long roadId;
+		int segment;
+		int profile;
+
+		@Override
+		public int compareTo(Entry o) {
+			if (roadId != o.roadId) {
+				return roadId < o.roadId ? -1 : 1;
+			}
+			return segment < o.segment ? -1 : (segment == o.segment ? 0 : 1);
+		}
+	}
+
+	/**
+	 * Immutable overlay data : entries sorted by road id and segment (whole road entry goes first)
+	 */
+	public static class Snapshot {
+
+		static final Snapshot EMPTY = new Snapshot(0, 0);
+
+		private final long[] roadIds;
+		private final int[] segments;
+		private final int[] entryProfiles;
+		private final byte[][] profiles;
+		private final int[] slotMinutes;
+
+		Snapshot(int entries, int profiles) {
+			this.roadIds = new long[entries];
+			this.segments = new int[entries];
+			this.entryProfiles = new int[entries];
+			this.profiles = new byte[profiles][];
+			this.slotMinutes = new int[profiles];
+		}
+
+		public int size() {
+			return roadIds.length;
+		}
+
+		public boolean isEmpty() {
+			return roadIds.length == 0;
+		}
+
+		/**
+		 * @return index of the first entry of the road or -1 (should be passed to {@link #getSegmentSpeed(int, int, float)})
+		 */
+		public int findRoad(long roadId) {
+			int ind = Arrays.binarySearch(roadIds, roadId);
+			if (ind < 0) {
+				return -1;
+			}
+			while (ind > 0 && roadIds[ind - 1] == roadId) {
+				ind--;
+			}
+			return ind;
+		}
+
+		/**
+		 * @return speed in m/s, 0 if road is closed and {@link RouteSpeedOverlay#NO_DATA} if there is no data
+		 */
+		public float getSegmentSpeed(int roadIndex, int segment, float minuteOfWeek) {
+			if (roadIndex < 0) {
+				return NO_DATA;
+			}
+			long roadId = roadIds[roadIndex];
+			int profile = -1;
+			for (int i = roadIndex; i < roadIds.length && roadIds[i] == roadId && segments[i] <= segment; i++) {
+				if (segments[i] == segment || segments[i] == WHOLE_ROAD) {
+					profile = entryProfiles[i];
+				}
+			}
+			if (profile < 0) {
+				return NO_DATA;
+			}
+			byte[] speeds = profiles[profile];
+			int slot = (int) (minuteOfWeek / slotMinutes[profile]) % speeds.length;
+			if (slot < 0) {
+				slot += speeds.length;
+			}
+			byte kmh = speeds[slot];
+			if (kmh == NO_DATA_SPEED) {
+				return NO_DATA;
+			}
+			return (kmh & 0xff) / 3.6f;
+		}
+
+		public float getSpeed(long roadId, int segment, float minuteOfWeek) {
+			return getSegmentSpeed(findRoad(roadId), segment, minuteOfWeek);
+		}
+	}
+}
@@ -0,0 +1,252 @@
+package net.osmand.router;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.osmand.binary.BinaryMapIndexReader;
+import net.osmand.binary.BinaryMapRouteReaderAdapter.RouteSubregion;
+import net.osmand.binary.RouteDataObject;
+
+/**
+ * Process wide cache of decoded route subregions (tiles) shared by many routing contexts.
+ * Tiles are keyed by file, file date and subregion file pointer and evicted in LRU order when estimated size
+ * exceeds the limit. Tile is decoded once : concurrent requests of the tile being decoded wait for it.
+ *
+ * Cached objects are never given away : every context receives shallow copies, so changes of
+ * the route objects by one calculation (conditional tags, precise start / end points) are not visible to others.
+ */
+public class RouteTileCache {
+
+	private final long maxSize;
+	private long size;
+	private final LinkedHashMap<TileKey, CachedTile> tiles = new LinkedHashMap<TileKey, CachedTile>(256, 0.75f, true);
+	// tiles being decoded
+	private final ConcurrentHashMap<TileKey, FutureTask<CachedTile>> loading = new ConcurrentHashMap<TileKey, FutureTask<CachedTile>>();
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+	private final AtomicLong loadTimeNanos = new AtomicLong();
+
+	public RouteTileCache(long maxSizeBytes) {
+		this.maxSize = maxSizeBytes;
+	}
+
+	private static class TileKey {
+		final String fileName;
+		final long dateCreated;
+		final int filePointer;
+
+		TileKey(String fileName, long dateCreated, int filePointer) {
+			this.fileName = fileName;
+			this.dateCreated = dateCreated;
+			this.filePointer = filePointer;
+		}
+
+		@Override
+		public int hashCode() {
+			int result = fileName.hashCode();
+			result = 31 * result + (int) (dateCreated ^ (dateCreated >>> 32));
+			result = 31 * result + filePointer;
+			return result;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof TileKey)) {
+				return false;
+			}
+			TileKey other = (TileKey) obj;
+			return filePointer == other.filePointer && dateCreated == other.dateCreated
+					&& fileName.equals(other.fileName);
+		}
+	}
+
+	private static class CachedTile {
+		final RouteDataObject[] objects;
+		final int size;
+
+		CachedTile(RouteDataObject[] objects, int size) {
+			this.objects = objects;
+			this.size = size;
+		}
+	}
+
+	/**
+	 * Returns copies of decoded objects of subregion (list could contain nulls as BinaryMapIndexReader.loadRouteIndexData)
+	 */
+	public List<RouteDataObject> loadRouteIndexData(BinaryMapIndexReader reader, RouteSubregion subregion) throws IOException {
+		return loadRouteIndexData(reader, subregion, null);
+	}
+
+	/**
+	 * @param listener receives loading of the tile (could be null)
+	 */
+	public List<RouteDataObject> loadRouteIndexData(final BinaryMapIndexReader reader, final RouteSubregion subregion,
+			RoutingMetricsListener listener) throws IOException {
+		long start = System.nanoTime();
+		final TileKey key = new TileKey(reader.getFile().getName(), reader.getDateCreated(), subregion.filePointer);
+		CachedTile tile = getCached(key);
+		boolean decoded = false;
+		if (tile != null) {
+			hits.incrementAndGet();
+		} else {
+			// one thread decodes the tile, concurrent misses of the same tile wait for it
+			FutureTask<CachedTile> task = new FutureTask<CachedTile>(new Callable<CachedTile>() {
+				@Override
+				public CachedTile call() throws Exception {
+					CachedTile t = getCached(key);
+					if (t == null) {
+						// tile could be cached by the task finished after the first lookup
+						t = decode(reader, subregion);
+						put(key, t);
+					}
+					return t;
+				}
+			});
+			FutureTask<CachedTile> loadingTask = loading.putIfAbsent(key, task);
+			if (loadingTask == null) {
+				misses.incrementAndGet();
+				decoded = true;
+				loadingTask = task;
+				try {
+					task.run();
+				} finally {
+					loading.remove(key, task);
+				}
+			} else {
+				hits.incrementAndGet();
+			}
+			tile = getLoaded(loadingTask);
+		}
+		List<RouteDataObject> copy = new ArrayList<RouteDataObject>(tile.objects.length);
+		for (RouteDataObject ro : tile.objects) {
+			copy.add(ro == null ? null : new RouteDataObject(ro));
+		}
+		if (listener != null) {
+			listener.tileLoaded(key.fileName, decoded ? subregion.length : 0, !decoded, System.nanoTime() - start);
+		}
+		return copy;
+	}
+
+	private CachedTile decode(BinaryMapIndexReader reader, RouteSubregion subregion) throws IOException {
+		long time = System.nanoTime();
+		List<RouteDataObject> res = reader.loadRouteIndexData(subregion);
+		int sz = 0;
+		for (RouteDataObject ro : res) {
+			if (ro != null) {
+				sz += RoutingContext.getEstimatedSize(ro);
+				// decoded once for all contexts, copies share it
+				ro.turnInfo = RoadTurnInfo.decode(ro);
+			}
+		}
+		loadTimeNanos.addAndGet(System.nanoTime() - time);
+		return new CachedTile(res.toArray(new RouteDataObject[res.size()]), sz);
+	}
+
+	private static CachedTile getLoaded(FutureTask<CachedTile> task) throws IOException {
+		try {
+			return task.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for tile");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			} else if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new IOException(cause);
+		}
+	}
+
+	private synchronized CachedTile getCached(TileKey key) {
+		return tiles.get(key);
+	}
+
+	private synchronized void put(TileKey key, CachedTile tile) {
+		CachedTile old = tiles.put(key, tile);
+		if (old != null) {
+			size -= old.size;
+		}
+		size += tile.size;
+		Iterator<CachedTile> it = tiles.values().iterator();
+		while (size > maxSize && it.hasNext()) {
+			CachedTile t = it.next();
+			if (t == tile) {
+				// keep at least just loaded tile
+				continue;
+			}
+			size -= t.size;
+			it.remove();
+			evictions.incrementAndGet();
+		}
+	}
+
+	public synchronized void clear() {
+		tiles.clear();
+		size = 0;
+	}
+
+	public synchronized int getTilesCount() {
+		return tiles.size();
+	}
+
+	public synchronized long getEstimatedSize() {
+		return size;
+	}
+
+	public long getMaxSize() {
+		return maxSize;
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	public double getHitRatio() {
+		long h = hits.get();
+		long total = h + misses.get();
+		return total == 0 ? 0 : ((double) h) / total;
+	}
+
+	public Map<String, Number> getMetrics() {
+		Map<String, Number> m = new LinkedHashMap<String, Number>();
+		m.put("hits", getHits());
+		m.put("misses", getMisses());
+		m.put("evictions", getEvictions());
+		m.put("tiles", getTilesCount());
+		m.put("size", getEstimatedSize());
+		m.put("loadTimeMs", loadTimeNanos.get() / 1000000);
+		return m;
+	}
+
+	@Override
+	public String toString() {
+		return "Route tile cache " + getMetrics();
+	}
+}
@@ -3,6 +3,7 @@ package net.osmand.router;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
@@ -11,12 +12,12 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.ForkJoinPool;
 
 import org.apache.commons.logging.Log;
 
 import gnu.trove.iterator.TIntObjectIterator;
 import gnu.trove.iterator.TLongIterator;
-import gnu.trove.map.TLongObjectMap;
 import gnu.trove.map.hash.TLongObjectHashMap;
 import gnu.trove.set.hash.TLongHashSet;
 import net.osmand.NativeLibrary;
@@ -66,6 +67,20 @@ public class RoutingContext {
 	public boolean leftSideNavigation;
 	public List<RouteSegmentResult> previouslyCalculatedRoute;
 	public PrecalculatedRouteDirection precalculatedRouteDirection;
+	public ContractionHierarchy contractionHierarchy;
+	// key of the context the hierarchy was looked up for (hierarchy is null if it is missing or not supported)
+	public String contractionHierarchyKey;
+	// shared between contexts (null if tiles are loaded only for this context)
+	public RouteTileCache tileCache;
+	// reverse search tree of the previous calculation (see RoutePlannerFrontEnd.setUseIncrementalRecalculation)
+	public ReverseSearchTree reverseSearchTree;
+	// live / time dependent speeds (could be reloaded while context is used)
+	public RouteSpeedOverlay speedOverlay;
+	// overlay snapshot and departure time are taken once, search and result preparation use the same ones
+	private RouteSpeedOverlay.Snapshot speedOverlaySnapshot;
+	private long departureTime;
+	// receives timings and statistics of the calculation (could be shared between contexts)
+	public RoutingMetricsListener metricsListener;
 	
 	// 2. Routing memory cache (big objects)
 	TLongObjectHashMap<List<RoutingSubregionTile>> indexedSubregions = new TLongObjectHashMap<List<RoutingSubregionTile>>();
@@ -103,6 +118,9 @@ public class RoutingContext {
 
 	// old planner
 	public FinalRouteSegment finalRouteSegment;
+	// pool for per segment stages of route result preparation (sequential if null, app doesn't set it:
+	// stages are cheap and pool gives no measurable gain for routes of few hundreds segments)
+	public ForkJoinPool preparationPool;
 	
 	RoutingContext(RoutingContext cp) {
 		this.config = cp.config;
@@ -111,20 +129,20 @@ public class RoutingContext {
 		this.leftSideNavigation = cp.leftSideNavigation;
 		this.reverseMap.putAll(cp.reverseMap);
 		this.nativeLib = cp.nativeLib;
+		this.contractionHierarchy = cp.contractionHierarchy;
+		this.contractionHierarchyKey = cp.contractionHierarchyKey;
+		this.tileCache = cp.tileCache;
+		this.reverseSearchTree = cp.reverseSearchTree;
+		this.speedOverlay = cp.speedOverlay;
+		this.speedOverlaySnapshot = cp.speedOverlaySnapshot;
+		this.departureTime = cp.departureTime;
+		this.metricsListener = cp.metricsListener;
+		this.preparationPool = cp.preparationPool;
 		// copy local data and clear caches
 		for(RoutingSubregionTile tl : subregionTiles) {
 			if(tl.isLoaded()) {
+				// tiles don't keep search state : segments are created for every request
 				subregionTiles.add(tl);
-				for (RouteSegment rs : tl.routes.valueCollection()) {
-					RouteSegment s = rs;
-					while (s != null) {
-						s.parentRoute = null;
-						s.parentSegmentEnd = 0;
-						s.distanceFromStart = 0;
-						s.distanceToEnd = 0;
-						s = s.next;
-					}
-				}
 			}
 		}
 	}
@@ -184,6 +202,27 @@ public class RoutingContext {
 		return config.router;
 	}
 
+	/**
+	 * Snapshot of speed overlay taken by the first call (null if there is no overlay or it is empty),
+	 * overlay reloaded during the calculation is not visible to it
+	 */
+	public synchronized RouteSpeedOverlay.Snapshot getSpeedOverlaySnapshot() {
+		if (speedOverlaySnapshot == null) {
+			speedOverlaySnapshot = speedOverlay != null ? speedOverlay.getSnapshot() : RouteSpeedOverlay.Snapshot.EMPTY;
+		}
+		return speedOverlaySnapshot.isEmpty() ? null : speedOverlaySnapshot;
+	}
+
+	/**
+	 * Route calculation time of configuration or time of the first call
+	 */
+	public synchronized long getDepartureTime() {
+		if (departureTime == 0) {
+			departureTime = config.routeCalculationTime != 0 ? config.routeCalculationTime : System.currentTimeMillis();
+		}
+		return departureTime;
+	}
+
 	public boolean planRouteIn2Directions() {
 		return config.planRoadDirection == 0;
 	}
@@ -287,7 +326,16 @@ public class RoutingContext {
 			try {
 				BinaryMapIndexReader reader = reverseMap.get(ts.subregion.routeReg);
 				ts.setLoadedNonNative();
-				List<RouteDataObject> res = reader.loadRouteIndexData(ts.subregion);
+				List<RouteDataObject> res;
+				if (tileCache != null) {
+					res = tileCache.loadRouteIndexData(reader, ts.subregion, metricsListener);
+				} else {
+					res = reader.loadRouteIndexData(ts.subregion);
+					if (metricsListener != null) {
+						metricsListener.tileLoaded(reader.getFile().getName(), ts.subregion.length, false,
+								System.nanoTime() - now);
+					}
+				}
 				
 				if(toLoad != null) {
 					toLoad.addAll(res);
@@ -295,7 +343,13 @@ public class RoutingContext {
 					for(RouteDataObject ro : res){
 						if(ro != null) {
 							if(config.routeCalculationTime != 0) {
+								if (tileCache != null) {
+									// types are changed in place and shared with cached object
+									copyTypes(ro);
+								}
 								ro.processConditionalTags(config.routeCalculationTime);
+								// types could be changed, so lanes are decoded again on demand
+								ro.turnInfo = null;
 							}
 							if(config.router.acceptLine(ro)) {
 								if(excludeNotAllowed != null && !excludeNotAllowed.contains(ro.getId())) {
@@ -310,6 +364,8 @@ public class RoutingContext {
 							}
 						}
 					}
+					// index is sorted before tile is used, tiles could be read by other contexts
+					ts.sortIndex();
 				}
 			} catch (IOException e) {
 				throw new RuntimeException("Loading data exception", e);
@@ -322,6 +378,11 @@ public class RoutingContext {
 			NativeRouteSearchResult ns = nativeLib.loadRouteRegion(ts.subregion, loadObjectsInMemory);
 //			System.out.println(ts.subregion.shiftToData + " " + Arrays.toString(ns.objects));
 			ts.setLoadedNative(ns, this);
+			if (metricsListener != null) {
+				BinaryMapIndexReader reader = reverseMap.get(ts.subregion.routeReg);
+				metricsListener.tileLoaded(reader != null ? reader.getFile().getName() : "", ts.subregion.length,
+						false, System.nanoTime() - now);
+			}
 			timeToLoad += (System.nanoTime() - now);
 		}
 		loadedTiles++;
@@ -339,6 +400,18 @@ public class RoutingContext {
 		global.size += ts.tileStatistics.size;
 	}
 
+	private static void copyTypes(RouteDataObject ro) {
+		ro.types = ro.types.clone();
+		if (ro.pointTypes != null) {
+			ro.pointTypes = ro.pointTypes.clone();
+			for (int i = 0; i < ro.pointTypes.length; i++) {
+				if (ro.pointTypes[i] != null) {
+					ro.pointTypes[i] = ro.pointTypes[i].clone();
+				}
+			}
+		}
+	}
+
 	private List<RoutingSubregionTile> loadTileHeaders(final int x31, final int y31) {
 		final int zoomToLoad = 31 - config.ZOOM_TO_LOAD_TILES;
 		int tileX = x31 >> zoomToLoad;
@@ -418,6 +491,43 @@ public class RoutingContext {
 	}
 
 	public void loadTileData(int x31, int y31, int zoomAround, final List<RouteDataObject> toFillIn) {
+		TLongHashSet ts = new TLongHashSet(); 
+		long now = System.nanoTime();
+		loadTilesAround(x31, y31, zoomAround, ts);
+		TLongIterator it = ts.iterator();
+		TLongObjectHashMap<RouteDataObject> excludeDuplications = new TLongObjectHashMap<RouteDataObject>();
+		while(it.hasNext()){
+			getAllObjects(it.next(), toFillIn, excludeDuplications);
+		}
+		timeToFindInitialSegments += (System.nanoTime() - now);
+	}
+
+	/**
+	 * Loads the same tiles as {@link #loadTileData(int, int, int, List)} and collects their segment indexes
+	 * (indexes could be queried in parallel and stay valid after tiles are unloaded)
+	 * @return radius (31 tile units) around the point which is completely covered by loaded tiles
+	 */
+	public int loadSegmentIndexes(int x31, int y31, int zoomAround, List<SegmentGridIndex> toFillIn) {
+		TLongHashSet ts = new TLongHashSet();
+		long now = System.nanoTime();
+		int radius = loadTilesAround(x31, y31, zoomAround, ts);
+		TLongIterator it = ts.iterator();
+		while (it.hasNext()) {
+			List<RoutingSubregionTile> subregions = indexedSubregions.get(it.next());
+			if (subregions != null) {
+				for (RoutingSubregionTile rs : subregions) {
+					SegmentGridIndex index = rs.getSegmentIndex();
+					if (index != null) {
+						toFillIn.add(index);
+					}
+				}
+			}
+		}
+		timeToFindInitialSegments += (System.nanoTime() - now);
+		return radius;
+	}
+
+	private int loadTilesAround(int x31, int y31, int zoomAround, TLongHashSet ts) {
 		int t =  config.ZOOM_TO_LOAD_TILES - zoomAround;
 		int coordinatesShift = (1 << (31 - config.ZOOM_TO_LOAD_TILES));
 		if(t <= 0) {
@@ -426,22 +536,54 @@ public class RoutingContext {
 		} else {
 			t = 1 << t;
 		}
-		
-		TLongHashSet ts = new TLongHashSet(); 
-		long now = System.nanoTime();
 		for(int i = -t; i <= t; i++) {
 			for(int j = -t; j <= t; j++) {
 				ts.add(getRoutingTile(x31 +i*coordinatesShift, y31 + j*coordinatesShift, 0));		
 			}
 		}
-		TLongIterator it = ts.iterator();
+		return t * coordinatesShift;
+	}
+	
+	/**
+	 * Load all routing objects of tiles intersecting bounding box (tiles could be unloaded again if memory limit is reached)
+	 */
+	public void loadTileDataInBounds(int left31, int top31, int right31, int bottom31, final List<RouteDataObject> toFillIn) {
+		loadTileDataInBounds(left31, top31, right31, bottom31, toFillIn, 0);
+	}
+
+	/**
+	 * Load all routing objects of tiles intersecting bounding box while estimated size of loaded objects
+	 * is not larger than sizeLimit (0 - no limit). Loaded objects stay referenced by the list, so the limit
+	 * should not be larger than memory limit of the context.
+	 * @return false if loading was stopped by the limit (list contains objects of the part of the box)
+	 */
+	public boolean loadTileDataInBounds(int left31, int top31, int right31, int bottom31,
+			final List<RouteDataObject> toFillIn, long sizeLimit) {
+		int shift = 31 - config.ZOOM_TO_LOAD_TILES;
+		long now = System.nanoTime();
 		TLongObjectHashMap<RouteDataObject> excludeDuplications = new TLongObjectHashMap<RouteDataObject>();
-		while(it.hasNext()){
-			getAllObjects(it.next(), toFillIn, excludeDuplications);
+		long size = 0;
+		try {
+			for (int x = left31 >> shift; x <= right31 >> shift; x++) {
+				for (int y = top31 >> shift; y <= bottom31 >> shift; y++) {
+					int loaded = toFillIn.size();
+					getAllObjects(getRoutingTile(x << shift, y << shift, 0), toFillIn, excludeDuplications);
+					if (sizeLimit > 0) {
+						for (int i = loaded; i < toFillIn.size(); i++) {
+							size += getEstimatedSize(toFillIn.get(i));
+						}
+						if (size > sizeLimit) {
+							return false;
+						}
+					}
+				}
+			}
+			return true;
+		} finally {
+			timeToFindInitialSegments += (System.nanoTime() - now);
 		}
-		timeToFindInitialSegments += (System.nanoTime() - now);
 	}
-	
+
 	@SuppressWarnings("unused")
 	private long getRoutingTile(int x31, int y31, long memoryLimit) {
 		// long now = System.nanoTime();
@@ -604,29 +746,33 @@ public class RoutingContext {
 		
 		private NativeRouteSearchResult searchResult = null;
 		private int isLoaded = 0;
-		private TLongObjectMap<RouteSegment> routes = null;
+		// compact index of road points sorted by (x31 << 31) + y31 (instead of RouteSegment per point),
+		// segments are created only when they are requested
+		private RouteDataObject[] roads = null;
+		private long[] pointKeys = null;
+		private int[] pointRoads = null;
+		private short[] pointIndexes = null;
+		private int pointsSize = 0;
+		private int roadsSize = 0;
+		private boolean indexSorted = true;
 		private TLongHashSet excludedIds = null;
+		private SegmentGridIndex segmentIndex = null;
 
 		public RoutingSubregionTile(RouteSubregion subregion) {
 			this.subregion = subregion;
 		}
 		
-		public TLongObjectMap<RouteSegment> getRoutes() {
-			return routes;
+		public int getRoadsCount() {
+			return roadsSize;
 		}
 		
 		public void loadAllObjects(final List<RouteDataObject> toFillIn, RoutingContext ctx, TLongObjectHashMap<RouteDataObject> excludeDuplications) {
-			if(routes != null) {
-				Iterator<RouteSegment> it = routes.valueCollection().iterator();
-				while(it.hasNext()){
-					RouteSegment rs = it.next();
-					while(rs != null){
-						RouteDataObject ro = rs.road;
-						if (!excludeDuplications.contains(ro.id)) {
-							excludeDuplications.put(ro.id, ro);
-							toFillIn.add(ro);
-						}
-						rs = rs.next;
+			if(roads != null) {
+				for (int i = 0; i < roadsSize; i++) {
+					RouteDataObject ro = roads[i];
+					if (!excludeDuplications.contains(ro.id)) {
+						excludeDuplications.put(ro.id, ro);
+						toFillIn.add(ro);
 					}
 				}
 			} else if(searchResult != null) {
@@ -642,23 +788,55 @@ public class RoutingContext {
 			}
 		}
 		
+		SegmentGridIndex getSegmentIndex() {
+			if (segmentIndex == null) {
+				if (roads != null) {
+					segmentIndex = new SegmentGridIndex(roads, roadsSize);
+				} else if (searchResult != null && searchResult.objects != null) {
+					List<RouteDataObject> objects = new ArrayList<RouteDataObject>(searchResult.objects.length);
+					for (RouteDataObject ro : searchResult.objects) {
+						if (ro != null) {
+							objects.add(ro);
+						}
+					}
+					segmentIndex = new SegmentGridIndex(objects.toArray(new RouteDataObject[objects.size()]),
+							objects.size());
+				}
+			}
+			return segmentIndex;
+		}
+
 		private RouteSegment loadRouteSegment(int x31, int y31, RoutingContext ctx,
 				TLongObjectHashMap<RouteDataObject> excludeDuplications, RouteSegment original, List<RoutingSubregionTile> subregions, int subregionIndex) {
 			access++;
-			if (routes != null) {
+			if (roads != null) {
 				long l = (((long) x31) << 31) + (long) y31;
-				RouteSegment segment = routes.get(l);
-				while (segment != null) {
-					RouteDataObject ro = segment.road;
-					RouteDataObject toCmp = excludeDuplications.get(calcRouteId(ro, segment.getSegmentStart()));
+				int ind = firstPoint(l);
+				// keep the same order as points were added
+				RouteSegment last = null;
+				RouteSegment first = null;
+				for (; ind < pointsSize && pointKeys[ind] == l; ind++) {
+					RouteDataObject ro = roads[pointRoads[ind]];
+					int segmentStart = pointIndexes[ind];
+					RouteDataObject toCmp = excludeDuplications.get(calcRouteId(ro, segmentStart));
 					if (!isExcluded(ro.id, subregions, subregionIndex)
 							&& (toCmp == null || toCmp.getPointsLength() < ro.getPointsLength())) {
-						excludeDuplications.put(calcRouteId(ro, segment.getSegmentStart()), ro);
-						RouteSegment s = new RouteSegment(ro, segment.getSegmentStart());
-						s.next = original;
-						original = s;
+						excludeDuplications.put(calcRouteId(ro, segmentStart), ro);
+						RouteSegment s = new RouteSegment(ro, segmentStart);
+						if (first == null) {
+							first = s;
+						} else {
+							last.next = s;
+						}
+						last = s;
 					}
-					segment = segment.next;
+				}
+				// segments are prepended in reverse order to the original list
+				while (first != null) {
+					RouteSegment nxt = first.next;
+					first.next = original;
+					original = first;
+					first = nxt;
 				}
 			} else {
 				throw new UnsupportedOperationException("Not clear how it could be used with native");
@@ -666,6 +844,95 @@ public class RoutingContext {
 			return original;
 		}
 
+		private int firstPoint(long key) {
+			int lo = 0;
+			int hi = pointsSize;
+			while (lo < hi) {
+				int mid = (lo + hi) >>> 1;
+				if (pointKeys[mid] < key) {
+					lo = mid + 1;
+				} else {
+					hi = mid;
+				}
+			}
+			return lo;
+		}
+
+		private int comparePoints(int i, int j) {
+			if (pointKeys[i] != pointKeys[j]) {
+				return pointKeys[i] < pointKeys[j] ? -1 : 1;
+			}
+			if (pointRoads[i] != pointRoads[j]) {
+				return pointRoads[i] < pointRoads[j] ? -1 : 1;
+			}
+			return pointIndexes[i] - pointIndexes[j];
+		}
+
+		private void swapPoints(int i, int j) {
+			long k = pointKeys[i];
+			pointKeys[i] = pointKeys[j];
+			pointKeys[j] = k;
+			int r = pointRoads[i];
+			pointRoads[i] = pointRoads[j];
+			pointRoads[j] = r;
+			short p = pointIndexes[i];
+			pointIndexes[i] = pointIndexes[j];
+			pointIndexes[j] = p;
+		}
+
+		// called once by the loaders after all roads are added (index is only read after that)
+		void sortIndex() {
+			if (!indexSorted) {
+				sortIndex(0, pointsSize - 1);
+				indexSorted = true;
+			}
+		}
+
+		// quick sort of parallel arrays (order is unique : key, road, point)
+		private void sortIndex(int lo, int hi) {
+			while (hi - lo > 16) {
+				int mid = (lo + hi) >>> 1;
+				if (comparePoints(mid, lo) < 0) {
+					swapPoints(mid, lo);
+				}
+				if (comparePoints(hi, lo) < 0) {
+					swapPoints(hi, lo);
+				}
+				if (comparePoints(hi, mid) < 0) {
+					swapPoints(hi, mid);
+				}
+				// pivot is moved to hi - 1
+				swapPoints(mid, hi - 1);
+				int pivot = hi - 1;
+				int i = lo;
+				int j = hi - 1;
+				while (true) {
+					while (comparePoints(++i, pivot) < 0) {
+					}
+					while (comparePoints(--j, pivot) > 0) {
+					}
+					if (i >= j) {
+						break;
+					}
+					swapPoints(i, j);
+				}
+				swapPoints(i, hi - 1);
+				// recurse into smaller part
+				if (i - lo < hi - i) {
+					sortIndex(lo, i - 1);
+					lo = i + 1;
+				} else {
+					sortIndex(i + 1, hi);
+					hi = i - 1;
+				}
+			}
+			for (int i = lo + 1; i <= hi; i++) {
+				for (int j = i; j > lo && comparePoints(j, j - 1) < 0; j--) {
+					swapPoints(j, j - 1);
+				}
+			}
+		}
+
 		private static boolean isExcluded(long id, List<RoutingSubregionTile> subregions, int subregionIndex) {
 			for (int i = 0; i < subregionIndex; i++ ) {
 				if (subregions.get(i).excludedIds != null && subregions.get(i).excludedIds.contains(id)) {
@@ -697,33 +964,62 @@ public class RoutingContext {
 				searchResult.deleteNativeResult();
 			}
 			searchResult = null;
-			routes = null;
+			clearIndex();
 			excludedIds = null;
 		}
+
+		private void clearIndex() {
+			roads = null;
+			pointKeys = null;
+			pointRoads = null;
+			pointIndexes = null;
+			roadsSize = 0;
+			pointsSize = 0;
+			indexSorted = true;
+			segmentIndex = null;
+		}
+
+		private void initIndex() {
+			roads = new RouteDataObject[16];
+			pointKeys = new long[64];
+			pointRoads = new int[64];
+			pointIndexes = new short[64];
+			roadsSize = 0;
+			pointsSize = 0;
+			indexSorted = true;
+			segmentIndex = null;
+		}
 		
 		public void setLoadedNonNative(){
 			isLoaded = Math.abs(isLoaded) + 1;
-			routes = new TLongObjectHashMap<BinaryRoutePlanner.RouteSegment>();
+			initIndex();
 			tileStatistics = new TileStatistics();
 		}
 		
 		public void add(RouteDataObject ro) {
 			tileStatistics.addObject(ro);
-			for (int i = 0; i < ro.pointsX.length; i++) {
+			if (roadsSize == roads.length) {
+				roads = Arrays.copyOf(roads, roadsSize * 2);
+			}
+			int roadInd = roadsSize++;
+			roads[roadInd] = ro;
+			int len = ro.pointsX.length;
+			if (pointsSize + len > pointKeys.length) {
+				int ncap = Math.max(pointsSize + len, pointKeys.length * 3 / 2);
+				pointKeys = Arrays.copyOf(pointKeys, ncap);
+				pointRoads = Arrays.copyOf(pointRoads, ncap);
+				pointIndexes = Arrays.copyOf(pointIndexes, ncap);
+			}
+			for (int i = 0; i < len; i++) {
 				int x31 = ro.getPoint31XTile(i);
 				int y31 = ro.getPoint31YTile(i);
-				long l = (((long) x31) << 31) + (long) y31;
-				RouteSegment segment = new RouteSegment(ro, i);
-				if (!routes.containsKey(l)) {
-					routes.put(l, segment);
-				} else {
-					RouteSegment orig = routes.get(l);
-					while (orig.next != null) {
-						orig = orig.next;
-					}
-					orig.next = segment;
-				}
+				pointKeys[pointsSize] = (((long) x31) << 31) + (long) y31;
+				pointRoads[pointsSize] = roadInd;
+				pointIndexes[pointsSize] = (short) i;
+				pointsSize++;
 			}
+			indexSorted = false;
+			segmentIndex = null;
 		}
 		
 		public void setLoadedNative(NativeRouteSearchResult r, RoutingContext ctx) {
@@ -731,12 +1027,14 @@ public class RoutingContext {
 			tileStatistics = new TileStatistics();
 			if (r.objects != null) {
 				searchResult = null;
-				routes = new TLongObjectHashMap<BinaryRoutePlanner.RouteSegment>();
+				initIndex();
 				for (RouteDataObject ro : r.objects) {
 					if (ro != null && ctx.config.router.acceptLine(ro)) {
 						add(ro);
 					}
 				}
+				// index is searched by points, so it is sorted as by the java loader
+				sortIndex();
 			} else {
 				searchResult = r;
 				tileStatistics.size += 100;
@@ -744,6 +1042,9 @@ public class RoutingContext {
 		}
 	}
 	
+	// segment object and hash entry per point (included in getEstimatedSize) are replaced by compact tile index
+	private static final int POINT_SEGMENT_OVERHEAD = 32;
+
 	static int getEstimatedSize(RouteDataObject o) {
 		// calculate size
 		int sz = 0;
@@ -792,7 +1093,7 @@ public class RoutingContext {
 		public void addObject(RouteDataObject o) {
 			allRoutes++;
 			coordinates += o.getPointsLength() * 2;
-			size += getEstimatedSize(o);
+			size += getEstimatedSize(o) - POINT_SEGMENT_OVERHEAD * o.getPointsLength();
 		}
 
 		
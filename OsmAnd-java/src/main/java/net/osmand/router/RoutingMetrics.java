@@ -0,0 +1,252 @@
+package net.osmand.router;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Default {@link RoutingMetricsListener} which aggregates metrics of all requests into lock free histograms,
+ * so one instance could be shared by all routing contexts of the process and scraped periodically.
+ */
+public class RoutingMetrics implements RoutingMetricsListener {
+
+	private final Map<Phase, Histogram> phases = new EnumMap<Phase, Histogram>(Phase.class);
+	private final Histogram tileLoad = new Histogram();
+	private final Histogram visitedSegments = new Histogram();
+	private final Histogram queueSize = new Histogram();
+	private final Histogram loadedTiles = new Histogram();
+	private final Histogram memory = new Histogram();
+	private final AtomicLong cacheHits = new AtomicLong();
+	private final AtomicLong cacheMisses = new AtomicLong();
+	private final ConcurrentHashMap<String, AtomicLong> decodedBytes = new ConcurrentHashMap<String, AtomicLong>();
+
+	public RoutingMetrics() {
+		for (Phase p : Phase.values()) {
+			phases.put(p, new Histogram());
+		}
+	}
+
+	@Override
+	public void tileLoaded(String fileName, int bytes, boolean cacheHit, long nanos) {
+		tileLoad.add(nanos / 1000);
+		if (cacheHit) {
+			cacheHits.incrementAndGet();
+		} else {
+			cacheMisses.incrementAndGet();
+		}
+		if (bytes > 0) {
+			AtomicLong l = decodedBytes.get(fileName);
+			if (l == null) {
+				decodedBytes.putIfAbsent(fileName, new AtomicLong());
+				l = decodedBytes.get(fileName);
+			}
+			l.addAndGet(bytes);
+		}
+	}
+
+	@Override
+	public void phaseFinished(Phase phase, long nanos) {
+		phases.get(phase).add(nanos / 1000);
+	}
+
+	@Override
+	public void searchFinished(int visited, int maxQueueSize, int tiles, long estimatedMemory) {
+		visitedSegments.add(visited);
+		queueSize.add(maxQueueSize);
+		loadedTiles.add(tiles);
+		memory.add(estimatedMemory);
+	}
+
+	/**
+	 * @return histogram of phase time in microseconds
+	 */
+	public Histogram getPhase(Phase phase) {
+		return phases.get(phase);
+	}
+
+	/**
+	 * @return histogram of one tile loading time in microseconds
+	 */
+	public Histogram getTileLoad() {
+		return tileLoad;
+	}
+
+	public Histogram getVisitedSegments() {
+		return visitedSegments;
+	}
+
+	public Histogram getQueueSize() {
+		return queueSize;
+	}
+
+	public Histogram getLoadedTiles() {
+		return loadedTiles;
+	}
+
+	public Histogram getMemory() {
+		return memory;
+	}
+
+	public long getCacheHits() {
+		return cacheHits.get();
+	}
+
+	public long getCacheMisses() {
+		return cacheMisses.get();
+	}
+
+	public Map<String, Long> getDecodedBytes() {
+		Map<String, Long> m = new LinkedHashMap<String, Long>();
+		for (Map.Entry<String, AtomicLong> e : decodedBytes.entrySet()) {
+			m.put(e.getKey(), e.getValue().get());
+		}
+		return m;
+	}
+
+	public void reset() {
+		for (Histogram h : phases.values()) {
+			h.reset();
+		}
+		tileLoad.reset();
+		visitedSegments.reset();
+		queueSize.reset();
+		loadedTiles.reset();
+		memory.reset();
+		cacheHits.set(0);
+		cacheMisses.set(0);
+		decodedBytes.clear();
+	}
+
+	/**
+	 * Flat metrics (name -> value) with count, p50, p90, p99 and max of every histogram
+	 */
+	public Map<String, Number> getMetrics() {
+		Map<String, Number> m = new LinkedHashMap<String, Number>();
+		for (Phase p : Phase.values()) {
+			phases.get(p).fill(m, "phaseUs." + p.name().toLowerCase());
+		}
+		tileLoad.fill(m, "tileUs");
+		visitedSegments.fill(m, "visitedSegments");
+		queueSize.fill(m, "queueSize");
+		loadedTiles.fill(m, "loadedTiles");
+		memory.fill(m, "memoryBytes");
+		m.put("cacheHits", getCacheHits());
+		m.put("cacheMisses", getCacheMisses());
+		for (Map.Entry<String, Long> e : getDecodedBytes().entrySet()) {
+			m.put("decodedBytes." + e.getKey(), e.getValue());
+		}
+		return m;
+	}
+
+	@Override
+	public String toString() {
+		return "Routing metrics " + getMetrics();
+	}
+
+	/**
+	 * Histogram of non negative values with exponential buckets (4 buckets per power of 2, so relative error
+	 * of percentile is less than 25%). Adding value is one atomic increment of the bucket.
+	 */
+	public static class Histogram {
+		private static final int SUB_BUCKET_BITS = 2;
+		private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+		private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+		private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+		private final AtomicLong count = new AtomicLong();
+		private final AtomicLong sum = new AtomicLong();
+		private final AtomicLong max = new AtomicLong();
+
+		static int bucket(long value) {
+			if (value < SUB_BUCKETS) {
+				return (int) Math.max(0, value);
+			}
+			int exp = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+			int sub = (int) (value >>> exp) & (SUB_BUCKETS - 1);
+			return (exp + 1) * SUB_BUCKETS + sub;
+		}
+
+		// the biggest value of the bucket
+		static long bucketLimit(int bucket) {
+			if (bucket < SUB_BUCKETS) {
+				return bucket;
+			}
+			int exp = bucket / SUB_BUCKETS - 1;
+			long sub = bucket % SUB_BUCKETS;
+			long limit = ((SUB_BUCKETS + sub + 1) << exp) - 1;
+			return limit < 0 ? Long.MAX_VALUE : limit;
+		}
+
+		public void add(long value) {
+			buckets.incrementAndGet(bucket(value));
+			count.incrementAndGet();
+			sum.addAndGet(value);
+			long m = max.get();
+			while (value > m && !max.compareAndSet(m, value)) {
+				m = max.get();
+			}
+		}
+
+		public long getCount() {
+			return count.get();
+		}
+
+		public long getSum() {
+			return sum.get();
+		}
+
+		public long getMax() {
+			return max.get();
+		}
+
+		public double getMean() {
+			long c = count.get();
+			return c == 0 ? 0 : ((double) sum.get()) / c;
+		}
+
+		/**
+		 * @param percentile in range [0, 100]
+		 * @return upper limit of the bucket which contains percentile (not bigger than max)
+		 */
+		public long getPercentile(double percentile) {
+			long c = 0;
+			long[] values = new long[BUCKETS];
+			for (int i = 0; i < BUCKETS; i++) {
+				values[i] = buckets.get(i);
+				c += values[i];
+			}
+			if (c == 0) {
+				return 0;
+			}
+			long rank = (long) Math.ceil(percentile / 100 * c);
+			long passed = 0;
+			for (int i = 0; i < BUCKETS; i++) {
+				passed += values[i];
+				if (passed >= rank && values[i] > 0) {
+					return Math.min(bucketLimit(i), max.get());
+				}
+			}
+			return max.get();
+		}
+
+		public void reset() {
+			for (int i = 0; i < BUCKETS; i++) {
+				buckets.set(i, 0);
+			}
+			count.set(0);
+			sum.set(0);
+			max.set(0);
+		}
+
+		void fill(Map<String, Number> m, String prefix) {
+			m.put(prefix + ".count", getCount());
+			m.put(prefix + ".p50", getPercentile(50));
+			m.put(prefix + ".p90", getPercentile(90));
+			m.put(prefix + ".p99", getPercentile(99));
+			m.put(prefix + ".max", getMax());
+		}
+	}
+}
@@ -0,0 +1,32 @@
+package net.osmand.router;
+
+/**
+ * Receives metrics of routing requests (see {@link RoutingContext#metricsListener}).
+ * Methods are called from the routing threads, so implementation should be fast and thread-safe
+ * (see {@link RoutingMetrics} as default implementation).
+ */
+public interface RoutingMetricsListener {
+
+	enum Phase {
+		// snapping of point (or batch of points) to the roads
+		INITIAL_SEGMENTS,
+		// loading of tiles during search (included into SEARCH)
+		TILE_LOAD,
+		SEARCH,
+		PREPARATION
+	}
+
+	/**
+	 * @param decodedBytes size of the tile data read from the file (0 if tile is taken from the cache)
+	 */
+	void tileLoaded(String fileName, int decodedBytes, boolean cacheHit, long nanos);
+
+	void phaseFinished(Phase phase, long nanos);
+
+	/**
+	 * @param maxQueueSize maximum of direct and reverse queues size during search
+	 * @param estimatedMemory estimated size of loaded tiles and search structures in bytes
+	 */
+	void searchFinished(int visitedSegments, int maxQueueSize, int loadedTiles, long estimatedMemory);
+
+}
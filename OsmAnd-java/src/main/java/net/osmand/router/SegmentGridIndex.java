@@ -0,0 +1,181 @@
+package net.osmand.router;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import gnu.trove.list.array.TLongArrayList;
+import gnu.trove.map.hash.TLongObjectHashMap;
+import net.osmand.binary.RouteDataObject;
+import net.osmand.data.QuadPoint;
+import net.osmand.router.BinaryRoutePlanner.RouteSegmentPoint;
+import net.osmand.util.MapUtils;
+
+/**
+ * Packed grid of road segments of one routing tile (cells of 2^GRID_SHIFT 31-tile units, about 150 m on equator)
+ * to find the nearest segments of roads without scanning all points of the tile.
+ *
+ * Index is created with the roads of the loaded tile and is built on the first query, after that it is immutable
+ * (queries could run in parallel and index stays valid even if the tile is unloaded).
+ */
+class SegmentGridIndex {
+
+	static final int GRID_SHIFT = 13;
+	private static final int CELL_BITS = 31 - GRID_SHIFT;
+	private static final int SEGMENT_BITS = 63 - 2 * CELL_BITS;
+
+	private final RouteDataObject[] roads;
+	private volatile boolean built;
+	// sorted unique cell keys, segments of cell i are cellSegments[cellStart[i], cellStart[i + 1])
+	private long[] cells;
+	private int[] cellStart;
+	private int[] cellSegments;
+	// segment is [segmentPoints - 1, segmentPoints] of roads[segmentRoads]
+	private int[] segmentRoads;
+	private short[] segmentPoints;
+
+	SegmentGridIndex(RouteDataObject[] roads, int size) {
+		this.roads = Arrays.copyOf(roads, size);
+	}
+
+	private static long cellKey(int cellX, int cellY) {
+		return (((long) cellX) << CELL_BITS) + cellY;
+	}
+
+	private void build() {
+		if (built) {
+			return;
+		}
+		synchronized (this) {
+			if (built) {
+				return;
+			}
+			int segments = 0;
+			for (RouteDataObject r : roads) {
+				segments += Math.max(0, r.getPointsLength() - 1);
+			}
+			if (segments >= 1 << SEGMENT_BITS) {
+				throw new IllegalStateException("Too many segments in tile " + segments);
+			}
+			segmentRoads = new int[segments];
+			segmentPoints = new short[segments];
+			// entry is cell key and segment index packed in one long, so primitive sort groups segments by cell
+			TLongArrayList entries = new TLongArrayList(segments * 2);
+			int s = 0;
+			for (int r = 0; r < roads.length; r++) {
+				RouteDataObject road = roads[r];
+				for (int j = 1; j < road.getPointsLength(); j++) {
+					segmentRoads[s] = r;
+					segmentPoints[s] = (short) j;
+					addSegmentCells(entries, s, road.getPoint31XTile(j - 1), road.getPoint31YTile(j - 1),
+							road.getPoint31XTile(j), road.getPoint31YTile(j));
+					s++;
+				}
+			}
+			entries.sort();
+			TLongArrayList uniqueCells = new TLongArrayList();
+			int[] starts = new int[entries.size() + 1];
+			int[] cs = new int[entries.size()];
+			int size = 0;
+			long segmentMask = (1l << SEGMENT_BITS) - 1;
+			for (int i = 0; i < entries.size(); i++) {
+				long e = entries.getQuick(i);
+				if (i > 0 && e == entries.getQuick(i - 1)) {
+					continue;
+				}
+				long cell = e >>> SEGMENT_BITS;
+				if (uniqueCells.isEmpty() || uniqueCells.get(uniqueCells.size() - 1) != cell) {
+					starts[uniqueCells.size()] = size;
+					uniqueCells.add(cell);
+				}
+				cs[size++] = (int) (e & segmentMask);
+			}
+			starts[uniqueCells.size()] = size;
+			cells = uniqueCells.toArray();
+			cellStart = Arrays.copyOf(starts, cells.length + 1);
+			cellSegments = Arrays.copyOf(cs, size);
+			built = true;
+		}
+	}
+
+	// long segments are split by cell size, so only cells along the segment are used (not the whole bbox)
+	private static void addSegmentCells(TLongArrayList entries, int segment, int x1, int y1, int x2, int y2) {
+		int steps = Math.max(Math.abs((x2 >> GRID_SHIFT) - (x1 >> GRID_SHIFT)),
+				Math.abs((y2 >> GRID_SHIFT) - (y1 >> GRID_SHIFT))) + 1;
+		int px = x1;
+		int py = y1;
+		for (int k = 1; k <= steps; k++) {
+			int nx = (int) (x1 + (x2 - (long) x1) * k / steps);
+			int ny = (int) (y1 + (y2 - (long) y1) * k / steps);
+			for (int cx = Math.min(px, nx) >> GRID_SHIFT; cx <= Math.max(px, nx) >> GRID_SHIFT; cx++) {
+				for (int cy = Math.min(py, ny) >> GRID_SHIFT; cy <= Math.max(py, ny) >> GRID_SHIFT; cy++) {
+					entries.add((cellKey(cx, cy) << SEGMENT_BITS) + segment);
+				}
+			}
+			px = nx;
+			py = ny;
+		}
+	}
+
+	/**
+	 * @return the nearest segment of every road found by indexes (road objects are not copied)
+	 */
+	static List<RouteSegmentPoint> findNearestSegments(List<SegmentGridIndex> indexes, int x31, int y31, int radius31) {
+		TLongObjectHashMap<RouteSegmentPoint> nearest = new TLongObjectHashMap<RouteSegmentPoint>();
+		for (SegmentGridIndex index : indexes) {
+			index.findNearestSegments(x31, y31, radius31, nearest);
+		}
+		return new ArrayList<RouteSegmentPoint>(nearest.valueCollection());
+	}
+
+	/**
+	 * Finds the nearest segment of every road which has segments in the square [x31 - radius31, x31 + radius31]
+	 * (roads which don't cross the square are not candidates, while linear scan of the tiles checks all their roads).
+	 * Nearest segment is chosen among all segments of the road as linear scan does.
+	 * Result is merged into nearest (road id -> point), road object of the first index where road is found is used,
+	 * distSquare is square distance in meters, road objects are not copied.
+	 */
+	void findNearestSegments(int x31, int y31, int radius31, TLongObjectHashMap<RouteSegmentPoint> nearest) {
+		build();
+		int left = Math.max(0, x31 - radius31) >> GRID_SHIFT;
+		int right = (int) Math.min(Integer.MAX_VALUE, (long) x31 + radius31) >> GRID_SHIFT;
+		int top = Math.max(0, y31 - radius31) >> GRID_SHIFT;
+		int bottom = (int) Math.min(Integer.MAX_VALUE, (long) y31 + radius31) >> GRID_SHIFT;
+		for (int cx = left; cx <= right; cx++) {
+			// cells of one column are sequential in sorted keys
+			int ind = Arrays.binarySearch(cells, cellKey(cx, top));
+			if (ind < 0) {
+				ind = -(ind + 1);
+			}
+			long last = cellKey(cx, bottom);
+			for (; ind < cells.length && cells[ind] <= last; ind++) {
+				for (int i = cellStart[ind]; i < cellStart[ind + 1]; i++) {
+					visitSegment(cellSegments[i], x31, y31, nearest);
+				}
+			}
+		}
+	}
+
+	private void visitSegment(int segment, int x31, int y31, TLongObjectHashMap<RouteSegmentPoint> nearest) {
+		RouteDataObject road = roads[segmentRoads[segment]];
+		if (!nearest.containsKey(road.getId())) {
+			nearest.put(road.getId(), findNearestSegment(road, x31, y31));
+		}
+	}
+
+	// the same order as linear scan : the first segment wins with equal distance
+	private static RouteSegmentPoint findNearestSegment(RouteDataObject road, int x31, int y31) {
+		RouteSegmentPoint best = null;
+		for (int j = 1; j < road.getPointsLength(); j++) {
+			QuadPoint pr = MapUtils.getProjectionPoint31(x31, y31, road.getPoint31XTile(j - 1), road.getPoint31YTile(j - 1),
+					road.getPoint31XTile(j), road.getPoint31YTile(j));
+			double distSquare = MapUtils.squareDist31TileMetric((int) pr.x, (int) pr.y, x31, y31);
+			if (best == null || distSquare < best.distSquare) {
+				best = new RouteSegmentPoint(road, j, distSquare);
+				best.preciseX = (int) pr.x;
+				best.preciseY = (int) pr.y;
+			}
+		}
+		return best;
+	}
+}
@@ -0,0 +1,516 @@
+package net.osmand.router;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.hash.TIntObjectHashMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
+import gnu.trove.set.hash.TIntHashSet;
+
+import net.osmand.data.LatLon;
+import net.osmand.data.TransportRoute;
+import net.osmand.data.TransportSchedule;
+import net.osmand.data.TransportStop;
+import net.osmand.router.TransportRoutePlanner.TransportRouteResult;
+import net.osmand.router.TransportRoutePlanner.TransportRouteResultSegment;
+import net.osmand.router.TransportRoutePlanner.TransportRouteSegment;
+import net.osmand.router.TransportRoutePlanner.TransportRoutingContext;
+import net.osmand.util.MapUtils;
+
+/**
+ * Round based (RAPTOR like) alternative to {@link TransportRoutePlanner#buildRoute}.
+ * Routes loaded by context are flattened into route patterns of {@link TransportRaptorNetwork}
+ * (route stop = stop of the pattern), round k finds earliest arrival to route stops with k rides.
+ * So calculated routes are pareto optimal by arrival time and number of changes.
+ */
+public class TransportRaptorPlanner {
+
+	private static final double INF = Double.POSITIVE_INFINITY;
+
+	public List<TransportRouteResult> buildRoute(TransportRoutingContext ctx, LatLon start, LatLon end) throws IOException, InterruptedException {
+		ctx.startCalcTime = System.currentTimeMillis();
+		TransportRoutingConfiguration cfg = ctx.cfg;
+		TransportRaptorNetwork network = ctx.getRaptorNetwork();
+		List<TransportRouteSegment> startStops = ctx.getTransportStops(start);
+		if (startStops.size() == 0) {
+			return Collections.emptyList();
+		}
+		List<TransportRouteSegment> endStops = ctx.getTransportStops(end);
+		RaptorSearch search = new RaptorSearch(network, cfg.maxNumberOfChanges + 1);
+		for (TransportRouteSegment s : endStops) {
+			int rs = network.getRouteStop(s);
+			double walkDist = MapUtils.getDistance(s.getLocation(), end);
+			search.ensureCapacity();
+			if (rs != -1 && walkDist < cfg.walkRadius && walkDist < search.egressDist[rs]) {
+				search.egressDist[rs] = walkDist;
+			}
+		}
+		for (TransportRouteSegment s : startStops) {
+			int rs = network.getRouteStop(s);
+			if (rs != -1) {
+				double walkDist = MapUtils.getDistance(s.getLocation(), start);
+				search.relaxBoarding(1, rs, -1, walkDist, walkDist / cfg.walkSpeed);
+			}
+		}
+		initProgressBar(ctx, start, end);
+
+		double maxTravelTimeCmpToWalk = MapUtils.getDistance(start, end) / cfg.walkSpeed - cfg.changeTime / 2;
+		double boardLimit = Math.min(cfg.maxRouteTime, maxTravelTimeCmpToWalk);
+		double arrivalLimit = cfg.maxRouteTime + cfg.finishTimeSeconds;
+		double changeTime = cfg.getChangeTime() + cfg.getBoardingTime();
+		TIntArrayList marked = new TIntArrayList();
+		for (int k = 1; k <= search.rounds && search.queuedPatterns.size() > 0; k++) {
+			RaptorRound round = search.labels[k];
+			marked.clear();
+			for (int j = 0; j < search.queuedPatterns.size(); j++) {
+				if (ctx.calculationProgress != null && ctx.calculationProgress.isCancelled) {
+					return null;
+				}
+				int pattern = search.queuedPatterns.getQuick(j);
+				int from = search.queuedStart[pattern];
+				search.queuedStart[pattern] = -1;
+				ctx.visitedRoutesCount++;
+				scanPattern(ctx, search, round, pattern, from, arrivalLimit, marked);
+			}
+			search.queuedPatterns.clear();
+			for (int j = 0; j < marked.size(); j++) {
+				int rs = marked.getQuick(j);
+				double walkDist = search.egressDist[rs];
+				if (walkDist != INF) {
+					double time = round.arrival[rs] + walkDist / cfg.walkSpeed;
+					if (time < search.bestTarget) {
+						search.bestTarget = time;
+						search.targetRouteStop[k] = rs;
+						search.targetTime[k] = time;
+					}
+				}
+			}
+			if (k == search.rounds) {
+				break;
+			}
+			// transfers to next round
+			for (int j = 0; j < marked.size(); j++) {
+				if (ctx.calculationProgress != null && ctx.calculationProgress.isCancelled) {
+					return null;
+				}
+				int rs = marked.getQuick(j);
+				TransportRaptorNetwork.Transfers transfers = network.getTransfers(ctx, rs);
+				ctx.visitedStops++;
+				for (int t = 0; t < transfers.routeStops.length; t++) {
+					int nrs = transfers.routeStops[t];
+					if (network.getPattern(nrs) == network.getPattern(rs)) {
+						continue;
+					}
+					double walkDist = transfers.walkDist[t];
+					double ready = round.arrival[rs] + walkDist / cfg.walkSpeed + changeTime;
+					if (ready <= boardLimit && ready < search.bestTarget) {
+						search.relaxBoarding(k + 1, nrs, rs, walkDist, ready);
+					}
+				}
+			}
+			updateCalculationProgress(ctx, search, marked);
+		}
+		if (ctx.calculationProgress != null && ctx.calculationProgress.isCancelled) {
+			throw new InterruptedException("Route calculation interrupted");
+		}
+		return prepareResults(ctx, search, maxTravelTimeCmpToWalk);
+	}
+
+	private void scanPattern(TransportRoutingContext ctx, RaptorSearch search, RaptorRound round, int pattern, int from,
+			double arrivalLimit, TIntArrayList marked) {
+		TransportRaptorNetwork network = search.network;
+		TransportRoutingConfiguration cfg = ctx.cfg;
+		int first = network.getPatternFirstStop(pattern);
+		int length = network.getPatternLength(pattern);
+		int boardRs = -1;
+		double boardTime = 0;
+		int departure = -1;
+		for (int i = from; i < length; i++) {
+			int rs = first + i;
+			double time = INF;
+			if (boardRs != -1) {
+				time = boardTime + network.rsTime[rs] - network.rsTime[boardRs];
+				if (time > arrivalLimit || time >= search.bestTarget) {
+					break;
+				}
+				if (time < search.best[rs]) {
+					search.best[rs] = time;
+					round.arrival[rs] = time;
+					round.boardedAt[rs] = boardRs;
+					round.departure[rs] = departure;
+					marked.add(rs);
+				}
+			}
+			double ready = round.ready[rs];
+			if (ready == INF) {
+				continue;
+			}
+			if (cfg.useSchedule) {
+				int dep = network.getDeparture(pattern, i, cfg.scheduleTimeOfDay + (int) Math.ceil(ready / 10));
+				if (dep != -1 && dep <= cfg.scheduleTimeOfDay + cfg.scheduleMaxTime) {
+					double depTime = (dep - cfg.scheduleTimeOfDay) * 10;
+					if (depTime < time) {
+						boardRs = rs;
+						boardTime = depTime;
+						departure = dep;
+					}
+				}
+			} else if (ready < time) {
+				boardRs = rs;
+				boardTime = ready;
+			}
+		}
+	}
+
+	private List<TransportRouteResult> prepareResults(TransportRoutingContext ctx, RaptorSearch search,
+			double maxTravelTimeCmpToWalk) {
+		TransportRaptorNetwork network = search.network;
+		List<TransportRouteResult> lst = new ArrayList<TransportRouteResult>();
+		for (int k = 1; k <= search.rounds; k++) {
+			int rs = search.targetRouteStop[k];
+			if (rs == -1 || (search.targetTime[k] >= maxTravelTimeCmpToWalk && lst.size() > 0)) {
+				continue;
+			}
+			TransportRouteResult route = new TransportRouteResult(ctx);
+			route.routeTime = search.targetTime[k];
+			route.finishWalkDist = search.egressDist[rs];
+			for (int r = k; r >= 1; r--) {
+				RaptorRound round = search.labels[r];
+				int boardRs = round.boardedAt[rs];
+				int first = network.getPatternFirstStop(network.getPattern(rs));
+				TransportRouteResultSegment sg = new TransportRouteResultSegment();
+				sg.route = network.getRoute(network.getPattern(rs));
+				sg.start = boardRs - first;
+				sg.end = rs - first;
+				sg.walkDist = round.readyWalk[boardRs];
+				sg.walkTime = sg.walkDist / ctx.cfg.walkSpeed;
+				sg.depTime = round.departure[rs];
+				sg.travelDistApproximate = network.rsDist[rs] - network.rsDist[boardRs];
+				sg.travelTime = network.rsTime[rs] - network.rsTime[boardRs];
+				route.segments.add(0, sg);
+				rs = round.readyFrom[boardRs];
+			}
+			lst.add(route);
+		}
+		Collections.sort(lst, new Comparator<TransportRouteResult>() {
+			@Override
+			public int compare(TransportRouteResult o1, TransportRouteResult o2) {
+				return Double.compare(o1.routeTime, o2.routeTime);
+			}
+		});
+		System.out.println(String.format("Calculated (raptor) %.1f seconds, found %d results, visited %d routes / %d stops, loaded %d tiles (%d ms read, %d ms total), network %d routes / %d stops",
+				(System.currentTimeMillis() - ctx.startCalcTime) / 1000.0, lst.size(),
+				ctx.visitedRoutesCount, ctx.visitedStops,
+				ctx.quadTree.size(), ctx.readTime / (1000 * 1000), ctx.loadTime / (1000 * 1000),
+				network.getPatternsCount(), network.size()));
+		for (TransportRouteResult r : lst) {
+			System.out.println(r.toString());
+		}
+		return lst;
+	}
+
+	private void initProgressBar(TransportRoutingContext ctx, LatLon start, LatLon end) {
+		if (ctx.calculationProgress != null) {
+			ctx.calculationProgress.distanceFromEnd = 0;
+			ctx.calculationProgress.reverseSegmentQueueSize = 0;
+			ctx.calculationProgress.directSegmentQueueSize = 0;
+			float speed = (float) ctx.cfg.defaultTravelSpeed + 1; // assume
+			ctx.calculationProgress.totalEstimatedDistance = (float) (MapUtils.getDistance(start, end) / speed);
+		}
+	}
+
+	private void updateCalculationProgress(TransportRoutingContext ctx, RaptorSearch search, TIntArrayList marked) {
+		if (ctx.calculationProgress != null) {
+			ctx.calculationProgress.directSegmentQueueSize = search.queuedPatterns.size();
+			for (int j = 0; j < marked.size(); j++) {
+				ctx.calculationProgress.distanceFromBegin = (float) Math.max(search.best[marked.getQuick(j)],
+						ctx.calculationProgress.distanceFromBegin);
+			}
+		}
+	}
+
+	/**
+	 * Labels of one round: arrival to route stop (with boarded route stop and departure time of the trip)
+	 * and time when route stop is ready for boarding (with route stop of previous round it was reached from).
+	 */
+	private static class RaptorRound {
+		double[] arrival = new double[0];
+		int[] boardedAt = new int[0];
+		int[] departure = new int[0];
+		double[] ready = new double[0];
+		int[] readyFrom = new int[0];
+		double[] readyWalk = new double[0];
+
+		void ensureCapacity(int size) {
+			if (arrival.length < size) {
+				int l = arrival.length;
+				int nl = Math.max(size, l * 3 / 2 + 16);
+				arrival = Arrays.copyOf(arrival, nl);
+				Arrays.fill(arrival, l, nl, INF);
+				ready = Arrays.copyOf(ready, nl);
+				Arrays.fill(ready, l, nl, INF);
+				boardedAt = Arrays.copyOf(boardedAt, nl);
+				departure = Arrays.copyOf(departure, nl);
+				readyFrom = Arrays.copyOf(readyFrom, nl);
+				readyWalk = Arrays.copyOf(readyWalk, nl);
+			}
+		}
+	}
+
+	private static class RaptorSearch {
+		final TransportRaptorNetwork network;
+		final int rounds;
+		final RaptorRound[] labels;
+		final int[] targetRouteStop;
+		final double[] targetTime;
+		double bestTarget = INF;
+		double[] best = new double[0];
+		double[] egressDist = new double[0];
+		int[] queuedStart = new int[0];
+		TIntArrayList queuedPatterns = new TIntArrayList();
+
+		RaptorSearch(TransportRaptorNetwork network, int rounds) {
+			this.network = network;
+			this.rounds = rounds;
+			labels = new RaptorRound[rounds + 1];
+			for (int k = 1; k <= rounds; k++) {
+				labels[k] = new RaptorRound();
+			}
+			targetRouteStop = new int[rounds + 1];
+			Arrays.fill(targetRouteStop, -1);
+			targetTime = new double[rounds + 1];
+		}
+
+		void ensureCapacity() {
+			int size = network.size();
+			if (best.length < size) {
+				int l = best.length;
+				int nl = Math.max(size, l * 3 / 2 + 16);
+				best = Arrays.copyOf(best, nl);
+				Arrays.fill(best, l, nl, INF);
+				egressDist = Arrays.copyOf(egressDist, nl);
+				Arrays.fill(egressDist, l, nl, INF);
+				for (int k = 1; k <= rounds; k++) {
+					labels[k].ensureCapacity(nl);
+				}
+			}
+			int patterns = network.getPatternsCount();
+			if (queuedStart.length < patterns) {
+				int l = queuedStart.length;
+				queuedStart = Arrays.copyOf(queuedStart, Math.max(patterns, l * 3 / 2 + 16));
+				Arrays.fill(queuedStart, l, queuedStart.length, -1);
+			}
+		}
+
+		void relaxBoarding(int k, int rs, int fromRs, double walkDist, double ready) {
+			ensureCapacity();
+			RaptorRound round = labels[k];
+			if (ready < round.ready[rs]) {
+				round.ready[rs] = ready;
+				round.readyFrom[rs] = fromRs;
+				round.readyWalk[rs] = walkDist;
+				int pattern = network.getPattern(rs);
+				int ind = rs - network.getPatternFirstStop(pattern);
+				if (queuedStart[pattern] == -1) {
+					queuedPatterns.add(pattern);
+					queuedStart[pattern] = ind;
+				} else if (queuedStart[pattern] > ind) {
+					queuedStart[pattern] = ind;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Flattened routes: every route is a pattern of consecutive route stops with cumulative travel time
+	 * (seconds, schedule average intervals or stop time and speed by route type) and distance,
+	 * schedule trips are stored as sorted departures from the first stop (10 seconds based).
+	 * Network is growing while context loads new tiles, walking transfers (of transport stops caches if they are
+	 * available, see {@link TransportRoutingContext#getTransferStops}) are cached per route stop.
+	 */
+	public static class TransportRaptorNetwork {
+
+		private final TransportRoutingConfiguration cfg;
+		private final TLongObjectHashMap<Integer> routePatterns = new TLongObjectHashMap<Integer>();
+		private final List<TransportRoute> routes = new ArrayList<TransportRoute>();
+		private final TIntArrayList patternFirstStop = new TIntArrayList();
+		private final TIntArrayList patternLength = new TIntArrayList();
+		private final TIntArrayList patternFirstTrip = new TIntArrayList();
+		private final TIntArrayList patternTrips = new TIntArrayList();
+		private final TIntArrayList tripDepartures = new TIntArrayList();
+		private final TIntObjectHashMap<Transfers> transfers = new TIntObjectHashMap<Transfers>();
+
+		private int size;
+		int[] rsPattern = new int[0];
+		double[] rsTime = new double[0];
+		double[] rsDist = new double[0];
+
+		static class Transfers {
+			final int[] routeStops;
+			final double[] walkDist;
+
+			Transfers(int[] routeStops, double[] walkDist) {
+				this.routeStops = routeStops;
+				this.walkDist = walkDist;
+			}
+		}
+
+		public TransportRaptorNetwork(TransportRoutingConfiguration cfg) {
+			this.cfg = cfg;
+		}
+
+		public int size() {
+			return size;
+		}
+
+		public int getPatternsCount() {
+			return routes.size();
+		}
+
+		public TransportRoute getRoute(int pattern) {
+			return routes.get(pattern);
+		}
+
+		public int getPattern(int routeStop) {
+			return rsPattern[routeStop];
+		}
+
+		public int getPatternFirstStop(int pattern) {
+			return patternFirstStop.getQuick(pattern);
+		}
+
+		public int getPatternLength(int pattern) {
+			return patternLength.getQuick(pattern);
+		}
+
+		public TransportStop getStop(int routeStop) {
+			int pattern = rsPattern[routeStop];
+			return routes.get(pattern).getForwardStops().get(routeStop - getPatternFirstStop(pattern));
+		}
+
+		public LatLon getLocation(int routeStop) {
+			return getStop(routeStop).getLocation();
+		}
+
+		/**
+		 * @return route stop of segment or -1 if route can't be used
+		 */
+		public int getRouteStop(TransportRouteSegment segment) {
+			int pattern = registerRoute(segment.road);
+			if (segment.segStart >= getPatternLength(pattern)) {
+				return -1;
+			}
+			return getPatternFirstStop(pattern) + segment.segStart;
+		}
+
+		/**
+		 * @return first departure (10 seconds based) from stop of pattern not earlier than time or -1
+		 */
+		public int getDeparture(int pattern, int stopIndex, int time) {
+			int rs = getPatternFirstStop(pattern) + stopIndex;
+			int offset = (int) Math.round(rsTime[rs] / 10);
+			int l = patternFirstTrip.getQuick(pattern);
+			int r = l + patternTrips.getQuick(pattern);
+			int end = r;
+			while (l < r) {
+				int m = (l + r) >>> 1;
+				if (tripDepartures.getQuick(m) + offset < time) {
+					l = m + 1;
+				} else {
+					r = m;
+				}
+			}
+			return l < end ? tripDepartures.getQuick(l) + offset : -1;
+		}
+
+		Transfers getTransfers(TransportRoutingContext ctx, int routeStop) throws IOException {
+			Transfers tr = transfers.get(routeStop);
+			if (tr == null) {
+				List<TransportRouteSegment> sgms = ctx.getTransferStops(getStop(routeStop),
+						new ArrayList<TransportRouteSegment>());
+				LatLon loc = getLocation(routeStop);
+				TIntHashSet added = new TIntHashSet();
+				TIntArrayList routeStops = new TIntArrayList(sgms.size());
+				double[] walkDist = new double[sgms.size()];
+				for (TransportRouteSegment sgm : sgms) {
+					int rs = getRouteStop(sgm);
+					// schedule segments are loaded per trip
+					if (rs != -1 && added.add(rs)) {
+						walkDist[routeStops.size()] = MapUtils.getDistance(sgm.getLocation(), loc);
+						routeStops.add(rs);
+					}
+				}
+				tr = new Transfers(routeStops.toArray(), Arrays.copyOf(walkDist, routeStops.size()));
+				transfers.put(routeStop, tr);
+			}
+			return tr;
+		}
+
+		private int registerRoute(TransportRoute route) {
+			Integer p = routePatterns.get(route.getId());
+			if (p != null) {
+				return p;
+			}
+			int pattern = routes.size();
+			routes.add(route);
+			routePatterns.put(route.getId(), pattern);
+			List<TransportStop> stops = route.getForwardStops();
+			TransportSchedule schedule = route.getSchedule();
+			float speed = cfg.getSpeedByRouteType(route.getType());
+			int length = stops.size();
+			if (cfg.useSchedule) {
+				length = schedule == null ? 0 : Math.min(length, schedule.avgStopIntervals.size() + 1);
+			} else if (speed == 0) {
+				length = 0;
+			}
+			patternFirstStop.add(size);
+			patternLength.add(length);
+			patternFirstTrip.add(tripDepartures.size());
+			if (cfg.useSchedule && length > 0) {
+				int t = 0;
+				TIntArrayList ti = schedule.tripIntervals;
+				for (int i = 0; i < ti.size(); i++) {
+					t += ti.getQuick(i);
+					tripDepartures.add(t);
+				}
+				patternTrips.add(ti.size());
+			} else {
+				patternTrips.add(0);
+			}
+			ensureCapacity(size + length);
+			double time = 0;
+			double dist = 0;
+			for (int i = 0; i < length; i++) {
+				TransportStop st = stops.get(i);
+				if (i > 0) {
+					double d = MapUtils.getDistance(stops.get(i - 1).getLocation(), st.getLocation());
+					dist += d;
+					if (cfg.useSchedule) {
+						time += schedule.avgStopIntervals.getQuick(i - 1) * 10;
+					} else {
+						time += cfg.stopTime + d / speed;
+					}
+				}
+				rsPattern[size] = pattern;
+				rsTime[size] = time;
+				rsDist[size] = dist;
+				size++;
+			}
+			return pattern;
+		}
+
+		private void ensureCapacity(int sz) {
+			if (rsPattern.length < sz) {
+				int nl = Math.max(sz, rsPattern.length * 3 / 2 + 64);
+				rsPattern = Arrays.copyOf(rsPattern, nl);
+				rsTime = Arrays.copyOf(rsTime, nl);
+				rsDist = Arrays.copyOf(rsDist, nl);
+			}
+		}
+	}
+}
@@ -5,20 +5,28 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.PriorityQueue;
 
+import org.apache.commons.logging.Log;
+
 import gnu.trove.iterator.TIntIterator;
+import gnu.trove.iterator.TLongIterator;
 import gnu.trove.list.array.TIntArrayList;
 import gnu.trove.map.hash.TIntObjectHashMap;
 import gnu.trove.map.hash.TLongObjectHashMap;
+import gnu.trove.set.hash.TLongHashSet;
 
 import net.osmand.NativeLibrary;
+import net.osmand.PlatformUtil;
 import net.osmand.binary.BinaryMapIndexReader;
 import net.osmand.binary.BinaryMapIndexReader.SearchRequest;
+import net.osmand.binary.CachedTransportStopsIndex;
+import net.osmand.binary.CachedTransportStopsIndexes;
 import net.osmand.data.LatLon;
 import net.osmand.data.QuadRect;
 import net.osmand.data.TransportRoute;
@@ -27,15 +35,21 @@ import net.osmand.data.TransportStop;
 import net.osmand.data.TransportStopExit;
 import net.osmand.osm.edit.Node;
 import net.osmand.osm.edit.Way;
+import net.osmand.router.TransportRaptorPlanner.TransportRaptorNetwork;
 import net.osmand.util.MapUtils;
 
 public class TransportRoutePlanner {
+
+	private static final Log log = PlatformUtil.getLog(TransportRoutePlanner.class);
 	
 	private static final boolean MEASURE_TIME = false;
 	public static final long GEOMETRY_WAY_ID = -1;
 	public static final long STOPS_WAY_ID = -2;
 
 	public List<TransportRouteResult> buildRoute(TransportRoutingContext ctx, LatLon start, LatLon end) throws IOException, InterruptedException {
+		if (ctx.cfg.useRaptor) {
+			return new TransportRaptorPlanner().buildRoute(ctx, start, end);
+		}
 		ctx.startCalcTime = System.currentTimeMillis();
 		List<TransportRouteSegment> startStops = ctx.getTransportStops(start);
 		List<TransportRouteSegment> endStops = ctx.getTransportStops(end);
@@ -113,7 +127,7 @@ public class TransportRoutePlanner {
 					break;
 				}
 				sgms.clear();
-				sgms = ctx.getTransportStops(stop.x31, stop.y31, true, sgms);
+				sgms = ctx.getTransferStops(stop, sgms);
 				ctx.visitedStops++;
 				for (TransportRouteSegment sgm : sgms) {
 					if (ctx.calculationProgress != null && ctx.calculationProgress.isCancelled) {
@@ -720,14 +734,18 @@ public class TransportRoutePlanner {
 		
 		private final int walkRadiusIn31;
 		private final int walkChangeRadiusIn31;
+		private TransportRaptorNetwork raptorNetwork;
+		private CachedTransportStopsIndexes stopsIndexes;
+		private final Map<BinaryMapIndexReader, CachedTransportStopsIndex> cachedStopsIndexes =
+				new HashMap<BinaryMapIndexReader, CachedTransportStopsIndex>();
 		
 		
 		
 		
 		public TransportRoutingContext(TransportRoutingConfiguration cfg, NativeLibrary library, BinaryMapIndexReader... readers) {
 			this.cfg = cfg;
-			walkRadiusIn31 = (int) (cfg.walkRadius / MapUtils.getTileDistanceWidth(31));
-			walkChangeRadiusIn31 = (int) (cfg.walkChangeRadius / MapUtils.getTileDistanceWidth(31));
+			walkRadiusIn31 = CachedTransportStopsIndex.getRadius31(cfg.walkRadius);
+			walkChangeRadiusIn31 = CachedTransportStopsIndex.getRadius31(cfg.walkChangeRadius);
 			quadTree = new TLongObjectHashMap<List<TransportRouteSegment>>();
 			this.library = library;
 			for (BinaryMapIndexReader r : readers) {
@@ -735,6 +753,95 @@ public class TransportRoutePlanner {
 			}
 		}
 		
+		/**
+		 * Stops of tiles and transfers between stops will be read from transport stops caches which are ready
+		 * (missing caches are built in background), caches should be released by {@link #releaseCachedStopsIndexes()}
+		 */
+		public void setCachedStopsIndexes(CachedTransportStopsIndexes indexes) {
+			releaseCachedStopsIndexes();
+			stopsIndexes = indexes;
+			for (BinaryMapIndexReader r : routeMap.keySet()) {
+				CachedTransportStopsIndex index = indexes.acquire(r, cfg.walkChangeRadius);
+				if (index != null) {
+					cachedStopsIndexes.put(r, index);
+				}
+			}
+		}
+
+		public void releaseCachedStopsIndexes() {
+			for (CachedTransportStopsIndex index : cachedStopsIndexes.values()) {
+				stopsIndexes.release(index);
+			}
+			cachedStopsIndexes.clear();
+		}
+
+		private boolean isTransfersCached() {
+			if (cachedStopsIndexes.isEmpty()) {
+				return false;
+			}
+			for (BinaryMapIndexReader r : routeMap.keySet()) {
+				if (!r.getTransportIndexes().isEmpty() && !cachedStopsIndexes.containsKey(r)) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * Segments of routes to change from stop : by transfers of transport stops caches when all files are cached
+		 * (transfers between files are found only for stops present in both files), otherwise segments of stops
+		 * within walk change radius.
+		 */
+		public List<TransportRouteSegment> getTransferStops(TransportStop stop, List<TransportRouteSegment> res) throws IOException {
+			if (!isTransfersCached()) {
+				return getTransportStops(stop.x31, stop.y31, true, res);
+			}
+			long nanoTime = System.nanoTime();
+			TLongHashSet stops = new TLongHashSet();
+			TLongHashSet tiles = new TLongHashSet();
+			TIntArrayList transfers = new TIntArrayList();
+			TIntArrayList distances = new TIntArrayList();
+			int pz = 31 - cfg.ZOOM_TO_LOAD_TILES;
+			for (CachedTransportStopsIndex index : cachedStopsIndexes.values()) {
+				int ind = index.findStop(stop.getId());
+				if (ind == -1) {
+					continue;
+				}
+				transfers.clear();
+				transfers.add(ind);
+				index.getTransfers(ind, transfers, distances);
+				for (int i = 0; i < transfers.size(); i++) {
+					int t = transfers.getQuick(i);
+					stops.add(index.getStopId(t));
+					tiles.add(getTileId(index.getStopX31(t) >> pz, index.getStopY31(t) >> pz));
+				}
+			}
+			loadTime += System.nanoTime() - nanoTime;
+			if (stops.isEmpty()) {
+				// stop is not in the caches
+				return getTransportStops(stop.x31, stop.y31, true, res);
+			}
+			TLongIterator it = tiles.iterator();
+			while (it.hasNext()) {
+				for (TransportRouteSegment r : getTile(it.next())) {
+					if (stops.contains(r.getStop(r.segStart).getId())) {
+						loadedWays++;
+						res.add(r);
+					} else {
+						wrongLoadedWays++;
+					}
+				}
+			}
+			return res;
+		}
+
+		public TransportRaptorNetwork getRaptorNetwork() {
+			if (raptorNetwork == null) {
+				raptorNetwork = new TransportRaptorNetwork(cfg);
+			}
+			return raptorNetwork;
+		}
+		
 		public List<TransportRouteSegment> getTransportStops(LatLon loc) throws IOException {
 			int y = MapUtils.get31TileNumberY(loc.getLatitude());
 			int x = MapUtils.get31TileNumberX(loc.getLongitude());
@@ -754,15 +861,11 @@ public class TransportRoutePlanner {
 			int by = (sy + d ) >> (31 - cfg.ZOOM_TO_LOAD_TILES);
 			for(int x = lx; x <= rx; x++) {
 				for(int y = ty; y <= by; y++) {
-					long tileId = (((long)x) << (cfg.ZOOM_TO_LOAD_TILES + 1)) + y;
-					List<TransportRouteSegment> list = quadTree.get(tileId);
-					if(list == null) {
-						list = loadTile(x, y);
-						quadTree.put(tileId, list);
-					}
+					List<TransportRouteSegment> list = getTile(getTileId(x, y));
 					for(TransportRouteSegment r : list) {
 						TransportStop st = r.getStop(r.segStart);
-						if (Math.abs(st.x31 - sx) > walkRadiusIn31 || Math.abs(st.y31 - sy) > walkRadiusIn31) {
+						// same rule as transfers of transport stops caches
+						if (!CachedTransportStopsIndex.isWithinRadius(sx, sy, st.x31, st.y31, d)) {
 							wrongLoadedWays++;
 						} else {
 							loadedWays++;
@@ -776,6 +879,21 @@ public class TransportRoutePlanner {
 		}
 
 
+		private long getTileId(int x, int y) {
+			return (((long) x) << (cfg.ZOOM_TO_LOAD_TILES + 1)) + y;
+		}
+
+		private List<TransportRouteSegment> getTile(long tileId) throws IOException {
+			List<TransportRouteSegment> list = quadTree.get(tileId);
+			if (list == null) {
+				int x = (int) (tileId >> (cfg.ZOOM_TO_LOAD_TILES + 1));
+				int y = (int) (tileId - (((long) x) << (cfg.ZOOM_TO_LOAD_TILES + 1)));
+				list = loadTile(x, y);
+				quadTree.put(tileId, list);
+			}
+			return list;
+		}
+
 		private List<TransportRouteSegment> loadTile(int x, int y) throws IOException {
 			long nanoTime = System.nanoTime();
 			List<TransportRouteSegment> lst = new ArrayList<TransportRouteSegment>();
@@ -787,8 +905,15 @@ public class TransportRoutePlanner {
 			TLongObjectHashMap<TransportStop> loadedTransportStops = new TLongObjectHashMap<TransportStop>();
 			TIntObjectHashMap<TransportRoute> localFileRoutes = new TIntObjectHashMap<>();
 			for (BinaryMapIndexReader r : routeMap.keySet()) {
-				sr.clearSearchResults();
-				List<TransportStop> stops = r.searchTransportIndex(sr);
+				List<TransportStop> stops;
+				CachedTransportStopsIndex cachedIndex = cachedStopsIndexes.get(r);
+				if (cachedIndex != null) {
+					stops = cachedIndex.searchTransportStops(x << pz, (x + 1) << pz, y << pz, (y + 1) << pz,
+							new ArrayList<TransportStop>());
+				} else {
+					sr.clearSearchResults();
+					stops = r.searchTransportIndex(sr);
+				}
 
 				localFileRoutes.clear();
 				mergeTransportStops(r, loadedTransportStops, stops, localFileRoutes, routeMap.get(r));
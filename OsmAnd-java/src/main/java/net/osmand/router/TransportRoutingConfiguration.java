@@ -24,6 +24,9 @@ public class TransportRoutingConfiguration {
 
 	public int maxRouteTime = 60 * 60 * 10; // 10 hours
 
+	// round based search (TransportRaptorPlanner) instead of segments queue
+	public boolean useRaptor;
+
 	public GeneralRouter router;
 	// cache values from router for fast access
 	public float walkSpeed = (float) (3.6 / 3.6); // m/s
@@ -88,6 +91,7 @@ public class TransportRoutingConfiguration {
 			finishTimeSeconds =  router.getIntAttribute("delayForAlternativesRoutes", finishTimeSeconds);
 			String mn = params.get("max_num_changes");
 			maxNumberOfChanges = (int) RoutingConfiguration.parseSilentFloat(mn, maxNumberOfChanges);
+			useRaptor = Boolean.parseBoolean(params.get("use_raptor"));
 			
 			walkSpeed = router.getFloatAttribute("minDefaultSpeed", this.walkSpeed * 3.6f) / 3.6f;
 			defaultTravelSpeed = router.getFloatAttribute("maxDefaultSpeed", this.defaultTravelSpeed * 3.6f) / 3.6f;
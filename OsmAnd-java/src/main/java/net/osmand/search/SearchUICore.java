@@ -35,12 +35,18 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.ListIterator;
+import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -56,6 +62,8 @@ public class SearchUICore {
 
 	private ThreadPoolExecutor singleThreadedExecutor;
 	private LinkedBlockingQueue<Runnable> taskQueue;
+	// apis run sequentially by search thread if not set
+	private ExecutorService parallelSearchExecutor;
 	private Runnable onSearchStart = null;
 	private Runnable onResultsComplete = null;
 	private AtomicInteger requestNumber = new AtomicInteger();
@@ -85,19 +93,42 @@ public class SearchUICore {
 		return debugMode;
 	}
 
+	public ExecutorService getParallelSearchExecutor() {
+		return parallelSearchExecutor;
+	}
+
+	/**
+	 * @param parallelSearchExecutor bounded pool to run independent apis of the search in parallel
+	 * (see {@link SearchCoreFactory.SearchBaseAPI#isParallelSearchAvailable(SearchPhrase)}), null to run apis sequentially.
+	 * Results are still published in order of api priority.
+	 */
+	public void setParallelSearchExecutor(ExecutorService parallelSearchExecutor) {
+		this.parallelSearchExecutor = parallelSearchExecutor;
+	}
+
 	public static class SearchResultCollection {
 		private List<SearchResult> searchResults;
+		// results after total limit of the phrase (not sorted), they are resorted with next added results
+		private List<SearchResult> searchResultsOverLimit;
 		private SearchPhrase phrase;
 		private static final int DEPTH_TO_CHECK_SAME_SEARCH_RESULTS = 20;
 
 		public SearchResultCollection(SearchPhrase phrase) {
 			searchResults = new ArrayList<>();
+			searchResultsOverLimit = new ArrayList<>();
 			this.phrase = phrase;
 		}
 
+		/**
+		 * Results over total limit of both collections are kept in the combined collection : with resort they are
+		 * merged with all results at once, otherwise results of collection are only appended and results over limit
+		 * are merged by the next resort (so they are not lost when intermediate results are combined without resort).
+		 */
 		public SearchResultCollection combineWithCollection(SearchResultCollection collection, boolean resort, boolean removeDuplicates) {
 			SearchResultCollection src = new SearchResultCollection(phrase);
 			src.addSearchResults(searchResults, false, false);
+			src.searchResultsOverLimit.addAll(searchResultsOverLimit);
+			src.searchResultsOverLimit.addAll(collection.searchResultsOverLimit);
 			src.addSearchResults(collection.searchResults, resort, removeDuplicates);
 			return src;
 		}
@@ -107,11 +138,7 @@ public class SearchUICore {
 				LOG.info("Add search results resortAll=" + (resortAll ? "true" : "false") + " removeDuplicates=" + (removeDuplicates ? "true" : "false") + " Results=" + sr.size() + " Current results=" + this.searchResults.size());
 			}
 			if (resortAll) {
-				this.searchResults.addAll(sr);
-				sortSearchResults();
-				if (removeDuplicates) {
-					filterSearchDuplicateResults();
-				}
+				resortSearchResults(sr, removeDuplicates);
 			} else {
 				if (!removeDuplicates) {
 					this.searchResults.addAll(sr);
@@ -166,6 +193,108 @@ public class SearchUICore {
 			return this;
 		}
 
+		/**
+		 * Sorts current and added results and keeps only first results (total limit of the phrase settings),
+		 * first results are selected by bounded heap, so whole list isn't sorted for big searches.
+		 * Results of the same object (see {@link DuplicateKey}) are removed by hash before sorting,
+		 * other duplicates are removed the same way as {@link #filterSearchDuplicateResults()}.
+		 */
+		private void resortSearchResults(List<SearchResult> sr, boolean removeDuplicates) {
+			List<SearchResult> all = new ArrayList<>(searchResults.size() + searchResultsOverLimit.size() + sr.size());
+			all.addAll(searchResults);
+			all.addAll(searchResultsOverLimit);
+			all.addAll(sr);
+			SearchResultComparator cmp = new SearchResultComparator(phrase);
+			if (removeDuplicates) {
+				all = removeSameObjects(all, cmp);
+			}
+			int limit = phrase == null ? -1 : phrase.getSettings().getTotalLimit();
+			int selected = limit;
+			while (limit > 0 && all.size() > selected) {
+				List<SearchResult> overLimit = new ArrayList<>(all.size() - selected);
+				List<SearchResult> top = selectFirstResults(all, selected, cmp, overLimit);
+				if (removeDuplicates) {
+					// duplicates are checked by previous results only, so first results are filtered the same way
+					filterSearchDuplicateResults(top);
+				}
+				if (top.size() >= limit) {
+					overLimit.addAll(top.subList(limit, top.size()));
+					searchResults = new ArrayList<>(top.subList(0, limit));
+					searchResultsOverLimit = overLimit;
+					return;
+				}
+				// removed duplicates are replaced by next results
+				selected *= 2;
+			}
+			Collections.sort(all, cmp);
+			if (removeDuplicates) {
+				filterSearchDuplicateResults(all);
+			}
+			if (limit > 0 && all.size() > limit) {
+				searchResults = new ArrayList<>(all.subList(0, limit));
+				searchResultsOverLimit = new ArrayList<>(all.subList(limit, all.size()));
+			} else {
+				searchResults = all;
+				searchResultsOverLimit = new ArrayList<>();
+			}
+		}
+
+		/**
+		 * @return first limit results in sorted order (same as prefix of stable sort), other results are added to overLimit
+		 */
+		private static List<SearchResult> selectFirstResults(final List<SearchResult> all, int limit,
+															  final SearchResultComparator cmp, List<SearchResult> overLimit) {
+			Comparator<Integer> order = new Comparator<Integer>() {
+				@Override
+				public int compare(Integer i1, Integer i2) {
+					int c = cmp.compare(all.get(i1), all.get(i2));
+					return c != 0 ? c : Algorithms.compare(i1, i2);
+				}
+			};
+			// head of the queue is the last of the first results
+			PriorityQueue<Integer> queue = new PriorityQueue<>(limit + 1, Collections.reverseOrder(order));
+			for (int i = 0; i < all.size(); i++) {
+				if (queue.size() < limit) {
+					queue.add(i);
+				} else if (order.compare(i, queue.peek()) < 0) {
+					overLimit.add(all.get(queue.poll()));
+					queue.add(i);
+				} else {
+					overLimit.add(all.get(i));
+				}
+			}
+			List<Integer> ind = new ArrayList<>(queue);
+			Collections.sort(ind, order);
+			List<SearchResult> top = new ArrayList<>(ind.size());
+			for (Integer i : ind) {
+				top.add(all.get(i));
+			}
+			return top;
+		}
+
+		/**
+		 * @return results without results of the same object, the first in sorted order is kept
+		 */
+		private List<SearchResult> removeSameObjects(List<SearchResult> lst, SearchResultComparator cmp) {
+			Map<DuplicateKey, Integer> keys = new HashMap<>();
+			List<SearchResult> res = new ArrayList<>(lst.size());
+			for (SearchResult r : lst) {
+				DuplicateKey key = DuplicateKey.create(r);
+				if (key == null) {
+					res.add(r);
+					continue;
+				}
+				Integer ind = keys.get(key);
+				if (ind == null) {
+					keys.put(key, res.size());
+					res.add(r);
+				} else if (cmp.compare(r, res.get(ind)) < 0) {
+					res.set(ind, r);
+				}
+			}
+			return res;
+		}
+
 		public List<SearchResult> getCurrentSearchResults() {
 			return Collections.unmodifiableList(searchResults);
 		}
@@ -269,6 +398,92 @@ public class SearchUICore {
 		}
 	}
 
+	/**
+	 * Hash key of the search result, results with equal keys are always same for
+	 * {@link SearchResultCollection#sameSearchResult(SearchResult, SearchResult)} : results of the same object
+	 * (or of the objects with the same type, id, name and location rounded to ~1 m).
+	 */
+	private static class DuplicateKey {
+		private static final double LOCATION_PRECISION = 1e5;
+
+		private final Object object;
+		private final ObjectType objectType;
+		private final String name;
+		private final String amenityType;
+		private final Long id;
+		private final long x;
+		private final long y;
+
+		private DuplicateKey(Object object, ObjectType objectType, String name, String amenityType, Long id, long x, long y) {
+			this.object = object;
+			this.objectType = objectType;
+			this.name = name;
+			this.amenityType = amenityType;
+			this.id = id;
+			this.x = x;
+			this.y = y;
+		}
+
+		static DuplicateKey create(SearchResult r) {
+			if (r.location == null || ObjectType.isTopVisible(r.objectType)) {
+				// results are same only if object is the same
+				return r.object == null ? null : new DuplicateKey(r.object, null, null, null, null, 0, 0);
+			}
+			if (r.objectType == ObjectType.STREET) {
+				// streets are same if street locations are equal
+				LatLon l = ((Street) r.object).getLocation();
+				return new DuplicateKey(null, r.objectType, null, null, null,
+						Double.doubleToLongBits(l.getLatitude()), Double.doubleToLongBits(l.getLongitude()));
+			}
+			if (r.localeName == null) {
+				return null;
+			}
+			String amenityType = null;
+			Long id = null;
+			if (r.object instanceof Amenity) {
+				amenityType = ((Amenity) r.object).getType().getKeyName();
+			}
+			if (r.object instanceof MapObject) {
+				id = ((MapObject) r.object).getId();
+			}
+			return new DuplicateKey(null, r.objectType, r.localeName, amenityType, id,
+					Math.round(r.location.getLatitude() * LOCATION_PRECISION),
+					Math.round(r.location.getLongitude() * LOCATION_PRECISION));
+		}
+
+		@Override
+		public int hashCode() {
+			if (object != null) {
+				return System.identityHashCode(object);
+			}
+			int result = objectType != null ? objectType.hashCode() : 0;
+			result = 31 * result + (name != null ? name.hashCode() : 0);
+			result = 31 * result + (amenityType != null ? amenityType.hashCode() : 0);
+			result = 31 * result + (id != null ? id.hashCode() : 0);
+			result = 31 * result + (int) (x ^ (x >>> 32));
+			result = 31 * result + (int) (y ^ (y >>> 32));
+			return result;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof DuplicateKey)) {
+				return false;
+			}
+			DuplicateKey k = (DuplicateKey) obj;
+			if (object != null || k.object != null) {
+				return object == k.object;
+			}
+			return objectType == k.objectType && x == k.x && y == k.y
+					&& Algorithms.objectEquals(name, k.name)
+					&& Algorithms.objectEquals(amenityType, k.amenityType)
+					&& Algorithms.objectEquals(id, k.id);
+		}
+	}
+
 	public void setPoiTypes(MapPoiTypes poiTypes) {
 		this.poiTypes = poiTypes;
 	}
@@ -578,30 +793,89 @@ public class SearchUICore {
 						o2.getSearchPriority(phrase));
 			}
 		});
-		for (SearchCoreAPI api : lst) {
+		ExecutorService executor = parallelSearchExecutor;
+		if (executor != null) {
+			// lazy fields of the phrase are initialized before it is shared with other threads
+			phrase.getNameStringMatcher();
+			phrase.getUnknownWordsMatcher();
+			phrase.get1km31Rect();
+		}
+		int i = 0;
+		while (i < lst.size()) {
 			if (matcher.isCancelled()) {
 				break;
 			}
+			SearchCoreAPI api = lst.get(i);
+			if (!api.isSearchAvailable(phrase) || api.getSearchPriority(phrase) == -1) {
+				i++;
+			} else if (executor != null && isParallelSearchAvailable(api, phrase)) {
+				i = searchParallel(executor, lst, i, phrase, matcher);
+			} else {
+				searchApi(api, phrase, matcher);
+				i++;
+			}
+		}
+	}
+
+	private void searchApi(SearchCoreAPI api, SearchPhrase phrase, SearchResultMatcher matcher) {
+		try {
+			if (debugMode) {
+				LOG.info("Run API search <" + phrase + "> API=<" + api + ">");
+			}
+			api.search(phrase, matcher);
+			if (debugMode) {
+				LOG.info("API search finishing <" + phrase + "> API=<" + api + ">");
+			}
+			matcher.apiSearchFinished(api, phrase);
+			if (debugMode) {
+				LOG.info("API search done <" + phrase + "> API=<" + api + ">");
+			}
+		} catch (Throwable e) {
+			e.printStackTrace();
+			LOG.error(e.getMessage(), e);
+		}
+	}
+
+	private static boolean isParallelSearchAvailable(SearchCoreAPI api, SearchPhrase phrase) {
+		return api instanceof SearchCoreFactory.SearchBaseAPI
+				&& ((SearchCoreFactory.SearchBaseAPI) api).isParallelSearchAvailable(phrase);
+	}
+
+	/**
+	 * Runs apis from start till the first api which can't run in parallel (it runs after them),
+	 * results of every api are published after results of apis with lower priority.
+	 * @return index of the next api to run
+	 */
+	private int searchParallel(ExecutorService executor, List<SearchCoreAPI> lst, int start, SearchPhrase phrase,
+							   SearchResultMatcher matcher) {
+		List<ParallelApiSearch> searches = new ArrayList<>();
+		int end = start;
+		for (; end < lst.size(); end++) {
+			SearchCoreAPI api = lst.get(end);
 			if (!api.isSearchAvailable(phrase) || api.getSearchPriority(phrase) == -1) {
 				continue;
 			}
+			if (!isParallelSearchAvailable(api, phrase)) {
+				break;
+			}
+			ParallelApiSearch search = new ParallelApiSearch(api, phrase, matcher);
 			try {
-				if (debugMode) {
-					LOG.info("Run API search <" + phrase + "> API=<" + api + ">");
-				}
-				api.search(phrase, matcher);
-				if (debugMode) {
-					LOG.info("API search finishing <" + phrase + "> API=<" + api + ">");
-				}
-				matcher.apiSearchFinished(api, phrase);
-				if (debugMode) {
-					LOG.info("API search done <" + phrase + "> API=<" + api + ">");
-				}
-			} catch (Throwable e) {
-				e.printStackTrace();
-				LOG.error(e.getMessage(), e);
+				search.future = executor.submit(search);
+			} catch (RejectedExecutionException e) {
+				search.run();
+			}
+			searches.add(search);
+		}
+		boolean cancelled = false;
+		for (ParallelApiSearch search : searches) {
+			if (!cancelled) {
+				cancelled = !search.publishResults();
+			}
+			if (cancelled && search.future != null) {
+				search.future.cancel(false);
 			}
 		}
+		return end;
 	}
 
 	private void preparePhrase(final SearchPhrase phrase) {
@@ -646,6 +920,10 @@ public class SearchUICore {
 			return prev;
 		}
 
+		public SearchResult getParentSearchResult() {
+			return parentSearchResult;
+		}
+
 		public List<SearchResult> getRequestResults() {
 			return requestResults;
 		}
@@ -843,6 +1121,139 @@ public class SearchUICore {
 		}
 	}
 
+	/**
+	 * Runs api search in the pool and keeps everything published by api in the queue, so it could be replayed
+	 * by the search thread into target matcher (with the same parent results) in order of api priority.
+	 * Results of other apis are not available for api (getRequestResults).
+	 */
+	private static class ParallelApiSearch extends SearchResultMatcher implements Runnable {
+		private static final Runnable FINISHED = new Runnable() {
+			@Override
+			public void run() {
+			}
+		};
+
+		private final SearchCoreAPI api;
+		private final SearchPhrase searchPhrase;
+		private final SearchResultMatcher target;
+		private final LinkedBlockingQueue<Runnable> events = new LinkedBlockingQueue<>();
+		private volatile boolean completed;
+		private Future<?> future;
+
+		ParallelApiSearch(SearchCoreAPI api, SearchPhrase phrase, SearchResultMatcher target) {
+			// target is used to check cancellation
+			super(target, phrase, target.request, target.requestNumber, target.totalLimit);
+			this.api = api;
+			this.searchPhrase = phrase;
+			this.target = target;
+		}
+
+		@Override
+		public void run() {
+			try {
+				if (!isCancelled()) {
+					if (debugMode) {
+						LOG.info("Run parallel API search <" + searchPhrase + "> API=<" + api + ">");
+					}
+					api.search(searchPhrase, this);
+					completed = true;
+				}
+			} catch (Throwable e) {
+				e.printStackTrace();
+				LOG.error(e.getMessage(), e);
+			} finally {
+				events.add(FINISHED);
+			}
+		}
+
+		/**
+		 * Publishes results into target matcher as soon as they are found till api search is finished
+		 * @return false if search was cancelled
+		 */
+		boolean publishResults() {
+			try {
+				while (true) {
+					Runnable event = events.poll(TIMEOUT_BEFORE_FILTER, TimeUnit.MILLISECONDS);
+					if (event == FINISHED) {
+						break;
+					}
+					if (event != null) {
+						event.run();
+					}
+					if (target.isCancelled()) {
+						return false;
+					}
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+			if (completed) {
+				target.apiSearchFinished(api, searchPhrase);
+				if (debugMode) {
+					LOG.info("API search done <" + searchPhrase + "> API=<" + api + ">");
+				}
+			}
+			return true;
+		}
+
+		@Override
+		public boolean publish(final SearchResult object) {
+			events.add(new Event() {
+				@Override
+				void replay() {
+					target.publish(object);
+				}
+			});
+			return true;
+		}
+
+		@Override
+		public void apiSearchRegionFinished(final SearchCoreAPI api, final BinaryMapIndexReader region,
+											final SearchPhrase phrase) {
+			events.add(new Event() {
+				@Override
+				void replay() {
+					target.apiSearchRegionFinished(api, region, phrase);
+				}
+			});
+		}
+
+		@Override
+		public void exportObject(final MapObject object) {
+			events.add(new Event() {
+				@Override
+				void replay() {
+					target.exportObject(object);
+				}
+			});
+		}
+
+		@Override
+		public void exportCity(final City city) {
+			events.add(new Event() {
+				@Override
+				void replay() {
+					target.exportCity(city);
+				}
+			});
+		}
+
+		// event is replayed with parent result which was set when it happened
+		private abstract class Event implements Runnable {
+			private final SearchResult parent = getParentSearchResult();
+
+			abstract void replay();
+
+			@Override
+			public void run() {
+				SearchResult prev = target.setParentSearchResult(parent);
+				replay();
+				target.setParentSearchResult(prev);
+			}
+		}
+	}
+
 	public static class SearchResultComparator implements Comparator<SearchResult> {
 		private SearchPhrase sp;
 		private Collator collator;
@@ -130,6 +130,15 @@ public class SearchCoreFactory {
 			return phrase.getRadiusLevel() < MAX_DEFAULT_SEARCH_RADIUS;
 		}
 
+		/**
+		 * @param phrase
+		 * @return true if search doesn't share state with other apis and doesn't use results of apis
+		 * with lower priority, so it could run in parallel with other such apis (files are read under reader lock)
+		 */
+		public boolean isParallelSearchAvailable(SearchPhrase phrase) {
+			return false;
+		}
+
 		@Override
 		public int getMinimalSearchRadius(SearchPhrase phrase) {
 			return 0;
@@ -212,6 +221,11 @@ public class SearchCoreFactory {
 			}
 			return SEARCH_REGION_API_PRIORITY;
 		}
+
+		@Override
+		public boolean isParallelSearchAvailable(SearchPhrase phrase) {
+			return true;
+		}
 	}
 
 	private static String stripBraces(String localeName) {
@@ -267,6 +281,12 @@ public class SearchCoreFactory {
 			return getSearchPriority(phrase) != -1 && super.isSearchMoreAvailable(phrase);
 		}
 
+		@Override
+		public boolean isParallelSearchAvailable(SearchPhrase phrase) {
+			// street and building apis are used only by this api while it runs in parallel
+			return true;
+		}
+
 		@Override
 		public int getMinimalSearchRadius(SearchPhrase phrase) {
 			return phrase.getRadiusSearch(DEFAULT_ADDRESS_BBOX_RADIUS);
@@ -299,7 +319,10 @@ public class SearchCoreFactory {
 				BinaryMapIndexReader r = offlineIndexes.next();
 				if (!townCities.containsKey(r)) {
 					BinaryMapIndexReader.buildAddressRequest(null);
-					List<City> l = r.getCities(null, BinaryMapAddressReaderAdapter.CITY_TOWN_TYPE);
+					List<City> l;
+					synchronized (r) {
+						l = r.getCities(null, BinaryMapAddressReaderAdapter.CITY_TOWN_TYPE);
+					}
 					townCities.put(r, l);
 					for (City c  : l) {
 						LatLon cl = c.getLocation();
@@ -479,7 +502,9 @@ public class SearchCoreFactory {
 						req.setBBoxRadius(loc.getLatitude(), loc.getLongitude(),
 								phrase.getRadiusSearch(DEFAULT_ADDRESS_BBOX_RADIUS * 5));
 					}
-					r.searchAddressDataByName(req);
+					synchronized (r) {
+						r.searchAddressDataByName(req);
+					}
 					for (SearchResult res : immediateResults) {
 						res.firstUnknownWordMatches = firstUnknownWordMatches;
 						res.unknownPhraseMatches = wordEqualsMatcher.matches(res.localeName);
@@ -591,7 +616,9 @@ public class SearchCoreFactory {
 			while (offlineIterator.hasNext()) {
 				BinaryMapIndexReader r = offlineIterator.next();
 				currentFile[0] = r;
-				r.searchPoiByName(req);
+				synchronized (r) {
+					r.searchPoiByName(req);
+				}
 
 				resultMatcher.apiSearchRegionFinished(this, r, phrase);
 			}
@@ -618,6 +645,12 @@ public class SearchCoreFactory {
 			return super.isSearchMoreAvailable(phrase) && getSearchPriority(phrase) != -1;
 		}
 
+		@Override
+		public boolean isParallelSearchAvailable(SearchPhrase phrase) {
+			// poi types of the phrase are set by SearchAmenityTypesAPI which runs before (not in parallel)
+			return true;
+		}
+
 		@Override
 		public int getMinimalSearchRadius(SearchPhrase phrase) {
 			return phrase.getRadiusSearch(BBOX_RADIUS);
@@ -887,7 +920,9 @@ public class SearchCoreFactory {
 						(int) bbox.left, (int) bbox.right,
 						(int) bbox.top, (int) bbox.bottom, -1, ptf,
 						rm);
-				o.searchPoi(req);
+				synchronized (o) {
+					o.searchPoi(req);
+				}
 				resultMatcher.apiSearchRegionFinished(this, o, phrase);
 			}
 		}
@@ -1012,6 +1047,12 @@ public class SearchCoreFactory {
 			}
 			return -1;
 		}
+
+		@Override
+		public boolean isParallelSearchAvailable(SearchPhrase phrase) {
+			// otherwise search sets poi types of the phrase which are used by SearchAmenityByNameAPI
+			return phrase.isLastWord(ObjectType.POI_TYPE) || phrase.getUnknownSearchWordPoiTypes() != null;
+		}
 	}
 
 	public static class SearchStreetByCityAPI extends SearchBaseAPI {
@@ -1045,8 +1086,11 @@ public class SearchCoreFactory {
 			SearchWord sw = phrase.getLastSelectedWord();
 			if (isLastWordCityGroup(phrase) && sw.getResult() != null && sw.getResult().file != null) {
 				City c = (City) sw.getResult().object;
-				if (c.getStreets().isEmpty()) {
-					sw.getResult().file.preloadStreets(c, null);
+				BinaryMapIndexReader file = sw.getResult().file;
+				synchronized (file) {
+					if (c.getStreets().isEmpty()) {
+						file.preloadStreets(c, null);
+					}
 				}
 				int limit = 0;
 				String wordToSearch = phrase.getUnknownWordToSearch();
@@ -1168,7 +1212,9 @@ public class SearchCoreFactory {
 								}
 							});
 
-					file.preloadBuildings(s, sr);
+					synchronized (file) {
+						file.preloadBuildings(s, sr);
+					}
 					Collections.sort(s.getBuildings(), new Comparator<Building>() {
 
 						@Override
@@ -1269,6 +1315,12 @@ public class SearchCoreFactory {
 			return false;
 		}
 
+		@Override
+		public boolean isParallelSearchAvailable(SearchPhrase phrase) {
+			// local open location code is resolved with results of other apis
+			return cachedParsedCode == null;
+		}
+
 		@Override
 		public boolean search(SearchPhrase phrase, SearchResultMatcher resultMatcher) throws IOException {
 			if (!phrase.isUnknownSearchWordPresent()) {
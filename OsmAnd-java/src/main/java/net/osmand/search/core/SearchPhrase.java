@@ -32,18 +32,19 @@ public class SearchPhrase {
 	
 	private List<SearchWord> words = new ArrayList<>();
 	private List<String> unknownWords = new ArrayList<>();
-	private List<NameStringMatcher> unknownWordsMatcher = new ArrayList<>();
+	// lazy fields keep immutable values, so phrase is shared by threads of parallel search
+	private volatile List<NameStringMatcher> unknownWordsMatcher;
 	private String unknownSearchWordTrim;
 	private String rawUnknownSearchPhrase = "";
 	private String unknownSearchPhrase = "";
 	private AbstractPoiType unknownSearchWordPoiType;
 	private List<AbstractPoiType> unknownSearchWordPoiTypes = null;
 
-	private NameStringMatcher sm;
+	private volatile NameStringMatcher sm;
 	private SearchSettings settings;
 	private List<BinaryMapIndexReader> indexes;
 	
-	private QuadRect cache1kmRect;
+	private volatile QuadRect cache1kmRect;
 	private boolean lastUnknownSearchWordComplete;
 	private static final String DELIMITER = " ";
 	private static final String ALLDELIMITERS = "\\s|,";
@@ -166,7 +167,7 @@ public class SearchPhrase {
 		sp.rawUnknownSearchPhrase = text;
 		sp.unknownSearchPhrase = restText;
 		sp.unknownWords.clear();
-		sp.unknownWordsMatcher.clear();
+		sp.unknownWordsMatcher = null;
 		
 		if (!reg.matcher(restText).find()) {
 			sp.unknownSearchWordTrim = sp.unknownSearchPhrase.trim();
@@ -319,6 +320,7 @@ public class SearchPhrase {
 	}
 	
 	public QuadRect get1km31Rect() {
+		QuadRect cache1kmRect = this.cache1kmRect;
 		if(cache1kmRect != null) {
 			return cache1kmRect;
 		}
@@ -336,6 +338,7 @@ public class SearchPhrase {
 		double bottomRightY = Math.min(max, ty + coeff);
 		double pw = MapUtils.getPowZoom(31 - SearchRequest.ZOOM_TO_SEARCH_POI);
 		cache1kmRect = new QuadRect(topLeftX * pw, topLeftY * pw, bottomRightX * pw, bottomRightY * pw);
+		this.cache1kmRect = cache1kmRect;
 		return cache1kmRect;
 	}
 	
@@ -505,12 +508,34 @@ public class SearchPhrase {
 	}
 
 	public NameStringMatcher getNameStringMatcher() {
+		NameStringMatcher sm = this.sm;
 		if(sm != null) {
 			return sm;
 		}
 		sm = getNameStringMatcher(unknownSearchWordTrim, lastUnknownSearchWordComplete);
+		this.sm = sm;
 		return sm;
 	}
+
+	/**
+	 * @return matchers of unknown search words (in order of words)
+	 */
+	public List<NameStringMatcher> getUnknownWordsMatcher() {
+		List<NameStringMatcher> matchers = unknownWordsMatcher;
+		if (matchers != null) {
+			return matchers;
+		}
+		// the whole list is built before it is visible to other threads
+		List<NameStringMatcher> list = new ArrayList<>(unknownWords.size());
+		for (int i = 0; i < unknownWords.size(); i++) {
+			list.add(new NameStringMatcher(unknownWords.get(i),
+					i < unknownWords.size() - 1 || isLastUnknownSearchWordComplete() ? StringMatcherMode.CHECK_EQUALS_FROM_SPACE :
+						StringMatcherMode.CHECK_STARTS_FROM_SPACE));
+		}
+		matchers = Collections.unmodifiableList(list);
+		unknownWordsMatcher = matchers;
+		return matchers;
+	}
 	
 	
 	public NameStringMatcher getNameStringMatcher(String word, boolean complete) {
@@ -725,12 +750,8 @@ public class SearchPhrase {
 	
 	public void countUnknownWordsMatch(SearchResult sr, String localeName, Collection<String> otherNames) {
 		if(unknownWords.size() > 0) {
+			List<NameStringMatcher> unknownWordsMatcher = getUnknownWordsMatcher();
 			for(int i = 0; i < unknownWords.size(); i++) {
-				if(unknownWordsMatcher.size() == i) {
-					unknownWordsMatcher.add(new NameStringMatcher(unknownWords.get(i), 
-							i < unknownWords.size() - 1 || isLastUnknownSearchWordComplete() ? StringMatcherMode.CHECK_EQUALS_FROM_SPACE :
-								StringMatcherMode.CHECK_STARTS_FROM_SPACE));
-				}
 				NameStringMatcher ms = unknownWordsMatcher.get(i);
 				if(ms.matches(localeName) || ms.matches(otherNames)) {
 					if(sr.otherWordsMatch == null) {
@@ -0,0 +1,95 @@
+package net.osmand;
+
+import java.util.Locale;
+import java.util.Random;
+
+import net.osmand.CollatorStringMatcher.StringMatcherMode;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Matching by collation weights ({@link CollatedString}) gives the same results as matching by collator
+ * ({@link CollatorStringMatcher#cmatches(Collator, String, String, StringMatcherMode)}) in different locales.
+ */
+public class CollatorStringMatcherTest {
+
+	private static final String[] SYLLABLES = { "a", "A", "á", "ä", "ae", "æ", "o", "ö", "Ö", "oe", "ø", "u", "ü",
+			"ue", "ss", "ß", "s", "ł", "l", "c", "ch", "cs", "č", "dz", "ny", "ij", "i", "ı", "I", "İ", "e", "é", "ě",
+			"st", "str", "ми", "Мо", "е", "ё", "ъ", "я", "γ", "σ", "ς", " ", "  ", "-", ".", "'", "1", "22" };
+	private static final Locale[] LOCALES = { Locale.US, Locale.GERMAN, new Locale("ru"), new Locale("hu"),
+			new Locale("sv"), new Locale("tr"), new Locale("da"), new Locale("cs"), new Locale("pl"), new Locale("es") };
+
+	private Locale defaultLocale;
+
+	@Before
+	public void setUp() {
+		defaultLocale = Locale.getDefault();
+	}
+
+	@After
+	public void tearDown() {
+		Locale.setDefault(defaultLocale);
+	}
+
+	private static String randomString(Random rnd, int maxSyllables) {
+		StringBuilder sb = new StringBuilder();
+		int syllables = rnd.nextInt(maxSyllables + 1);
+		for (int i = 0; i < syllables; i++) {
+			sb.append(SYLLABLES[rnd.nextInt(SYLLABLES.length)]);
+		}
+		return sb.toString();
+	}
+
+	private static void checkSameAsCollator(Collator collator, String name, String part) {
+		for (StringMatcherMode mode : StringMatcherMode.values()) {
+			boolean expected = CollatorStringMatcher.cmatches(collator, name, part.toLowerCase(Locale.getDefault()), mode);
+			boolean actual = new CollatorStringMatcher(part, mode).matches(name);
+			Assert.assertEquals(Locale.getDefault() + " " + mode + " '" + name + "' '" + part + "'", expected, actual);
+		}
+	}
+
+	@Test
+	public void testMatchesAsCollator() {
+		Random rnd = new Random(13);
+		for (Locale locale : LOCALES) {
+			Locale.setDefault(locale);
+			Collator collator = OsmAndCollator.primaryCollator();
+			for (int t = 0; t < 3000; t++) {
+				String name = randomString(rnd, 6);
+				String part;
+				if (name.length() > 0 && rnd.nextBoolean()) {
+					// substring of the name with other case or diacritics
+					int from = rnd.nextInt(name.length());
+					part = name.substring(from, from + 1 + rnd.nextInt(name.length() - from));
+					part = rnd.nextBoolean() ? part.toUpperCase() : part;
+				} else {
+					part = randomString(rnd, 3);
+				}
+				checkSameAsCollator(collator, name, part);
+			}
+		}
+	}
+
+	@Test
+	public void testStartsWithAndContains() {
+		Locale.setDefault(Locale.US);
+		Assert.assertTrue(CollatedString.isSupported());
+		Collator collator = OsmAndCollator.primaryCollator();
+		String[][] pairs = { { "Straße", "strasse" }, { "Straße", "str" }, { "Rue Émile Zola", "emile" },
+				{ "Łódź", "lodz" }, { "Köln", "koln" }, { "улица Ленина", "лен" }, { "Ёлка", "елк" },
+				{ "Æbeltoft", "ae" }, { "Main  Street", "street" }, { "St.-Petersburg", "peter" }, { "", "a" },
+				{ "a", "" }, { "ab", "abc" }, { "Σίσυφος", "σισυφοσ" } };
+		for (String[] p : pairs) {
+			checkSameAsCollator(collator, p[0], p[1]);
+		}
+		Assert.assertTrue(new CollatorStringMatcher("emile", StringMatcherMode.CHECK_STARTS_FROM_SPACE)
+				.matches("Rue Émile Zola"));
+		Assert.assertTrue(new CollatorStringMatcher("ленина", StringMatcherMode.CHECK_EQUALS_FROM_SPACE)
+				.matches("улица Ленина"));
+		Assert.assertFalse(new CollatorStringMatcher("лен", StringMatcherMode.CHECK_EQUALS_FROM_SPACE)
+				.matches("улица Ленина"));
+	}
+}
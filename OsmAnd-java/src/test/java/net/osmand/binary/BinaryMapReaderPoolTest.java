@@ -0,0 +1,140 @@
+package net.osmand.binary;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import net.osmand.binary.BinaryMapRouteReaderAdapter.RouteRegion;
+import net.osmand.binary.BinaryMapRouteReaderAdapter.RouteSubregion;
+import net.osmand.router.RoutingTestHelper;
+import net.osmand.router.RoutingTestHelper.TestGrid;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Readers acquired from the pool are exclusive till release, they are reused after release and read the same data
+ * as the initial reader when many threads read at the same time. Close waits till acquired readers are released.
+ */
+public class BinaryMapReaderPoolTest {
+
+	private static final int THREADS = 8;
+
+	private File file;
+	private BinaryMapReaderPool pool;
+	private int roadsCount;
+
+	@Before
+	public void setUp() throws Exception {
+		file = File.createTempFile("reader_pool", ".obf");
+		TestGrid grid = new TestGrid(20, 20, 1 << 13, "residential");
+		roadsCount = grid.roads.size();
+		// small boxes, so readers seek between many blocks
+		RoutingTestHelper.writeMap(file, grid.roads, 17);
+		pool = new BinaryMapReaderPool();
+		pool.register(file);
+	}
+
+	@After
+	public void tearDown() {
+		pool.close();
+		file.delete();
+	}
+
+	private int countRoads(BinaryMapIndexReader reader) throws Exception {
+		int cnt = 0;
+		RouteRegion region = reader.getRoutingIndexes().get(0);
+		for (RouteSubregion sub : region.getSubregions()) {
+			for (RouteDataObject o : reader.loadRouteIndexData(sub)) {
+				if (o != null) {
+					cnt++;
+				}
+			}
+		}
+		return cnt;
+	}
+
+	@Test
+	public void testAcquireRelease() throws Exception {
+		Assert.assertTrue(pool.isRegistered(file.getName()));
+		BinaryMapIndexReader r1 = pool.acquireReader(file.getName());
+		BinaryMapIndexReader r2 = pool.acquireReader(file.getName());
+		Assert.assertNotSame(r1, r2);
+		Assert.assertNotSame(pool.getShallowReader(file.getName()), r1);
+		Assert.assertEquals(roadsCount, countRoads(r1));
+		pool.release(r1);
+		// released reader is reused
+		Assert.assertSame(r1, pool.acquireReader(file.getName()));
+		BinaryMapIndexReader[] all = pool.acquireReaders();
+		Assert.assertEquals(1, all.length);
+		Assert.assertNotSame(r1, all[0]);
+		Assert.assertNotSame(r2, all[0]);
+		pool.release(r1, r2);
+		pool.release(all);
+		Assert.assertNull(pool.acquireReader("unknown.obf"));
+	}
+
+	@Test
+	public void testConcurrentReads() throws Exception {
+		final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+		final CountDownLatch start = new CountDownLatch(1);
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int t = 0; t < THREADS; t++) {
+			Thread th = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+						for (int i = 0; i < 20; i++) {
+							BinaryMapIndexReader[] readers = pool.acquireReaders();
+							try {
+								Assert.assertEquals(roadsCount, countRoads(readers[0]));
+							} finally {
+								pool.release(readers);
+							}
+						}
+					} catch (Throwable e) {
+						error.compareAndSet(null, e);
+					}
+				}
+			});
+			th.start();
+			threads.add(th);
+		}
+		start.countDown();
+		for (Thread th : threads) {
+			th.join();
+		}
+		if (error.get() != null) {
+			throw new AssertionError(error.get());
+		}
+	}
+
+	@Test
+	public void testCloseWaitsForAcquiredReaders() throws Exception {
+		final BinaryMapIndexReader reader = pool.acquireReader(file.getName());
+		final CountDownLatch closed = new CountDownLatch(1);
+		Thread th = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				pool.unregister(file.getName());
+				closed.countDown();
+			}
+		});
+		th.start();
+		Assert.assertFalse(closed.await(200, TimeUnit.MILLISECONDS));
+		// acquired reader is still usable
+		Assert.assertEquals(roadsCount, countRoads(reader));
+		Assert.assertFalse(pool.isRegistered(file.getName()));
+		Assert.assertNull(pool.acquireReader(file.getName()));
+		pool.release(reader);
+		Assert.assertTrue(closed.await(5, TimeUnit.SECONDS));
+		th.join();
+		Assert.assertEquals(0, pool.size());
+	}
+}
@@ -0,0 +1,213 @@
+package net.osmand.binary;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executor;
+
+import gnu.trove.list.array.TIntArrayList;
+import net.osmand.binary.BinaryMapTransportReaderAdapter.TransportIndex;
+import net.osmand.data.TransportStop;
+import net.osmand.router.RoutingTestHelper;
+import net.osmand.router.RoutingTestHelper.TestGrid;
+import net.osmand.util.MapUtils;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Cache keeps merged stops with references parallel to route ids, transfers are stops within the same square
+ * as uncached stops, cache is valid only for the same map file and transfer radius, and opened caches are
+ * unmapped when they are not used by calculations
+ */
+public class CachedTransportStopsIndexTest {
+
+	private static final int RADIUS = 300;
+	private static final int SHIFT = 31 - BinaryMapIndexReader.TRANSPORT_STOP_ZOOM;
+
+	private File obf;
+	private File cacheDir;
+	private BinaryMapIndexReader reader;
+	private final List<CachedTransportStopsIndex> opened = new ArrayList<CachedTransportStopsIndex>();
+
+	@Before
+	public void setUp() throws Exception {
+		obf = File.createTempFile("transport", ".obf");
+		TestGrid grid = new TestGrid(2, 2, 1 << 14, "residential");
+		reader = RoutingTestHelper.createReader(obf, grid.roads, 14);
+		cacheDir = new File(obf.getParentFile(), obf.getName() + ".cache");
+		cacheDir.mkdirs();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		for (CachedTransportStopsIndex index : opened) {
+			index.close();
+		}
+		reader.close();
+		File cache = CachedTransportStopsIndex.getCacheFile(cacheDir, obf);
+		cache.delete();
+		cacheDir.delete();
+		obf.delete();
+	}
+
+	private static TransportStop stop(long id, int x31, int y31, int[] refs, long[] routeIds) {
+		TransportStop s = new TransportStop();
+		s.setId(id);
+		s.setLocation(BinaryMapIndexReader.TRANSPORT_STOP_ZOOM, x31 >> SHIFT, y31 >> SHIFT);
+		s.setReferencesToRoutes(refs);
+		s.setRoutesIds(routeIds);
+		return s;
+	}
+
+	private CachedTransportStopsIndex open(File cache) throws Exception {
+		CachedTransportStopsIndex index = CachedTransportStopsIndex.open(cache);
+		opened.add(index);
+		return index;
+	}
+
+	private File writeCache(List<TransportStop> stops, int radius) throws Exception {
+		File cache = CachedTransportStopsIndex.getCacheFile(cacheDir, obf);
+		CachedTransportStopsIndex.write(cache, stops, obf.length(), CachedTransportStopsIndex.getFileDate(reader), radius);
+		return cache;
+	}
+
+	private static TransportStop find(List<TransportStop> stops, long id) {
+		for (TransportStop s : stops) {
+			if (s.getId() == id) {
+				return s;
+			}
+		}
+		return null;
+	}
+
+	@Test
+	public void testWriteAndOpen() throws Exception {
+		Random rnd = new Random(3);
+		int radius31 = CachedTransportStopsIndex.getRadius31(RADIUS);
+		int baseX = RoutingTestHelper.BASE_X;
+		int baseY = RoutingTestHelper.BASE_Y;
+		List<TransportStop> stops = new ArrayList<TransportStop>();
+		for (int i = 0; i < 200; i++) {
+			stops.add(stop(1000 - i * 3, baseX + rnd.nextInt(radius31 * 20), baseY + rnd.nextInt(radius31 * 20),
+					new int[] { i }, new long[] { 100 + i }));
+		}
+		// same stop of other transport index with unsorted route ids
+		TransportStop first = stops.get(0);
+		stops.add(stop(first.getId(), first.x31, first.y31, new int[] { 7, 5, 0 }, new long[] { 90, 50, 100 }));
+		File cache = CachedTransportStopsIndex.getCacheFile(cacheDir, obf);
+		Assert.assertEquals(200, CachedTransportStopsIndex.write(cache, stops, obf.length(),
+				CachedTransportStopsIndex.getFileDate(reader), RADIUS));
+		CachedTransportStopsIndex index = open(cache);
+		Assert.assertEquals(200, index.getStopsCount());
+		Assert.assertEquals(RADIUS, index.getTransferRadius());
+		Assert.assertEquals(-1, index.findStop(1));
+
+		List<TransportStop> all = index.searchTransportStops(0, Integer.MAX_VALUE, 0, Integer.MAX_VALUE,
+				new ArrayList<TransportStop>());
+		Assert.assertEquals(200, all.size());
+		TransportStop merged = find(all, first.getId());
+		Assert.assertArrayEquals(new int[] { 0, 7, 5 }, merged.getReferencesToRoutes());
+		Assert.assertArrayEquals(new long[] { 100, 90, 50 }, merged.getRoutesIds());
+
+		for (int i = 0; i < 200; i++) {
+			TransportStop s = stops.get(i);
+			int ind = index.findStop(s.getId());
+			Assert.assertTrue(ind >= 0);
+			Assert.assertEquals(s.getId().longValue(), index.getStopId(ind));
+			Assert.assertEquals(s.x31, index.getStopX31(ind));
+			Assert.assertEquals(s.y31, index.getStopY31(ind));
+			// transfers are the stops found by the rule of uncached stops
+			TIntArrayList trStops = new TIntArrayList();
+			TIntArrayList trDistances = new TIntArrayList();
+			index.getTransfers(ind, trStops, trDistances);
+			List<Long> expected = new ArrayList<Long>();
+			for (int j = 0; j < 200; j++) {
+				TransportStop t = stops.get(j);
+				if (j != i && CachedTransportStopsIndex.isWithinRadius(s.x31, s.y31, t.x31, t.y31, radius31)) {
+					expected.add(t.getId());
+				}
+			}
+			List<Long> actual = new ArrayList<Long>();
+			for (int k = 0; k < trStops.size(); k++) {
+				int t = trStops.get(k);
+				actual.add(index.getStopId(t));
+				Assert.assertEquals(MapUtils.measuredDist31(s.x31, s.y31, index.getStopX31(t), index.getStopY31(t)),
+						trDistances.get(k), 1);
+			}
+			Long[] e = expected.toArray(new Long[expected.size()]);
+			Long[] a = actual.toArray(new Long[actual.size()]);
+			Arrays.sort(e);
+			Arrays.sort(a);
+			Assert.assertArrayEquals("Stop " + s.getId(), e, a);
+		}
+	}
+
+	@Test
+	public void testIsValid() throws Exception {
+		List<TransportStop> stops = new ArrayList<TransportStop>();
+		stops.add(stop(1, RoutingTestHelper.BASE_X, RoutingTestHelper.BASE_Y, new int[] { 1 }, new long[] { 1 }));
+		File cache = writeCache(stops, RADIUS);
+		CachedTransportStopsIndex index = open(cache);
+		Assert.assertTrue(index.isValid(reader, RADIUS));
+		Assert.assertFalse(index.isValid(reader, RADIUS * 2));
+
+		CachedTransportStopsIndex.write(cache, stops, obf.length() + 1, CachedTransportStopsIndex.getFileDate(reader),
+				RADIUS);
+		Assert.assertFalse(open(cache).isValid(reader, RADIUS));
+		CachedTransportStopsIndex.write(cache, stops, obf.length(), CachedTransportStopsIndex.getFileDate(reader) + 1,
+				RADIUS);
+		Assert.assertFalse(open(cache).isValid(reader, RADIUS));
+	}
+
+	private static class RecordingExecutor implements Executor {
+		final List<Runnable> tasks = new ArrayList<Runnable>();
+
+		@Override
+		public void execute(Runnable command) {
+			tasks.add(command);
+		}
+	}
+
+	@Test
+	public void testReferenceCounting() throws Exception {
+		reader.transportIndexes.add(new TransportIndex());
+		RecordingExecutor executor = new RecordingExecutor();
+		CachedTransportStopsIndexes indexes = new CachedTransportStopsIndexes(cacheDir, executor);
+		// missing cache is built once in background
+		Assert.assertNull(indexes.acquire(reader, RADIUS));
+		Assert.assertNull(indexes.acquire(reader, RADIUS));
+		Assert.assertEquals(1, executor.tasks.size());
+
+		List<TransportStop> stops = new ArrayList<TransportStop>();
+		stops.add(stop(1, RoutingTestHelper.BASE_X, RoutingTestHelper.BASE_Y, new int[] { 1 }, new long[] { 1 }));
+		writeCache(stops, RADIUS);
+		CachedTransportStopsIndex index = indexes.acquire(reader, RADIUS);
+		Assert.assertNotNull(index);
+		Assert.assertSame(index, indexes.acquire(reader, RADIUS));
+		indexes.release(index);
+		indexes.release(index);
+		Assert.assertFalse(index.isClosed());
+
+		// outdated cache is closed when the last calculation releases it
+		Assert.assertSame(index, indexes.acquire(reader, RADIUS));
+		Assert.assertNull(indexes.acquire(reader, RADIUS * 2));
+		Assert.assertEquals(2, executor.tasks.size());
+		Assert.assertFalse(index.isClosed());
+		indexes.release(index);
+		Assert.assertTrue(index.isClosed());
+
+		// closed registry closes used caches after release
+		index = indexes.acquire(reader, RADIUS);
+		Assert.assertNotNull(index);
+		indexes.close();
+		Assert.assertFalse(index.isClosed());
+		Assert.assertNull(indexes.acquire(reader, RADIUS));
+		indexes.release(index);
+		Assert.assertTrue(index.isClosed());
+	}
+}
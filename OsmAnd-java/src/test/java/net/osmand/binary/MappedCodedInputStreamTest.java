@@ -0,0 +1,133 @@
+package net.osmand.binary;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+
+/**
+ * Memory mapped stream reads the same values as stream over RandomAccessFile
+ */
+public class MappedCodedInputStreamTest {
+
+	private static final int RECORDS = 100000;
+
+	private File file;
+	private RandomAccessFile raf;
+	private RandomAccessFile mappedRaf;
+	private ByteBuffer[] mapping;
+	private int[] offsets = new int[RECORDS];
+
+	@Before
+	public void setUp() throws IOException {
+		file = File.createTempFile("coded_input", ".bin");
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+		Random rnd = new Random(17);
+		int offset = 0;
+		for (int i = 0; i < RECORDS; i++) {
+			offsets[i] = offset;
+			int v = rnd.nextInt(1 << (1 + rnd.nextInt(30)));
+			String s = "record " + i + " " + v;
+			byte[] bytes = new byte[rnd.nextInt(rnd.nextInt(10) == 0 ? 20000 : 50)];
+			rnd.nextBytes(bytes);
+			ByteArrayOutputStream record = new ByteArrayOutputStream();
+			CodedOutputStream cos = CodedOutputStream.newInstance(record);
+			cos.writeRawVarint32(v);
+			cos.writeStringNoTag(s);
+			cos.writeFixed64NoTag((long) v * i);
+			cos.writeRawVarint32(bytes.length);
+			cos.writeRawBytes(bytes);
+			cos.flush();
+			record.writeTo(out);
+			offset += record.size();
+		}
+		out.close();
+		raf = new RandomAccessFile(file, "r");
+		mappedRaf = new RandomAccessFile(file, "r");
+		mapping = CodedInputStream.mapFile(mappedRaf.getChannel());
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		CodedInputStream.unmapFile(mapping);
+		mappedRaf.close();
+		raf.close();
+		file.delete();
+	}
+
+	private CodedInputStream stream() {
+		CodedInputStream s = CodedInputStream.newInstance(raf);
+		s.setSizeLimit(Integer.MAX_VALUE);
+		return s;
+	}
+
+	private CodedInputStream mapped() {
+		CodedInputStream s = CodedInputStream.newInstance(mapping);
+		s.setSizeLimit(Integer.MAX_VALUE);
+		return s;
+	}
+
+	private void compareRecord(CodedInputStream exp, CodedInputStream act, boolean skipBytes) throws IOException {
+		Assert.assertEquals(exp.getTotalBytesRead(), act.getTotalBytesRead());
+		Assert.assertEquals(exp.readRawVarint32(), act.readRawVarint32());
+		Assert.assertEquals(exp.readString(), act.readString());
+		Assert.assertEquals(exp.readFixed64(), act.readFixed64());
+		int len = exp.readRawVarint32();
+		Assert.assertEquals(len, act.readRawVarint32());
+		if (skipBytes) {
+			exp.skipRawBytes(len);
+			act.skipRawBytes(len);
+		} else {
+			Assert.assertArrayEquals(exp.readRawBytes(len), act.readRawBytes(len));
+		}
+		Assert.assertEquals(exp.getTotalBytesRead(), act.getTotalBytesRead());
+	}
+
+	@Test
+	public void testSequentialRead() throws IOException {
+		CodedInputStream exp = stream();
+		CodedInputStream act = mapped();
+		for (int i = 0; i < RECORDS; i++) {
+			compareRecord(exp, act, i % 3 == 0);
+		}
+		Assert.assertTrue(act.isAtEnd());
+	}
+
+	@Test
+	public void testSeek() throws IOException {
+		CodedInputStream exp = stream();
+		CodedInputStream act = mapped();
+		Random rnd = new Random(23);
+		for (int i = 0; i < 10000; i++) {
+			int r = rnd.nextInt(RECORDS);
+			exp.seek(offsets[r]);
+			act.seek(offsets[r]);
+			compareRecord(exp, act, rnd.nextBoolean());
+		}
+	}
+
+	@Test
+	public void testTruncated() throws IOException {
+		CodedInputStream act = mapped();
+		act.seek(file.length() - 1);
+		try {
+			act.readRawBytes(2);
+			Assert.fail();
+		} catch (IOException e) {
+			// expected
+		}
+	}
+}
@@ -0,0 +1,162 @@
+package net.osmand.binary;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import net.osmand.Collator;
+import net.osmand.OsmAndCollator;
+import net.osmand.binary.OsmandOdb.IndexedStringTable;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.protobuf.CodedOutputStream;
+
+import gnu.trove.list.array.TIntArrayList;
+
+/**
+ * Name prefix index finds the same values as reading of the table from the file with collator
+ * ({@link BinaryMapIndexReader#readIndexedStringTable(Collator, String, String, TIntArrayList, int)}).
+ * Table has the structure of poi and address name tables: keys of the first level are short prefixes
+ * of names and subtables keep the rest of names.
+ */
+public class NamePrefixIndexTest {
+
+	private static final String[] SYLLABLES = { "a", "b", "ka", "Ko", "st", "ré", "re", "Ré", "ö", "o", "ü", "ue",
+			"ми", "Мо", "ё", "е", "ł", "l", "ñ", "n", " ", "-", "1", "2" };
+	private static final int PREFIX_LENGTH = 2;
+
+	private File file;
+	private RandomAccessFile raf;
+	private BinaryMapIndexReader reader;
+	private List<String> names;
+	private int length;
+
+	@Before
+	public void setUp() throws IOException {
+		Random rnd = new Random(7);
+		// name -> value, names with the same first chars are in the same subtable
+		Map<String, Integer> values = new TreeMap<String, Integer>();
+		while (values.size() < 3000) {
+			StringBuilder sb = new StringBuilder();
+			int syllables = 1 + rnd.nextInt(5);
+			for (int i = 0; i < syllables; i++) {
+				sb.append(SYLLABLES[rnd.nextInt(SYLLABLES.length)]);
+			}
+			values.put(sb.toString(), values.size() * 16);
+		}
+		names = new ArrayList<String>(values.keySet());
+		Map<String, IndexedStringTable.Builder> subtables = new TreeMap<String, IndexedStringTable.Builder>();
+		Map<String, Integer> prefixValues = new TreeMap<String, Integer>();
+		for (String name : names) {
+			if (name.length() <= PREFIX_LENGTH) {
+				prefixValues.put(name, values.get(name));
+				continue;
+			}
+			String prefix = name.substring(0, PREFIX_LENGTH);
+			IndexedStringTable.Builder sub = subtables.get(prefix);
+			if (sub == null) {
+				sub = IndexedStringTable.newBuilder();
+				subtables.put(prefix, sub);
+			}
+			sub.addKey(name.substring(PREFIX_LENGTH));
+			sub.addVal(values.get(name));
+		}
+		IndexedStringTable.Builder table = IndexedStringTable.newBuilder();
+		for (String name : prefixValues.keySet()) {
+			if (!subtables.containsKey(name)) {
+				table.addKey(name);
+				table.addVal(prefixValues.get(name));
+			}
+		}
+		for (String prefix : subtables.keySet()) {
+			table.addKey(prefix);
+			if (prefixValues.containsKey(prefix)) {
+				table.addVal(prefixValues.get(prefix));
+			}
+			table.addSubtables(subtables.get(prefix));
+		}
+		file = File.createTempFile("name_prefix", ".bin");
+		FileOutputStream out = new FileOutputStream(file);
+		CodedOutputStream cos = CodedOutputStream.newInstance(out);
+		table.build().writeTo(cos);
+		cos.flush();
+		out.close();
+		length = (int) file.length();
+		raf = new RandomAccessFile(file, "r");
+		reader = new BinaryMapIndexReader(raf, file, false);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		raf.close();
+		file.delete();
+	}
+
+	private NamePrefixIndex readIndex() throws IOException {
+		reader.codedIS.seek(0);
+		int oldLimit = reader.codedIS.pushLimit(length);
+		NamePrefixIndex index = reader.readNamePrefixIndex();
+		reader.codedIS.popLimit(oldLimit);
+		return index;
+	}
+
+	private TIntArrayList readTable(Collator collator, String query) throws IOException {
+		TIntArrayList list = new TIntArrayList();
+		reader.codedIS.seek(0);
+		int oldLimit = reader.codedIS.pushLimit(length);
+		reader.readIndexedStringTable(collator, query, "", list, 0);
+		reader.codedIS.popLimit(oldLimit);
+		list.sort();
+		return list;
+	}
+
+	private void checkSameAsTable(NamePrefixIndex index, Collator collator, String query) throws IOException {
+		TIntArrayList expected = readTable(collator, query);
+		TIntArrayList actual = new TIntArrayList();
+		index.search(query, actual);
+		actual.sort();
+		Assert.assertEquals("Query '" + query + "'", expected, actual);
+	}
+
+	@Test
+	public void testQueriesAsTable() throws IOException {
+		NamePrefixIndex index = readIndex();
+		Assert.assertEquals(names.size(), index.size());
+		Collator collator = OsmAndCollator.primaryCollator();
+		Random rnd = new Random(11);
+		int found = 0;
+		for (int q = 0; q < 3000; q++) {
+			String name = names.get(rnd.nextInt(names.size()));
+			String query = name.substring(0, 1 + rnd.nextInt(name.length()));
+			if (rnd.nextInt(3) == 0) {
+				// prefix of the name with other letters
+				query = query + SYLLABLES[rnd.nextInt(SYLLABLES.length)];
+			} else if (rnd.nextInt(3) == 0) {
+				query = query.toUpperCase();
+			}
+			checkSameAsTable(index, collator, query);
+			found++;
+		}
+		Assert.assertTrue(found > 0);
+	}
+
+	@Test
+	public void testDiacriticsAndCase() throws IOException {
+		NamePrefixIndex index = readIndex();
+		Collator collator = OsmAndCollator.primaryCollator();
+		for (String query : new String[] { "re", "RE", "ré", "Ré", "o", "ö", "Ö", "ue", "ü", "е", "ё", "Ё", "l", "ł",
+				"n", "ñ", "ми", "МИ", "ка", "a", "zz", "1", " " }) {
+			checkSameAsTable(index, collator, query);
+		}
+	}
+}
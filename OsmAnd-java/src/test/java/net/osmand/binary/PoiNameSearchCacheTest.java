@@ -0,0 +1,273 @@
+package net.osmand.binary;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import net.osmand.binary.BinaryMapIndexReader.SearchRequest;
+import net.osmand.data.Amenity;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.WireFormat;
+
+/**
+ * Search by name which reuses data cached by the previous query finds the same pois (in the same order and
+ * with the same counters of request) as search which reads everything from the file.
+ * File has one poi index with name table of 2 char prefixes of words and pois in subtrees of tiles.
+ */
+public class PoiNameSearchCacheTest {
+
+	private static final String[] SYLLABLES = { "ab", "abc", "abd", "ba", "ca", "xa", "bc", "abca" };
+	private static final int ZOOM = 12;
+	private static final int POIS = 1500;
+	private static final int BASE_X = 1150000000;
+	private static final int BASE_Y = 700000000;
+	private static final int SPAN = 1 << 23;
+	private static final int VERSION = 2;
+
+	private File file;
+	private BinaryMapIndexReader reader;
+
+	@Before
+	public void setUp() throws IOException {
+		file = File.createTempFile("poi_name_search", ".obf");
+		FileOutputStream out = new FileOutputStream(file);
+		out.write(createFile(new Random(19)));
+		out.close();
+		reader = new BinaryMapIndexReader(new RandomAccessFile(file, "r"), file);
+		Assert.assertEquals(1, reader.getPoiIndexes().size());
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		BinaryMapIndexReader.USE_INCREMENTAL_NAME_SEARCH = false;
+		reader.close();
+		file.delete();
+	}
+
+	private static byte[] createFile(Random rnd) throws IOException {
+		// tile -> subtree of pois
+		Map<Long, ByteArrayOutputStream> tiles = new TreeMap<Long, ByteArrayOutputStream>();
+		// prefix of name word -> tiles of pois with such words
+		Map<String, List<Long>> prefixes = new TreeMap<String, List<Long>>();
+		for (int i = 0; i < POIS; i++) {
+			int x31 = BASE_X + rnd.nextInt(SPAN);
+			int y31 = BASE_Y + rnd.nextInt(SPAN);
+			long tile = (((long) (x31 >> (31 - ZOOM))) << 32) + (y31 >> (31 - ZOOM));
+			StringBuilder name = new StringBuilder();
+			int words = 1 + rnd.nextInt(3);
+			for (int w = 0; w < words; w++) {
+				String word = SYLLABLES[rnd.nextInt(SYLLABLES.length)] + SYLLABLES[rnd.nextInt(SYLLABLES.length)];
+				name.append(w > 0 ? " " : "").append(rnd.nextBoolean() ? word : word.toUpperCase());
+				String prefix = word.substring(0, 2);
+				if (!prefixes.containsKey(prefix)) {
+					prefixes.put(prefix, new ArrayList<Long>());
+				}
+				if (!prefixes.get(prefix).contains(tile)) {
+					prefixes.get(prefix).add(tile);
+				}
+			}
+			if (!tiles.containsKey(tile)) {
+				tiles.put(tile, new ByteArrayOutputStream());
+			}
+			byte[] poi = poi(i + 1, name.toString(), x31, y31, tile);
+			CodedOutputStream cos = CodedOutputStream.newInstance(tiles.get(tile));
+			cos.writeTag(OsmandOdb.OsmAndPoiBoxData.POIDATA_FIELD_NUMBER, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+			cos.writeRawVarint32(poi.length);
+			cos.writeRawBytes(poi);
+			cos.flush();
+		}
+		// pois are written after the name index (sizes of both don't depend on offsets)
+		ByteArrayOutputStream poiData = new ByteArrayOutputStream();
+		Map<Long, Integer> tileOffsets = new LinkedHashMap<Long, Integer>();
+		for (Long tile : tiles.keySet()) {
+			ByteArrayOutputStream subtree = new ByteArrayOutputStream();
+			CodedOutputStream cos = CodedOutputStream.newInstance(subtree);
+			cos.writeUInt32(OsmandOdb.OsmAndPoiBoxData.ZOOM_FIELD_NUMBER, ZOOM);
+			cos.writeUInt32(OsmandOdb.OsmAndPoiBoxData.X_FIELD_NUMBER, (int) (tile >> 32));
+			cos.writeUInt32(OsmandOdb.OsmAndPoiBoxData.Y_FIELD_NUMBER, (int) (tile & 0xffffffffL));
+			cos.writeRawBytes(tiles.get(tile).toByteArray());
+			cos.flush();
+			tileOffsets.put(tile, poiData.size());
+			writeInt(poiData, subtree.size());
+			subtree.writeTo(poiData);
+		}
+		byte[] name = message(OsmandOdb.OsmAndPoiIndex.NAME_FIELD_NUMBER, "Test".getBytes("UTF-8"), false);
+		int nameIndexSize = nameIndex(prefixes, tileOffsets, 0).length;
+		int poiDataStart = name.length + nameIndexSize + 5;
+		ByteArrayOutputStream poiIndex = new ByteArrayOutputStream();
+		poiIndex.write(name);
+		poiIndex.write(nameIndex(prefixes, tileOffsets, poiDataStart));
+		poiIndex.write(message(OsmandOdb.OsmAndPoiIndex.POIDATA_FIELD_NUMBER, poiData.toByteArray(), true));
+
+		ByteArrayOutputStream res = new ByteArrayOutputStream();
+		CodedOutputStream cos = CodedOutputStream.newInstance(res);
+		cos.writeUInt32(OsmandOdb.OsmAndStructure.VERSION_FIELD_NUMBER, VERSION);
+		cos.writeRawBytes(message(OsmandOdb.OsmAndStructure.POIINDEX_FIELD_NUMBER, poiIndex.toByteArray(), true));
+		cos.writeUInt32(OsmandOdb.OsmAndStructure.VERSIONCONFIRM_FIELD_NUMBER, VERSION);
+		cos.flush();
+		return res.toByteArray();
+	}
+
+	private static byte[] poi(long id, String name, int x31, int y31, long tile) throws IOException {
+		ByteArrayOutputStream res = new ByteArrayOutputStream();
+		CodedOutputStream cos = CodedOutputStream.newInstance(res);
+		cos.writeSInt32(OsmandOdb.OsmAndPoiBoxDataAtom.DX_FIELD_NUMBER, (x31 >> 7) - (((int) (tile >> 32)) << (24 - ZOOM)));
+		cos.writeSInt32(OsmandOdb.OsmAndPoiBoxDataAtom.DY_FIELD_NUMBER, (y31 >> 7) - (((int) tile) << (24 - ZOOM)));
+		// category which is not in the table of region (other category)
+		cos.writeUInt32(OsmandOdb.OsmAndPoiBoxDataAtom.CATEGORIES_FIELD_NUMBER, 0);
+		cos.writeString(OsmandOdb.OsmAndPoiBoxDataAtom.NAME_FIELD_NUMBER, name);
+		cos.writeUInt64(OsmandOdb.OsmAndPoiBoxDataAtom.ID_FIELD_NUMBER, id);
+		cos.flush();
+		return res.toByteArray();
+	}
+
+	/**
+	 * Name table with values (fixed32 in the file) which point to name index data of prefixes
+	 */
+	private static byte[] nameIndex(Map<String, List<Long>> prefixes, Map<Long, Integer> tileOffsets,
+			int poiDataStart) throws IOException {
+		List<byte[]> data = new ArrayList<byte[]>();
+		for (List<Long> prefixTiles : prefixes.values()) {
+			ByteArrayOutputStream d = new ByteArrayOutputStream();
+			for (Long tile : prefixTiles) {
+				ByteArrayOutputStream atom = new ByteArrayOutputStream();
+				CodedOutputStream cos = CodedOutputStream.newInstance(atom);
+				cos.writeUInt32(OsmandOdb.OsmAndPoiNameIndexDataAtom.ZOOM_FIELD_NUMBER, ZOOM);
+				cos.writeUInt32(OsmandOdb.OsmAndPoiNameIndexDataAtom.X_FIELD_NUMBER, (int) (tile >> 32));
+				cos.writeUInt32(OsmandOdb.OsmAndPoiNameIndexDataAtom.Y_FIELD_NUMBER, (int) (tile & 0xffffffffL));
+				cos.writeTag(OsmandOdb.OsmAndPoiNameIndexDataAtom.SHIFTTO_FIELD_NUMBER, WireFormat.WIRETYPE_FIXED32);
+				cos.flush();
+				// shift is from the start of poi index to the length of subtree
+				writeInt(atom, poiDataStart + tileOffsets.get(tile));
+				d.write(message(OsmandOdb.OsmAndPoiNameIndex.OsmAndPoiNameIndexData.ATOMS_FIELD_NUMBER, atom.toByteArray(), false));
+			}
+			data.add(d.toByteArray());
+		}
+		int tableSize = table(prefixes, new int[prefixes.size()]).length;
+		// table values are from the start of table to the length of data
+		int[] values = new int[prefixes.size()];
+		int pos = tableSize;
+		for (int i = 0; i < data.size(); i++) {
+			values[i] = pos + 1;
+			pos += message(OsmandOdb.OsmAndPoiNameIndex.DATA_FIELD_NUMBER, data.get(i), false).length;
+		}
+		ByteArrayOutputStream content = new ByteArrayOutputStream();
+		content.write(message(OsmandOdb.OsmAndPoiNameIndex.TABLE_FIELD_NUMBER, table(prefixes, values), true));
+		for (byte[] d : data) {
+			content.write(message(OsmandOdb.OsmAndPoiNameIndex.DATA_FIELD_NUMBER, d, false));
+		}
+		return message(OsmandOdb.OsmAndPoiIndex.NAMEINDEX_FIELD_NUMBER, content.toByteArray(), true);
+	}
+
+	private static byte[] table(Map<String, List<Long>> prefixes, int[] values) throws IOException {
+		ByteArrayOutputStream res = new ByteArrayOutputStream();
+		CodedOutputStream cos = CodedOutputStream.newInstance(res);
+		int i = 0;
+		for (String prefix : prefixes.keySet()) {
+			cos.writeString(OsmandOdb.IndexedStringTable.KEY_FIELD_NUMBER, prefix);
+			cos.writeTag(OsmandOdb.IndexedStringTable.VAL_FIELD_NUMBER, WireFormat.WIRETYPE_FIXED32);
+			cos.flush();
+			writeInt(res, values[i++]);
+		}
+		cos.flush();
+		return res.toByteArray();
+	}
+
+	// field with length as varint or fixed32 (offsets in the file)
+	private static byte[] message(int field, byte[] content, boolean fixedLength) throws IOException {
+		ByteArrayOutputStream res = new ByteArrayOutputStream();
+		CodedOutputStream cos = CodedOutputStream.newInstance(res);
+		if (fixedLength) {
+			cos.writeTag(field, WireFormat.WIRETYPE_FIXED32_LENGTH_DELIMITED);
+			cos.flush();
+			writeInt(res, content.length);
+		} else {
+			cos.writeTag(field, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+			cos.writeRawVarint32(content.length);
+			cos.flush();
+		}
+		res.write(content);
+		return res.toByteArray();
+	}
+
+	// int of the file (BinaryMapIndexReader.readInt)
+	private static void writeInt(ByteArrayOutputStream out, int v) {
+		out.write(v >>> 24);
+		out.write(v >>> 16);
+		out.write(v >>> 8);
+		out.write(v);
+	}
+
+	private SearchRequest<Amenity> search(String query, int limit) throws IOException {
+		SearchRequest<Amenity> req = BinaryMapIndexReader.buildSearchPoiRequest(BASE_X + SPAN / 2, BASE_Y + SPAN / 2,
+				query, 0, Integer.MAX_VALUE, 0, Integer.MAX_VALUE, null);
+		req.limit = limit;
+		reader.searchPoiByName(req);
+		return req;
+	}
+
+	private static void assertSameResults(String msg, SearchRequest<Amenity> expected, SearchRequest<Amenity> actual) {
+		List<Long> expectedIds = new ArrayList<Long>();
+		for (Amenity a : expected.getSearchResults()) {
+			expectedIds.add(a.getId());
+		}
+		List<Long> actualIds = new ArrayList<Long>();
+		for (Amenity a : actual.getSearchResults()) {
+			actualIds.add(a.getId());
+		}
+		Assert.assertEquals(msg, expectedIds, actualIds);
+		Assert.assertEquals(msg, expected.numberOfVisitedObjects, actual.numberOfVisitedObjects);
+		Assert.assertEquals(msg, expected.numberOfAcceptedObjects, actual.numberOfAcceptedObjects);
+	}
+
+	@Test
+	public void testExtendedQueryAsColdSearch() throws IOException {
+		String[] queries = { "ab", "abc", "abca", "ABCAB", "ba", "bab", "x", "xa", "xaab" };
+		for (int limit : new int[] { -1, 30 }) {
+			BinaryMapIndexReader.USE_INCREMENTAL_NAME_SEARCH = false;
+			List<SearchRequest<Amenity>> cold = new ArrayList<SearchRequest<Amenity>>();
+			for (String q : queries) {
+				cold.add(search(q, limit));
+			}
+			BinaryMapIndexReader.USE_INCREMENTAL_NAME_SEARCH = true;
+			for (int i = 0; i < queries.length; i++) {
+				SearchRequest<Amenity> req = search(queries[i], limit);
+				String msg = "Query " + queries[i] + " limit " + limit;
+				Assert.assertFalse(msg, cold.get(i).getSearchResults().isEmpty());
+				assertSameResults(msg, cold.get(i), req);
+				Assert.assertTrue(msg, PoiNameSearchCache.getCachedPois() > 0);
+			}
+		}
+	}
+
+	@Test
+	public void testCacheIsReleased() throws IOException {
+		BinaryMapIndexReader.USE_INCREMENTAL_NAME_SEARCH = true;
+		search("ab", -1);
+		int cached = PoiNameSearchCache.getCachedPois();
+		Assert.assertTrue(cached > 0);
+		Assert.assertTrue(cached <= PoiNameSearchCache.MAX_CACHED_POIS);
+		// extended query reads nothing new
+		search("abc", -1);
+		Assert.assertEquals(cached, PoiNameSearchCache.getCachedPois());
+		// other query replaces cache
+		search("x", -1);
+		Assert.assertTrue(PoiNameSearchCache.getCachedPois() < cached);
+		reader.close();
+		Assert.assertEquals(0, PoiNameSearchCache.getCachedPois());
+	}
+}
@@ -0,0 +1,198 @@
+package net.osmand.router;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+import net.osmand.binary.BinaryMapIndexReader;
+import net.osmand.data.LatLon;
+import net.osmand.router.RoutingTestHelper.TestRoad;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Roads between start and target: main corridor, parallel corridor 4% slower, far corridor 36% slower and a short
+ * bypass of the main corridor. Alternatives are not slower than (1 + stretch) of the best route, don't share more
+ * than allowed part with the best route and other alternatives and never repeat the best route.
+ */
+public class AlternativeRoutesCalculatorTest {
+
+	private static final int UNIT = 1 << 14;
+	private static final long START = 10;
+	private static final long[] MAIN = { 11, 12, 13 };
+	private static final long TARGET = 14;
+	private static final long PARALLEL = 20;
+	private static final long FAR = 30;
+	private static final long BYPASS = 40;
+
+	private File file;
+	private BinaryMapIndexReader reader;
+	private ForkJoinPool pool;
+
+	@Before
+	public void setUp() throws Exception {
+		file = File.createTempFile("alternatives", ".obf");
+		List<TestRoad> roads = new ArrayList<TestRoad>();
+		roads.add(road(START, 0, 0, 1, 0));
+		roads.add(road(MAIN[0], 1, 0, 5, 0));
+		roads.add(road(MAIN[1], 5, 0, 7, 0));
+		roads.add(road(MAIN[2], 7, 0, 11, 0));
+		roads.add(road(TARGET, 11, 0, 12, 0));
+		roads.add(road(PARALLEL, 1, 0, 3, -1, 9, -1, 11, 0));
+		roads.add(road(FAR, 1, 0, 2, 3, 10, 3, 11, 0));
+		roads.add(road(BYPASS, 5, 0, 6, -0.5, 7, 0));
+		reader = RoutingTestHelper.createReader(file, roads, 14);
+		pool = new ForkJoinPool(2);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		pool.shutdown();
+		reader.close();
+		file.delete();
+	}
+
+	private static TestRoad road(long id, double... xy) {
+		TestRoad r = new TestRoad(id, "secondary");
+		for (int i = 0; i < xy.length; i += 2) {
+			r.point(x(xy[i]), y(xy[i + 1]));
+		}
+		return r;
+	}
+
+	private static int x(double x) {
+		return RoutingTestHelper.BASE_X + (int) (x * UNIT);
+	}
+
+	private static int y(double y) {
+		return RoutingTestHelper.BASE_Y + UNIT * 4 + (int) (y * UNIT);
+	}
+
+	private List<List<RouteSegmentResult>> calculate(AlternativeRoutesCalculator alternatives) throws Exception {
+		RoutePlannerFrontEnd fe = new RoutePlannerFrontEnd();
+		RoutingContext ctx = RoutingTestHelper.createContext(fe, RoutingTestHelper.parseConfig(),
+				RoutingTestHelper.PROFILE, new BinaryMapIndexReader[] { reader }, false);
+		LatLon start = RoutingTestHelper.latLon(x(0.5), y(0));
+		LatLon end = RoutingTestHelper.latLon(x(11.5), y(0));
+		List<List<RouteSegmentResult>> routes = fe.searchRouteAlternatives(ctx, start, end, alternatives);
+		Assert.assertNotNull(routes);
+		Assert.assertEquals(ids(START, MAIN[0], MAIN[1], MAIN[2], TARGET), ids(routes.get(0)));
+		float bestCost = RoutingTestHelper.getRouteCost(ctx, routes.get(0));
+		for (int i = 1; i < routes.size(); i++) {
+			Assert.assertTrue(RoutingTestHelper.getRouteCost(ctx, routes.get(i)) > bestCost);
+		}
+		return routes;
+	}
+
+	private static List<Long> ids(long... ids) {
+		List<Long> res = new ArrayList<Long>();
+		for (long id : ids) {
+			res.add(id);
+		}
+		return res;
+	}
+
+	private static List<Long> ids(List<RouteSegmentResult> route) {
+		List<Long> res = new ArrayList<Long>();
+		for (RouteSegmentResult r : route) {
+			res.add(r.getObject().getId());
+		}
+		return res;
+	}
+
+	private static float length(List<RouteSegmentResult> route) {
+		float length = 0;
+		for (RouteSegmentResult r : route) {
+			length += r.getDistance();
+		}
+		return length;
+	}
+
+	private static float sharedLength(List<RouteSegmentResult> route, List<RouteSegmentResult> other) {
+		Set<Long> otherIds = new HashSet<Long>(ids(other));
+		float shared = 0;
+		for (RouteSegmentResult r : route) {
+			if (otherIds.contains(r.getObject().getId())) {
+				shared += r.getDistance();
+			}
+		}
+		return shared;
+	}
+
+	private void checkRoutes(List<List<RouteSegmentResult>> routes, float maxStretch, float maxSharing) {
+		List<RouteSegmentResult> best = routes.get(0);
+		for (int i = 1; i < routes.size(); i++) {
+			List<RouteSegmentResult> alt = routes.get(i);
+			Assert.assertTrue("Route " + i, length(alt) <= length(best) * (1 + maxStretch));
+			// best route is not returned again
+			Assert.assertNotEquals("Route " + i, ids(best), ids(alt));
+			for (int j = 0; j < i; j++) {
+				Assert.assertTrue("Routes " + j + " " + i,
+						sharedLength(alt, routes.get(j)) <= maxSharing * Math.min(length(alt), length(routes.get(j))) + 1);
+			}
+		}
+	}
+
+	private static Set<Long> alternativeCorridors(List<List<RouteSegmentResult>> routes) {
+		Set<Long> res = new HashSet<Long>();
+		for (int i = 1; i < routes.size(); i++) {
+			List<Long> ids = ids(routes.get(i));
+			for (long corridor : new long[] { PARALLEL, FAR, BYPASS }) {
+				if (ids.contains(corridor)) {
+					res.add(corridor);
+				}
+			}
+		}
+		return res;
+	}
+
+	@Test
+	public void testDefaultLimits() throws Exception {
+		List<List<RouteSegmentResult>> routes = calculate(new AlternativeRoutesCalculator(pool));
+		checkRoutes(routes, AlternativeRoutesCalculator.DEFAULT_MAX_STRETCH, AlternativeRoutesCalculator.DEFAULT_MAX_SHARING);
+		// far corridor is too slow, bypass shares most of the route with the best one
+		Assert.assertEquals(2, routes.size());
+		Assert.assertEquals(ids(START, PARALLEL, TARGET), ids(routes.get(1)));
+	}
+
+	@Test
+	public void testStretchBound() throws Exception {
+		List<List<RouteSegmentResult>> routes = calculate(new AlternativeRoutesCalculator(pool).setMaxStretch(0.5f)
+				.setMaxAlternatives(5));
+		checkRoutes(routes, 0.5f, AlternativeRoutesCalculator.DEFAULT_MAX_SHARING);
+		Assert.assertEquals(3, routes.size());
+		Assert.assertEquals(new HashSet<Long>(ids(PARALLEL, FAR)), alternativeCorridors(routes));
+
+		routes = calculate(new AlternativeRoutesCalculator(pool).setMaxStretch(0.02f).setMaxAlternatives(5));
+		checkRoutes(routes, 0.02f, AlternativeRoutesCalculator.DEFAULT_MAX_SHARING);
+		Assert.assertEquals(1, routes.size());
+	}
+
+	@Test
+	public void testSharingLimit() throws Exception {
+		List<List<RouteSegmentResult>> routes = calculate(new AlternativeRoutesCalculator(pool).setMaxSharing(0.9f)
+				.setMaxAlternatives(5));
+		checkRoutes(routes, AlternativeRoutesCalculator.DEFAULT_MAX_STRETCH, 0.9f);
+		Assert.assertEquals(new HashSet<Long>(ids(PARALLEL, BYPASS)), alternativeCorridors(routes));
+		Assert.assertEquals(3, routes.size());
+	}
+
+	@Test
+	public void testBestRouteIsNotRepeated() throws Exception {
+		// any overlap is allowed, so only the best route itself could be rejected
+		List<List<RouteSegmentResult>> routes = calculate(new AlternativeRoutesCalculator(pool).setMaxStretch(1f)
+				.setMaxSharing(1f).setMaxAlternatives(10));
+		checkRoutes(routes, 1f, 1f);
+		Set<List<Long>> distinct = new HashSet<List<Long>>();
+		for (List<RouteSegmentResult> r : routes) {
+			Assert.assertTrue(distinct.add(ids(r)));
+		}
+		Assert.assertEquals(new HashSet<Long>(ids(PARALLEL, FAR, BYPASS)), alternativeCorridors(routes));
+	}
+}
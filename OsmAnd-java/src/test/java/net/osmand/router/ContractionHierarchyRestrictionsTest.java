@@ -0,0 +1,128 @@
+package net.osmand.router;
+
+import java.io.File;
+import java.util.List;
+import java.util.Random;
+
+import net.osmand.binary.BinaryMapIndexReader;
+import net.osmand.data.LatLon;
+import net.osmand.osm.MapRenderingTypes;
+import net.osmand.router.RoutingTestHelper.TestGrid;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Hierarchy of the router with turn restrictions answers queries which routes pass allowed turns only,
+ * routes through forbidden turns are calculated by A*
+ */
+public class ContractionHierarchyRestrictionsTest {
+
+	private static final int SIZE = 6;
+
+	private File file;
+	private BinaryMapIndexReader reader;
+	private TestGrid grid;
+	private RoutingConfiguration.Builder config;
+
+	@Before
+	public void setUp() throws Exception {
+		file = File.createTempFile("ch_restrictions", ".obf");
+		grid = new TestGrid(SIZE, SIZE, 1 << 14, "residential");
+		// faster roads on the first row and column
+		for (int i = 0; i + 1 < SIZE; i++) {
+			grid.roads.set(grid.roads.indexOf(grid.getRoad(grid.horizontalId(i, 0))),
+					new RoutingTestHelper.TestRoad(grid.horizontalId(i, 0), "primary").point(grid.x(i), grid.y(0))
+							.point(grid.x(i + 1), grid.y(0)));
+		}
+		// straight on from (1, 0) - (2, 0) to (2, 0) - (3, 0) is forbidden,
+		// from (1, 1) - (2, 1) only left turn to (2, 1) - (2, 0) is allowed
+		grid.getRoad(grid.horizontalId(1, 0)).restriction(grid.horizontalId(2, 0),
+				MapRenderingTypes.RESTRICTION_NO_STRAIGHT_ON, 0);
+		grid.getRoad(grid.horizontalId(1, 1)).restriction(grid.verticalId(2, 0),
+				MapRenderingTypes.RESTRICTION_ONLY_LEFT_TURN, 0);
+		reader = RoutingTestHelper.createReader(file, grid.roads, 14);
+		config = RoutingTestHelper.parseConfig();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		reader.close();
+		file.delete();
+	}
+
+	private RoutingContext createContext(RoutePlannerFrontEnd fe) {
+		return RoutingTestHelper.createContext(fe, config, RoutingTestHelper.PROFILE,
+				new BinaryMapIndexReader[] { reader }, true);
+	}
+
+	private static boolean passes(List<RouteSegmentResult> route, long from, long to) {
+		for (int i = 1; i < route.size(); i++) {
+			if (route.get(i - 1).getObject().getId() == from && route.get(i).getObject().getId() == to) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private List<RouteSegmentResult> searchRoute(ContractionHierarchy hierarchy, LatLon start, LatLon end)
+			throws Exception {
+		RoutePlannerFrontEnd fe = new RoutePlannerFrontEnd();
+		fe.setUseContractionHierarchy(true);
+		RoutingContext ctx = createContext(fe);
+		Assert.assertTrue(ContractionHierarchy.isSupported(ctx));
+		ctx.contractionHierarchy = hierarchy;
+		return fe.searchRoute(ctx, start, end, null);
+	}
+
+	@Test
+	public void testSameCostAsAStar() throws Exception {
+		ContractionHierarchy hierarchy = ContractionHierarchy.build(createContext(new RoutePlannerFrontEnd()));
+		Random rnd = new Random(11);
+		for (int test = 0; test < 30; test++) {
+			LatLon start = grid.verticalMiddle(rnd.nextInt(SIZE), rnd.nextInt(SIZE - 1));
+			LatLon end = grid.verticalMiddle(rnd.nextInt(SIZE), rnd.nextInt(SIZE - 1));
+			if (start.equals(end)) {
+				continue;
+			}
+			RoutePlannerFrontEnd fe = new RoutePlannerFrontEnd();
+			RoutingContext ctx = createContext(fe);
+			List<RouteSegmentResult> astar = fe.searchRoute(ctx, start, end, null);
+			Assert.assertNotNull(astar);
+			int answered = hierarchy.getAnsweredQueries();
+			int restricted = hierarchy.getRestrictedQueries();
+			List<RouteSegmentResult> ch = searchRoute(hierarchy, start, end);
+			Assert.assertNotNull(ch);
+			Assert.assertEquals("Test " + test, answered + restricted + 1,
+					hierarchy.getAnsweredQueries() + hierarchy.getRestrictedQueries());
+			float expected = RoutingTestHelper.getRouteCost(ctx, astar);
+			Assert.assertEquals("Test " + test, expected, RoutingTestHelper.getRouteCost(ctx, ch), 0.1f);
+		}
+		Assert.assertTrue(hierarchy.getAnsweredQueries() > 0);
+	}
+
+	@Test
+	public void testForbiddenTurnIsNotPassed() throws Exception {
+		ContractionHierarchy hierarchy = ContractionHierarchy.build(createContext(new RoutePlannerFrontEnd()));
+		// best route is straight along the first row
+		List<RouteSegmentResult> route = searchRoute(hierarchy, grid.horizontalMiddle(0, 0), grid.horizontalMiddle(4, 0));
+		Assert.assertNotNull(route);
+		Assert.assertEquals(1, hierarchy.getRestrictedQueries());
+		Assert.assertEquals(0, hierarchy.getAnsweredQueries());
+		Assert.assertFalse(passes(route, grid.horizontalId(1, 0), grid.horizontalId(2, 0)));
+
+		// best route is right turn from the second row to the third column, only left turn is allowed
+		route = searchRoute(hierarchy, grid.horizontalMiddle(1, 1), grid.verticalMiddle(2, 3));
+		Assert.assertNotNull(route);
+		Assert.assertEquals(2, hierarchy.getRestrictedQueries());
+		Assert.assertFalse(passes(route, grid.horizontalId(1, 1), grid.verticalId(2, 1)));
+
+		// restrictions are not on the route
+		route = searchRoute(hierarchy, grid.horizontalMiddle(0, 4), grid.horizontalMiddle(4, 4));
+		Assert.assertNotNull(route);
+		Assert.assertEquals(2, hierarchy.getRestrictedQueries());
+		Assert.assertEquals(1, hierarchy.getAnsweredQueries());
+	}
+}
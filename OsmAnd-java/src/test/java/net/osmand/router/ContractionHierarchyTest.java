@@ -0,0 +1,83 @@
+package net.osmand.router;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.osmand.binary.BinaryMapIndexReader;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+/**
+ * Routes found by contraction hierarchy have the same cost as routes found by A*
+ */
+@RunWith(Parameterized.class)
+public class ContractionHierarchyTest {
+
+	private static BinaryMapIndexReader[] readers;
+	private static ContractionHierarchy hierarchy;
+	private TestEntry te;
+
+	public ContractionHierarchyTest(String name, TestEntry te) {
+		this.te = te;
+	}
+
+	@BeforeClass
+	public static void setUp() throws Exception {
+		String fl = "src/test/resources/Routing_test.obf";
+		readers = new BinaryMapIndexReader[] { new BinaryMapIndexReader(new RandomAccessFile(fl, "r"), new File(fl)) };
+		hierarchy = ContractionHierarchy.build(createContext(new RoutePlannerFrontEnd()));
+	}
+
+	@Parameterized.Parameters(name = "{index}: {0}")
+	public static Iterable<Object[]> data() throws IOException {
+		Reader reader = new InputStreamReader(ContractionHierarchyTest.class.getResourceAsStream("/test_routing.json"));
+		Gson gson = new GsonBuilder().setPrettyPrinting().create();
+		TestEntry[] testEntries = gson.fromJson(reader, TestEntry[].class);
+		ArrayList<Object[]> arrayList = new ArrayList<>();
+		for (TestEntry te : testEntries) {
+			if (!te.isIgnore()) {
+				arrayList.add(new Object[] { te.getTestName(), te });
+			}
+		}
+		reader.close();
+		return arrayList;
+	}
+
+	private static RoutingContext createContext(RoutePlannerFrontEnd fe) {
+		return RoutingTestHelper.createContext(fe, RoutingConfiguration.getDefault(), "pedestrian", readers, true);
+	}
+
+	@Test
+	public void testSameCost() throws Exception {
+		RoutePlannerFrontEnd fe = new RoutePlannerFrontEnd();
+		RoutingContext actx = createContext(fe);
+		List<RouteSegmentResult> astar = fe.searchRoute(actx, te.getStartPoint(), te.getEndPoint(), null);
+		Assert.assertNotNull(astar);
+
+		fe.setUseContractionHierarchy(true);
+		RoutingContext ctx = createContext(fe);
+		Assert.assertTrue(ContractionHierarchy.isSupported(ctx));
+		ctx.contractionHierarchy = hierarchy;
+		int queries = hierarchy.getAnsweredQueries() + hierarchy.getRestrictedQueries();
+		List<RouteSegmentResult> ch = fe.searchRoute(ctx, te.getStartPoint(), te.getEndPoint(), null);
+		Assert.assertNotNull(ch);
+		Assert.assertSame(hierarchy, ctx.contractionHierarchy);
+		// route is found by hierarchy (and it is used if it doesn't pass forbidden turns)
+		Assert.assertEquals(queries + 1, hierarchy.getAnsweredQueries() + hierarchy.getRestrictedQueries());
+
+		float expected = RoutingTestHelper.getRouteCost(actx, astar);
+		Assert.assertEquals(expected, RoutingTestHelper.getRouteCost(ctx, ch), Math.max(1, expected * 0.01f));
+	}
+}
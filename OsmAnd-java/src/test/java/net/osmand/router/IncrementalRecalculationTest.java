@@ -0,0 +1,143 @@
+package net.osmand.router;
+
+import java.io.File;
+import java.io.StringReader;
+import java.util.List;
+import java.util.Random;
+
+import net.osmand.binary.BinaryMapIndexReader;
+import net.osmand.data.LatLon;
+import net.osmand.router.RoutingTestHelper.TestGrid;
+import net.osmand.router.RoutingTestHelper.TestRoad;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Route recalculated from the position off the route by forward search till the reverse search tree of the previous
+ * calculation has the same cost as full recalculation, tree of other overlay or departure time is not used
+ */
+public class IncrementalRecalculationTest {
+
+	private static final int SIZE = 8;
+
+	private File file;
+	private BinaryMapIndexReader reader;
+	private TestGrid grid;
+	private RoutingConfiguration.Builder config;
+
+	@Before
+	public void setUp() throws Exception {
+		file = File.createTempFile("incremental", ".obf");
+		grid = new TestGrid(SIZE, SIZE, 1 << 14, "residential");
+		// faster roads on the middle row and column
+		for (int i = 0; i + 1 < SIZE; i++) {
+			replace(grid.horizontalId(i, SIZE / 2), i, SIZE / 2, i + 1, SIZE / 2);
+			replace(grid.verticalId(SIZE / 2, i), SIZE / 2, i, SIZE / 2, i + 1);
+		}
+		reader = RoutingTestHelper.createReader(file, grid.roads, 14);
+		config = RoutingTestHelper.parseConfig();
+	}
+
+	private void replace(long id, int i1, int j1, int i2, int j2) {
+		grid.roads.set(grid.roads.indexOf(grid.getRoad(id)),
+				new TestRoad(id, "secondary").point(grid.x(i1), grid.y(j1)).point(grid.x(i2), grid.y(j2)));
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		reader.close();
+		file.delete();
+	}
+
+	private RoutingContext createContext(RoutePlannerFrontEnd fe) {
+		return RoutingTestHelper.createContext(fe, config, RoutingTestHelper.PROFILE,
+				new BinaryMapIndexReader[] { reader }, false);
+	}
+
+	private static RoutePlannerFrontEnd incrementalFrontEnd() {
+		RoutePlannerFrontEnd fe = new RoutePlannerFrontEnd();
+		fe.setUseIncrementalRecalculation(true);
+		return fe;
+	}
+
+	private float fullRouteCost(LatLon start, LatLon end) throws Exception {
+		RoutePlannerFrontEnd fe = new RoutePlannerFrontEnd();
+		RoutingContext ctx = createContext(fe);
+		List<RouteSegmentResult> route = fe.searchRoute(ctx, start, end, null);
+		Assert.assertNotNull(route);
+		return RoutingTestHelper.getRouteCost(ctx, route);
+	}
+
+	private ReverseSearchTree calculateTree(LatLon start, LatLon end) throws Exception {
+		RoutePlannerFrontEnd fe = incrementalFrontEnd();
+		RoutingContext ctx = createContext(fe);
+		Assert.assertNotNull(fe.searchRoute(ctx, start, end, null));
+		Assert.assertNotNull(ctx.reverseSearchTree);
+		Assert.assertFalse(ctx.reverseSearchTree.isEmpty());
+		return ctx.reverseSearchTree;
+	}
+
+	@Test
+	public void testSameCostAsFullRecalculation() throws Exception {
+		LatLon end = grid.horizontalMiddle(SIZE - 2, SIZE - 1);
+		ReverseSearchTree tree = calculateTree(grid.verticalMiddle(0, 0), end);
+		Random rnd = new Random(5);
+		for (int test = 0; test < 20; test++) {
+			// driver is somewhere off the route
+			LatLon start = grid.verticalMiddle(rnd.nextInt(SIZE), rnd.nextInt(SIZE - 1));
+			RoutePlannerFrontEnd fe = incrementalFrontEnd();
+			RoutingContext ctx = createContext(fe);
+			ctx.reverseSearchTree = tree;
+			List<RouteSegmentResult> route = fe.searchRoute(ctx, start, end, null);
+			Assert.assertNotNull(route);
+			// tree was used and is kept for the next recalculation
+			Assert.assertSame("Test " + test, tree, ctx.reverseSearchTree);
+			Assert.assertEquals("Test " + test, fullRouteCost(start, end), RoutingTestHelper.getRouteCost(ctx, route),
+					0.1f);
+		}
+	}
+
+	@Test
+	public void testTreeOfOtherCostsIsNotUsed() throws Exception {
+		LatLon start = grid.verticalMiddle(0, 0);
+		LatLon end = grid.horizontalMiddle(SIZE - 2, SIZE - 1);
+		LatLon moved = grid.verticalMiddle(1, 2);
+		ReverseSearchTree tree = calculateTree(start, end);
+
+		// other speed overlay
+		RoutePlannerFrontEnd fe = incrementalFrontEnd();
+		RoutingContext ctx = createContext(fe);
+		ctx.reverseSearchTree = tree;
+		ctx.speedOverlay = new RouteSpeedOverlay();
+		ctx.speedOverlay.setSnapshot(RouteSpeedOverlay.parse(new StringReader(grid.horizontalId(0, 1) + ",*,5\n")));
+		Assert.assertNotNull(fe.searchRoute(ctx, moved, end, null));
+		Assert.assertNotSame(tree, ctx.reverseSearchTree);
+
+		// time dependent costs at other departure time
+		fe = incrementalFrontEnd();
+		ctx = createContext(fe);
+		ctx.config.routeCalculationTime = System.currentTimeMillis();
+		ctx.reverseSearchTree = tree;
+		Assert.assertNotNull(fe.searchRoute(ctx, moved, end, null));
+		Assert.assertNotSame(tree, ctx.reverseSearchTree);
+		ReverseSearchTree timeTree = ctx.reverseSearchTree;
+		Assert.assertNotNull(timeTree);
+
+		fe = incrementalFrontEnd();
+		ctx = createContext(fe);
+		ctx.config.routeCalculationTime = System.currentTimeMillis() + 60 * 60 * 1000;
+		ctx.reverseSearchTree = timeTree;
+		Assert.assertNotNull(fe.searchRoute(ctx, start, end, null));
+		Assert.assertNotSame(timeTree, ctx.reverseSearchTree);
+
+		// same costs
+		fe = incrementalFrontEnd();
+		ctx = createContext(fe);
+		ctx.reverseSearchTree = tree;
+		Assert.assertNotNull(fe.searchRoute(ctx, moved, end, null));
+		Assert.assertSame(tree, ctx.reverseSearchTree);
+	}
+}
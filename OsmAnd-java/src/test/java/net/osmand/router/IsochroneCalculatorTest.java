@@ -0,0 +1,212 @@
+package net.osmand.router;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+import net.osmand.binary.BinaryMapIndexReader;
+import net.osmand.binary.RouteDataObject;
+import net.osmand.data.LatLon;
+import net.osmand.router.IsochroneCalculator.Isochrone;
+import net.osmand.router.RoutingTestHelper.TestGrid;
+import net.osmand.router.RoutingTestHelper.TestRoad;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Reached points and completely reached roads of isochrones are the same as found by plain Dijkstra over all roads,
+ * graph larger than the size limit is reduced around the origin and reaches only part of that area
+ */
+public class IsochroneCalculatorTest {
+
+	private static final int SIZE = 30;
+	private static final int ONEWAY_COLUMN = 15;
+	private static final int FAST_ROW = 12;
+
+	private File file;
+	private BinaryMapIndexReader reader;
+	private TestGrid grid;
+	private ForkJoinPool pool;
+
+	@Before
+	public void setUp() throws Exception {
+		file = File.createTempFile("isochrone", ".obf");
+		grid = new TestGrid(SIZE, SIZE, 1 << 13, "residential");
+		for (int i = 0; i + 1 < SIZE; i++) {
+			long id = grid.horizontalId(i, FAST_ROW);
+			grid.roads.set(grid.roads.indexOf(grid.getRoad(id)), new TestRoad(id, "secondary")
+					.point(grid.x(i), grid.y(FAST_ROW)).point(grid.x(i + 1), grid.y(FAST_ROW)));
+			grid.getRoad(grid.verticalId(ONEWAY_COLUMN, i)).oneway = true;
+		}
+		// small boxes, so reduced area loads only part of roads
+		reader = RoutingTestHelper.createReader(file, grid.roads, 16);
+		pool = new ForkJoinPool(2);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		pool.shutdown();
+		reader.close();
+		file.delete();
+	}
+
+	private RoutingContext createContext() throws Exception {
+		return RoutingTestHelper.createContext(new RoutePlannerFrontEnd(), RoutingTestHelper.parseConfig(),
+				RoutingTestHelper.PROFILE, new BinaryMapIndexReader[] { reader }, false);
+	}
+
+	private List<RouteDataObject> loadAllRoads(RoutingContext ctx) {
+		List<RouteDataObject> roads = new ArrayList<RouteDataObject>();
+		Assert.assertTrue(ctx.loadTileDataInBounds(grid.x(0), grid.y(0), grid.x(SIZE - 1), grid.y(SIZE - 1), roads, 0));
+		Assert.assertEquals(grid.roads.size(), roads.size());
+		return roads;
+	}
+
+	private static long key(RouteDataObject road, int i) {
+		return (((long) road.getPoint31XTile(i)) << 31) + road.getPoint31YTile(i);
+	}
+
+	private static class Reached implements Comparable<Reached> {
+		final long node;
+		final float cost;
+
+		Reached(long node, float cost) {
+			this.node = node;
+			this.cost = cost;
+		}
+
+		@Override
+		public int compareTo(Reached o) {
+			return Float.compare(cost, o.cost);
+		}
+	}
+
+	private static float cost(RoutingContext ctx, RouteDataObject road, int from, int to, boolean distanceBudget) {
+		float d = (float) BinaryRoutePlanner.squareRootDist(road.getPoint31XTile(from), road.getPoint31YTile(from),
+				road.getPoint31XTile(to), road.getPoint31YTile(to));
+		return distanceBudget ? d : BinaryRoutePlanner.calculateTimeWithObstacles(ctx, road, d, 0);
+	}
+
+	/**
+	 * Plain Dijkstra over all roads from the origin in the middle of the road (origin), returns cost of reached nodes
+	 * and fills ids of completely reached roads
+	 */
+	private static Map<Long, Float> dijkstra(RoutingContext ctx, List<RouteDataObject> roads, long origin, float budget,
+			boolean distanceBudget, Set<Long> reachedRoads) {
+		Map<Long, Float> cost = new HashMap<Long, Float>();
+		PriorityQueue<Reached> queue = new PriorityQueue<Reached>();
+		for (RouteDataObject r : roads) {
+			if (r.getId() == origin) {
+				// origin is in the middle of the road
+				float half = cost(ctx, r, 0, 1, distanceBudget) / 2;
+				queue.add(new Reached(key(r, 0), half));
+				queue.add(new Reached(key(r, 1), half));
+			}
+		}
+		while (!queue.isEmpty()) {
+			Reached n = queue.poll();
+			if (n.cost > budget || cost.containsKey(n.node)) {
+				continue;
+			}
+			cost.put(n.node, n.cost);
+			for (RouteDataObject r : roads) {
+				int oneway = ctx.getRouter().isOneWay(r);
+				for (int i = 0; i < 2; i++) {
+					if (key(r, i) == n.node && (i == 0 ? oneway >= 0 : oneway <= 0)) {
+						float c = n.cost + cost(ctx, r, i, 1 - i, distanceBudget);
+						if (c <= budget) {
+							reachedRoads.add(r.getId());
+							queue.add(new Reached(key(r, 1 - i), c));
+						}
+					}
+				}
+			}
+		}
+		return cost;
+	}
+
+	private static Set<Long> roadIds(Isochrone isochrone) {
+		Set<Long> res = new HashSet<Long>();
+		for (RouteSegmentResult r : isochrone.segments) {
+			Assert.assertEquals(0, Math.min(r.getStartPointIndex(), r.getEndPointIndex()));
+			Assert.assertEquals(1, Math.max(r.getStartPointIndex(), r.getEndPointIndex()));
+			Assert.assertTrue(res.add(r.getObject().getId()));
+		}
+		return res;
+	}
+
+	private void checkSameAsDijkstra(float budget, boolean distanceBudget) throws Exception {
+		long[] originRoads = { grid.verticalId(10, 10), grid.verticalId(ONEWAY_COLUMN - 1, FAST_ROW - 1),
+				grid.horizontalId(17, FAST_ROW), grid.horizontalId(2, 27) };
+		List<LatLon> origins = new ArrayList<LatLon>();
+		origins.add(grid.verticalMiddle(10, 10));
+		origins.add(grid.verticalMiddle(ONEWAY_COLUMN - 1, FAST_ROW - 1));
+		origins.add(grid.horizontalMiddle(17, FAST_ROW));
+		origins.add(grid.horizontalMiddle(2, 27));
+		RoutingContext ctx = createContext();
+		List<Isochrone> res = new IsochroneCalculator(pool).calculate(ctx, origins, budget, distanceBudget);
+		List<RouteDataObject> roads = loadAllRoads(createContext());
+		for (int i = 0; i < origins.size(); i++) {
+			Set<Long> expectedRoads = new HashSet<Long>();
+			Map<Long, Float> expected = dijkstra(ctx, roads, originRoads[i], budget, distanceBudget, expectedRoads);
+			Isochrone iso = res.get(i);
+			Assert.assertFalse("Origin " + i, iso.limitedArea);
+			Assert.assertTrue("Origin " + i, expected.size() > 10);
+			Assert.assertEquals("Origin " + i, expected.size(), iso.reachedPoints);
+			Assert.assertEquals("Origin " + i, expectedRoads, roadIds(iso));
+			Assert.assertFalse("Origin " + i, iso.hull.isEmpty());
+		}
+	}
+
+	@Test
+	public void testDistanceSameAsDijkstra() throws Exception {
+		checkSameAsDijkstra(700, true);
+	}
+
+	@Test
+	public void testTimeSameAsDijkstra() throws Exception {
+		checkSameAsDijkstra(60, false);
+	}
+
+	@Test
+	public void testGraphSizeLimit() throws Exception {
+		LatLon origin = grid.verticalMiddle(SIZE / 2, SIZE / 2);
+		long originRoad = grid.verticalId(SIZE / 2, SIZE / 2);
+		// whole grid is reachable within the budget
+		float budget = 10000;
+		RoutingContext ctx = createContext();
+		List<RouteDataObject> roads = loadAllRoads(ctx);
+		long size = 0;
+		for (RouteDataObject r : roads) {
+			size += RoutingContext.getEstimatedSize(r);
+		}
+		Set<Long> allRoads = new HashSet<Long>();
+		Map<Long, Float> all = dijkstra(ctx, roads, originRoad, budget, true, allRoads);
+		Assert.assertEquals(SIZE * SIZE, all.size());
+
+		IsochroneCalculator calculator = new IsochroneCalculator(pool);
+		calculator.setGraphSizeLimit(size / 2);
+		Isochrone limited = calculator.calculate(createContext(), origin, budget, true);
+		Assert.assertTrue(limited.limitedArea);
+		Set<Long> limitedRoads = roadIds(limited);
+		Assert.assertTrue(limited.reachedPoints > 10);
+		Assert.assertTrue(limited.reachedPoints < all.size());
+		Assert.assertTrue(allRoads.containsAll(limitedRoads));
+
+		// even minimal area doesn't fit
+		calculator.setGraphSizeLimit(1);
+		Isochrone empty = calculator.calculate(createContext(), origin, budget, true);
+		Assert.assertTrue(empty.limitedArea);
+		Assert.assertEquals(0, empty.reachedPoints);
+		Assert.assertTrue(empty.segments.isEmpty());
+	}
+}
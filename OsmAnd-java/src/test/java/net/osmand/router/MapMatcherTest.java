@@ -0,0 +1,195 @@
+package net.osmand.router;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import net.osmand.GPXUtilities.TrkSegment;
+import net.osmand.GPXUtilities.WptPt;
+import net.osmand.binary.BinaryMapIndexReader;
+import net.osmand.binary.BinaryMapReaderPool;
+import net.osmand.data.LatLon;
+import net.osmand.router.RoutingTestHelper.TestGrid;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Noisy tracks along known roads of the grid are matched to these roads, points far from roads are skipped and
+ * matching starts again after the long gap. Tracks matched in parallel (workers reuse routing context) have the same
+ * result as tracks matched one by one.
+ */
+public class MapMatcherTest {
+
+	private static final int COLS = 16;
+	private static final int ROWS = 6;
+	private static final int STEP = 1 << 14;
+	// about 25 meters between track points, noise up to 5 meters
+	private static final int POINT_STEP = STEP / 8;
+	private static final int NOISE = STEP / 40;
+
+	private File file;
+	private BinaryMapIndexReader reader;
+	private TestGrid grid;
+	private final Random rnd = new Random(7);
+
+	@Before
+	public void setUp() throws Exception {
+		file = File.createTempFile("map_matcher", ".obf");
+		grid = new TestGrid(COLS, ROWS, STEP, "residential");
+		reader = RoutingTestHelper.createReader(file, grid.roads, 14);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		reader.close();
+		file.delete();
+	}
+
+	private RoutingContext createContext(RoutePlannerFrontEnd fe) throws Exception {
+		return RoutingTestHelper.createContext(fe, RoutingTestHelper.parseConfig(), RoutingTestHelper.PROFILE,
+				new BinaryMapIndexReader[] { reader }, false);
+	}
+
+	private void addPoint(TrkSegment track, int x31, int y31) {
+		LatLon l = RoutingTestHelper.latLon(x31 + rnd.nextInt(2 * NOISE + 1) - NOISE,
+				y31 + rnd.nextInt(2 * NOISE + 1) - NOISE);
+		WptPt p = new WptPt();
+		p.lat = l.getLatitude();
+		p.lon = l.getLongitude();
+		track.points.add(p);
+	}
+
+	// noisy points along the row from node (i1, j) to node (i2, j)
+	private void addRow(TrkSegment track, int j, int i1, int i2) {
+		int dir = i2 > i1 ? 1 : -1;
+		for (int x = grid.x(i1); x * dir <= grid.x(i2) * dir; x += dir * POINT_STEP) {
+			addPoint(track, x, grid.y(j));
+		}
+	}
+
+	// noisy points along the column from node (i, j1) to node (i, j2)
+	private void addColumn(TrkSegment track, int i, int j1, int j2) {
+		int dir = j2 > j1 ? 1 : -1;
+		for (int y = grid.y(j1); y * dir <= grid.y(j2) * dir; y += dir * POINT_STEP) {
+			addPoint(track, grid.x(i), y);
+		}
+	}
+
+	private static List<Long> roads(List<RouteSegmentResult> route) {
+		List<Long> res = new ArrayList<Long>();
+		for (RouteSegmentResult r : route) {
+			long id = r.getObject().getId();
+			if (res.isEmpty() || res.get(res.size() - 1) != id) {
+				res.add(id);
+			}
+		}
+		return res;
+	}
+
+	private List<Long> rowRoads(int j, int i1, int i2) {
+		List<Long> res = new ArrayList<Long>();
+		for (int i = i1; i < i2; i++) {
+			res.add(grid.horizontalId(i, j));
+		}
+		return res;
+	}
+
+	private TrkSegment turningTrack() {
+		TrkSegment track = new TrkSegment();
+		addRow(track, 1, 0, 3);
+		addColumn(track, 3, 1, 4);
+		addRow(track, 4, 3, 1);
+		return track;
+	}
+
+	private List<Long> turningTrackRoads() {
+		List<Long> expected = rowRoads(1, 0, 3);
+		expected.add(grid.verticalId(3, 1));
+		expected.add(grid.verticalId(3, 2));
+		expected.add(grid.verticalId(3, 3));
+		expected.add(grid.horizontalId(2, 4));
+		expected.add(grid.horizontalId(1, 4));
+		return expected;
+	}
+
+	@Test
+	public void testMatchKnownRoads() throws Exception {
+		RoutePlannerFrontEnd fe = new RoutePlannerFrontEnd();
+		List<RouteSegmentResult> route = new MapMatcher(fe).matchSegment(createContext(fe), turningTrack());
+		Assert.assertEquals(turningTrackRoads(), roads(route));
+	}
+
+	@Test
+	public void testOutliersAreSkipped() throws Exception {
+		TrkSegment track = new TrkSegment();
+		addRow(track, 1, 0, 2);
+		// point in the middle of the block (about 100 meters from roads)
+		WptPt outlier = new WptPt();
+		LatLon l = RoutingTestHelper.latLon(grid.x(2) + STEP / 2, grid.y(1) + STEP / 2);
+		outlier.lat = l.getLatitude();
+		outlier.lon = l.getLongitude();
+		track.points.add(outlier);
+		addRow(track, 1, 2, 5);
+		RoutePlannerFrontEnd fe = new RoutePlannerFrontEnd();
+		List<RouteSegmentResult> route = new MapMatcher(fe).matchSegment(createContext(fe), track);
+		Assert.assertEquals(rowRoads(1, 0, 5), roads(route));
+	}
+
+	@Test
+	public void testMatchingStartsAgainAfterGap() throws Exception {
+		TrkSegment track = new TrkSegment();
+		addRow(track, 2, 0, 3);
+		// more than 2 km without points
+		addRow(track, 2, 14, 15);
+		addColumn(track, 15, 2, 4);
+		RoutePlannerFrontEnd fe = new RoutePlannerFrontEnd();
+		List<RouteSegmentResult> route = new MapMatcher(fe).matchSegment(createContext(fe), track);
+		List<Long> expected = rowRoads(2, 0, 3);
+		expected.add(grid.horizontalId(14, 2));
+		expected.add(grid.verticalId(15, 2));
+		expected.add(grid.verticalId(15, 3));
+		// roads of the gap are not in the result
+		Assert.assertEquals(expected, roads(route));
+	}
+
+	@Test
+	public void testMatchTracksSameAsOneByOne() throws Exception {
+		List<TrkSegment> tracks = new ArrayList<TrkSegment>();
+		for (int t = 0; t < 8; t++) {
+			TrkSegment track = new TrkSegment();
+			addRow(track, t % ROWS, t, t + 5);
+			addColumn(track, t + 5, t % ROWS, (t + 3) % ROWS);
+			tracks.add(track);
+		}
+		tracks.add(turningTrack());
+		RoutePlannerFrontEnd fe = new RoutePlannerFrontEnd();
+		MapMatcher matcher = new MapMatcher(fe);
+		List<List<Long>> expected = new ArrayList<List<Long>>();
+		for (TrkSegment track : tracks) {
+			expected.add(roads(matcher.matchSegment(createContext(fe), track)));
+		}
+		Assert.assertEquals(turningTrackRoads(), expected.get(tracks.size() - 1));
+
+		BinaryMapReaderPool readers = new BinaryMapReaderPool();
+		ForkJoinPool pool = new ForkJoinPool(2);
+		try {
+			readers.register(file);
+			RoutingConfiguration config = RoutingTestHelper.parseConfig().build(RoutingTestHelper.PROFILE,
+					RoutingConfiguration.DEFAULT_MEMORY_LIMIT * 3);
+			List<List<RouteSegmentResult>> results = matcher.matchTracks(config, readers, tracks, pool);
+			Assert.assertEquals(tracks.size(), results.size());
+			for (int i = 0; i < tracks.size(); i++) {
+				Assert.assertFalse("Track " + i, expected.get(i).isEmpty());
+				Assert.assertEquals("Track " + i, expected.get(i), roads(results.get(i)));
+			}
+		} finally {
+			pool.shutdown();
+			readers.close();
+		}
+	}
+}
@@ -0,0 +1,94 @@
+package net.osmand.router;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Raw turn lanes calculated from encoded lanes are the same as calculated from turn:lanes value
+ * ({@link RouteResultPreparation#calculateRawTurnLanes(String, int)}) for any main turn.
+ */
+public class RoadTurnInfoTest {
+
+	private static final String[] OPTIONS = { "left", "right", "through", "slight_left", "slight_right", "sharp_left",
+			"sharp_right", "reverse", "none", "merge_to_left", "merge_to_right", "unknown", "" };
+	private static final int MAX_TURN_TYPE = 15;
+
+	private static void checkSameAsString(String turnLanes) {
+		int[] lanes = RoadTurnInfo.encodeLanes(turnLanes);
+		String[] splitLaneOptions = turnLanes.split("\\|", -1);
+		Assert.assertEquals(turnLanes, splitLaneOptions.length, lanes.length);
+		for (int i = 0; i < lanes.length; i++) {
+			String[] laneOptions = splitLaneOptions[i].split(";");
+			int[] options = RoadTurnInfo.getOptions(lanes[i]);
+			Assert.assertEquals(turnLanes, laneOptions.length, options.length);
+			for (int j = 0; j < options.length; j++) {
+				Assert.assertEquals(turnLanes, TurnType.convertType(laneOptions[j]), options[j]);
+			}
+			Assert.assertEquals(turnLanes, splitLaneOptions[i].contains(";"), RoadTurnInfo.hasMultipleOptions(lanes[i]));
+		}
+		for (int calc = 0; calc <= MAX_TURN_TYPE; calc++) {
+			int[] expected = RouteResultPreparation.calculateRawTurnLanes(turnLanes, calc);
+			int[] actual = RoadTurnInfo.calculateRawTurnLanes(lanes, calc);
+			Assert.assertTrue(turnLanes + " turn " + calc + " expected " + Arrays.toString(expected) + " actual "
+					+ Arrays.toString(actual), Arrays.equals(expected, actual));
+		}
+	}
+
+	@Test
+	public void testEmptyLanes() {
+		checkSameAsString("");
+		checkSameAsString("|");
+		checkSameAsString("left||right");
+		checkSameAsString("left|through|");
+		checkSameAsString(";left|right");
+		checkSameAsString("left;|right");
+		checkSameAsString("left;;right|through");
+	}
+
+	@Test
+	public void testNone() {
+		checkSameAsString("none");
+		checkSameAsString("none|none");
+		checkSameAsString("left|none|right");
+		checkSameAsString("none;left|through;none|none;right");
+		checkSameAsString("merge_to_left|none|unknown");
+	}
+
+	@Test
+	public void testManyOptions() {
+		checkSameAsString("left;through;right;slight_left;slight_right;sharp_left;sharp_right;reverse");
+		checkSameAsString("left;none;none;none;none;none;none;right|through");
+		checkSameAsString("none;none;none;none;none;none;none;none;left;right|through|reverse;left;through;right;"
+				+ "slight_right;sharp_right;slight_left;sharp_left;none");
+		// the same value is encoded twice
+		checkSameAsString("left;none;none;none;none;none;none;right|left;none;none;none;none;none;none;right");
+	}
+
+	@Test
+	public void testRandomValues() {
+		Random rnd = new Random(3);
+		for (int t = 0; t < 20000; t++) {
+			StringBuilder sb = new StringBuilder();
+			int lanes = 1 + rnd.nextInt(6);
+			for (int i = 0; i < lanes; i++) {
+				if (i > 0) {
+					sb.append('|');
+				}
+				int options = 1 + rnd.nextInt(rnd.nextInt(10) == 0 ? 12 : 4);
+				for (int j = 0; j < options; j++) {
+					if (j > 0) {
+						sb.append(';');
+					}
+					sb.append(OPTIONS[rnd.nextInt(OPTIONS.length)]);
+				}
+				if (rnd.nextInt(10) == 0) {
+					sb.append(';');
+				}
+			}
+			checkSameAsString(sb.toString());
+		}
+	}
+}
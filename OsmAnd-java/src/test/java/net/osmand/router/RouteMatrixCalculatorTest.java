@@ -0,0 +1,82 @@
+package net.osmand.router;
+
+import java.io.File;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import net.osmand.binary.BinaryMapIndexReader;
+import net.osmand.data.LatLon;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+/**
+ * Cells of the route matrix have the same time as routes between the same points
+ */
+public class RouteMatrixCalculatorTest {
+
+	private static final int MAX_POINTS = 5;
+
+	private static BinaryMapIndexReader[] readers;
+	private static List<LatLon> sources = new ArrayList<LatLon>();
+	private static List<LatLon> targets = new ArrayList<LatLon>();
+
+	@BeforeClass
+	public static void setUp() throws Exception {
+		String fl = "src/test/resources/Routing_test.obf";
+		readers = new BinaryMapIndexReader[] { new BinaryMapIndexReader(new RandomAccessFile(fl, "r"), new File(fl)) };
+		Reader reader = new InputStreamReader(RouteMatrixCalculatorTest.class.getResourceAsStream("/test_routing.json"));
+		Gson gson = new GsonBuilder().setPrettyPrinting().create();
+		TestEntry[] testEntries = gson.fromJson(reader, TestEntry[].class);
+		reader.close();
+		for (TestEntry te : testEntries) {
+			if (!te.isIgnore() && sources.size() < MAX_POINTS) {
+				sources.add(te.getStartPoint());
+				targets.add(te.getEndPoint());
+			}
+		}
+	}
+
+	private static RoutingContext createContext(RoutePlannerFrontEnd fe) {
+		// matrix doesn't apply turn restrictions and turn costs
+		return RoutingTestHelper.createContext(fe, RoutingConfiguration.getDefault(), "pedestrian", readers, false);
+	}
+
+	@Test
+	public void testMatrixSameAsRoutes() throws Exception {
+		RoutePlannerFrontEnd fe = new RoutePlannerFrontEnd();
+		ForkJoinPool pool = new ForkJoinPool(2);
+		RouteMatrixCalculator.RouteMatrix matrix;
+		try {
+			matrix = new RouteMatrixCalculator(pool).calculate(createContext(fe), sources, targets);
+		} finally {
+			pool.shutdown();
+		}
+		Assert.assertNotNull(matrix);
+		for (int i = 0; i < sources.size(); i++) {
+			for (int j = 0; j < targets.size(); j++) {
+				List<RouteSegmentResult> route = fe.searchRoute(createContext(fe), sources.get(i), targets.get(j), null);
+				String cell = "Cell " + i + " x " + j;
+				if (route == null || route.isEmpty()) {
+					Assert.assertEquals(cell, RouteMatrixCalculator.UNREACHABLE, matrix.times[i][j], 0);
+					continue;
+				}
+				float time = 0;
+				for (RouteSegmentResult r : route) {
+					time += r.getRoutingTime();
+				}
+				// matrix and route are started / finished at the same projections but could use other road
+				// of the same cost
+				Assert.assertEquals(cell, time, matrix.times[i][j], Math.max(5, time * 0.02f));
+			}
+		}
+	}
+}
@@ -0,0 +1,96 @@
+package net.osmand.router;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import net.osmand.binary.BinaryMapIndexReader;
+import net.osmand.data.LatLon;
+import net.osmand.osm.MapRenderingTypes;
+import net.osmand.router.RouteMatrixCalculator.RouteMatrix;
+import net.osmand.router.RoutingTestHelper.TestGrid;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Area larger than the graph size limit is calculated by routes of every cell, which have the same times as the
+ * graph matrix and pass turn restrictions of the context
+ */
+public class RouteMatrixFallbackTest {
+
+	private static final int SIZE = 6;
+
+	private File file;
+	private BinaryMapIndexReader reader;
+	private TestGrid grid;
+	private ForkJoinPool pool;
+
+	@Before
+	public void setUp() throws Exception {
+		file = File.createTempFile("route_matrix", ".obf");
+		grid = new TestGrid(SIZE, SIZE, 1 << 14, "residential");
+		// straight on from (1, 0) - (2, 0) to (2, 0) - (3, 0) is forbidden
+		grid.getRoad(grid.horizontalId(1, 0)).restriction(grid.horizontalId(2, 0),
+				MapRenderingTypes.RESTRICTION_NO_STRAIGHT_ON, 0);
+		reader = RoutingTestHelper.createReader(file, grid.roads, 14);
+		pool = new ForkJoinPool(2);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		pool.shutdown();
+		reader.close();
+		file.delete();
+	}
+
+	private RouteMatrix calculate(List<LatLon> sources, List<LatLon> targets, long graphSizeLimit) throws Exception {
+		RoutePlannerFrontEnd fe = new RoutePlannerFrontEnd();
+		RoutingContext ctx = RoutingTestHelper.createContext(fe, RoutingTestHelper.parseConfig(),
+				RoutingTestHelper.PROFILE, new BinaryMapIndexReader[] { reader }, true);
+		RouteMatrixCalculator calculator = new RouteMatrixCalculator(pool);
+		calculator.setGraphSizeLimit(graphSizeLimit);
+		RouteMatrix matrix = calculator.calculate(ctx, sources, targets);
+		Assert.assertNotNull(matrix);
+		return matrix;
+	}
+
+	@Test
+	public void testRoutesSameAsGraph() throws Exception {
+		List<LatLon> sources = new ArrayList<LatLon>();
+		List<LatLon> targets = new ArrayList<LatLon>();
+		for (int i = 1; i < SIZE; i += 2) {
+			sources.add(grid.verticalMiddle(i, 1));
+			targets.add(grid.verticalMiddle(SIZE - 1 - i, SIZE - 2));
+		}
+		RouteMatrix graph = calculate(sources, targets, 0);
+		// every road is larger than 1 byte
+		RouteMatrix routes = calculate(sources, targets, 1);
+		for (int i = 0; i < sources.size(); i++) {
+			for (int j = 0; j < targets.size(); j++) {
+				String cell = "Cell " + i + " x " + j;
+				float time = graph.times[i][j];
+				Assert.assertTrue(cell, time > 0);
+				Assert.assertEquals(cell, time, routes.times[i][j], Math.max(5, time * 0.02f));
+				Assert.assertEquals(cell, graph.distances[i][j], routes.distances[i][j],
+						Math.max(5, graph.distances[i][j] * 0.02f));
+			}
+		}
+	}
+
+	@Test
+	public void testRoutesPassRestrictions() throws Exception {
+		List<LatLon> sources = Collections.singletonList(grid.horizontalMiddle(0, 0));
+		List<LatLon> targets = Collections.singletonList(grid.horizontalMiddle(4, 0));
+		RouteMatrix graph = calculate(sources, targets, 0);
+		RouteMatrix routes = calculate(sources, targets, 1);
+		// graph goes straight along the first row, route makes a detour around the forbidden turn
+		Assert.assertTrue(graph.times[0][0] > 0);
+		Assert.assertTrue(routes.times[0][0] > graph.times[0][0] * 1.2f);
+		Assert.assertTrue(routes.distances[0][0] > graph.distances[0][0] * 1.2f);
+	}
+}
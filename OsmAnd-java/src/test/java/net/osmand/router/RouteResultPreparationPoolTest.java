@@ -0,0 +1,70 @@
+package net.osmand.router;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import net.osmand.binary.BinaryMapIndexReader;
+import net.osmand.router.RoutingTestHelper.TestGrid;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Route prepared with parallel stages on the pool has the same segments, times, turns and descriptions as the route
+ * prepared sequentially
+ */
+public class RouteResultPreparationPoolTest {
+
+	private static final int SIZE = 80;
+
+	private File file;
+	private BinaryMapIndexReader reader;
+	private TestGrid grid;
+	private ForkJoinPool pool;
+
+	@Before
+	public void setUp() throws Exception {
+		file = File.createTempFile("route_preparation", ".obf");
+		grid = new TestGrid(SIZE, SIZE, 1 << 12, "residential");
+		reader = RoutingTestHelper.createReader(file, grid.roads, 14);
+		pool = new ForkJoinPool(4);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		pool.shutdown();
+		reader.close();
+		file.delete();
+	}
+
+	private List<String> calculate(ForkJoinPool preparationPool) throws Exception {
+		RoutePlannerFrontEnd fe = new RoutePlannerFrontEnd();
+		RoutingContext ctx = RoutingTestHelper.createContext(fe, RoutingTestHelper.parseConfig(),
+				RoutingTestHelper.PROFILE, new BinaryMapIndexReader[] { reader }, false);
+		ctx.preparationPool = preparationPool;
+		List<RouteSegmentResult> route = fe.searchRoute(ctx, grid.verticalMiddle(0, 0),
+				grid.horizontalMiddle(SIZE - 2, SIZE - 1), null);
+		Assert.assertNotNull(route);
+		List<String> res = new ArrayList<String>();
+		for (RouteSegmentResult r : route) {
+			res.add(r.getObject().getId() + " " + r.getStartPointIndex() + "-" + r.getEndPointIndex() + " time "
+					+ r.getSegmentTime() + " speed " + r.getSegmentSpeed() + " dist " + r.getDistance() + " turn "
+					+ r.getTurnType() + " " + r.getDescription());
+		}
+		return res;
+	}
+
+	@Test
+	public void testParallelSameAsSequential() throws Exception {
+		List<String> sequential = calculate(null);
+		// route is long enough to be split into several tasks of every stage
+		Assert.assertTrue(sequential.size() > 2 * 64);
+		for (int i = 0; i < 3; i++) {
+			Assert.assertEquals(sequential, calculate(pool));
+		}
+	}
+}
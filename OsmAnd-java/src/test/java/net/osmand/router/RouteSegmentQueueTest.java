@@ -0,0 +1,92 @@
+package net.osmand.router;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import net.osmand.router.BinaryRoutePlanner.RouteSegment;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Queue polls segments in the same priority order as linear search of the minimum does
+ */
+public class RouteSegmentQueueTest {
+
+	private static final float HEURISTIC = 1.5f;
+
+	private static float key(RouteSegment s) {
+		return s.distanceFromStart + HEURISTIC * s.distanceToEnd;
+	}
+
+	private static float pollMinKey(Map<RouteSegment, Float> expected) {
+		RouteSegment min = null;
+		for (RouteSegment s : expected.keySet()) {
+			if (min == null || expected.get(s) < expected.get(min)) {
+				min = s;
+			}
+		}
+		return expected.remove(min);
+	}
+
+	@Test
+	public void testRandomOperations() {
+		Random rnd = new Random(11);
+		RouteSegmentQueue queue = new RouteSegmentQueue(HEURISTIC, 4);
+		Map<RouteSegment, Float> expected = new LinkedHashMap<RouteSegment, Float>();
+		List<RouteSegment> all = new ArrayList<RouteSegment>();
+		for (int i = 0; i < 20000; i++) {
+			int op = rnd.nextInt(10);
+			if (op < 5 || all.isEmpty()) {
+				RouteSegment s = new RouteSegment(null, 0);
+				s.distanceFromStart = rnd.nextFloat() * 1000;
+				s.distanceToEnd = rnd.nextFloat() * 1000;
+				all.add(s);
+				queue.add(s);
+				expected.put(s, key(s));
+			} else if (op < 7) {
+				// change priority of queued or already polled segment
+				RouteSegment s = all.get(rnd.nextInt(all.size()));
+				s.distanceFromStart = rnd.nextFloat() * 1000;
+				queue.add(s);
+				expected.put(s, key(s));
+			} else if (!expected.isEmpty()) {
+				Assert.assertEquals(expected.size(), queue.size());
+				float minKey = pollMinKey(expected);
+				RouteSegment s = queue.poll();
+				Assert.assertEquals(minKey, key(s), 0);
+				Assert.assertFalse(queue.contains(s));
+			}
+			Assert.assertEquals(expected.size(), queue.size());
+		}
+		float prev = Float.NEGATIVE_INFINITY;
+		while (!queue.isEmpty()) {
+			float minKey = pollMinKey(expected);
+			Assert.assertEquals(minKey, queue.peekKey(), 0);
+			RouteSegment s = queue.poll();
+			Assert.assertEquals(minKey, key(s), 0);
+			Assert.assertTrue(key(s) >= prev);
+			prev = key(s);
+		}
+		Assert.assertTrue(expected.isEmpty());
+		Assert.assertNull(queue.poll());
+	}
+
+	@Test
+	public void testClear() {
+		RouteSegmentQueue queue = new RouteSegmentQueue(1);
+		RouteSegment s = new RouteSegment(null, 0);
+		s.distanceFromStart = 10;
+		queue.add(s);
+		queue.clear();
+		Assert.assertTrue(queue.isEmpty());
+		Assert.assertFalse(queue.contains(s));
+		RouteSegmentQueue other = new RouteSegmentQueue(1);
+		other.add(s);
+		Assert.assertTrue(other.contains(s));
+		Assert.assertSame(s, other.poll());
+	}
+}
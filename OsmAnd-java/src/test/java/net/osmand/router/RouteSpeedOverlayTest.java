@@ -0,0 +1,255 @@
+package net.osmand.router;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.Writer;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import net.osmand.binary.BinaryMapIndexReader;
+import net.osmand.binary.RouteDataObject;
+import net.osmand.data.LatLon;
+import net.osmand.router.RouteSpeedOverlay.Snapshot;
+import net.osmand.router.RoutingTestHelper.TestGrid;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Overlay file is parsed with broken lines ignored, reload replaces the snapshot while calculations keep the one
+ * they started with, and routes make a detour around slow or closed roads of the overlay
+ */
+public class RouteSpeedOverlayTest {
+
+	private static final int SIZE = 5;
+	private static final float DELTA = 0.01f;
+
+	private File file;
+	private File overlayFile;
+	private BinaryMapIndexReader reader;
+	private TestGrid grid;
+
+	@Before
+	public void setUp() throws Exception {
+		file = File.createTempFile("speed_overlay", ".obf");
+		overlayFile = File.createTempFile("speed_overlay", ".txt");
+		overlayFile.delete();
+		grid = new TestGrid(SIZE, SIZE, 1 << 14, "residential");
+		reader = RoutingTestHelper.createReader(file, grid.roads, 14);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		reader.close();
+		file.delete();
+		overlayFile.delete();
+	}
+
+	private void writeOverlay(String content, long lastModified) throws IOException {
+		Writer w = new OutputStreamWriter(new FileOutputStream(overlayFile), "UTF-8");
+		try {
+			w.write(content);
+		} finally {
+			w.close();
+		}
+		overlayFile.setLastModified(lastModified);
+	}
+
+	private RoutingContext createContext(RoutePlannerFrontEnd fe, RouteSpeedOverlay overlay) throws Exception {
+		RoutingContext ctx = RoutingTestHelper.createContext(fe, RoutingTestHelper.parseConfig(),
+				RoutingTestHelper.PROFILE, new BinaryMapIndexReader[] { reader }, false);
+		ctx.speedOverlay = overlay;
+		return ctx;
+	}
+
+	private static RouteSpeedOverlay overlay(String content) throws IOException {
+		RouteSpeedOverlay overlay = new RouteSpeedOverlay();
+		overlay.setSnapshot(RouteSpeedOverlay.parse(new StringReader(content)));
+		return overlay;
+	}
+
+	@Test
+	public void testParse() throws Exception {
+		Snapshot s = RouteSpeedOverlay.parse(new StringReader(
+				"# comment\n"
+				+ "\n"
+				+ "profile,daily,60,10,,20\n"
+				+ "1,*,36\n"
+				+ "1,2,72\n"
+				+ "2,0,daily\n"
+				+ "3,*,0\n"
+				+ "4,*,-1\n"
+				+ "5, 1 , 18 \n"
+				+ "6,*,1000\n"
+				// broken lines
+				+ "abc,*,10\n"
+				+ "7\n"
+				+ "8,x,10\n"
+				+ "9,*,unknown\n"
+				+ "profile,empty,60\n"
+				+ "profile,zero,0,10\n"
+				+ "10,*,empty\n"));
+		Assert.assertEquals(7, s.size());
+		// segment entry overrides whole road entry
+		Assert.assertEquals(10, s.getSpeed(1, 0, 0), DELTA);
+		Assert.assertEquals(20, s.getSpeed(1, 2, 0), DELTA);
+		Assert.assertEquals(10, s.getSpeed(1, 3, 0), DELTA);
+		// profile slots repeat, empty slot is no data
+		Assert.assertEquals(10 / 3.6f, s.getSpeed(2, 0, 30), DELTA);
+		Assert.assertEquals(RouteSpeedOverlay.NO_DATA, s.getSpeed(2, 0, 90), DELTA);
+		Assert.assertEquals(20 / 3.6f, s.getSpeed(2, 0, 150), DELTA);
+		Assert.assertEquals(10 / 3.6f, s.getSpeed(2, 0, 180), DELTA);
+		Assert.assertEquals(RouteSpeedOverlay.NO_DATA, s.getSpeed(2, 1, 30), DELTA);
+		Assert.assertEquals(0, s.getSpeed(3, 5, 0), DELTA);
+		Assert.assertEquals(RouteSpeedOverlay.NO_DATA, s.getSpeed(4, 0, 0), DELTA);
+		Assert.assertEquals(5, s.getSpeed(5, 1, 0), DELTA);
+		Assert.assertEquals(254 / 3.6f, s.getSpeed(6, 0, 0), DELTA);
+		for (long id = 7; id <= 10; id++) {
+			Assert.assertEquals(RouteSpeedOverlay.NO_DATA, s.getSpeed(id, 0, 0), DELTA);
+		}
+	}
+
+	@Test
+	public void testReloadReplacesSnapshot() throws Exception {
+		final RouteSpeedOverlay overlay = new RouteSpeedOverlay(overlayFile);
+		Assert.assertFalse(overlay.reloadIfModified());
+		Assert.assertTrue(overlay.getSnapshot().isEmpty());
+
+		writeOverlay("1,*,36\n", 10000);
+		Assert.assertTrue(overlay.reloadIfModified());
+		Assert.assertFalse(overlay.reloadIfModified());
+		Snapshot first = overlay.getSnapshot();
+		RoutingContext ctx = createContext(new RoutePlannerFrontEnd(), overlay);
+		Assert.assertSame(first, ctx.getSpeedOverlaySnapshot());
+
+		writeOverlay("1,*,72\n2,*,18\n", 20000);
+		Assert.assertTrue(overlay.reloadIfModified());
+		Snapshot second = overlay.getSnapshot();
+		Assert.assertNotSame(first, second);
+		// previous snapshot is not changed and calculation keeps it
+		Assert.assertEquals(10, first.getSpeed(1, 0, 0), DELTA);
+		Assert.assertEquals(RouteSpeedOverlay.NO_DATA, first.getSpeed(2, 0, 0), DELTA);
+		Assert.assertEquals(20, second.getSpeed(1, 0, 0), DELTA);
+		Assert.assertSame(first, ctx.getSpeedOverlaySnapshot());
+		Assert.assertSame(second, createContext(new RoutePlannerFrontEnd(), overlay).getSpeedOverlaySnapshot());
+
+		// deleted file removes overlay
+		overlayFile.delete();
+		Assert.assertTrue(overlay.reloadIfModified());
+		Assert.assertTrue(overlay.getSnapshot().isEmpty());
+		Assert.assertNull(createContext(new RoutePlannerFrontEnd(), overlay).getSpeedOverlaySnapshot());
+	}
+
+	@Test
+	public void testReadersSeeCompleteSnapshots() throws Exception {
+		final RouteSpeedOverlay overlay = new RouteSpeedOverlay(overlayFile);
+		final int roads = 200;
+		final AtomicBoolean finished = new AtomicBoolean();
+		final AtomicReference<String> error = new AtomicReference<String>();
+		Thread th = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				while (!finished.get() && error.get() == null) {
+					Snapshot s = overlay.getSnapshot();
+					if (s.isEmpty()) {
+						continue;
+					}
+					// every snapshot has the same speed of all roads
+					float speed = s.getSpeed(0, 0, 0);
+					for (int id = 1; id < roads; id++) {
+						if (s.getSpeed(id, 0, 0) != speed) {
+							error.set("Road " + id + " of snapshot with speed " + speed);
+						}
+					}
+				}
+			}
+		});
+		th.start();
+		try {
+			for (int version = 1; version <= 50; version++) {
+				StringBuilder content = new StringBuilder();
+				for (int id = 0; id < roads; id++) {
+					content.append(id).append(",*,").append(version).append('\n');
+				}
+				writeOverlay(content.toString(), version * 10000L);
+				Assert.assertTrue(overlay.reloadIfModified());
+				Assert.assertEquals(version / 3.6f, overlay.getSnapshot().getSpeed(roads - 1, 0, 0), DELTA);
+			}
+		} finally {
+			finished.set(true);
+			th.join();
+		}
+		Assert.assertNull(error.get(), error.get());
+	}
+
+	@Test
+	public void testOverlayTimeDelta() throws Exception {
+		RoutingContext ctx = createContext(new RoutePlannerFrontEnd(), null);
+		RouteDataObject road = ctx.loadRouteSegment(grid.x(1), grid.y(1), 0).getRoad();
+		float speed = ctx.getRouter().defineRoutingSpeed(road) * ctx.getRouter().defineSpeedPriority(road);
+		float maxSpeed = ctx.getRouter().getMaxSpeed();
+		Assert.assertTrue(speed < maxSpeed);
+		Assert.assertEquals(100 / (speed / 2) - 100 / speed,
+				BinaryRoutePlanner.calculateOverlayTimeDelta(ctx, road, 100, speed / 2), DELTA);
+		Assert.assertEquals(100 / maxSpeed - 100 / speed,
+				BinaryRoutePlanner.calculateOverlayTimeDelta(ctx, road, 100, maxSpeed * 2), DELTA);
+		// closed road is not passed at all, so there is no delta
+		Assert.assertEquals(0, BinaryRoutePlanner.calculateOverlayTimeDelta(ctx, road, 100, 0), DELTA);
+	}
+
+	private static boolean containsRoad(List<RouteSegmentResult> route, long id) {
+		for (RouteSegmentResult r : route) {
+			if (r.getObject().getId() == id) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static float time(List<RouteSegmentResult> route) {
+		float time = 0;
+		for (RouteSegmentResult r : route) {
+			time += r.getSegmentTime();
+		}
+		return time;
+	}
+
+	@Test
+	public void testDetourAroundClosedRoad() throws Exception {
+		LatLon start = grid.horizontalMiddle(0, 2);
+		LatLon end = grid.horizontalMiddle(SIZE - 2, 2);
+		long closed = grid.horizontalId(2, 2);
+		RoutePlannerFrontEnd fe = new RoutePlannerFrontEnd();
+		List<RouteSegmentResult> straight = fe.searchRoute(createContext(fe, null), start, end, null);
+		Assert.assertNotNull(straight);
+		Assert.assertTrue(containsRoad(straight, closed));
+
+		fe = new RoutePlannerFrontEnd();
+		List<RouteSegmentResult> detour = fe.searchRoute(createContext(fe, overlay(closed + ",*,0\n")), start, end,
+				null);
+		Assert.assertNotNull(detour);
+		Assert.assertFalse(containsRoad(detour, closed));
+		Assert.assertTrue(time(detour) > time(straight));
+
+		// slow road is passed when detour is longer, times of the route use overlay speed
+		fe = new RoutePlannerFrontEnd();
+		List<RouteSegmentResult> slow = fe.searchRoute(createContext(fe, overlay(closed + ",*,20\n")), start, end,
+				null);
+		Assert.assertNotNull(slow);
+		Assert.assertTrue(containsRoad(slow, closed));
+		Assert.assertTrue(time(slow) > time(straight));
+		Assert.assertTrue(time(slow) < time(detour));
+
+		fe = new RoutePlannerFrontEnd();
+		List<RouteSegmentResult> verySlow = fe.searchRoute(createContext(fe, overlay(closed + ",*,3\n")), start, end,
+				null);
+		Assert.assertNotNull(verySlow);
+		Assert.assertFalse(containsRoad(verySlow, closed));
+	}
+}
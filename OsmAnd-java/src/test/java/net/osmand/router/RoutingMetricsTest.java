@@ -0,0 +1,94 @@
+package net.osmand.router;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import net.osmand.router.RoutingMetrics.Histogram;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Histogram percentiles are the bucket limits of the exact (nearest rank) percentiles of added values,
+ * concurrent adds are not lost.
+ */
+public class RoutingMetricsTest {
+
+	private static final double[] PERCENTILES = { 0, 1, 10, 25, 50, 75, 90, 99, 99.9, 100 };
+
+	private static long exactPercentile(long[] sorted, double percentile) {
+		long rank = (long) Math.ceil(percentile / 100 * sorted.length);
+		return sorted[(int) Math.max(0, rank - 1)];
+	}
+
+	@Test
+	public void testPercentilesAsExact() {
+		Random rnd = new Random(3);
+		for (int test = 0; test < 20; test++) {
+			Histogram h = new Histogram();
+			long[] values = new long[1 + rnd.nextInt(5000)];
+			long sum = 0;
+			for (int i = 0; i < values.length; i++) {
+				// latencies from microseconds to minutes
+				values[i] = (long) Math.exp(rnd.nextDouble() * 18);
+				sum += values[i];
+				h.add(values[i]);
+			}
+			Arrays.sort(values);
+			long max = values[values.length - 1];
+			Assert.assertEquals(values.length, h.getCount());
+			Assert.assertEquals(sum, h.getSum());
+			Assert.assertEquals(max, h.getMax());
+			Assert.assertEquals(((double) sum) / values.length, h.getMean(), 1e-6);
+			for (double p : PERCENTILES) {
+				long exact = exactPercentile(values, p);
+				long actual = h.getPercentile(p);
+				String msg = "Test " + test + " percentile " + p;
+				Assert.assertEquals(msg, Math.min(Histogram.bucketLimit(Histogram.bucket(exact)), max), actual);
+				Assert.assertTrue(msg, actual >= exact);
+				Assert.assertTrue(msg, actual <= exact * 1.25 + 1);
+			}
+		}
+	}
+
+	@Test
+	public void testBuckets() {
+		long prevLimit = -1;
+		for (int b = 0; b < 200; b++) {
+			long limit = Histogram.bucketLimit(b);
+			Assert.assertTrue(limit > prevLimit);
+			Assert.assertEquals(b, Histogram.bucket(limit));
+			Assert.assertEquals(b, Histogram.bucket(prevLimit + 1));
+			prevLimit = limit;
+		}
+		Assert.assertEquals(0, new Histogram().getPercentile(50));
+	}
+
+	@Test
+	public void testConcurrentAdd() throws InterruptedException {
+		final Histogram h = new Histogram();
+		final int perThread = 100000;
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++) {
+			final int shift = t;
+			threads[t] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for (int i = 1; i <= perThread; i++) {
+						h.add(i + shift);
+					}
+				}
+			});
+			threads[t].start();
+		}
+		long sum = 0;
+		for (int t = 0; t < threads.length; t++) {
+			threads[t].join();
+			sum += ((long) perThread) * (perThread + 1) / 2 + ((long) t) * perThread;
+		}
+		Assert.assertEquals(threads.length * perThread, h.getCount());
+		Assert.assertEquals(sum, h.getSum());
+		Assert.assertEquals(perThread + threads.length - 1, h.getMax());
+		Assert.assertEquals(perThread + threads.length - 1, h.getPercentile(100));
+	}
+}
@@ -0,0 +1,94 @@
+package net.osmand.router;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import net.osmand.NativeLibrary;
+import net.osmand.binary.BinaryMapIndexReader;
+import net.osmand.binary.BinaryMapRouteReaderAdapter.RouteSubregion;
+import net.osmand.binary.RouteDataObject;
+import net.osmand.router.BinaryRoutePlanner.RouteSegment;
+import net.osmand.router.RoutingTestHelper.TestGrid;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tiles loaded by java loader and tiles loaded from native search result (objects in memory) return the same
+ * segments for every point
+ */
+public class RoutingSubregionTileTest {
+
+	private static final int SIZE = 12;
+
+	private File file;
+	private BinaryMapIndexReader reader;
+	private TestGrid grid;
+
+	@Before
+	public void setUp() throws Exception {
+		file = File.createTempFile("subregion_tile", ".obf");
+		grid = new TestGrid(SIZE, SIZE, 1 << 12, "residential");
+		reader = RoutingTestHelper.createReader(file, grid.roads, 15);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		reader.close();
+		file.delete();
+	}
+
+	// objects of the subregion are returned as by native library (in other order than java reader returns them)
+	private class ObjectsNativeLibrary extends NativeLibrary {
+
+		@Override
+		public NativeRouteSearchResult loadRouteRegion(RouteSubregion sub, boolean loadObjects) {
+			try {
+				List<RouteDataObject> objects = new ArrayList<RouteDataObject>(reader.loadRouteIndexData(sub));
+				Collections.reverse(objects);
+				return new NativeRouteSearchResult(0, objects.toArray(new RouteDataObject[objects.size()]));
+			} catch (Exception e) {
+				throw new RuntimeException(e);
+			}
+		}
+	}
+
+	private RoutingContext createContext(NativeLibrary lib) throws Exception {
+		RoutePlannerFrontEnd fe = new RoutePlannerFrontEnd();
+		RoutingConfiguration config = RoutingTestHelper.parseConfig().build(RoutingTestHelper.PROFILE,
+				RoutingConfiguration.DEFAULT_MEMORY_LIMIT * 3);
+		return fe.buildRoutingContext(config, lib, new BinaryMapIndexReader[] { reader });
+	}
+
+	private static List<String> segments(RoutingContext ctx, int x31, int y31) {
+		List<String> res = new ArrayList<String>();
+		RouteSegment s = ctx.loadRouteSegment(x31, y31, 0);
+		while (s != null) {
+			res.add(s.getRoad().getId() + ":" + s.getSegmentStart());
+			s = s.getNext();
+		}
+		Collections.sort(res);
+		return res;
+	}
+
+	@Test
+	public void testNativeTilesSameAsJava() throws Exception {
+		RoutingContext javaCtx = createContext(null);
+		RoutingContext nativeCtx = createContext(new ObjectsNativeLibrary());
+		int found = 0;
+		for (int i = 0; i < SIZE; i++) {
+			for (int j = 0; j < SIZE; j++) {
+				List<String> expected = segments(javaCtx, grid.x(i), grid.y(j));
+				Assert.assertFalse("Node " + i + " " + j, expected.isEmpty());
+				Assert.assertEquals("Node " + i + " " + j, expected, segments(nativeCtx, grid.x(i), grid.y(j)));
+				found += expected.size();
+			}
+		}
+		// every road is found from both ends
+		Assert.assertEquals(grid.roads.size() * 2, found);
+	}
+}
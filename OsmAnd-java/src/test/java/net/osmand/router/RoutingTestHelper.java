@@ -0,0 +1,454 @@
+package net.osmand.router;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import net.osmand.binary.BinaryMapIndexReader;
+import net.osmand.binary.OsmandOdb;
+import net.osmand.binary.OsmandOdb.OsmAndRoutingIndex.RouteDataBlock;
+import net.osmand.binary.OsmandOdb.OsmAndRoutingIndex.RouteDataBox;
+import net.osmand.binary.OsmandOdb.OsmAndRoutingIndex.RouteEncodingRule;
+import net.osmand.binary.RouteDataObject;
+import net.osmand.data.LatLon;
+import net.osmand.util.MapUtils;
+
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.WireFormat;
+
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.list.array.TLongArrayList;
+
+/**
+ * Routing contexts of tests : maps with synthetic road graphs (route index of obf file written the same way
+ * as it is read by BinaryMapRouteReaderAdapter) and small routing profile for them.
+ */
+public class RoutingTestHelper {
+
+	public static final String PROFILE = "car";
+	public static final int BASE_X = MapUtils.get31TileNumberX(10) & ~0xffff;
+	public static final int BASE_Y = MapUtils.get31TileNumberY(50) & ~0xffff;
+
+	private static final int VERSION = 2;
+	private static final int SHIFT_COORDINATES = 4;
+	private static final String CONFIG = "<osmand_routing_config defaultProfile=\"car\">"
+			+ "<routingProfile name=\"car\" baseProfile=\"car\" restrictionsAware=\"true\" minDefaultSpeed=\"10\""
+			+ " maxDefaultSpeed=\"90\" leftTurn=\"0\" rightTurn=\"0\" roundaboutTurn=\"0\">"
+			+ "<attribute name=\"heuristicCoefficient\" value=\"1\"/>"
+			+ "<way attribute=\"access\"><select value=\"-1\" t=\"highway\" v=\"footway\"/></way>"
+			+ "<way attribute=\"oneway\"><select value=\"1\" t=\"oneway\" v=\"yes\"/></way>"
+			+ "<way attribute=\"speed\" type=\"speed\">"
+			+ "<select value=\"90\" t=\"highway\" v=\"primary\"/>"
+			+ "<select value=\"60\" t=\"highway\" v=\"secondary\"/>"
+			+ "<select value=\"30\" t=\"highway\" v=\"residential\"/>"
+			+ "<select value=\"10\"/>"
+			+ "</way>"
+			+ "</routingProfile>"
+			+ "</osmand_routing_config>";
+
+	public static class TestRoad {
+		public final long id;
+		public final String highway;
+		public boolean oneway;
+		public String name;
+		private final TIntArrayList x31 = new TIntArrayList();
+		private final TIntArrayList y31 = new TIntArrayList();
+		// to, type, via
+		private final TLongArrayList restrictions = new TLongArrayList();
+
+		public TestRoad(long id, String highway) {
+			this.id = id;
+			this.highway = highway;
+		}
+
+		public TestRoad point(int x, int y) {
+			// coordinates are stored with precision of 16
+			x31.add(x >> SHIFT_COORDINATES << SHIFT_COORDINATES);
+			y31.add(y >> SHIFT_COORDINATES << SHIFT_COORDINATES);
+			return this;
+		}
+
+		public TestRoad restriction(long to, int type, long via) {
+			restrictions.add(to);
+			restrictions.add(type);
+			restrictions.add(via);
+			return this;
+		}
+
+		public int getX(int i) {
+			return x31.get(i);
+		}
+
+		public int getY(int i) {
+			return y31.get(i);
+		}
+	}
+
+	/**
+	 * Grid of roads between nodes (i, j) with step in 31 coordinates, every road connects 2 neighbour nodes
+	 */
+	public static class TestGrid {
+		public final int cols;
+		public final int rows;
+		public final int step;
+		public final List<TestRoad> roads = new ArrayList<TestRoad>();
+
+		public TestGrid(int cols, int rows, int step, String highway) {
+			this.cols = cols;
+			this.rows = rows;
+			this.step = step;
+			for (int j = 0; j < rows; j++) {
+				for (int i = 0; i < cols; i++) {
+					if (i + 1 < cols) {
+						roads.add(new TestRoad(horizontalId(i, j), highway).point(x(i), y(j)).point(x(i + 1), y(j)));
+					}
+					if (j + 1 < rows) {
+						roads.add(new TestRoad(verticalId(i, j), highway).point(x(i), y(j)).point(x(i), y(j + 1)));
+					}
+				}
+			}
+		}
+
+		public int x(int i) {
+			return BASE_X + i * step;
+		}
+
+		public int y(int j) {
+			return BASE_Y + j * step;
+		}
+
+		// road from (i, j) to (i + 1, j)
+		public long horizontalId(int i, int j) {
+			return ((long) (j * cols + i) << 1) + 2;
+		}
+
+		// road from (i, j) to (i, j + 1)
+		public long verticalId(int i, int j) {
+			return ((long) (j * cols + i) << 1) + 3;
+		}
+
+		public TestRoad getRoad(long id) {
+			for (TestRoad r : roads) {
+				if (r.id == id) {
+					return r;
+				}
+			}
+			return null;
+		}
+
+		// point in the middle of road from (i, j) to (i + 1, j)
+		public LatLon horizontalMiddle(int i, int j) {
+			return latLon(x(i) + step / 2, y(j));
+		}
+
+		// point in the middle of road from (i, j) to (i, j + 1)
+		public LatLon verticalMiddle(int i, int j) {
+			return latLon(x(i), y(j) + step / 2);
+		}
+	}
+
+	public static LatLon latLon(int x31, int y31) {
+		return new LatLon(MapUtils.get31LatitudeY(y31), MapUtils.get31LongitudeX(x31));
+	}
+
+	public static RoutingConfiguration.Builder parseConfig() throws Exception {
+		return RoutingConfiguration.parseFromInputStream(new ByteArrayInputStream(CONFIG.getBytes("UTF-8")));
+	}
+
+	/**
+	 * Context of the profile with costs of node based graph (no turn costs and heuristic coefficient 1), it is used
+	 * to compare routes of A* with routes of hierarchy and matrix
+	 */
+	public static RoutingContext createContext(RoutePlannerFrontEnd fe, RoutingConfiguration.Builder builder,
+			String profile, BinaryMapIndexReader[] readers, boolean restrictionsAware) {
+		RoutingConfiguration config = builder.build(profile, RoutingConfiguration.DEFAULT_MEMORY_LIMIT * 3,
+				new LinkedHashMap<String, String>());
+		GeneralRouter router = (GeneralRouter) config.router;
+		router.addAttribute("restrictionsAware", String.valueOf(restrictionsAware));
+		router.addAttribute("leftTurn", "0");
+		router.addAttribute("rightTurn", "0");
+		router.addAttribute("roundaboutTurn", "0");
+		config.heuristicCoefficient = 1;
+		RoutingContext ctx = fe.buildRoutingContext(config, null, readers, RoutePlannerFrontEnd.RouteCalculationMode.NORMAL);
+		ctx.leftSideNavigation = false;
+		return ctx;
+	}
+
+	/**
+	 * Time to pass the route from precise start to precise end, it doesn't depend on the way the algorithm
+	 * distributes routing time between segments (routing obstacles are not counted)
+	 */
+	public static float getRouteCost(RoutingContext ctx, List<RouteSegmentResult> route) {
+		float cost = 0;
+		for (RouteSegmentResult r : route) {
+			RouteDataObject road = r.getObject();
+			int st = r.getStartPointIndex();
+			int end = r.getEndPointIndex();
+			float dist = 0;
+			for (int i = st; i != end; i += st < end ? 1 : -1) {
+				int next = st < end ? i + 1 : i - 1;
+				dist += BinaryRoutePlanner.squareRootDist(road.getPoint31XTile(i), road.getPoint31YTile(i),
+						road.getPoint31XTile(next), road.getPoint31YTile(next));
+			}
+			cost += BinaryRoutePlanner.calculateTimeWithObstacles(ctx, road, dist, 0);
+		}
+		return cost;
+	}
+
+	/**
+	 * Writes roads to the file (roads are split into boxes by tile of the first point at boxZoom)
+	 */
+	public static void writeMap(File file, List<TestRoad> roads, int boxZoom) throws IOException {
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(createMap(roads, boxZoom));
+		} finally {
+			out.close();
+		}
+	}
+
+	public static BinaryMapIndexReader createReader(File file, List<TestRoad> roads, int boxZoom) throws IOException {
+		writeMap(file, roads, boxZoom);
+		return new BinaryMapIndexReader(new RandomAccessFile(file, "r"), file);
+	}
+
+	private static byte[] createMap(List<TestRoad> roads, int boxZoom) throws IOException {
+		// encoding rules (ids from 1)
+		Map<String, Integer> rules = new LinkedHashMap<String, Integer>();
+		for (TestRoad r : roads) {
+			rule(rules, "highway", r.highway);
+			if (r.oneway) {
+				rule(rules, "oneway", "yes");
+			}
+			if (r.name != null) {
+				rule(rules, "name", "");
+			}
+		}
+		Map<Long, List<TestRoad>> boxes = new TreeMap<Long, List<TestRoad>>();
+		for (TestRoad r : roads) {
+			long tile = (((long) (r.getX(0) >> (31 - boxZoom))) << 32) + (r.getY(0) >> (31 - boxZoom));
+			if (!boxes.containsKey(tile)) {
+				boxes.put(tile, new ArrayList<TestRoad>());
+			}
+			boxes.get(tile).add(r);
+		}
+		ByteArrayOutputStream header = new ByteArrayOutputStream();
+		CodedOutputStream cos = CodedOutputStream.newInstance(header);
+		cos.writeString(OsmandOdb.OsmAndRoutingIndex.NAME_FIELD_NUMBER, "Test");
+		for (String rule : rules.keySet()) {
+			ByteArrayOutputStream rr = new ByteArrayOutputStream();
+			CodedOutputStream rcos = CodedOutputStream.newInstance(rr);
+			rcos.writeString(RouteEncodingRule.TAG_FIELD_NUMBER, rule.substring(0, rule.indexOf('=')));
+			rcos.writeString(RouteEncodingRule.VALUE_FIELD_NUMBER, rule.substring(rule.indexOf('=') + 1));
+			rcos.flush();
+			cos.writeRawBytes(message(OsmandOdb.OsmAndRoutingIndex.RULES_FIELD_NUMBER, rr.toByteArray(), false));
+		}
+		cos.flush();
+		List<int[]> bounds = new ArrayList<int[]>();
+		List<byte[]> blocks = new ArrayList<byte[]>();
+		for (List<TestRoad> box : boxes.values()) {
+			int[] bbox = new int[] { Integer.MAX_VALUE, Integer.MIN_VALUE, Integer.MAX_VALUE, Integer.MIN_VALUE };
+			for (TestRoad r : box) {
+				for (int i = 0; i < r.x31.size(); i++) {
+					bbox[0] = Math.min(bbox[0], r.getX(i));
+					bbox[1] = Math.max(bbox[1], r.getX(i));
+					bbox[2] = Math.min(bbox[2], r.getY(i));
+					bbox[3] = Math.max(bbox[3], r.getY(i));
+				}
+			}
+			bounds.add(bbox);
+			blocks.add(block(box, bbox, rules));
+		}
+		// boxes don't depend on size of shift to data (fixed32)
+		int pos = header.size();
+		for (int[] bbox : bounds) {
+			pos += box(bbox, 0).length;
+		}
+		pos += CodedOutputStream.computeTagSize(OsmandOdb.OsmAndRoutingIndex.BLOCKS_FIELD_NUMBER);
+		ByteArrayOutputStream index = new ByteArrayOutputStream();
+		header.writeTo(index);
+		ByteArrayOutputStream data = new ByteArrayOutputStream();
+		for (int i = 0; i < bounds.size(); i++) {
+			// shift is from the start of box to the length of block
+			int boxStart = index.size() + box(bounds.get(i), 0).length - boxContent(bounds.get(i), 0).length;
+			index.write(box(bounds.get(i), pos + data.size() - boxStart));
+			CodedOutputStream dcos = CodedOutputStream.newInstance(data);
+			dcos.writeRawVarint32(blocks.get(i).length);
+			dcos.writeRawBytes(blocks.get(i));
+			dcos.flush();
+		}
+		// reader skips blocks till the end of index
+		cos = CodedOutputStream.newInstance(index);
+		cos.writeTag(OsmandOdb.OsmAndRoutingIndex.BLOCKS_FIELD_NUMBER, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+		cos.flush();
+		data.writeTo(index);
+
+		ByteArrayOutputStream res = new ByteArrayOutputStream();
+		cos = CodedOutputStream.newInstance(res);
+		cos.writeUInt32(OsmandOdb.OsmAndStructure.VERSION_FIELD_NUMBER, VERSION);
+		cos.writeRawBytes(message(OsmandOdb.OsmAndStructure.ROUTINGINDEX_FIELD_NUMBER, index.toByteArray(), true));
+		cos.writeUInt32(OsmandOdb.OsmAndStructure.VERSIONCONFIRM_FIELD_NUMBER, VERSION);
+		cos.flush();
+		return res.toByteArray();
+	}
+
+	private static int rule(Map<String, Integer> rules, String tag, String value) {
+		String key = tag + "=" + value;
+		if (!rules.containsKey(key)) {
+			rules.put(key, rules.size() + 1);
+		}
+		return rules.get(key);
+	}
+
+	private static byte[] box(int[] bbox, int shiftToData) throws IOException {
+		return message(OsmandOdb.OsmAndRoutingIndex.ROOTBOXES_FIELD_NUMBER, boxContent(bbox, shiftToData), true);
+	}
+
+	private static byte[] boxContent(int[] bbox, int shiftToData) throws IOException {
+		ByteArrayOutputStream res = new ByteArrayOutputStream();
+		CodedOutputStream cos = CodedOutputStream.newInstance(res);
+		cos.writeSInt32(RouteDataBox.LEFT_FIELD_NUMBER, bbox[0]);
+		cos.writeSInt32(RouteDataBox.RIGHT_FIELD_NUMBER, bbox[1]);
+		cos.writeSInt32(RouteDataBox.TOP_FIELD_NUMBER, bbox[2]);
+		cos.writeSInt32(RouteDataBox.BOTTOM_FIELD_NUMBER, bbox[3]);
+		cos.writeTag(RouteDataBox.SHIFTTODATA_FIELD_NUMBER, WireFormat.WIRETYPE_FIXED32);
+		cos.flush();
+		writeInt(res, shiftToData);
+		return res.toByteArray();
+	}
+
+	/**
+	 * Block of box : id table (roads of the box and roads referenced by restrictions), roads, restrictions
+	 * and names
+	 */
+	private static byte[] block(List<TestRoad> box, int[] bbox, Map<String, Integer> rules) throws IOException {
+		TLongArrayList ids = new TLongArrayList();
+		for (TestRoad r : box) {
+			ids.add(r.id);
+		}
+		for (TestRoad r : box) {
+			for (int k = 0; k < r.restrictions.size(); k += 3) {
+				for (int l = 0; l < 3; l += 2) {
+					long id = r.restrictions.get(k + l);
+					if (id != 0 && !ids.contains(id)) {
+						ids.add(id);
+					}
+				}
+			}
+		}
+		List<String> names = new ArrayList<String>();
+		ByteArrayOutputStream res = new ByteArrayOutputStream();
+		CodedOutputStream cos = CodedOutputStream.newInstance(res);
+		ByteArrayOutputStream idTable = new ByteArrayOutputStream();
+		CodedOutputStream icos = CodedOutputStream.newInstance(idTable);
+		long prev = 0;
+		for (int i = 0; i < ids.size(); i++) {
+			icos.writeSInt64(OsmandOdb.IdTable.ROUTEID_FIELD_NUMBER, ids.get(i) - prev);
+			prev = ids.get(i);
+		}
+		icos.flush();
+		cos.writeRawBytes(message(RouteDataBlock.IDTABLE_FIELD_NUMBER, idTable.toByteArray(), false));
+		for (int k = 0; k < box.size(); k++) {
+			TestRoad r = box.get(k);
+			ByteArrayOutputStream rd = new ByteArrayOutputStream();
+			CodedOutputStream rcos = CodedOutputStream.newInstance(rd);
+			ByteArrayOutputStream points = new ByteArrayOutputStream();
+			CodedOutputStream pcos = CodedOutputStream.newInstance(points);
+			int px = bbox[0] >> SHIFT_COORDINATES;
+			int py = bbox[2] >> SHIFT_COORDINATES;
+			for (int i = 0; i < r.x31.size(); i++) {
+				int x = r.getX(i) >> SHIFT_COORDINATES;
+				int y = r.getY(i) >> SHIFT_COORDINATES;
+				pcos.writeSInt32NoTag(x - px);
+				pcos.writeSInt32NoTag(y - py);
+				px = x;
+				py = y;
+			}
+			pcos.flush();
+			rcos.writeRawBytes(message(OsmandOdb.RouteData.POINTS_FIELD_NUMBER, points.toByteArray(), false));
+			ByteArrayOutputStream types = new ByteArrayOutputStream();
+			CodedOutputStream tcos = CodedOutputStream.newInstance(types);
+			tcos.writeRawVarint32(rule(rules, "highway", r.highway));
+			if (r.oneway) {
+				tcos.writeRawVarint32(rule(rules, "oneway", "yes"));
+			}
+			tcos.flush();
+			rcos.writeRawBytes(message(OsmandOdb.RouteData.TYPES_FIELD_NUMBER, types.toByteArray(), false));
+			rcos.writeInt32(OsmandOdb.RouteData.ROUTEID_FIELD_NUMBER, k);
+			if (r.name != null) {
+				ByteArrayOutputStream nm = new ByteArrayOutputStream();
+				CodedOutputStream ncos = CodedOutputStream.newInstance(nm);
+				ncos.writeRawVarint32(rule(rules, "name", ""));
+				ncos.writeRawVarint32(names.size());
+				ncos.flush();
+				names.add(r.name);
+				rcos.writeRawBytes(message(OsmandOdb.RouteData.STRINGNAMES_FIELD_NUMBER, nm.toByteArray(), false));
+			}
+			rcos.flush();
+			cos.writeRawBytes(message(RouteDataBlock.DATAOBJECTS_FIELD_NUMBER, rd.toByteArray(), false));
+		}
+		for (int k = 0; k < box.size(); k++) {
+			TestRoad r = box.get(k);
+			for (int i = 0; i < r.restrictions.size(); i += 3) {
+				ByteArrayOutputStream rs = new ByteArrayOutputStream();
+				CodedOutputStream rcos = CodedOutputStream.newInstance(rs);
+				rcos.writeInt32(OsmandOdb.RestrictionData.FROM_FIELD_NUMBER, k);
+				rcos.writeInt32(OsmandOdb.RestrictionData.TO_FIELD_NUMBER, ids.indexOf(r.restrictions.get(i)));
+				rcos.writeInt32(OsmandOdb.RestrictionData.TYPE_FIELD_NUMBER, (int) r.restrictions.get(i + 1));
+				long via = r.restrictions.get(i + 2);
+				if (via != 0) {
+					// index 0 means no via road
+					if (ids.indexOf(via) == 0) {
+						throw new IllegalArgumentException("Via road should not be the first road of the box");
+					}
+					rcos.writeInt32(OsmandOdb.RestrictionData.VIA_FIELD_NUMBER, ids.indexOf(via));
+				}
+				rcos.flush();
+				cos.writeRawBytes(message(RouteDataBlock.RESTRICTIONS_FIELD_NUMBER, rs.toByteArray(), false));
+			}
+		}
+		if (!names.isEmpty()) {
+			ByteArrayOutputStream st = new ByteArrayOutputStream();
+			CodedOutputStream scos = CodedOutputStream.newInstance(st);
+			for (String n : names) {
+				scos.writeString(OsmandOdb.StringTable.S_FIELD_NUMBER, n);
+			}
+			scos.flush();
+			cos.writeRawBytes(message(RouteDataBlock.STRINGTABLE_FIELD_NUMBER, st.toByteArray(), false));
+		}
+		cos.flush();
+		return res.toByteArray();
+	}
+
+	// field with length as varint or fixed32 (offsets in the file)
+	private static byte[] message(int field, byte[] content, boolean fixedLength) throws IOException {
+		ByteArrayOutputStream res = new ByteArrayOutputStream();
+		CodedOutputStream cos = CodedOutputStream.newInstance(res);
+		if (fixedLength) {
+			cos.writeTag(field, WireFormat.WIRETYPE_FIXED32_LENGTH_DELIMITED);
+			cos.flush();
+			writeInt(res, content.length);
+		} else {
+			cos.writeTag(field, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+			cos.writeRawVarint32(content.length);
+			cos.flush();
+		}
+		res.write(content);
+		return res.toByteArray();
+	}
+
+	private static void writeInt(ByteArrayOutputStream out, int v) {
+		out.write((v >>> 24) & 0xFF);
+		out.write((v >>> 16) & 0xFF);
+		out.write((v >>> 8) & 0xFF);
+		out.write(v & 0xFF);
+	}
+}
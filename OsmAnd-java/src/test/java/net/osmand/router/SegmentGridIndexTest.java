@@ -0,0 +1,128 @@
+package net.osmand.router;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import net.osmand.binary.BinaryMapRouteReaderAdapter.RouteRegion;
+import net.osmand.binary.RouteDataObject;
+import net.osmand.data.QuadPoint;
+import net.osmand.router.BinaryRoutePlanner.RouteSegmentPoint;
+import net.osmand.util.MapUtils;
+
+import gnu.trove.map.hash.TLongObjectHashMap;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Segment index finds the same nearest segments as linear scan of all roads of the tiles
+ * (RoutePlannerFrontEnd.findRouteSegment before the index), the only difference is that roads which
+ * don't cross the searched square are not candidates.
+ */
+public class SegmentGridIndexTest {
+
+	private static final int BASE_X = 1150000000;
+	private static final int BASE_Y = 700000000;
+	private static final int SPAN = 1 << 16;
+	private static final int RADIUS = 1 << 14;
+
+	private static RouteDataObject[] createRoads(Random rnd, int count, long firstId) {
+		RouteDataObject[] roads = new RouteDataObject[count];
+		for (int i = 0; i < roads.length; i++) {
+			RouteDataObject o = new RouteDataObject((RouteRegion) null);
+			o.id = firstId + i;
+			int n = 2 + rnd.nextInt(20);
+			o.pointsX = new int[n];
+			o.pointsY = new int[n];
+			int x = BASE_X + rnd.nextInt(SPAN);
+			int y = BASE_Y + rnd.nextInt(SPAN);
+			for (int j = 0; j < n; j++) {
+				o.pointsX[j] = x;
+				o.pointsY[j] = y;
+				// some roads have long segments crossing many cells
+				int step = i % 50 == 0 ? 60000 : 8000;
+				x += rnd.nextInt(step) - step / 2;
+				y += rnd.nextInt(step) - step / 2;
+			}
+			roads[i] = o;
+		}
+		return roads;
+	}
+
+	// linear scan of findRouteSegment : the nearest segment of the road (the first one with equal distance)
+	private static RouteSegmentPoint findNearestLinear(RouteDataObject r, int px, int py) {
+		RouteSegmentPoint road = null;
+		for (int j = 1; j < r.getPointsLength(); j++) {
+			QuadPoint pr = MapUtils.getProjectionPoint31(px, py, r.getPoint31XTile(j - 1),
+					r.getPoint31YTile(j - 1), r.getPoint31XTile(j), r.getPoint31YTile(j));
+			double currentsDistSquare = MapUtils.squareDist31TileMetric((int) pr.x, (int) pr.y, px, py);
+			if (road == null || currentsDistSquare < road.distSquare) {
+				road = new RouteSegmentPoint(r, j, currentsDistSquare);
+				road.preciseX = (int) pr.x;
+				road.preciseY = (int) pr.y;
+			}
+		}
+		return road;
+	}
+
+	private static void checkSameAsLinear(RouteDataObject[] roads, List<RouteSegmentPoint> nearest, int px, int py) {
+		TLongObjectHashMap<RouteSegmentPoint> found = new TLongObjectHashMap<RouteSegmentPoint>();
+		for (RouteSegmentPoint s : nearest) {
+			Assert.assertNull("Road is found twice", found.put(s.getRoad().getId(), s));
+		}
+		for (RouteDataObject r : roads) {
+			RouteSegmentPoint expected = findNearestLinear(r, px, py);
+			RouteSegmentPoint actual = found.get(r.getId());
+			if (Math.abs(expected.preciseX - px) <= RADIUS && Math.abs(expected.preciseY - py) <= RADIUS) {
+				// nearest point is in the square, so the road crosses it
+				Assert.assertNotNull("Road " + r.getId() + " is not found", actual);
+			}
+			if (actual != null) {
+				Assert.assertSame(r, actual.getRoad());
+				Assert.assertEquals(expected.getSegmentStart(), actual.getSegmentStart());
+				Assert.assertEquals(expected.distSquare, actual.distSquare, 0);
+				Assert.assertEquals(expected.preciseX, actual.preciseX);
+				Assert.assertEquals(expected.preciseY, actual.preciseY);
+			}
+		}
+	}
+
+	@Test
+	public void testNearestSegmentsAsLinearScan() {
+		Random rnd = new Random(1);
+		RouteDataObject[] roads = createRoads(rnd, 500, 1);
+		List<SegmentGridIndex> indexes = new ArrayList<SegmentGridIndex>();
+		indexes.add(new SegmentGridIndex(roads, roads.length));
+		int found = 0;
+		for (int q = 0; q < 500; q++) {
+			int px = BASE_X + rnd.nextInt(SPAN);
+			int py = BASE_Y + rnd.nextInt(SPAN);
+			List<RouteSegmentPoint> nearest = SegmentGridIndex.findNearestSegments(indexes, px, py, RADIUS);
+			found += nearest.size();
+			checkSameAsLinear(roads, nearest, px, py);
+		}
+		Assert.assertTrue(found > 0);
+	}
+
+	/**
+	 * Road present in many tiles is found once with the object of the first tile as linear scan excludes duplicates
+	 */
+	@Test
+	public void testRoadsOfManyTiles() {
+		Random rnd = new Random(5);
+		RouteDataObject[] roads = createRoads(rnd, 200, 1);
+		RouteDataObject[] copies = new RouteDataObject[roads.length / 2];
+		for (int i = 0; i < copies.length; i++) {
+			copies[i] = new RouteDataObject(roads[i * 2]);
+		}
+		List<SegmentGridIndex> indexes = new ArrayList<SegmentGridIndex>();
+		indexes.add(new SegmentGridIndex(roads, roads.length));
+		indexes.add(new SegmentGridIndex(copies, copies.length));
+		for (int q = 0; q < 200; q++) {
+			int px = BASE_X + rnd.nextInt(SPAN);
+			int py = BASE_Y + rnd.nextInt(SPAN);
+			checkSameAsLinear(roads, SegmentGridIndex.findNearestSegments(indexes, px, py, RADIUS), px, py);
+		}
+	}
+}
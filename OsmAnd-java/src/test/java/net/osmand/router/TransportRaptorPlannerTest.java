@@ -0,0 +1,266 @@
+package net.osmand.router;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import net.osmand.data.LatLon;
+import net.osmand.data.TransportRoute;
+import net.osmand.data.TransportStop;
+import net.osmand.router.GeneralRouter.GeneralRouterProfile;
+import net.osmand.router.TransportRoutePlanner.TransportRouteResult;
+import net.osmand.router.TransportRoutePlanner.TransportRouteSegment;
+import net.osmand.router.TransportRoutePlanner.TransportRoutingContext;
+import net.osmand.util.MapUtils;
+
+import gnu.trove.map.hash.TLongObjectHashMap;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Round based planner finds the fastest route (compared with Dijkstra over route stops) and is not slower than
+ * segments queue planner.
+ * Network is a lattice of stops with bus lines along rows and columns (tiles of the context are filled by the test,
+ * so no map files are needed). Walk radius is smaller than the lattice step, so start and end are reached only
+ * from the nearest stop and both planners choose the same stops to leave the route.
+ */
+public class TransportRaptorPlannerTest {
+
+	private static final int SIZE = 12;
+	private static final double LAT = 52.3;
+	private static final double LON = 4.9;
+	// ~ 350 m
+	private static final double STEP_LAT = 0.00315;
+	private static final double STEP_LON = 0.00515;
+	private static final int UNLIMITED_CHANGES = 4 * SIZE;
+	// node types of reference search
+	private static final int READY = 0;
+	private static final int ON_BOARD = 1;
+
+	private TransportStop[][] stops;
+	private List<TransportRoute> routes;
+
+	private void buildNetwork(Random rnd) {
+		stops = new TransportStop[SIZE][SIZE];
+		long id = 1;
+		for (int i = 0; i < SIZE; i++) {
+			for (int j = 0; j < SIZE; j++) {
+				TransportStop st = new TransportStop();
+				st.setId(id++);
+				st.setName("Stop " + i + " " + j);
+				double lat = LAT + i * STEP_LAT + (rnd.nextDouble() - 0.5) * STEP_LAT / 4;
+				double lon = LON + j * STEP_LON + (rnd.nextDouble() - 0.5) * STEP_LON / 4;
+				st.setLocation(lat, lon);
+				st.x31 = MapUtils.get31TileNumberX(lon);
+				st.y31 = MapUtils.get31TileNumberY(lat);
+				stops[i][j] = st;
+			}
+		}
+		routes = new ArrayList<TransportRoute>();
+		for (int line = 0; line < 2 * SIZE; line++) {
+			if (rnd.nextInt(4) == 0) {
+				continue;
+			}
+			int from = rnd.nextInt(SIZE / 3);
+			int to = SIZE - 1 - rnd.nextInt(SIZE / 3);
+			List<TransportStop> forward = new ArrayList<TransportStop>();
+			for (int k = from; k <= to; k++) {
+				forward.add(line < SIZE ? stops[line][k] : stops[k][line - SIZE]);
+			}
+			routes.add(createRoute(routes.size(), forward));
+			List<TransportStop> backward = new ArrayList<TransportStop>(forward);
+			Collections.reverse(backward);
+			routes.add(createRoute(routes.size(), backward));
+		}
+	}
+
+	private static TransportRoute createRoute(int ind, List<TransportStop> forward) {
+		TransportRoute r = new TransportRoute();
+		r.setId((long) (ind + 1));
+		r.setName("Line " + ind);
+		r.setRef(String.valueOf(ind));
+		r.setType("bus");
+		r.setForwardStops(forward);
+		return r;
+	}
+
+	private TransportRoutingContext createContext(boolean raptor, int maxNumberOfChanges) {
+		LinkedHashMap<String, String> params = new LinkedHashMap<String, String>();
+		TransportRoutingConfiguration cfg = new TransportRoutingConfiguration(null, params);
+		cfg.router = new GeneralRouter(GeneralRouterProfile.PUBLIC_TRANSPORT, params);
+		cfg.walkRadius = 200;
+		cfg.walkChangeRadius = 300;
+		cfg.maxNumberOfChanges = maxNumberOfChanges;
+		cfg.useRaptor = raptor;
+		TransportRoutingContext ctx = new TransportRoutingContext(cfg, null);
+		// the same tiles as loaded by context from map files
+		int pz = 31 - cfg.ZOOM_TO_LOAD_TILES;
+		for (TransportStop[] row : stops) {
+			for (TransportStop st : row) {
+				long tileId = (((long) (st.x31 >> pz)) << (cfg.ZOOM_TO_LOAD_TILES + 1)) + (st.y31 >> pz);
+				List<TransportRouteSegment> tile = ctx.quadTree.get(tileId);
+				if (tile == null) {
+					tile = new ArrayList<TransportRouteSegment>();
+					ctx.quadTree.put(tileId, tile);
+				}
+				for (TransportRoute r : routes) {
+					int ind = r.getForwardStops().indexOf(st);
+					if (ind != -1) {
+						tile.add(new TransportRouteSegment(r, ind));
+					}
+				}
+			}
+		}
+		return ctx;
+	}
+
+	private static LatLon near(TransportStop st, Random rnd) {
+		LatLon l = st.getLocation();
+		return new LatLon(l.getLatitude() + (rnd.nextDouble() - 0.5) * 0.0004,
+				l.getLongitude() + (rnd.nextDouble() - 0.5) * 0.0006);
+	}
+
+	/**
+	 * Fastest time by Dijkstra over route stops (arrival on board and ready to board) with the costs of the planners
+	 */
+	private static double findFastestTime(TransportRoutingContext ctx, LatLon start, LatLon end) throws Exception {
+		TransportRoutingConfiguration cfg = ctx.cfg;
+		double boardLimit = Math.min(cfg.maxRouteTime, MapUtils.getDistance(start, end) / cfg.walkSpeed - cfg.changeTime / 2);
+		double changeTime = cfg.getChangeTime() + cfg.getBoardingTime();
+		Map<Long, Double> time = new HashMap<Long, Double>();
+		PriorityQueue<long[]> queue = new PriorityQueue<long[]>(16, new Comparator<long[]>() {
+			@Override
+			public int compare(long[] o1, long[] o2) {
+				return Double.compare(Double.longBitsToDouble(o1[1]), Double.longBitsToDouble(o2[1]));
+			}
+		});
+		TLongObjectHashMap<TransportRouteSegment> nodes = new TLongObjectHashMap<TransportRouteSegment>();
+		for (TransportRouteSegment s : ctx.getTransportStops(start)) {
+			addNode(queue, time, nodes, s, READY, MapUtils.getDistance(s.getLocation(), start) / cfg.walkSpeed);
+		}
+		Map<Long, Double> egress = new HashMap<Long, Double>();
+		for (TransportRouteSegment s : ctx.getTransportStops(end)) {
+			double walkDist = MapUtils.getDistance(s.getLocation(), end);
+			if (walkDist < cfg.walkRadius) {
+				egress.put(nodeId(s, ON_BOARD), walkDist / cfg.walkSpeed);
+			}
+		}
+		double best = Double.POSITIVE_INFINITY;
+		while (!queue.isEmpty()) {
+			long[] n = queue.poll();
+			double t = Double.longBitsToDouble(n[1]);
+			if (t > time.get(n[0]) || t >= best) {
+				continue;
+			}
+			TransportRouteSegment s = nodes.get(n[0]);
+			if ((n[0] & 1) == READY) {
+				addNode(queue, time, nodes, s, ON_BOARD, t);
+				continue;
+			}
+			if (egress.containsKey(n[0])) {
+				best = Math.min(best, t + egress.get(n[0]));
+			}
+			if (s.segStart + 1 < s.getLength()) {
+				TransportRouteSegment next = new TransportRouteSegment(s.road, s.segStart + 1);
+				double d = MapUtils.getDistance(s.getLocation(), next.getLocation());
+				addNode(queue, time, nodes, next, ON_BOARD, t + cfg.stopTime + d / cfg.getSpeedByRouteType(s.road.getType()));
+			}
+			TransportStop stop = s.getStop(s.segStart);
+			for (TransportRouteSegment c : ctx.getTransportStops(stop.x31, stop.y31, true,
+					new ArrayList<TransportRouteSegment>())) {
+				double ready = t + MapUtils.getDistance(c.getLocation(), s.getLocation()) / cfg.walkSpeed + changeTime;
+				if (c.road != s.road && ready <= boardLimit) {
+					addNode(queue, time, nodes, c, READY, ready);
+				}
+			}
+		}
+		return best;
+	}
+
+	private static long nodeId(TransportRouteSegment s, int type) {
+		return (((s.road.getId() << 10) + s.segStart) << 1) + type;
+	}
+
+	private static void addNode(PriorityQueue<long[]> queue, Map<Long, Double> time,
+			TLongObjectHashMap<TransportRouteSegment> nodes, TransportRouteSegment s, int type, double t) {
+		long id = nodeId(s, type);
+		if (!time.containsKey(id) || time.get(id) > t) {
+			time.put(id, t);
+			nodes.put(id, s);
+			queue.add(new long[] { id, Double.doubleToLongBits(t) });
+		}
+	}
+
+	/**
+	 * Without limit of changes rounds find the fastest route
+	 */
+	@Test
+	public void testFastestRoute() throws Exception {
+		Random rnd = new Random(17);
+		int found = 0;
+		for (int network = 0; network < 5; network++) {
+			buildNetwork(rnd);
+			for (int q = 0; q < 20; q++) {
+				LatLon start = near(stops[rnd.nextInt(SIZE)][rnd.nextInt(SIZE)], rnd);
+				LatLon end = near(stops[rnd.nextInt(SIZE)][rnd.nextInt(SIZE)], rnd);
+				if (MapUtils.getDistance(start, end) < 1000) {
+					continue;
+				}
+				double expected = findFastestTime(createContext(false, UNLIMITED_CHANGES), start, end);
+				List<TransportRouteResult> actual = new TransportRoutePlanner().buildRoute(
+						createContext(true, UNLIMITED_CHANGES), start, end);
+				String msg = "Network " + network + " query " + q;
+				Assert.assertEquals(msg, Double.isInfinite(expected), actual.isEmpty());
+				if (!actual.isEmpty()) {
+					found++;
+					Assert.assertEquals(msg, expected, actual.get(0).getRouteTime(), 0.01);
+				}
+			}
+		}
+		Assert.assertTrue(found > 0);
+	}
+
+	/**
+	 * Segments queue doesn't board route at stop it has already passed (by route boarded earlier), so it could miss
+	 * the fastest route, rounds find routes at least as fast for any limit of changes
+	 */
+	@Test
+	public void testNotSlowerThanSegmentsQueue() throws Exception {
+		Random rnd = new Random(23);
+		int found = 0;
+		for (int network = 0; network < 5; network++) {
+			buildNetwork(rnd);
+			for (int q = 0; q < 20; q++) {
+				LatLon start = near(stops[rnd.nextInt(SIZE)][rnd.nextInt(SIZE)], rnd);
+				LatLon end = near(stops[rnd.nextInt(SIZE)][rnd.nextInt(SIZE)], rnd);
+				if (MapUtils.getDistance(start, end) < 1000) {
+					continue;
+				}
+				for (int changes : new int[] { 1, 2, UNLIMITED_CHANGES }) {
+					List<TransportRouteResult> expected = new TransportRoutePlanner().buildRoute(
+							createContext(false, changes), start, end);
+					List<TransportRouteResult> actual = new TransportRoutePlanner().buildRoute(
+							createContext(true, changes), start, end);
+					String msg = "Network " + network + " query " + q + " changes " + changes;
+					if (!expected.isEmpty()) {
+						found++;
+						Assert.assertFalse(msg, actual.isEmpty());
+						Assert.assertTrue(msg, actual.get(0).getRouteTime() <= expected.get(0).getRouteTime() + 0.01);
+						if (expected.get(0).getSegments().size() == 1) {
+							// route without changes
+							Assert.assertEquals(msg, expected.get(0).getRouteTime(), actual.get(0).getRouteTime(), 0.01);
+						}
+					}
+				}
+			}
+		}
+		Assert.assertTrue(found > 0);
+	}
+}
@@ -34,6 +34,8 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicInteger;
 
 public class SearchCoreUITest {
@@ -222,12 +224,38 @@ public class SearchCoreUITest {
 		});
 		if (files != null) {
 			for (File f : files) {
-				testSearchImpl(f);
+				testSearchImpl(f, null);
 			}
 		}
 	}
 
-	private void testSearchImpl(File jsonFile) throws IOException, JSONException {
+	/**
+	 * Apis running in parallel share the phrase and find the same results as sequential search
+	 */
+	@Test
+	public void testSearchJsonsParallel() throws IOException {
+		final File[] files = new File(SEARCH_RESOURCES_PATH).listFiles(new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String filename) {
+				return filename.endsWith(".json");
+			}
+		});
+		if (files != null) {
+			ExecutorService executor = Executors.newFixedThreadPool(4);
+			try {
+				for (File f : files) {
+					List<String> expected = testSearchImpl(f, null);
+					for (int i = 0; i < 10; i++) {
+						Assert.assertEquals(f.getName(), expected, testSearchImpl(f, executor));
+					}
+				}
+			} finally {
+				executor.shutdown();
+			}
+		}
+	}
+
+	private List<String> testSearchImpl(File jsonFile, ExecutorService executor) throws IOException, JSONException {
 		String sourceJsonText = Algorithms.getFileAsString(jsonFile);
 		Assert.assertNotNull(sourceJsonText);
 		Assert.assertTrue(sourceJsonText.length() > 0);
@@ -286,6 +314,7 @@ public class SearchCoreUITest {
 
 		final SearchUICore core = new SearchUICore(MapPoiTypes.getDefault(), "en", false);
 		core.init();
+		core.setParallelSearchExecutor(executor);
 
 		ResultMatcher<SearchResult> rm = new ResultMatcher<SearchResult>() {
 			@Override
@@ -304,16 +333,18 @@ public class SearchCoreUITest {
 		SearchResultCollection collection = new SearchResultCollection(phrase);
 		collection.addSearchResults(matcher.getRequestResults(), true, true);
 		List<SearchResult> searchResults = collection.getCurrentSearchResults();
+		List<String> presentResults = new ArrayList<>();
 		int i = 0;
 		for (SearchResult result : searchResults) {
-			String expected = results.get(i++);
 			String present = result.toString();
-			//System.out.println(present);
-			Assert.assertEquals(expected, present);
-			if (i >= results.size()) {
-				break;
+			presentResults.add(present);
+			if (i < results.size()) {
+				String expected = results.get(i++);
+				//System.out.println(present);
+				Assert.assertEquals(expected, present);
 			}
 		}
+		return presentResults;
 	}
 
 	private static class BinaryMapIndexReaderTest extends BinaryMapIndexReader {
@@ -0,0 +1,163 @@
+package net.osmand.search;
+
+import net.osmand.OsmAndCollator;
+import net.osmand.data.LatLon;
+import net.osmand.search.SearchUICore.SearchResultCollection;
+import net.osmand.search.core.SearchPhrase;
+import net.osmand.search.core.SearchResult;
+import net.osmand.search.core.SearchSettings;
+import net.osmand.util.MapUtils;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Resort of search results (first results are selected by total limit, same objects are removed by hash)
+ * gives the same results as sorting and filtering of all results.
+ */
+public class SearchResultCollectionTest {
+
+	private static SearchPhrase phrase(int totalLimit) {
+		SearchSettings ss = new SearchSettings((SearchSettings) null);
+		ss = ss.setOriginalLocation(new LatLon(0, 0));
+		if (totalLimit > 0) {
+			ss = ss.setTotalLimit(totalLimit);
+		}
+		return new SearchPhrase(ss, OsmAndCollator.primaryCollator());
+	}
+
+	private static SearchResult searchResult(List<SearchResult> rs, SearchPhrase phrase, String text, double dist) {
+		SearchResult res = new SearchResult(phrase);
+		res.localeName = text;
+		double d1 = MapUtils.getDistance(0, 0, 0, 1);
+		res.location = new LatLon(0, dist / d1);
+		rs.add(res);
+		return res;
+	}
+
+	private static String name(Random rnd) {
+		return "" + (char) ('a' + rnd.nextInt(6)) + (rnd.nextInt(3) == 0 ? " " + rnd.nextInt(20) : "");
+	}
+
+	// batches of results, results with the same name are close (same results) only if exactDuplicates
+	private static List<List<SearchResult>> batches(Random rnd, SearchPhrase phrase, int size, boolean exactDuplicates) {
+		List<List<SearchResult>> batches = new ArrayList<>();
+		int count = 1 + rnd.nextInt(3);
+		for (int b = 0; b < count; b++) {
+			List<SearchResult> rs = new ArrayList<>();
+			for (int i = 0; i < size; i++) {
+				double dist = exactDuplicates ? rnd.nextInt(2000) * 5 : (b * size + i) * 3 + 0.2;
+				searchResult(rs, phrase, name(rnd), dist);
+			}
+			batches.add(rs);
+		}
+		return batches;
+	}
+
+	// sort and filter of all results (as before total limit)
+	private static List<SearchResult> sortAll(SearchPhrase phrase, List<List<SearchResult>> batches) {
+		SearchResultCollection cll = new SearchResultCollection(phrase);
+		for (List<SearchResult> rs : batches) {
+			cll.addSearchResults(rs, false, false);
+			cll.sortSearchResults();
+			cll.filterSearchDuplicateResults();
+		}
+		return cll.getCurrentSearchResults();
+	}
+
+	private static List<SearchResult> resort(SearchPhrase phrase, List<List<SearchResult>> batches,
+											 boolean removeDuplicates) {
+		SearchResultCollection cll = new SearchResultCollection(phrase);
+		for (List<SearchResult> rs : batches) {
+			cll.addSearchResults(rs, true, removeDuplicates);
+		}
+		return cll.getCurrentSearchResults();
+	}
+
+	private static List<SearchResult> firstResults(List<SearchResult> rs, int limit) {
+		return rs.subList(0, Math.min(limit, rs.size()));
+	}
+
+	@Test
+	public void testResortAsSortAll() {
+		Random rnd = new Random(7);
+		for (int test = 0; test < 60; test++) {
+			int size = 1 + rnd.nextInt(test % 10 == 0 ? 2000 : 300);
+			int limit = 1 + rnd.nextInt(test % 3 == 0 ? Math.max(1, size / 2) : 200);
+			SearchPhrase phrase = phrase(-1);
+			List<List<SearchResult>> batches = batches(rnd, phrase, size, false);
+			List<SearchResult> expected = sortAll(phrase, batches);
+			List<SearchResult> all = resort(phrase, batches, true);
+			Assert.assertEquals("Test " + test, expected, all);
+			List<SearchResult> first = resort(phrase(limit), batches, true);
+			Assert.assertEquals("Test " + test + " limit " + limit, firstResults(expected, limit), first);
+		}
+	}
+
+	@Test
+	public void testSameObjectsRemoved() {
+		Random rnd = new Random(17);
+		for (int test = 0; test < 60; test++) {
+			int size = 1 + rnd.nextInt(test % 10 == 0 ? 2000 : 300);
+			int limit = 1 + rnd.nextInt(test % 3 == 0 ? Math.max(1, size / 2) : 200);
+			SearchPhrase phrase = phrase(-1);
+			List<List<SearchResult>> batches = batches(rnd, phrase, size, true);
+			// the first of same results is kept
+			List<SearchResult> unique = new ArrayList<>();
+			Set<String> keys = new HashSet<>();
+			for (SearchResult r : batches.get(0)) {
+				if (keys.add(r.localeName + " " + r.location)) {
+					unique.add(r);
+				}
+			}
+			List<SearchResult> expected = sortAll(phrase, Collections.singletonList(unique));
+			Assert.assertEquals("Test " + test, expected, resort(phrase, batches.subList(0, 1), true));
+			Assert.assertEquals("Test " + test + " limit " + limit, firstResults(expected, limit),
+					resort(phrase(limit), batches.subList(0, 1), true));
+
+			List<SearchResult> all = resort(phrase, batches, true);
+			keys.clear();
+			for (SearchResult r : all) {
+				Assert.assertTrue("Test " + test + " " + r, keys.add(r.localeName + " " + r.location));
+			}
+			Assert.assertEquals("Test " + test + " limit " + limit, firstResults(all, limit),
+					resort(phrase(limit), batches, true));
+		}
+	}
+
+	@Test
+	public void testCombineWithCollection() {
+		Random rnd = new Random(27);
+		for (int test = 0; test < 30; test++) {
+			int size = 1 + rnd.nextInt(300);
+			int limit = 1 + rnd.nextInt(Math.max(1, size / 2));
+			SearchPhrase phrase = phrase(limit);
+			List<List<SearchResult>> batches = batches(rnd, phrase, size, false);
+			batches.addAll(batches(rnd, phrase, size, false));
+			List<List<SearchResult>> first = batches.subList(0, batches.size() / 2);
+			List<List<SearchResult>> second = batches.subList(batches.size() / 2, batches.size());
+			SearchResultCollection cll1 = new SearchResultCollection(phrase);
+			for (List<SearchResult> rs : first) {
+				cll1.addSearchResults(rs, true, false);
+			}
+			SearchResultCollection cll2 = new SearchResultCollection(phrase);
+			for (List<SearchResult> rs : second) {
+				cll2.addSearchResults(rs, true, false);
+			}
+			List<SearchResult> expected = resort(phrase, batches, false);
+			Assert.assertEquals("Test " + test, expected,
+					cll1.combineWithCollection(cll2, true, false).getCurrentSearchResults());
+			// results over limit are merged by the next resort
+			SearchResultCollection combined = cll1.combineWithCollection(cll2, false, false);
+			combined.addSearchResults(new ArrayList<SearchResult>(), true, false);
+			Assert.assertEquals("Test " + test, expected, combined.getCurrentSearchResults());
+		}
+	}
+}
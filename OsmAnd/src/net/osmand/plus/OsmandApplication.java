@@ -258,6 +258,9 @@ public class OsmandApplication extends MultiDexApplication {
 		if (routingHelper != null) {
 			routingHelper.getVoiceRouter().onApplicationTerminate();
 		}
+		if (transportRoutingHelper != null) {
+			transportRoutingHelper.closeTransportStopsIndexes();
+		}
         if(RateUsBottomSheetDialogFragment.shouldShow(this)) {
             osmandSettings.RATE_US_STATE.set(RateUsBottomSheetDialogFragment.RateUsState.IGNORED);
         }
@@ -569,6 +572,9 @@ public class OsmandApplication extends MultiDexApplication {
 		if (appInitializer.isAppInitializing()) {
 			resourceManager.close();
 		}
+		if (transportRoutingHelper != null) {
+			transportRoutingHelper.closeTransportStopsIndexes();
+		}
 		activity.finish();
 		if (getNavigationService() == null) {
 			fullExit();
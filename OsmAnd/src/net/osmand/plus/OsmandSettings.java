@@ -1968,7 +1968,9 @@ public class OsmandSettings {
 	public final OsmandPreference<Boolean> FAST_ROUTE_MODE = new BooleanPreference("fast_route_mode", true).makeProfile();
 	// dev version
 	public final CommonPreference<Boolean> DISABLE_COMPLEX_ROUTING = new BooleanPreference("disable_complex_routing", false).makeGlobal();
+	public final CommonPreference<Boolean> USE_INCREMENTAL_RECALCULATION = new BooleanPreference("use_incremental_recalculation", false).makeGlobal();
 	public final CommonPreference<Boolean> ENABLE_TIME_CONDITIONAL_ROUTING = new BooleanPreference("enable_time_conditional_routing", true).makeProfile();
+	public final CommonPreference<Boolean> CALCULATE_ALTERNATIVE_ROUTES = new BooleanPreference("calculate_alternative_routes", false).makeProfile();
 
 	public boolean simulateNavigation = false;
 
@@ -38,6 +38,7 @@ public class DevelopmentSettingsFragment extends BaseSettingsFragment {
 
 		setupDisableComplexRoutingPref();
 		setupFastRecalculationPref();
+		setupIncrementalRecalculationPref();
 		setupOsmLiveForRoutingPref();
 		setupOsmLiveForPublicTransportPref();
 		setupSimulateYourLocationPref();
@@ -93,6 +94,12 @@ public class DevelopmentSettingsFragment extends BaseSettingsFragment {
 		useFastRecalculation.setIconSpaceReserved(false);
 	}
 
+	private void setupIncrementalRecalculationPref() {
+		SwitchPreferenceEx useIncrementalRecalculation = (SwitchPreferenceEx) findPreference(settings.USE_INCREMENTAL_RECALCULATION.getId());
+		useIncrementalRecalculation.setDescription(getString(R.string.use_incremental_recalculation_desc));
+		useIncrementalRecalculation.setIconSpaceReserved(false);
+	}
+
 	private void setupOsmLiveForRoutingPref() {
 		SwitchPreferenceEx useOsmLiveForRouting = (SwitchPreferenceEx) findPreference(settings.USE_OSM_LIVE_FOR_ROUTING.getId());
 		useOsmLiveForRouting.setDescription(getString(R.string.use_osm_live_routing_description));
@@ -59,6 +59,9 @@ public class SettingsDevelopmentActivity extends SettingsBaseActivity {
 		navigation.addPreference(createCheckBoxPreference(settings.USE_FAST_RECALCULATION,
 				R.string.use_fast_recalculation, R.string.use_fast_recalculation_desc));
 
+		navigation.addPreference(createCheckBoxPreference(settings.USE_INCREMENTAL_RECALCULATION,
+				R.string.use_incremental_recalculation, R.string.use_incremental_recalculation_desc));
+
 		navigation.addPreference(createCheckBoxPreference(settings.USE_OSM_LIVE_FOR_ROUTING,
 				R.string.use_osm_live_routing,
 				R.string.use_osm_live_routing_description));
@@ -61,6 +61,8 @@ public class RouteCalculationResult {
 	protected int cacheCurrentTextDirectionInfo = -1;
 	protected List<RouteDirectionInfo> cacheAgreggatedDirections;
 	protected List<LocationPoint> locationPoints = new ArrayList<LocationPoint>();
+	// routes calculated by the same search (offline routing)
+	protected List<RouteCalculationResult> alternativeRoutes = Collections.emptyList();
 
 	// params
 	protected final ApplicationMode appMode;
@@ -191,6 +193,14 @@ public class RouteCalculationResult {
 		return alarmInfo;
 	}
 
+	public List<RouteCalculationResult> getAlternativeRoutes() {
+		return alternativeRoutes;
+	}
+
+	void setAlternativeRoutes(List<RouteCalculationResult> alternativeRoutes) {
+		this.alternativeRoutes = alternativeRoutes;
+	}
+
 	private static void calculateIntermediateIndexes(Context ctx, List<Location> locations,
 			List<LatLon> intermediates, List<RouteDirectionInfo> localDirections, int[] intermediatePoints) {
 		if(intermediates != null && localDirections != null) {
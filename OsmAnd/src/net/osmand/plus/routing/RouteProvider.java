@@ -12,6 +12,7 @@ import net.osmand.GPXUtilities.Route;
 import net.osmand.GPXUtilities.Track;
 import net.osmand.GPXUtilities.TrkSegment;
 import net.osmand.GPXUtilities.WptPt;
+import net.osmand.IndexConstants;
 import net.osmand.Location;
 import net.osmand.PlatformUtil;
 import net.osmand.binary.BinaryMapIndexReader;
@@ -32,11 +33,13 @@ import net.osmand.router.GeneralRouter;
 import net.osmand.router.GeneralRouter.RoutingParameter;
 import net.osmand.router.GeneralRouter.RoutingParameterType;
 import net.osmand.router.PrecalculatedRouteDirection;
+import net.osmand.router.ReverseSearchTree;
 import net.osmand.router.RouteExporter;
 import net.osmand.router.RouteImporter;
 import net.osmand.router.RoutePlannerFrontEnd;
 import net.osmand.router.RoutePlannerFrontEnd.RouteCalculationMode;
 import net.osmand.router.RouteSegmentResult;
+import net.osmand.router.RouteSpeedOverlay;
 import net.osmand.router.RoutingConfiguration;
 import net.osmand.router.RoutingConfiguration.Builder;
 import net.osmand.router.RoutingContext;
@@ -65,6 +68,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 import java.util.zip.GZIPInputStream;
 
 import javax.xml.parsers.FactoryConfigurationError;
@@ -80,6 +84,14 @@ public class RouteProvider {
 	private static final String OSMAND_ROUTER = "OsmAndRouter";
 	private static final int MIN_DISTANCE_FOR_INSERTING_ROUTE_SEGMENT = 60;
 	private static final int MIN_STRAIGHT_DIST = 50000;
+	// live / time dependent speeds of roads (see RouteSpeedOverlay)
+	private static final String SPEED_OVERLAY_FILE = "speed_overlay.txt";
+
+	// reverse search tree of the last calculated route, recalculation to the same target continues it
+	private ReverseSearchTree reverseSearchTree;
+	// searches of alternative routes
+	private ForkJoinPool alternativesPool;
+	private RouteSpeedOverlay speedOverlay;
 
 	public enum RouteService {
 		OSMAND("OsmAnd (offline)"),
@@ -684,6 +696,14 @@ public class RouteProvider {
 		RoutingContext ctx = router.buildRoutingContext(cf,
 				lib, files, 
 				RouteCalculationMode.NORMAL);
+		if (lib == null) {
+			// native library doesn't keep search tree and doesn't use speed overlay
+			if (settings.USE_INCREMENTAL_RECALCULATION.get()) {
+				router.setUseIncrementalRecalculation(true);
+				ctx.reverseSearchTree = takeReverseSearchTree();
+			}
+			ctx.speedOverlay = getSpeedOverlay(params.ctx);
+		}
 		
 		RoutingContext complexCtx = null;
 		boolean complex = params.mode.isDerivedRoutingFrom(ApplicationMode.CAR) && !settings.DISABLE_COMPLEX_ROUTING.get()
@@ -709,6 +729,8 @@ public class RouteProvider {
 			complexCtx.calculationProgress = params.calculationProgress;
 			complexCtx.leftSideNavigation = params.leftSide;
 			complexCtx.previouslyCalculatedRoute = ctx.previouslyCalculatedRoute;
+			complexCtx.reverseSearchTree = ctx.reverseSearchTree;
+			complexCtx.speedOverlay = ctx.speedOverlay;
 		}
 
 		LatLon st = new LatLon(params.start.getLatitude(), params.start.getLongitude());
@@ -767,11 +789,51 @@ public class RouteProvider {
 		return cf;
 	}
 
+	private synchronized ForkJoinPool getAlternativesPool() {
+		if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+			return null;
+		}
+		if (alternativesPool == null) {
+			// workers are daemon threads and finish when pool is idle
+			alternativesPool = new ForkJoinPool(Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+		}
+		return alternativesPool;
+	}
+
+	/**
+	 * Speed overlay reloaded if file was changed after the previous calculation, null if there is no overlay
+	 * (empty overlay is not set to the context, so contraction hierarchy could be used)
+	 */
+	private synchronized RouteSpeedOverlay getSpeedOverlay(OsmandApplication app) {
+		if (speedOverlay == null) {
+			speedOverlay = new RouteSpeedOverlay(app.getAppPath(IndexConstants.ROUTING_PROFILES_DIR + SPEED_OVERLAY_FILE));
+		}
+		try {
+			speedOverlay.reloadIfModified();
+		} catch (IOException e) {
+			// previous snapshot is kept
+			log.error("Speed overlay is not loaded", e);
+		}
+		return speedOverlay.getSnapshot().isEmpty() ? null : speedOverlay;
+	}
+
+	private synchronized ReverseSearchTree takeReverseSearchTree() {
+		ReverseSearchTree tree = reverseSearchTree;
+		// tree is modified by calculation, it is returned back after successful one
+		reverseSearchTree = null;
+		return tree;
+	}
+
+	private synchronized void putReverseSearchTree(ReverseSearchTree tree) {
+		reverseSearchTree = tree;
+	}
+
 	private RouteCalculationResult calcOfflineRouteImpl(final RouteCalculationParams params,
 			RoutePlannerFrontEnd router, RoutingContext ctx, RoutingContext complexCtx, LatLon st, LatLon en,
 			List<LatLon> inters, PrecalculatedRouteDirection precalculated) throws IOException {
 		try {
 			List<RouteSegmentResult> result ;
+			List<List<RouteSegmentResult>> alternatives = null;
 			if(complexCtx != null) {
 				try {
 					result = router.searchRoute(complexCtx, st, en, inters, precalculated);
@@ -786,6 +848,9 @@ public class RouteProvider {
 					});
 					result = router.searchRoute(ctx, st, en, inters);
 				}
+			} else if (params.calculateAlternatives && inters.isEmpty() && getAlternativesPool() != null) {
+				alternatives = router.searchRouteAlternatives(ctx, st, en, getAlternativesPool());
+				result = alternatives == null ? null : alternatives.get(0);
 			} else {
 				result = router.searchRoute(ctx, st, en, inters);
 			}
@@ -809,9 +874,21 @@ public class RouteProvider {
 				// something really strange better to see that message on the scren
 				return emptyResult();
 			} else {
+				if (ctx.reverseSearchTree != null) {
+					putReverseSearchTree(ctx.reverseSearchTree);
+				}
 				RouteCalculationResult res = new RouteCalculationResult(result, params.start, params.end,
 						params.intermediates, params.ctx, params.leftSide, ctx, params.gpxRoute  == null? null: params.gpxRoute.wpt,
 								params.mode);
+				if (alternatives != null && alternatives.size() > 1) {
+					List<RouteCalculationResult> alternativeRoutes = new ArrayList<RouteCalculationResult>();
+					for (List<RouteSegmentResult> alt : alternatives.subList(1, alternatives.size())) {
+						alternativeRoutes.add(new RouteCalculationResult(alt, params.start, params.end,
+								params.intermediates, params.ctx, params.leftSide, ctx,
+								params.gpxRoute == null ? null : params.gpxRoute.wpt, params.mode));
+					}
+					res.setAlternativeRoutes(alternativeRoutes);
+				}
 				return res;
 			}
 		} catch (RuntimeException e) {
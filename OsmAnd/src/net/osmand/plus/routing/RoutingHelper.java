@@ -1149,6 +1149,9 @@ public class RoutingHelper {
 			}
 			params.leftSide = settings.DRIVING_REGION.get().leftHandDriving;
 			params.fast = settings.FAST_ROUTE_MODE.getModeValue(mode);
+			// alternatives are offered for the new route, not for recalculation on the way
+			params.calculateAlternatives = params.previousToRecalculate == null
+					&& settings.CALCULATE_ALTERNATIVE_ROUTES.getModeValue(mode);
 			params.mode = mode;
 			params.ctx = app;
 			boolean updateProgress = false;
@@ -5,11 +5,13 @@ import android.util.Pair;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import net.osmand.IndexConstants;
 import net.osmand.Location;
 import net.osmand.NativeLibrary;
 import net.osmand.PlatformUtil;
 import net.osmand.ValueHolder;
 import net.osmand.binary.BinaryMapIndexReader;
+import net.osmand.binary.CachedTransportStopsIndexes;
 import net.osmand.data.LatLon;
 import net.osmand.data.QuadRect;
 import net.osmand.osm.edit.Node;
@@ -45,6 +47,9 @@ import java.util.Map;
 import java.util.Queue;
 import java.util.TreeMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import static net.osmand.plus.notifications.OsmandNotification.NotificationType.NAVIGATION;
 
@@ -72,6 +77,9 @@ public class TransportRoutingHelper {
 	private boolean waitingNextJob;
 
 	private TransportRouteCalculationProgressCallback progressRoute;
+	// kept open between calculations, missing caches are built by single background thread
+	private CachedTransportStopsIndexes transportStopsIndexes;
+	private ThreadPoolExecutor transportStopsExecutor;
 
 
 	public TransportRoutingHelper(@NonNull OsmandApplication app) {
@@ -387,6 +395,29 @@ public class TransportRoutingHelper {
 		void finish();
 	}
 
+	private synchronized CachedTransportStopsIndexes getTransportStopsIndexes() {
+		if (transportStopsIndexes == null) {
+			transportStopsExecutor = new ThreadPoolExecutor(0, 1, 60, TimeUnit.SECONDS,
+					new LinkedBlockingQueue<Runnable>());
+			transportStopsIndexes = new CachedTransportStopsIndexes(app.getAppPath(IndexConstants.TRANSPORT_CACHE_DIR),
+					transportStopsExecutor);
+		}
+		return transportStopsIndexes;
+	}
+
+	/**
+	 * Closes transport stops caches (caches used by running calculation are closed when it finishes)
+	 * and stops the thread building them after scheduled builds
+	 */
+	public synchronized void closeTransportStopsIndexes() {
+		if (transportStopsIndexes != null) {
+			transportStopsIndexes.close();
+			transportStopsExecutor.shutdown();
+			transportStopsIndexes = null;
+			transportStopsExecutor = null;
+		}
+	}
+
 	public static class TransportRouteCalculationParams {
 
 		public LatLon start;
@@ -504,7 +535,12 @@ public class TransportRoutingHelper {
 				List<TransportRouteResult> res = TransportRoutePlanner.convertToTransportRoutingResult(nativeRes, cfg);
 				return res;
 			} else {
-				return planner.buildRoute(ctx, params.start, params.end);
+				ctx.setCachedStopsIndexes(getTransportStopsIndexes());
+				try {
+					return planner.buildRoute(ctx, params.start, params.end);
+				} finally {
+					ctx.releaseCachedStopsIndexes();
+				}
 			}
 		}
 